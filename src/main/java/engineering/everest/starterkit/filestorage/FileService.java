@@ -3,31 +3,48 @@ package engineering.everest.starterkit.filestorage;
 import engineering.everest.starterkit.filestorage.filestores.EphemeralDeduplicatingFileStore;
 import engineering.everest.starterkit.filestorage.filestores.PermanentDeduplicatingFileStore;
 import engineering.everest.starterkit.filestorage.persistence.FileMappingRepository;
+import engineering.everest.starterkit.filestorage.persistence.FileMappingStore;
+import engineering.everest.starterkit.filestorage.persistence.JpaFileMappingStore;
 import engineering.everest.starterkit.filestorage.persistence.PersistableFileMapping;
+import org.reactivestreams.Publisher;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferFactory;
+import org.springframework.core.io.buffer.DefaultDataBufferFactory;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
 
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.time.Duration;
 import java.util.Set;
 import java.util.UUID;
 
 import static engineering.everest.starterkit.filestorage.filestores.FileStoreType.PERMANENT;
 import static java.nio.file.Files.createTempFile;
-import static java.util.stream.Collectors.toList;
+import static reactor.core.scheduler.Schedulers.boundedElastic;
 
 /**
  * Service layer for working with the permanent and ephemeral file stores.
  */
 public class FileService {
 
-    private final FileMappingRepository fileMappingRepository;
+    private static final int DEFAULT_STREAMING_BUFFER_SIZE = 64 * 1024;
+
+    private final FileMappingStore fileMappingStore;
     private final PermanentDeduplicatingFileStore permanentDeduplicatingFileStore;
     private final EphemeralDeduplicatingFileStore ephemeralDeduplicatingFileStore;
 
     public FileService(FileMappingRepository fileMappingRepository,
                        PermanentDeduplicatingFileStore permanentDeduplicatingFileStore,
                        EphemeralDeduplicatingFileStore ephemeralDeduplicatingFileStore) {
-        this.fileMappingRepository = fileMappingRepository;
+        this(new JpaFileMappingStore(fileMappingRepository), permanentDeduplicatingFileStore, ephemeralDeduplicatingFileStore);
+    }
+
+    public FileService(FileMappingStore fileMappingStore,
+                       PermanentDeduplicatingFileStore permanentDeduplicatingFileStore,
+                       EphemeralDeduplicatingFileStore ephemeralDeduplicatingFileStore) {
+        this.fileMappingStore = fileMappingStore;
         this.permanentDeduplicatingFileStore = permanentDeduplicatingFileStore;
         this.ephemeralDeduplicatingFileStore = ephemeralDeduplicatingFileStore;
     }
@@ -72,6 +89,18 @@ public class FileService {
             .getFileId();
     }
 
+    /**
+     * Reactive upload of a named file to the permanent file store. No thread is held while waiting for content to arrive.
+     *
+     * @param  originalFilename to record for the file
+     * @param  content          to upload, such as the content of a WebFlux multipart file part
+     * @return                  a mono of the UUID assigned to this file.
+     */
+    public Mono<UUID> transferToPermanentStore(String originalFilename, Publisher<DataBuffer> content) {
+        return permanentDeduplicatingFileStore.uploadAsFlux(originalFilename, content)
+            .map(persistedFile -> persistedFile.getPersistedFileIdentifier().getFileId());
+    }
+
     /**
      * Streaming upload of an unnamed file to the ephemeral file store. File length is derived from reading the input stream.
      *
@@ -109,6 +138,61 @@ public class FileService {
         return ephemeralDeduplicatingFileStore.uploadAsStream(filename, fileSize, inputStream).getPersistedFileIdentifier().getFileId();
     }
 
+    /**
+     * Reactive upload of a named file to the ephemeral file store. No thread is held while waiting for content to arrive.
+     *
+     * @param  filename to record for the file
+     * @param  content  to upload, such as the content of a WebFlux multipart file part
+     * @return          a mono of the UUID assigned to this file.
+     */
+    public Mono<UUID> transferToEphemeralStore(String filename, Publisher<DataBuffer> content) {
+        return ephemeralDeduplicatingFileStore.uploadAsFlux(filename, content)
+            .map(persistedFile -> persistedFile.getPersistedFileIdentifier().getFileId());
+    }
+
+    /**
+     * Streaming upload of a named file to the ephemeral file store that expires after a time to live. Expired files can no longer be
+     * read and are marked for deletion by {@link #markExpiredEphemeralFilesForDeletion(int)}.
+     *
+     * @param  filename    to record for the file
+     * @param  inputStream to read from. Must be closed by the caller.
+     * @param  timeToLive  after which the file expires
+     * @return             UUID assigned to this file.
+     * @throws IOException if the file could not be persisted
+     */
+    public UUID transferToEphemeralStore(String filename, InputStream inputStream, Duration timeToLive) throws IOException {
+        return ephemeralDeduplicatingFileStore.uploadAsStream(filename, inputStream, timeToLive).getPersistedFileIdentifier().getFileId();
+    }
+
+    /**
+     * Streaming upload of a named file of known size to the ephemeral file store that expires after a time to live.
+     *
+     * @param  filename    to record for the file
+     * @param  fileSize    size of the file
+     * @param  inputStream to read from. Must be closed by the caller.
+     * @param  timeToLive  after which the file expires
+     * @return             UUID assigned to this file.
+     * @throws IOException if the file could not be persisted
+     */
+    public UUID transferToEphemeralStore(String filename, long fileSize, InputStream inputStream, Duration timeToLive)
+        throws IOException {
+        return ephemeralDeduplicatingFileStore.uploadAsStream(filename, fileSize, inputStream, timeToLive).getPersistedFileIdentifier()
+            .getFileId();
+    }
+
+    /**
+     * Reactive upload of a named file to the ephemeral file store that expires after a time to live.
+     *
+     * @param  filename   to record for the file
+     * @param  content    to upload, such as the content of a WebFlux multipart file part
+     * @param  timeToLive after which the file expires
+     * @return            a mono of the UUID assigned to this file.
+     */
+    public Mono<UUID> transferToEphemeralStore(String filename, Publisher<DataBuffer> content, Duration timeToLive) {
+        return ephemeralDeduplicatingFileStore.uploadAsFlux(filename, content, timeToLive)
+            .map(persistedFile -> persistedFile.getPersistedFileIdentifier().getFileId());
+    }
+
     /**
      * Size of a file
      *
@@ -116,7 +200,7 @@ public class FileService {
      * @return        size in bytes
      */
     public long fileSizeInBytes(UUID fileId) {
-        return fileMappingRepository.findById(fileId).orElseThrow().getFileSizeBytes();
+        return fileMappingStore.findById(fileId).orElseThrow().getFileSizeBytes();
     }
 
     /**
@@ -139,7 +223,8 @@ public class FileService {
      * @throws IOException    if the file cannot be read
      */
     public InputStreamOfKnownLength stream(UUID fileId, long startingOffset) throws IOException {
-        return stream(fileId, startingOffset, fileSizeInBytes(fileId) - 1);
+        var persistableFileMapping = fileMappingStore.findById(fileId).orElseThrow();
+        return stream(persistableFileMapping, startingOffset, persistableFileMapping.getFileSizeBytes() - 1);
     }
 
     /**
@@ -152,11 +237,50 @@ public class FileService {
      * @throws IOException    if the file cannot be read
      */
     public InputStreamOfKnownLength stream(UUID fileId, long startingOffset, long endingOffset) throws IOException {
-        var persistableFileMapping = fileMappingRepository.findById(fileId).orElseThrow();
-        var fileStore = persistableFileMapping.getFileStoreType().equals(PERMANENT)
-            ? permanentDeduplicatingFileStore
-            : ephemeralDeduplicatingFileStore;
-        return fileStore.downloadAsStream(persistableFileMapping, startingOffset, endingOffset);
+        return stream(fileMappingStore.findById(fileId).orElseThrow(), startingOffset, endingOffset);
+    }
+
+    /**
+     * Reactive streaming download of file. Buffers are allocated from a shared, unpooled factory.
+     *
+     * @param  fileId is the UUID originally assigned to the file.
+     * @return        a flux of data buffers. Subscribers are responsible for releasing each buffer.
+     */
+    public Flux<DataBuffer> streamAsFlux(UUID fileId) {
+        return streamAsFlux(fileId, DefaultDataBufferFactory.sharedInstance);
+    }
+
+    /**
+     * Reactive streaming download of file.
+     *
+     * @param  fileId            is the UUID originally assigned to the file.
+     * @param  dataBufferFactory used to allocate buffers. WebFlux applications should pass the (pooled) factory of the server response.
+     * @return                   a flux of data buffers. Subscribers are responsible for releasing each buffer.
+     */
+    public Flux<DataBuffer> streamAsFlux(UUID fileId, DataBufferFactory dataBufferFactory) {
+        return findFileMapping(fileId)
+            .flatMapMany(persistableFileMapping -> streamAsFlux(persistableFileMapping, 0L,
+                persistableFileMapping.getFileSizeBytes() - 1, dataBufferFactory, DEFAULT_STREAMING_BUFFER_SIZE));
+    }
+
+    /**
+     * Reactive streaming download of part of a file.
+     *
+     * @param  fileId            is the UUID originally assigned to the file.
+     * @param  startingOffset    binary offset into the file from which to start streaming from
+     * @param  endingOffset      binary offset into the file to stream to (inclusive)
+     * @param  dataBufferFactory used to allocate buffers. WebFlux applications should pass the (pooled) factory of the server response.
+     * @param  bufferSize        maximum size in bytes of each emitted buffer
+     * @return                   a flux of data buffers. Subscribers are responsible for releasing each buffer.
+     */
+    public Flux<DataBuffer> streamAsFlux(UUID fileId,
+                                         long startingOffset,
+                                         long endingOffset,
+                                         DataBufferFactory dataBufferFactory,
+                                         int bufferSize) {
+        return findFileMapping(fileId)
+            .flatMapMany(persistableFileMapping -> streamAsFlux(persistableFileMapping, startingOffset, endingOffset,
+                dataBufferFactory, bufferSize));
     }
 
     /**
@@ -166,10 +290,7 @@ public class FileService {
      * @throws IllegalArgumentException if any file is not ephemeral
      */
     public void markEphemeralFilesForDeletion(Set<UUID> fileIds) {
-        var persistedFileIdentifiers = fileMappingRepository.findAllById(fileIds).stream()
-            .map(PersistableFileMapping::getPersistedFileIdentifier)
-            .collect(toList());
-        ephemeralDeduplicatingFileStore.markFilesForDeletion(persistedFileIdentifiers);
+        ephemeralDeduplicatingFileStore.markFilesForDeletionById(fileIds);
     }
 
     /**
@@ -179,7 +300,7 @@ public class FileService {
      * @throws IllegalArgumentException if the file is not ephemeral
      */
     public void markEphemeralFileForDeletion(UUID fileId) {
-        fileMappingRepository.findById(fileId).ifPresent(persistableFileMapping -> ephemeralDeduplicatingFileStore
+        fileMappingStore.findById(fileId).ifPresent(persistableFileMapping -> ephemeralDeduplicatingFileStore
             .markFileForDeletion(persistableFileMapping.getPersistedFileIdentifier()));
     }
 
@@ -191,11 +312,46 @@ public class FileService {
     }
 
     /**
-     * Delete ephemeral files in a batch
+     * Mark a batch of expired ephemeral files for deletion. The background collector does this before each batch it deletes.
+     *
+     * @param  batchSize is the maximum number of files to mark
+     * @return           number of files marked
+     */
+    public int markExpiredEphemeralFilesForDeletion(int batchSize) {
+        return ephemeralDeduplicatingFileStore.markExpiredFilesForDeletion(batchSize);
+    }
+
+    /**
+     * Delete ephemeral files in a batch. Concurrent calls may select the same files, so schedule this on a single thread or enable the
+     * background collector instead.
      *
      * @param batchSize is the number of files to delete
      */
     public void deleteEphemeralFileBatch(int batchSize) {
         ephemeralDeduplicatingFileStore.deleteBatchOfFilesMarkedForDeletion(batchSize);
     }
+
+    private Mono<PersistableFileMapping> findFileMapping(UUID fileId) {
+        return Mono.fromCallable(() -> fileMappingStore.findById(fileId).orElseThrow())
+            .subscribeOn(boundedElastic());
+    }
+
+    private InputStreamOfKnownLength stream(PersistableFileMapping persistableFileMapping, long startingOffset, long endingOffset)
+        throws IOException {
+        var fileStore = persistableFileMapping.getFileStoreType().equals(PERMANENT)
+            ? permanentDeduplicatingFileStore
+            : ephemeralDeduplicatingFileStore;
+        return fileStore.downloadAsStream(persistableFileMapping, startingOffset, endingOffset);
+    }
+
+    private Flux<DataBuffer> streamAsFlux(PersistableFileMapping persistableFileMapping,
+                                          long startingOffset,
+                                          long endingOffset,
+                                          DataBufferFactory dataBufferFactory,
+                                          int bufferSize) {
+        var fileStore = persistableFileMapping.getFileStoreType().equals(PERMANENT)
+            ? permanentDeduplicatingFileStore
+            : ephemeralDeduplicatingFileStore;
+        return fileStore.downloadAsFlux(persistableFileMapping, startingOffset, endingOffset, dataBufferFactory, bufferSize);
+    }
 }
@@ -0,0 +1,307 @@
+package engineering.everest.starterkit.filestorage.backing;
+
+import com.google.common.collect.Lists;
+import engineering.everest.starterkit.filestorage.InputStreamOfKnownLength;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferFactory;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import software.amazon.awssdk.core.async.AsyncRequestBody;
+import software.amazon.awssdk.core.async.AsyncResponseTransformer;
+import software.amazon.awssdk.services.s3.S3AsyncClient;
+import software.amazon.awssdk.services.s3.model.Delete;
+import software.amazon.awssdk.services.s3.model.DeleteObjectRequest;
+import software.amazon.awssdk.services.s3.model.DeleteObjectsRequest;
+import software.amazon.awssdk.services.s3.model.GetObjectRequest;
+import software.amazon.awssdk.services.s3.model.HeadObjectRequest;
+import software.amazon.awssdk.services.s3.model.ListObjectsV2Request;
+import software.amazon.awssdk.services.s3.model.NoSuchKeyException;
+import software.amazon.awssdk.services.s3.model.ObjectIdentifier;
+import software.amazon.awssdk.services.s3.model.PutObjectRequest;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.stream.Stream;
+
+import static engineering.everest.starterkit.filestorage.backing.AwsS3BackingStore.MAX_KEYS_PER_DELETE;
+import static engineering.everest.starterkit.filestorage.backing.BackingStorageType.AWS_S3;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+import static java.util.concurrent.Executors.newFixedThreadPool;
+import static java.util.stream.Collectors.groupingBy;
+import static java.util.stream.Collectors.mapping;
+import static java.util.stream.Collectors.toList;
+import static reactor.core.scheduler.Schedulers.boundedElastic;
+
+/**
+ * An S3 file store built on the non-blocking AWS SDK v2 {@link S3AsyncClient}. When the client is CRT based, large transfers are split
+ * into parts that are moved in parallel.
+ * <p>
+ * File identifiers use the same {@code s3://bucket/key} form as {@link AwsS3BackingStore}, so the two can be swapped over existing data.
+ * The {@code *Async} methods return without holding a thread for the duration of the transfer; the {@link BackingStore} methods wait on
+ * them. Reading from a caller supplied {@link InputStream} is inherently blocking and is done on a bounded pool of upload threads.
+ * Uploads of unknown length, which S3 cannot accept as a single request, are first spooled to a temporary file.
+ * Deletions are sent as concurrent multi-object requests of up to 1000 keys each.
+ */
+public class AwsS3AsyncBackingStore implements BackingStore, AutoCloseable {
+
+    private static final int LISTING_PREFETCH = 1000;
+
+    private final S3AsyncClient s3AsyncClient;
+    private final List<String> bucketNames;
+    private final S3KeyStrategy keyStrategy;
+    private final ExecutorService uploadExecutor;
+
+    public AwsS3AsyncBackingStore(S3AsyncClient s3AsyncClient, String bucketName, int uploadThreads) {
+        this(s3AsyncClient, List.of(bucketName), S3KeyStrategy.LEGACY, uploadThreads);
+    }
+
+    public AwsS3AsyncBackingStore(S3AsyncClient s3AsyncClient, List<String> bucketNames, S3KeyStrategy keyStrategy, int uploadThreads) {
+        if (bucketNames.isEmpty()) {
+            throw new IllegalArgumentException("At least one bucket is required");
+        }
+        this.s3AsyncClient = s3AsyncClient;
+        this.bucketNames = List.copyOf(bucketNames);
+        this.keyStrategy = keyStrategy;
+        this.uploadExecutor = newFixedThreadPool(uploadThreads);
+    }
+
+    @Override
+    public String uploadStream(InputStream inputStream, String fileName) {
+        return await(uploadStreamAsync(inputStream, fileName));
+    }
+
+    @Override
+    public String uploadStream(InputStream inputStream, String fileName, long fileSize) {
+        return await(uploadStreamAsync(inputStream, fileName, fileSize));
+    }
+
+    public CompletableFuture<String> uploadStreamAsync(InputStream inputStream, String fileName) {
+        return CompletableFuture.supplyAsync(() -> spoolToTemporaryFile(inputStream), uploadExecutor)
+            .thenCompose(spooledFile -> putObject(fileName, AsyncRequestBody.fromFile(spooledFile), null)
+                .whenComplete((fileIdentifier, error) -> deleteQuietly(spooledFile)))
+            .exceptionally(error -> {
+                throw uploadFailure(fileName, error);
+            });
+    }
+
+    public CompletableFuture<String> uploadStreamAsync(InputStream inputStream, String fileName, long fileSize) {
+        return putObject(fileName, AsyncRequestBody.fromInputStream(inputStream, fileSize, uploadExecutor), fileSize)
+            .exceptionally(error -> {
+                throw uploadFailure(fileName, error);
+            });
+    }
+
+    @Override
+    public boolean supportsContentAddressing() {
+        return true;
+    }
+
+    @Override
+    public ContentAddressedUpload uploadContentAddressed(InputStream inputStream, String sha256, long fileSize) {
+        return await(uploadContentAddressedAsync(inputStream, sha256, fileSize));
+    }
+
+    public CompletableFuture<ContentAddressedUpload> uploadContentAddressedAsync(InputStream inputStream, String sha256, long fileSize) {
+        var bucketName = keyStrategy.bucketFor(sha256, bucketNames);
+        var fileIdentifier = S3ObjectIdentifier.format(bucketName, sha256);
+        return s3AsyncClient.headObject(HeadObjectRequest.builder().bucket(bucketName).key(sha256).build())
+            .thenApply(response -> CompletableFuture.completedFuture(new ContentAddressedUpload(fileIdentifier, true)))
+            .exceptionally(error -> {
+                if (!(unwrap(error) instanceof NoSuchKeyException)) {
+                    throw new CompletionException(unwrap(error));
+                }
+                var putObjectRequest = PutObjectRequest.builder().bucket(bucketName).key(sha256).contentLength(fileSize).build();
+                return s3AsyncClient.putObject(putObjectRequest, AsyncRequestBody.fromInputStream(inputStream, fileSize, uploadExecutor))
+                    .thenApply(response -> new ContentAddressedUpload(fileIdentifier, false));
+            })
+            .thenCompose(upload -> upload)
+            .exceptionally(error -> {
+                throw uploadFailure(sha256, error);
+            });
+    }
+
+    @Override
+    public Mono<String> uploadFlux(Flux<DataBuffer> content, String fileName) {
+        return Mono.fromCallable(() -> Files.createTempFile("s3-upload-", ".tmp"))
+            .subscribeOn(boundedElastic())
+            .flatMap(spooledFile -> DataBufferUtils.write(content, spooledFile)
+                .then(Mono.fromFuture(() -> putObject(fileName, AsyncRequestBody.fromFile(spooledFile), null)))
+                .doFinally(signal -> deleteQuietly(spooledFile)))
+            .onErrorMap(error -> !(error instanceof BackingFileStoreException), error -> uploadFailure(fileName, error));
+    }
+
+    @Override
+    public void delete(String fileIdentifier) {
+        await(deleteAsync(fileIdentifier));
+    }
+
+    public CompletableFuture<Void> deleteAsync(String fileIdentifier) {
+        var s3ObjectIdentifier = S3ObjectIdentifier.parse(fileIdentifier);
+        return s3AsyncClient.deleteObject(DeleteObjectRequest.builder()
+            .bucket(s3ObjectIdentifier.getBucket())
+            .key(s3ObjectIdentifier.getKey())
+            .build())
+            .thenApply(response -> null);
+    }
+
+    @Override
+    public void deleteFiles(Set<String> fileIdentifiers) {
+        var keysByBucket = fileIdentifiers.stream()
+            .map(S3ObjectIdentifier::parse)
+            .collect(groupingBy(S3ObjectIdentifier::getBucket,
+                mapping(identifier -> ObjectIdentifier.builder().key(identifier.getKey()).build(), toList())));
+        var deletions = keysByBucket.entrySet().stream()
+            .flatMap(bucketAndKeys -> Lists.partition(bucketAndKeys.getValue(), MAX_KEYS_PER_DELETE).stream()
+                .map(batch -> s3AsyncClient.deleteObjects(DeleteObjectsRequest.builder()
+                    .bucket(bucketAndKeys.getKey())
+                    .delete(Delete.builder().objects(batch).quiet(false).build())
+                    .build())))
+            .toArray(CompletableFuture[]::new);
+        await(CompletableFuture.allOf(deletions));
+    }
+
+    @Override
+    public InputStreamOfKnownLength downloadAsStream(String fileIdentifier) {
+        return await(downloadAsStreamAsync(fileIdentifier));
+    }
+
+    @Override
+    public InputStreamOfKnownLength downloadAsStream(String fileIdentifier, long startingOffset, long endingOffset) {
+        return await(downloadAsStreamAsync(fileIdentifier, startingOffset, endingOffset));
+    }
+
+    public CompletableFuture<InputStreamOfKnownLength> downloadAsStreamAsync(String fileIdentifier) {
+        return getObjectAsStream(fileIdentifier, getObjectRequest(fileIdentifier).build());
+    }
+
+    public CompletableFuture<InputStreamOfKnownLength> downloadAsStreamAsync(String fileIdentifier,
+                                                                             long startingOffset,
+                                                                             long endingOffset) {
+        return getObjectAsStream(fileIdentifier, getObjectRequest(fileIdentifier).range(rangeHeader(startingOffset, endingOffset)).build());
+    }
+
+    @Override
+    public Flux<DataBuffer> downloadAsFlux(String fileIdentifier,
+                                           long startingOffset,
+                                           long endingOffset,
+                                           DataBufferFactory dataBufferFactory,
+                                           int bufferSize) {
+        return Mono.fromFuture(() -> s3AsyncClient.getObject(
+            getObjectRequest(fileIdentifier).range(rangeHeader(startingOffset, endingOffset)).build(),
+            AsyncResponseTransformer.toPublisher()))
+            .flatMapMany(Flux::from)
+            .map(dataBufferFactory::wrap)
+            .onErrorMap(NoSuchKeyException.class, e -> retrievalFailure(fileIdentifier, e));
+    }
+
+    @Override
+    public BackingStorageType backingStorageType() {
+        return AWS_S3;
+    }
+
+    @Override
+    public boolean supportsListing() {
+        return true;
+    }
+
+    @Override
+    public Stream<BackingFile> listFiles() {
+        return Flux.fromIterable(S3ObjectIdentifier.inFileIdentifierOrder(bucketNames))
+            .concatMap(bucketName -> Flux.from(s3AsyncClient.listObjectsV2Paginator(
+                ListObjectsV2Request.builder().bucket(bucketName).build()).contents())
+                .map(object -> new BackingFile(S3ObjectIdentifier.format(bucketName, object.key()), object.lastModified())))
+            .toStream(LISTING_PREFETCH);
+    }
+
+    @Override
+    public void close() {
+        uploadExecutor.shutdown();
+    }
+
+    private CompletableFuture<String> putObject(String fileName, AsyncRequestBody requestBody, Long contentLength) {
+        var key = keyStrategy.keyFor(fileName);
+        var bucketName = keyStrategy.bucketFor(key, bucketNames);
+        var putObjectRequest = PutObjectRequest.builder()
+            .bucket(bucketName)
+            .key(key)
+            .contentLength(contentLength)
+            .build();
+        return s3AsyncClient.putObject(putObjectRequest, requestBody)
+            .thenApply(response -> S3ObjectIdentifier.format(bucketName, key));
+    }
+
+    private CompletableFuture<InputStreamOfKnownLength> getObjectAsStream(String fileIdentifier, GetObjectRequest getObjectRequest) {
+        return s3AsyncClient.getObject(getObjectRequest, AsyncResponseTransformer.toBlockingInputStream())
+            .<InputStreamOfKnownLength>thenApply(
+                responseStream -> new InputStreamOfKnownLength(responseStream, responseStream.response().contentLength()))
+            .exceptionally(error -> {
+                throw unwrap(error) instanceof NoSuchKeyException
+                    ? retrievalFailure(fileIdentifier, unwrap(error))
+                    : new CompletionException(unwrap(error));
+            });
+    }
+
+    private static GetObjectRequest.Builder getObjectRequest(String fileIdentifier) {
+        var s3ObjectIdentifier = S3ObjectIdentifier.parse(fileIdentifier);
+        return GetObjectRequest.builder()
+            .bucket(s3ObjectIdentifier.getBucket())
+            .key(s3ObjectIdentifier.getKey());
+    }
+
+    private static String rangeHeader(long startingOffset, long endingOffset) {
+        return String.format("bytes=%d-%d", startingOffset, endingOffset);
+    }
+
+    private static Path spoolToTemporaryFile(InputStream inputStream) {
+        try {
+            var spooledFile = Files.createTempFile("s3-upload-", ".tmp");
+            Files.copy(inputStream, spooledFile, REPLACE_EXISTING);
+            return spooledFile;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static void deleteQuietly(Path spooledFile) {
+        try {
+            Files.deleteIfExists(spooledFile);
+        } catch (IOException ignored) {
+            // Left for the operating system to clear out of the temporary directory
+        }
+    }
+
+    private static BackingFileStoreException uploadFailure(String fileName, Throwable error) {
+        var cause = unwrap(error);
+        return cause instanceof BackingFileStoreException
+            ? (BackingFileStoreException) cause
+            : new BackingFileStoreException("Unable to upload file " + fileName, cause);
+    }
+
+    private static BackingFileStoreException retrievalFailure(String fileIdentifier, Throwable cause) {
+        return new BackingFileStoreException(String.format("Unable to retrieve file: %s", fileIdentifier), cause);
+    }
+
+    private static Throwable unwrap(Throwable error) {
+        return error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+    }
+
+    private static <T> T await(CompletableFuture<T> future) {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw e;
+        }
+    }
+}
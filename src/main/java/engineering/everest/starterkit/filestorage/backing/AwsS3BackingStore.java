@@ -5,24 +5,45 @@ import com.amazonaws.services.s3.AmazonS3URI;
 import com.amazonaws.services.s3.model.DeleteObjectsRequest;
 import com.amazonaws.services.s3.model.DeleteObjectsRequest.KeyVersion;
 import com.amazonaws.services.s3.model.GetObjectRequest;
+import com.amazonaws.services.s3.model.ListObjectsV2Request;
+import com.amazonaws.services.s3.model.ListObjectsV2Result;
 import com.amazonaws.services.s3.model.ObjectMetadata;
+import com.google.common.collect.AbstractIterator;
+import com.google.common.collect.Iterators;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Streams;
 import engineering.everest.starterkit.filestorage.InputStreamOfKnownLength;
 
 import java.io.InputStream;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Set;
+import java.util.stream.Stream;
 
 import static engineering.everest.starterkit.filestorage.backing.BackingStorageType.AWS_S3;
-import static java.util.UUID.randomUUID;
+import static java.util.stream.Collectors.groupingBy;
+import static java.util.stream.Collectors.mapping;
 import static java.util.stream.Collectors.toList;
 
 public class AwsS3BackingStore implements BackingStore {
 
+    static final int MAX_KEYS_PER_DELETE = 1000;
+
     private final AmazonS3 amazonS3;
-    private final String bucketName;
+    private final List<String> bucketNames;
+    private final S3KeyStrategy keyStrategy;
 
     public AwsS3BackingStore(AmazonS3 amazonS3, String bucketName) {
+        this(amazonS3, List.of(bucketName), S3KeyStrategy.LEGACY);
+    }
+
+    public AwsS3BackingStore(AmazonS3 amazonS3, List<String> bucketNames, S3KeyStrategy keyStrategy) {
+        if (bucketNames.isEmpty()) {
+            throw new IllegalArgumentException("At least one bucket is required");
+        }
         this.amazonS3 = amazonS3;
-        this.bucketName = bucketName;
+        this.bucketNames = List.copyOf(bucketNames);
+        this.keyStrategy = keyStrategy;
     }
 
     @Override
@@ -37,6 +58,23 @@ public class AwsS3BackingStore implements BackingStore {
         return streamToS3(inputStream, fileName, metadata);
     }
 
+    @Override
+    public boolean supportsContentAddressing() {
+        return true;
+    }
+
+    @Override
+    public ContentAddressedUpload uploadContentAddressed(InputStream inputStream, String sha256, long fileSize) {
+        var bucketName = keyStrategy.bucketFor(sha256, bucketNames);
+        var alreadyPresent = amazonS3.doesObjectExist(bucketName, sha256);
+        if (!alreadyPresent) {
+            var metadata = new ObjectMetadata();
+            metadata.setContentLength(fileSize);
+            amazonS3.putObject(bucketName, sha256, inputStream, metadata);
+        }
+        return new ContentAddressedUpload(String.format("s3://%s/%s", bucketName, sha256), alreadyPresent);
+    }
+
     @Override
     public void delete(String fileIdentifier) {
         var s3URI = new AmazonS3URI(fileIdentifier);
@@ -76,24 +114,56 @@ public class AwsS3BackingStore implements BackingStore {
 
     @Override
     public void deleteFiles(Set<String> fileIdentifiers) {
-        var keyVersions = fileIdentifiers.stream().map(fileIdentifier -> {
-            var s3URI = new AmazonS3URI(fileIdentifier);
-            return new KeyVersion(s3URI.getKey(), s3URI.getVersionId());
-        }).collect(toList());
-
-        var multiObjectDeleteRequest = new DeleteObjectsRequest(bucketName)
-            .withKeys(keyVersions)
-            .withQuiet(false);
-        amazonS3.deleteObjects(multiObjectDeleteRequest);
+        var keyVersionsByBucket = fileIdentifiers.stream()
+            .map(AmazonS3URI::new)
+            .collect(groupingBy(AmazonS3URI::getBucket, mapping(s3URI -> new KeyVersion(s3URI.getKey(), s3URI.getVersionId()), toList())));
+
+        keyVersionsByBucket.forEach((bucket, keyVersions) -> Lists.partition(keyVersions, MAX_KEYS_PER_DELETE).forEach(batch -> {
+            var multiObjectDeleteRequest = new DeleteObjectsRequest(bucket)
+                .withKeys(batch)
+                .withQuiet(false);
+            amazonS3.deleteObjects(multiObjectDeleteRequest);
+        }));
     }
 
-    private String streamToS3(InputStream inputStream, String fileName, ObjectMetadata o) {
-        var uniqueS3Filename = ensureFilenameIsUniqueForS3(fileName);
-        amazonS3.putObject(bucketName, uniqueS3Filename, inputStream, o);
-        return String.format("s3://%s/%s", bucketName, uniqueS3Filename);
+    @Override
+    public boolean supportsListing() {
+        return true;
     }
 
-    private String ensureFilenameIsUniqueForS3(String filename) {
-        return String.format("%s-%s", filename, randomUUID());
+    @Override
+    public Stream<BackingFile> listFiles() {
+        var buckets = S3ObjectIdentifier.inFileIdentifierOrder(bucketNames).iterator();
+        return Streams.stream(Iterators.concat(Iterators.transform(buckets, this::listBucket)));
+    }
+
+    private Iterator<BackingFile> listBucket(String bucketName) {
+        var pages = new AbstractIterator<ListObjectsV2Result>() {
+            private String continuationToken;
+            private boolean lastPage;
+
+            @Override
+            protected ListObjectsV2Result computeNext() {
+                if (lastPage) {
+                    return endOfData();
+                }
+                var page = amazonS3.listObjectsV2(new ListObjectsV2Request()
+                    .withBucketName(bucketName)
+                    .withContinuationToken(continuationToken));
+                continuationToken = page.getNextContinuationToken();
+                lastPage = !page.isTruncated();
+                return page;
+            }
+        };
+        return Iterators.concat(Iterators.transform(pages, page -> page.getObjectSummaries().stream()
+            .map(summary -> new BackingFile(S3ObjectIdentifier.format(bucketName, summary.getKey()), summary.getLastModified().toInstant()))
+            .iterator()));
+    }
+
+    private String streamToS3(InputStream inputStream, String fileName, ObjectMetadata o) {
+        var key = keyStrategy.keyFor(fileName);
+        var bucketName = keyStrategy.bucketFor(key, bucketNames);
+        amazonS3.putObject(bucketName, key, inputStream, o);
+        return String.format("s3://%s/%s", bucketName, key);
     }
 }
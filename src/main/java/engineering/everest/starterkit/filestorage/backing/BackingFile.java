@@ -0,0 +1,17 @@
+package engineering.everest.starterkit.filestorage.backing;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+import java.time.Instant;
+
+/**
+ * A file held by a backing store, as returned by {@link BackingStore#listFiles()}.
+ */
+@Data
+@AllArgsConstructor
+public class BackingFile {
+
+    private final String fileIdentifier;
+    private final Instant lastModified;
+}
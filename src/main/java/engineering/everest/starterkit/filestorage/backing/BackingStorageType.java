@@ -3,5 +3,9 @@ package engineering.everest.starterkit.filestorage.backing;
 public enum BackingStorageType {
     IN_MEMORY,
     MONGO_GRID_FS,
-    AWS_S3
+    AWS_S3,
+    FILE_SYSTEM,
+    STRIPED_FILE_SYSTEM,
+    INLINE,
+    ROUTED
 }
@@ -2,10 +2,15 @@ package engineering.everest.starterkit.filestorage.backing;
 
 import engineering.everest.starterkit.filestorage.FileService;
 import engineering.everest.starterkit.filestorage.InputStreamOfKnownLength;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferFactory;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
 
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.Set;
+import java.util.stream.Stream;
 
 /**
  * Interface for the backing file store implementations.
@@ -42,6 +47,45 @@ public interface BackingStore {
      */
     String uploadStream(InputStream inputStream, String fileName, long fileSize);
 
+    /**
+     * @return true if the backing store implements {@link #uploadContentAddressed(InputStream, String, long)}
+     */
+    default boolean supportsContentAddressing() {
+        return false;
+    }
+
+    /**
+     * Stream a file to the file store under an identifier derived from the SHA-256 digest of its content.
+     * <p>
+     * If content with the same digest is already present, the input stream is not read and the identifier of the existing file is
+     * returned. Repeated uploads of the same content are therefore idempotent and are deduplicated without consulting the file mappings.
+     *
+     * @param  inputStream containing content to upload. Managed by the caller.
+     * @param  sha256      hex encoded SHA-256 digest of the content
+     * @param  fileSize    in bytes
+     * @return             the string identifying the file, the same for all uploads of the same content, and whether the content was
+     *                     already present
+     */
+    default ContentAddressedUpload uploadContentAddressed(InputStream inputStream, String sha256, long fileSize) {
+        throw new UnsupportedOperationException(getClass().getSimpleName() + " does not support content addressing");
+    }
+
+    /**
+     * Reactive upload of a file of unknown length, recording its name.
+     * <p>
+     * The default implementation pipes the content into {@link #uploadStream(InputStream, String)} on the bounded elastic scheduler.
+     * Backing stores with a non-blocking client should override this method to forward buffers without holding a thread.
+     * <p>
+     * Implementations are responsible for releasing the consumed data buffers.
+     *
+     * @param  content  to upload. Demand is only signalled as fast as the backing store can accept the content.
+     * @param  fileName to record. Typically the original filename a user would associate with the file contents.
+     * @return          a mono of the unique string identifying the file
+     */
+    default Mono<String> uploadFlux(Flux<DataBuffer> content, String fileName) {
+        return BlockingBackingStoreAdapter.uploadFlux(this, content, fileName);
+    }
+
     /**
      * Delete a file.
      *
@@ -80,6 +124,49 @@ public interface BackingStore {
      */
     InputStreamOfKnownLength downloadAsStream(String fileIdentifier, long startingOffset, long endingOffset) throws IOException;
 
+    /**
+     * Reactive streaming download starting from a given offset.
+     * <p>
+     * The default implementation adapts {@link #downloadAsStream(String, long, long)}, reading on the bounded elastic scheduler. Backing
+     * stores with a non-blocking client should override this method to stream without a thread hand-off.
+     * <p>
+     * Subscribers are responsible for releasing the emitted data buffers.
+     *
+     * @param  fileIdentifier    returned when a file was uploaded to the file store
+     * @param  startingOffset    binary offset into the file from which to start streaming from
+     * @param  endingOffset      binary offset into the file to stream to (inclusive)
+     * @param  dataBufferFactory used to allocate the emitted buffers. Typically the (pooled) factory of the server response.
+     * @param  bufferSize        maximum size in bytes of each emitted buffer
+     * @return                   a flux of data buffers honouring subscriber demand
+     */
+    default Flux<DataBuffer> downloadAsFlux(String fileIdentifier,
+                                            long startingOffset,
+                                            long endingOffset,
+                                            DataBufferFactory dataBufferFactory,
+                                            int bufferSize) {
+        return BlockingBackingStoreAdapter.downloadAsFlux(this, fileIdentifier, startingOffset, endingOffset, dataBufferFactory,
+            bufferSize);
+    }
+
+    /**
+     * @return true if the backing store implements {@link #listFiles()}
+     */
+    default boolean supportsListing() {
+        return false;
+    }
+
+    /**
+     * Lists every file held by the backing store in ascending {@link String} order of file identifier.
+     * <p>
+     * Files are fetched lazily, a page at a time, so that stores of any size can be listed in bounded memory. Callers are responsible
+     * for closing the returned stream.
+     *
+     * @return a stream of the files held by the backing store
+     */
+    default Stream<BackingFile> listFiles() {
+        throw new UnsupportedOperationException(getClass().getSimpleName() + " does not support listing");
+    }
+
     /**
      * @return the backing storage type of the filestore
      */
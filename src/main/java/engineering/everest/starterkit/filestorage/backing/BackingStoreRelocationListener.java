@@ -0,0 +1,17 @@
+package engineering.everest.starterkit.filestorage.backing;
+
+/**
+ * Notified when a backing store moves a file, giving it a new identifier. Implementations must update every persisted reference to the old
+ * identifier, and must be idempotent since a relocation may be reported again after a restart.
+ */
+@FunctionalInterface
+public interface BackingStoreRelocationListener {
+
+    /**
+     * @param  fromFileIdentifier the identifier previously returned for the file
+     * @param  toFileIdentifier   the identifier to use from now on
+     * @return                    whether any reference to the old identifier was found. A file may be relocated before the caller that
+     *                            uploaded it has persisted its identifier, in which case the relocation is reported again later.
+     */
+    boolean relocated(String fromFileIdentifier, String toFileIdentifier);
+}
@@ -0,0 +1,78 @@
+package engineering.everest.starterkit.filestorage.backing;
+
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferFactory;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static reactor.core.scheduler.Schedulers.boundedElastic;
+
+/**
+ * Adapts the blocking operations of a {@link BackingStore} to reactive streams. Blocking reads are confined to the bounded elastic
+ * scheduler so that they never run on an event loop thread.
+ * <p>
+ * This is the single place where backing stores without a non-blocking client are bridged to the reactive API.
+ */
+final class BlockingBackingStoreAdapter {
+
+    private static final int PIPE_BUFFER_SIZE = 256 * 1024;
+
+    private BlockingBackingStoreAdapter() {}
+
+    static Flux<DataBuffer> downloadAsFlux(BackingStore backingStore,
+                                           String fileIdentifier,
+                                           long startingOffset,
+                                           long endingOffset,
+                                           DataBufferFactory dataBufferFactory,
+                                           int bufferSize) {
+        return DataBufferUtils.readInputStream(
+            () -> backingStore.downloadAsStream(fileIdentifier, startingOffset, endingOffset).getInputStream(),
+            dataBufferFactory, bufferSize)
+            .subscribeOn(boundedElastic());
+    }
+
+    /**
+     * Pipes a reactive upload into the blocking {@link BackingStore#uploadStream(InputStream, String)}. Buffers are written to the pipe on
+     * a bounded elastic worker, so a full pipe applies backpressure upstream instead of blocking the emitting (event loop) thread. If the
+     * content publisher signals an error the truncated file is deleted and the upload fails.
+     */
+    static Mono<String> uploadFlux(BackingStore backingStore, Flux<DataBuffer> content, String fileName) {
+        return Mono.fromCallable(() -> {
+            var inputStream = new PipedInputStream(PIPE_BUFFER_SIZE);
+            var outputStream = new PipedOutputStream(inputStream);
+            var contentFailure = new AtomicReference<Throwable>();
+            var writer = DataBufferUtils.write(content.publishOn(boundedElastic()), outputStream)
+                .subscribe(DataBufferUtils::release, error -> {
+                    contentFailure.set(error);
+                    closeQuietly(outputStream);
+                }, () -> closeQuietly(outputStream));
+
+            try (inputStream) {
+                var fileIdentifier = backingStore.uploadStream(inputStream, fileName);
+                if (contentFailure.get() != null) {
+                    backingStore.delete(fileIdentifier);
+                    throw new BackingFileStoreException("Unable to upload file " + fileName, contentFailure.get());
+                }
+                return fileIdentifier;
+            } finally {
+                writer.dispose();
+            }
+        }).subscribeOn(boundedElastic());
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        try {
+            closeable.close();
+        } catch (IOException ignored) {
+            // Nothing further can be done; the other end of the pipe observes the closure
+        }
+    }
+}
@@ -0,0 +1,70 @@
+package engineering.everest.starterkit.filestorage.backing;
+
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.List;
+
+import static java.lang.Math.min;
+
+/**
+ * An input stream reading through a sequence of byte buffers without copying them into an intermediate array. The buffers are consumed;
+ * callers should pass duplicates or slices of any buffer that is shared.
+ */
+class ByteBufferSequenceInputStream extends InputStream {
+
+    private final ArrayDeque<ByteBuffer> buffers;
+
+    ByteBufferSequenceInputStream(List<ByteBuffer> buffers) {
+        super();
+        this.buffers = new ArrayDeque<>(buffers);
+    }
+
+    @Override
+    public int read() {
+        var buffer = nextReadableBuffer();
+        return buffer == null ? -1 : buffer.get() & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) {
+        if (len == 0) {
+            return 0;
+        }
+        var buffer = nextReadableBuffer();
+        if (buffer == null) {
+            return -1;
+        }
+        var bytesToRead = min(len, buffer.remaining());
+        buffer.get(b, off, bytesToRead);
+        return bytesToRead;
+    }
+
+    @Override
+    public long skip(long n) {
+        long skipped = 0;
+        while (skipped < n) {
+            var buffer = nextReadableBuffer();
+            if (buffer == null) {
+                break;
+            }
+            var bytesToSkip = (int) min(n - skipped, buffer.remaining());
+            buffer.position(buffer.position() + bytesToSkip);
+            skipped += bytesToSkip;
+        }
+        return skipped;
+    }
+
+    @Override
+    public int available() {
+        var buffer = buffers.peekFirst();
+        return buffer == null ? 0 : buffer.remaining();
+    }
+
+    private ByteBuffer nextReadableBuffer() {
+        while (!buffers.isEmpty() && !buffers.peekFirst().hasRemaining()) {
+            buffers.removeFirst();
+        }
+        return buffers.peekFirst();
+    }
+}
@@ -0,0 +1,18 @@
+package engineering.everest.starterkit.filestorage.backing;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+/**
+ * The outcome of {@link BackingStore#uploadContentAddressed(java.io.InputStream, String, long)}.
+ */
+@Data
+@AllArgsConstructor
+public class ContentAddressedUpload {
+
+    private final String fileIdentifier;
+    /**
+     * Whether content with the same digest was already present, in which case nothing was written.
+     */
+    private final boolean alreadyPresent;
+}
@@ -0,0 +1,255 @@
+package engineering.everest.starterkit.filestorage.backing;
+
+import com.google.common.io.ByteStreams;
+import engineering.everest.starterkit.filestorage.InputStreamOfKnownLength;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferFactory;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousFileChannel;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import java.util.stream.Stream;
+
+import static engineering.everest.starterkit.filestorage.backing.BackingStorageType.FILE_SYSTEM;
+import static java.lang.Math.min;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.WRITE;
+import static java.util.UUID.randomUUID;
+import static reactor.core.scheduler.Schedulers.boundedElastic;
+
+/**
+ * A file store backed by a local or network mounted directory.
+ * <p>
+ * Uploads are written through a {@link FileChannel} to a temporary file, synced to disk and atomically renamed into a sharded directory
+ * layout. Ranged downloads position the channel at the starting offset rather than reading and discarding the leading content.
+ */
+public class FileSystemBackingStore implements BackingStore {
+
+    private static final int COPY_BUFFER_SIZE = 128 * 1024;
+
+    private final ShardedDirectory directory;
+
+    public FileSystemBackingStore(Path rootDirectory) {
+        this.directory = new ShardedDirectory(rootDirectory);
+    }
+
+    @Override
+    public String uploadStream(InputStream inputStream, String fileName) {
+        return writeToDirectory(inputStream, fileName, -1L, randomUUID().toString());
+    }
+
+    @Override
+    public String uploadStream(InputStream inputStream, String fileName, long fileSize) {
+        return writeToDirectory(inputStream, fileName, fileSize, randomUUID().toString());
+    }
+
+    @Override
+    public boolean supportsContentAddressing() {
+        return true;
+    }
+
+    @Override
+    public ContentAddressedUpload uploadContentAddressed(InputStream inputStream, String sha256, long fileSize) {
+        if (contains(sha256)) {
+            return new ContentAddressedUpload(sha256, true);
+        }
+        return new ContentAddressedUpload(writeToDirectory(inputStream, sha256, fileSize, sha256), false);
+    }
+
+    @Override
+    public Mono<String> uploadFlux(Flux<DataBuffer> content, String fileName) {
+        return Mono.fromCallable(directory::createTemporaryFile)
+            .flatMap(temporaryFile -> Mono.using(
+                () -> AsynchronousFileChannel.open(temporaryFile, WRITE),
+                channel -> DataBufferUtils.write(content, channel)
+                    .doOnNext(DataBufferUtils::release)
+                    .then(Mono.fromCallable(() -> syncAndCommit(channel, temporaryFile)).subscribeOn(boundedElastic())),
+                FileSystemBackingStore::closeQuietly)
+                .doOnError(error -> deleteQuietly(temporaryFile)))
+            .onErrorMap(IOException.class, e -> new BackingFileStoreException("Unable to upload file " + fileName, e));
+    }
+
+    @Override
+    public void delete(String fileIdentifier) {
+        try {
+            Files.deleteIfExists(directory.pathFor(fileIdentifier));
+        } catch (IOException e) {
+            throw new BackingFileStoreException(String.format("Unable to delete file %s", fileIdentifier), e);
+        }
+    }
+
+    @Override
+    public void deleteFiles(Set<String> fileIdentifiers) {
+        fileIdentifiers.forEach(this::delete);
+    }
+
+    @Override
+    @SuppressWarnings("PMD.CloseResource")
+    public InputStreamOfKnownLength downloadAsStream(String fileIdentifier) throws IOException {
+        var channel = openForReading(fileIdentifier);
+        return new InputStreamOfKnownLength(Channels.newInputStream(channel), channel.size());
+    }
+
+    @Override
+    @SuppressWarnings("PMD.CloseResource")
+    public InputStreamOfKnownLength downloadAsStream(String fileIdentifier, long startingOffset, long endingOffset) throws IOException {
+        var channel = openForReading(fileIdentifier);
+        try {
+            throwIfStartingOffsetBeyondEndOfFile(fileIdentifier, startingOffset, channel.size());
+        } catch (BackingFileStoreException e) {
+            channel.close();
+            throw e;
+        }
+        var length = min(endingOffset + 1, channel.size()) - startingOffset;
+        var inputStream = ByteStreams.limit(Channels.newInputStream(channel.position(startingOffset)), length);
+        return new InputStreamOfKnownLength(inputStream, length);
+    }
+
+    @Override
+    public Flux<DataBuffer> downloadAsFlux(String fileIdentifier,
+                                           long startingOffset,
+                                           long endingOffset,
+                                           DataBufferFactory dataBufferFactory,
+                                           int bufferSize) {
+        var path = directory.pathFor(fileIdentifier);
+        var content = DataBufferUtils.readAsynchronousFileChannel(
+            () -> AsynchronousFileChannel.open(path, READ), startingOffset, dataBufferFactory, bufferSize);
+        return Mono.fromCallable(() -> Files.size(path))
+            .doOnNext(fileSize -> throwIfStartingOffsetBeyondEndOfFile(fileIdentifier, startingOffset, fileSize))
+            .flatMapMany(fileSize -> DataBufferUtils.takeUntilByteCount(content, endingOffset - startingOffset + 1))
+            .onErrorMap(NoSuchFileException.class,
+                e -> new BackingFileStoreException(String.format("Unable to retrieve file %s", fileIdentifier), e));
+    }
+
+    @Override
+    public boolean supportsListing() {
+        return true;
+    }
+
+    @Override
+    public Stream<BackingFile> listFiles() {
+        return directory.filesInIdentifierOrder()
+            .map(FileSystemBackingStore::backingFile)
+            .filter(Objects::nonNull);
+    }
+
+    @Override
+    public BackingStorageType backingStorageType() {
+        return FILE_SYSTEM;
+    }
+
+    boolean contains(String fileIdentifier) {
+        return Files.exists(directory.pathFor(fileIdentifier));
+    }
+
+    List<String> fileIdentifiers() throws IOException {
+        return directory.fileIdentifiers();
+    }
+
+    private String writeToDirectory(InputStream inputStream, String fileName, long expectedFileSize, String fileIdentifier) {
+        Path temporaryFile = null;
+        try {
+            temporaryFile = directory.createTemporaryFile();
+            try (var channel = FileChannel.open(temporaryFile, WRITE)) {
+                var bytesWritten = copy(inputStream, channel);
+                throwIfContentLengthNotExpectedFileSize(fileName, expectedFileSize, bytesWritten);
+                channel.force(true);
+            }
+            directory.commit(temporaryFile, fileIdentifier);
+            return fileIdentifier;
+        } catch (IOException e) {
+            deleteQuietly(temporaryFile);
+            throw new BackingFileStoreException("Unable to upload file " + fileName, e);
+        } catch (RuntimeException e) {
+            deleteQuietly(temporaryFile);
+            throw e;
+        }
+    }
+
+    private String syncAndCommit(AsynchronousFileChannel channel, Path temporaryFile) throws IOException {
+        channel.force(true);
+        var fileIdentifier = randomUUID().toString();
+        directory.commit(temporaryFile, fileIdentifier);
+        return fileIdentifier;
+    }
+
+    private FileChannel openForReading(String fileIdentifier) throws IOException {
+        try {
+            return FileChannel.open(directory.pathFor(fileIdentifier), READ);
+        } catch (NoSuchFileException e) {
+            throw new BackingFileStoreException(String.format("Unable to retrieve file %s", fileIdentifier), e);
+        }
+    }
+
+    private static long copy(InputStream inputStream, FileChannel channel) throws IOException {
+        var source = Channels.newChannel(inputStream);
+        var buffer = ByteBuffer.allocateDirect(COPY_BUFFER_SIZE);
+        long bytesWritten = 0;
+        while (source.read(buffer) != -1) {
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                bytesWritten += channel.write(buffer);
+            }
+            buffer.clear();
+        }
+        return bytesWritten;
+    }
+
+    private static void throwIfContentLengthNotExpectedFileSize(String fileName, long expectedFileSize, long bytesWritten) {
+        if (expectedFileSize >= 0 && expectedFileSize != bytesWritten) {
+            throw new BackingFileStoreException(
+                String.format("Expected file size %d for uploaded file '%s' but content length is %d", expectedFileSize, fileName,
+                    bytesWritten));
+        }
+    }
+
+    private static void throwIfStartingOffsetBeyondEndOfFile(String fileIdentifier, long startingOffset, long fileSize) {
+        if (startingOffset > fileSize) {
+            throw new BackingFileStoreException(
+                String.format("Starting offset %d is beyond the end of file %s of %d bytes", startingOffset, fileIdentifier, fileSize));
+        }
+    }
+
+    private static void deleteQuietly(Path temporaryFile) {
+        if (temporaryFile != null) {
+            try {
+                Files.deleteIfExists(temporaryFile);
+            } catch (IOException ignored) {
+                // Left for the operator to clear out of the temporary directory
+            }
+        }
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        try {
+            closeable.close();
+        } catch (IOException ignored) {
+            // Content has already been synced or the upload has failed
+        }
+    }
+
+    private static BackingFile backingFile(Path path) {
+        try {
+            return new BackingFile(path.getFileName().toString(), Files.getLastModifiedTime(path).toInstant());
+        } catch (NoSuchFileException e) {
+            // Deleted since its directory was listed
+            return null;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
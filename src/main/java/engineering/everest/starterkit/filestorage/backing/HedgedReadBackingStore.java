@@ -0,0 +1,369 @@
+package engineering.everest.starterkit.filestorage.backing;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import engineering.everest.starterkit.filestorage.InputStreamOfKnownLength;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferFactory;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PushbackInputStream;
+import java.io.UncheckedIOException;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeoutException;
+
+import static java.lang.Math.ceil;
+import static java.lang.Math.max;
+import static java.lang.Math.min;
+import static java.lang.System.nanoTime;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+import static java.util.concurrent.TimeUnit.SECONDS;
+
+/**
+ * Writes every file to two backing stores and reads from the primary, hedging slow reads against the secondary.
+ * <p>
+ * If the primary has not returned the first byte of a download within a delay taken from a percentile of its recent time to first byte,
+ * the same download is started against the secondary. Whichever returns its first byte first is used and the other is closed. A failed
+ * primary read falls back to the secondary immediately. The extra read traffic is bounded by the percentile: at the 95th percentile,
+ * roughly one read in twenty is hedged.
+ * <p>
+ * File identifiers combine the identifiers from both stores, so they are longer than those of either store. Identifiers of files stored
+ * before hedging was enabled are passed to the primary alone. Reads and secondary uploads run on a bounded pool of threads; once they
+ * are all busy, reads go to the primary without hedging and uploads write the two copies one after the other.
+ */
+@Slf4j
+public class HedgedReadBackingStore implements BackingStore, AutoCloseable {
+
+    static final String FILE_IDENTIFIER_PREFIX = "hedged:";
+    private static final String SEPARATOR = "|";
+    private static final long IDLE_THREAD_KEEP_ALIVE_SECONDS = 60;
+
+    private final BackingStore primary;
+    private final BackingStore secondary;
+    private final TimeToFirstBytePercentile primaryTimeToFirstByte;
+    private final long minimumHedgeDelayNanos;
+    private final ExecutorService hedgingExecutor;
+
+    /**
+     * @param primary           from which files are read
+     * @param secondary         holding a second copy of each file, read when the primary is slow or fails
+     * @param percentile        of recent primary times to first byte after which a read is hedged
+     * @param minimumHedgeDelay shortest time to wait for the primary before hedging
+     * @param window            number of recent primary times to first byte from which the percentile is taken
+     * @param maxThreads        largest number of reads and secondary uploads in progress on background threads
+     */
+    public HedgedReadBackingStore(BackingStore primary,
+                                  BackingStore secondary,
+                                  double percentile,
+                                  Duration minimumHedgeDelay,
+                                  int window,
+                                  int maxThreads) {
+        this.primary = primary;
+        this.secondary = secondary;
+        this.primaryTimeToFirstByte = new TimeToFirstBytePercentile(percentile, window);
+        this.minimumHedgeDelayNanos = minimumHedgeDelay.toNanos();
+        this.hedgingExecutor = new ThreadPoolExecutor(0, maxThreads, IDLE_THREAD_KEEP_ALIVE_SECONDS, SECONDS, new SynchronousQueue<>(),
+            new ThreadFactoryBuilder().setNameFormat("hedged-read-%d").setDaemon(true).build());
+    }
+
+    @Override
+    public String uploadStream(InputStream inputStream, String fileName) {
+        return replicate(inputStream, fileName, -1L);
+    }
+
+    @Override
+    public String uploadStream(InputStream inputStream, String fileName, long fileSize) {
+        return replicate(inputStream, fileName, fileSize);
+    }
+
+    @Override
+    public void delete(String fileIdentifier) {
+        var replicas = parse(fileIdentifier);
+        primary.delete(replicas[0]);
+        if (replicas[1] != null) {
+            secondary.delete(replicas[1]);
+        }
+    }
+
+    @Override
+    public void deleteFiles(Set<String> fileIdentifiers) {
+        var primaryFileIdentifiers = new HashSet<String>();
+        var secondaryFileIdentifiers = new HashSet<String>();
+        fileIdentifiers.stream().map(HedgedReadBackingStore::parse).forEach(replicas -> {
+            primaryFileIdentifiers.add(replicas[0]);
+            if (replicas[1] != null) {
+                secondaryFileIdentifiers.add(replicas[1]);
+            }
+        });
+        primary.deleteFiles(primaryFileIdentifiers);
+        if (!secondaryFileIdentifiers.isEmpty()) {
+            secondary.deleteFiles(secondaryFileIdentifiers);
+        }
+    }
+
+    @Override
+    public InputStreamOfKnownLength downloadAsStream(String fileIdentifier) throws IOException {
+        return hedge(fileIdentifier, BackingStore::downloadAsStream);
+    }
+
+    @Override
+    public InputStreamOfKnownLength downloadAsStream(String fileIdentifier, long startingOffset, long endingOffset) throws IOException {
+        return hedge(fileIdentifier, (backingStore, replica) -> backingStore.downloadAsStream(replica, startingOffset, endingOffset));
+    }
+
+    @Override
+    public Flux<DataBuffer> downloadAsFlux(String fileIdentifier,
+                                           long startingOffset,
+                                           long endingOffset,
+                                           DataBufferFactory dataBufferFactory,
+                                           int bufferSize) {
+        var replicas = parse(fileIdentifier);
+        var fromPrimary = primary.downloadAsFlux(replicas[0], startingOffset, endingOffset, dataBufferFactory, bufferSize);
+        if (replicas[1] == null) {
+            return fromPrimary;
+        }
+        var fromSecondary = secondary.downloadAsFlux(replicas[1], startingOffset, endingOffset, dataBufferFactory, bufferSize)
+            .delaySubscription(Duration.ofNanos(hedgeDelayNanos()));
+        // An empty file emits no value, which would fail the race, so each side stands in an empty buffer that is then dropped
+        return Flux.firstWithValue(orEmptyBuffer(fromPrimary, dataBufferFactory), orEmptyBuffer(fromSecondary, dataBufferFactory))
+            .filter(dataBuffer -> dataBuffer.readableByteCount() > 0)
+            .doOnDiscard(DataBuffer.class, DataBufferUtils::release);
+    }
+
+    @Override
+    public BackingStorageType backingStorageType() {
+        return primary.backingStorageType();
+    }
+
+    @Override
+    public void close() {
+        hedgingExecutor.shutdownNow();
+    }
+
+    long hedgeDelayNanos() {
+        return max(minimumHedgeDelayNanos, primaryTimeToFirstByte.get());
+    }
+
+    private InputStreamOfKnownLength hedge(String fileIdentifier, Download download) throws IOException {
+        var replicas = parse(fileIdentifier);
+        if (replicas[1] == null) {
+            return download.from(primary, replicas[0]);
+        }
+        var startedAt = nanoTime();
+        CompletableFuture<InputStreamOfKnownLength> fromPrimary;
+        try {
+            fromPrimary = CompletableFuture.supplyAsync(() -> firstByte(download, primary, replicas[0]), hedgingExecutor);
+        } catch (RejectedExecutionException e) {
+            LOGGER.debug("No hedging threads available, reading {} from the primary store only", fileIdentifier);
+            return download.from(primary, replicas[0]);
+        }
+        fromPrimary.thenRun(() -> primaryTimeToFirstByte.record(nanoTime() - startedAt));
+        try {
+            return fromPrimary.get(hedgeDelayNanos(), NANOSECONDS);
+        } catch (TimeoutException e) {
+            LOGGER.debug("Hedging read of {} against the secondary store", fileIdentifier);
+        } catch (ExecutionException e) {
+            LOGGER.warn("Unable to read {} from the primary store, reading from the secondary", fileIdentifier, e.getCause());
+            return download.from(secondary, replicas[1]);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            fromPrimary.thenAccept(HedgedReadBackingStore::closeQuietly);
+            throw new IOException("Interrupted while reading " + fileIdentifier, e);
+        }
+
+        CompletableFuture<InputStreamOfKnownLength> fromSecondary;
+        try {
+            fromSecondary = CompletableFuture.supplyAsync(() -> firstByte(download, secondary, replicas[1]), hedgingExecutor);
+        } catch (RejectedExecutionException e) {
+            LOGGER.debug("No hedging threads available, waiting for the primary store to read {}", fileIdentifier);
+            fromSecondary = CompletableFuture.failedFuture(e);
+        }
+        var fastest = new CompletableFuture<InputStreamOfKnownLength>();
+        fromPrimary.thenAccept(fastest::complete);
+        fromSecondary.thenAccept(fastest::complete);
+        CompletableFuture.allOf(fromPrimary, fromSecondary).whenComplete((ignored, error) -> {
+            if (error != null) {
+                fastest.completeExceptionally(error);
+            }
+        });
+        try {
+            var winner = fastest.join();
+            closeLoser(fromPrimary, winner);
+            closeLoser(fromSecondary, winner);
+            return winner;
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw e.getCause() instanceof RuntimeException ? (RuntimeException) e.getCause() : e;
+        }
+    }
+
+    private String replicate(InputStream inputStream, String fileName, long expectedFileSize) {
+        Path spooledFile = null;
+        try {
+            spooledFile = Files.createTempFile("hedged-upload-", ".tmp");
+            var fileSize = Files.copy(inputStream, spooledFile, REPLACE_EXISTING);
+            if (expectedFileSize >= 0 && expectedFileSize != fileSize) {
+                throw new BackingFileStoreException(String.format(
+                    "Expected file size %d for uploaded file '%s' but content length is %d", expectedFileSize, fileName, fileSize));
+            }
+            var source = spooledFile;
+            CompletableFuture<String> toSecondary;
+            try {
+                toSecondary = CompletableFuture.supplyAsync(() -> uploadFrom(secondary, source, fileName, fileSize), hedgingExecutor);
+            } catch (RejectedExecutionException e) {
+                toSecondary = CompletableFuture.completedFuture(uploadFrom(secondary, source, fileName, fileSize));
+            }
+            String primaryFileIdentifier;
+            try {
+                primaryFileIdentifier = uploadFrom(primary, source, fileName, fileSize);
+            } catch (RuntimeException e) {
+                toSecondary.thenAccept(secondary::delete);
+                throw e;
+            }
+            try {
+                return format(primaryFileIdentifier, toSecondary.join());
+            } catch (CompletionException e) {
+                primary.delete(primaryFileIdentifier);
+                throw e.getCause() instanceof RuntimeException ? (RuntimeException) e.getCause() : e;
+            }
+        } catch (IOException e) {
+            throw new BackingFileStoreException("Unable to upload file " + fileName, e);
+        } finally {
+            deleteQuietly(spooledFile);
+        }
+    }
+
+    private static String uploadFrom(BackingStore backingStore, Path spooledFile, String fileName, long fileSize) {
+        try (var inputStream = Files.newInputStream(spooledFile)) {
+            return backingStore.uploadStream(inputStream, fileName, fileSize);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Performs the download and waits for its first byte, which is pushed back so the caller sees the complete content.
+     */
+    private static InputStreamOfKnownLength firstByte(Download download, BackingStore backingStore, String replica) {
+        try {
+            var inputStreamOfKnownLength = download.from(backingStore, replica);
+            var inputStream = new PushbackInputStream(inputStreamOfKnownLength.getInputStream(), 1);
+            var firstByte = inputStream.read();
+            if (firstByte != -1) {
+                inputStream.unread(firstByte);
+            }
+            return new InputStreamOfKnownLength(inputStream, inputStreamOfKnownLength.getLength());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static Flux<DataBuffer> orEmptyBuffer(Flux<DataBuffer> download, DataBufferFactory dataBufferFactory) {
+        return download.switchIfEmpty(Mono.fromSupplier(() -> dataBufferFactory.wrap(new byte[0])));
+    }
+
+    private static void closeLoser(CompletableFuture<InputStreamOfKnownLength> download, InputStreamOfKnownLength winner) {
+        download.thenAccept(inputStreamOfKnownLength -> {
+            if (inputStreamOfKnownLength != winner) {
+                closeQuietly(inputStreamOfKnownLength);
+            }
+        });
+    }
+
+    private static void closeQuietly(InputStreamOfKnownLength inputStreamOfKnownLength) {
+        try {
+            inputStreamOfKnownLength.close();
+        } catch (Exception ignored) {
+            // The losing download is abandoned either way
+        }
+    }
+
+    private static void deleteQuietly(Path spooledFile) {
+        if (spooledFile != null) {
+            try {
+                Files.deleteIfExists(spooledFile);
+            } catch (IOException ignored) {
+                // Left for the operating system to clear out of the temporary directory
+            }
+        }
+    }
+
+    static String format(String primaryFileIdentifier, String secondaryFileIdentifier) {
+        return FILE_IDENTIFIER_PREFIX + URLEncoder.encode(primaryFileIdentifier, UTF_8) + SEPARATOR
+            + URLEncoder.encode(secondaryFileIdentifier, UTF_8);
+    }
+
+    /**
+     * @return the primary and secondary identifiers, the latter {@code null} for files stored before hedging was enabled
+     */
+    private static String[] parse(String fileIdentifier) {
+        if (!fileIdentifier.startsWith(FILE_IDENTIFIER_PREFIX)) {
+            return new String[] { fileIdentifier, null };
+        }
+        var separator = fileIdentifier.indexOf(SEPARATOR);
+        if (separator < 0) {
+            throw new BackingFileStoreException(String.format("Invalid hedged file identifier: %s", fileIdentifier));
+        }
+        return new String[] {
+            URLDecoder.decode(fileIdentifier.substring(FILE_IDENTIFIER_PREFIX.length(), separator), UTF_8),
+            URLDecoder.decode(fileIdentifier.substring(separator + 1), UTF_8) };
+    }
+
+    @FunctionalInterface
+    private interface Download {
+        InputStreamOfKnownLength from(BackingStore backingStore, String replica) throws IOException;
+    }
+
+    /**
+     * Tracks a percentile over a sliding window of recent samples. The percentile is recalculated periodically rather than on every read.
+     */
+    private static class TimeToFirstBytePercentile {
+        private static final int RECALCULATE_EVERY = 32;
+
+        private final double percentile;
+        private final long[] samples;
+        private long recorded;
+        private volatile long current;
+
+        TimeToFirstBytePercentile(double percentile, int window) {
+            this.percentile = percentile;
+            this.samples = new long[window];
+        }
+
+        synchronized void record(long nanos) {
+            samples[(int) (recorded % samples.length)] = nanos;
+            recorded++;
+            if (recorded % RECALCULATE_EVERY == 0 || recorded < RECALCULATE_EVERY) {
+                var window = Arrays.copyOf(samples, (int) min(recorded, samples.length));
+                Arrays.sort(window);
+                current = window[max(0, (int) ceil(percentile / 100 * window.length) - 1)];
+            }
+        }
+
+        long get() {
+            return current;
+        }
+    }
+}
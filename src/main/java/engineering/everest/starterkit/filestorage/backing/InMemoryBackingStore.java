@@ -3,26 +3,36 @@ package engineering.everest.starterkit.filestorage.backing;
 import engineering.everest.starterkit.filestorage.InputStreamOfKnownLength;
 import lombok.AllArgsConstructor;
 import lombok.Getter;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferFactory;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
 
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.util.Arrays;
-import java.util.HashMap;
+import java.nio.ByteBuffer;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 import static engineering.everest.starterkit.filestorage.backing.BackingStorageType.IN_MEMORY;
+import static java.lang.Math.min;
 import static java.util.UUID.randomUUID;
 
 /**
  * An filestore suitable for development. Not recommended for use in production.
+ * <p>
+ * Safe for concurrent use. Content is held on the heap, so individual files are limited to 2 GB.
+ *
+ * @see OffHeapBackingStore
  */
 public class InMemoryBackingStore implements BackingStore {
     private final Map<String, Metadata> fileMapping;
 
     public InMemoryBackingStore() {
-        this.fileMapping = new HashMap<>();
+        this.fileMapping = new ConcurrentHashMap<>();
     }
 
     @Override
@@ -51,6 +61,43 @@ public class InMemoryBackingStore implements BackingStore {
         }
     }
 
+    @Override
+    public boolean supportsContentAddressing() {
+        return true;
+    }
+
+    @Override
+    public ContentAddressedUpload uploadContentAddressed(InputStream inputStream, String sha256, long fileSize) {
+        if (fileMapping.containsKey(sha256)) {
+            return new ContentAddressedUpload(sha256, true);
+        }
+        try {
+            var contents = inputStream.readAllBytes();
+            throwIfContentLengthNotExpectedFileSize(sha256, fileSize, contents);
+            var alreadyPresent = fileMapping.putIfAbsent(sha256, new Metadata(fileSize, contents)) != null;
+            return new ContentAddressedUpload(sha256, alreadyPresent);
+        } catch (IOException e) {
+            throw new BackingFileStoreException("Unable to upload file " + sha256, e);
+        }
+    }
+
+    @Override
+    public Mono<String> uploadFlux(Flux<DataBuffer> content, String fileName) {
+        return DataBufferUtils.join(content)
+            .map(dataBuffer -> {
+                var contents = new byte[dataBuffer.readableByteCount()];
+                dataBuffer.read(contents);
+                DataBufferUtils.release(dataBuffer);
+                return contents;
+            })
+            .defaultIfEmpty(new byte[0])
+            .map(contents -> {
+                var id = randomUUID().toString();
+                fileMapping.put(id, new Metadata(contents.length, contents));
+                return id;
+            });
+    }
+
     @Override
     public void delete(String fileIdentifier) {
         fileMapping.remove(fileIdentifier);
@@ -63,19 +110,33 @@ public class InMemoryBackingStore implements BackingStore {
 
     @Override
     public InputStreamOfKnownLength downloadAsStream(String fileIdentifier) throws IOException {
-        throwIfFileNotInFilestore(fileIdentifier);
-
-        var fileMetadata = fileMapping.get(fileIdentifier);
+        var fileMetadata = getOrThrowIfFileNotInFilestore(fileIdentifier);
         return new InputStreamOfKnownLength(new ByteArrayInputStream(fileMetadata.getContent()), fileMetadata.getLength());
     }
 
     @Override
     public InputStreamOfKnownLength downloadAsStream(String fileIdentifier, long startingOffset, long endingOffset) throws IOException {
-        throwIfFileNotInFilestore(fileIdentifier);
+        var fileMetadata = getOrThrowIfFileNotInFilestore(fileIdentifier);
+        var length = (int) (min(endingOffset + 1, fileMetadata.getLength()) - startingOffset);
+        return new InputStreamOfKnownLength(new ByteArrayInputStream(fileMetadata.getContent(), (int) startingOffset, length), length);
+    }
 
-        var fileMetadata = fileMapping.get(fileIdentifier);
-        var content = Arrays.copyOfRange(fileMetadata.getContent(), (int) startingOffset, (int) endingOffset + 1);
-        return new InputStreamOfKnownLength(new ByteArrayInputStream(content), content.length);
+    @Override
+    public Flux<DataBuffer> downloadAsFlux(String fileIdentifier,
+                                           long startingOffset,
+                                           long endingOffset,
+                                           DataBufferFactory dataBufferFactory,
+                                           int bufferSize) {
+        return Flux.defer(() -> {
+            var content = getOrThrowIfFileNotInFilestore(fileIdentifier).getContent();
+            var end = (int) endingOffset + 1;
+            return Flux.range(0, (end - (int) startingOffset + bufferSize - 1) / bufferSize)
+                .map(chunk -> {
+                    var chunkStart = (int) startingOffset + chunk * bufferSize;
+                    var chunkLength = min(bufferSize, end - chunkStart);
+                    return dataBufferFactory.wrap(ByteBuffer.wrap(content, chunkStart, chunkLength).slice().asReadOnlyBuffer());
+                });
+        });
     }
 
     @Override
@@ -83,10 +144,12 @@ public class InMemoryBackingStore implements BackingStore {
         return IN_MEMORY;
     }
 
-    private void throwIfFileNotInFilestore(String fileIdentifier) {
-        if (!fileMapping.containsKey(fileIdentifier)) {
+    private Metadata getOrThrowIfFileNotInFilestore(String fileIdentifier) {
+        var fileMetadata = fileMapping.get(fileIdentifier);
+        if (fileMetadata == null) {
             throw new BackingFileStoreException(String.format("File '%s' not in filestore", fileIdentifier));
         }
+        return fileMetadata;
     }
 
     private void throwIfContentLengthNotExpectedFileSize(String fileName, long fileSize, byte[] contents) {
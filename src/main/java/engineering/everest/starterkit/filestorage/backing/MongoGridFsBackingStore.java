@@ -1,13 +1,16 @@
 package engineering.everest.starterkit.filestorage.backing;
 
+import com.google.common.collect.Streams;
 import engineering.everest.starterkit.filestorage.InputStreamOfKnownLength;
 import org.bson.types.ObjectId;
+import org.springframework.data.domain.Sort;
 import org.springframework.data.mongodb.core.query.Query;
 import org.springframework.data.mongodb.gridfs.GridFsTemplate;
 
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.Set;
+import java.util.stream.Stream;
 
 import static engineering.everest.starterkit.filestorage.backing.BackingStorageType.MONGO_GRID_FS;
 import static org.springframework.data.mongodb.core.query.Criteria.where;
@@ -52,6 +55,19 @@ public class MongoGridFsBackingStore implements BackingStore {
         throw new UnsupportedOperationException("Ranged download not yet implemented for MongoGridFsBackingStore");
     }
 
+    @Override
+    public boolean supportsListing() {
+        return true;
+    }
+
+    @Override
+    public Stream<BackingFile> listFiles() {
+        var cursor = gridFs.find(new Query().with(Sort.by("_id"))).iterator();
+        return Streams.stream(cursor)
+            .map(file -> new BackingFile(file.getObjectId().toHexString(), file.getUploadDate().toInstant()))
+            .onClose(cursor::close);
+    }
+
     @Override
     public BackingStorageType backingStorageType() {
         return MONGO_GRID_FS;
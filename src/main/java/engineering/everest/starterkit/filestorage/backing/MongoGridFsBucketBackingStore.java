@@ -0,0 +1,224 @@
+package engineering.everest.starterkit.filestorage.backing;
+
+import com.google.common.collect.Streams;
+import com.google.common.io.ByteStreams;
+import com.mongodb.MongoException;
+import com.mongodb.WriteConcern;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoDatabase;
+import com.mongodb.client.gridfs.GridFSBucket;
+import com.mongodb.client.gridfs.GridFSBuckets;
+import com.mongodb.client.gridfs.GridFSDownloadStream;
+import com.mongodb.client.model.IndexOptions;
+import com.mongodb.client.model.Indexes;
+import engineering.everest.starterkit.filestorage.InputStreamOfKnownLength;
+import org.bson.Document;
+import org.bson.types.Binary;
+import org.bson.types.ObjectId;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Stream;
+
+import static com.mongodb.client.model.Filters.eq;
+import static com.mongodb.client.model.Filters.in;
+import static com.mongodb.client.model.Projections.include;
+import static com.mongodb.client.model.Sorts.ascending;
+import static engineering.everest.starterkit.filestorage.backing.BackingStorageType.MONGO_GRID_FS;
+import static java.lang.Math.max;
+import static java.lang.Math.min;
+import static java.util.stream.Collectors.toList;
+
+/**
+ * A GridFS file store that writes chunks directly to the bucket's collections rather than through
+ * {@link org.springframework.data.mongodb.gridfs.GridFsTemplate}.
+ * <p>
+ * Chunks are sized per store and inserted several at a time, so that a large file costs one round trip per batch rather than per chunk.
+ * As with any GridFS writer, the files document recording the length and chunk size is inserted last, so partially written files are
+ * never visible. Files are laid out according to the GridFS specification and remain readable by {@link MongoGridFsBackingStore}, and
+ * vice versa. The indexes GridFS requires are created when the store is. Ranged reads position the download stream at the chunk
+ * containing the starting offset.
+ * <p>
+ * Up to a full batch of chunks is held in memory per upload.
+ */
+public class MongoGridFsBucketBackingStore implements BackingStore {
+
+    private final GridFSBucket gridFsBucket;
+    private final MongoCollection<Document> filesCollection;
+    private final MongoCollection<Document> chunksCollection;
+    private final int chunkSizeBytes;
+    private final int chunksPerBatch;
+
+    /**
+     * @param database       containing the bucket
+     * @param bucketName     GridFS bucket, for example {@code fs.permanent}
+     * @param chunkSizeBytes size of each chunk of newly uploaded files
+     * @param chunksPerBatch number of chunks inserted per round trip
+     * @param writeConcern   for uploads and deletions, or {@code null} to use the database default
+     */
+    public MongoGridFsBucketBackingStore(MongoDatabase database,
+                                         String bucketName,
+                                         int chunkSizeBytes,
+                                         int chunksPerBatch,
+                                         WriteConcern writeConcern) {
+        this(writeConcern == null ? database : database.withWriteConcern(writeConcern), bucketName, chunkSizeBytes, chunksPerBatch);
+    }
+
+    private MongoGridFsBucketBackingStore(MongoDatabase database, String bucketName, int chunkSizeBytes, int chunksPerBatch) {
+        this(GridFSBuckets.create(database, bucketName).withChunkSizeBytes(chunkSizeBytes), database.getCollection(bucketName + ".files"),
+            database.getCollection(bucketName + ".chunks"), chunkSizeBytes, chunksPerBatch);
+    }
+
+    MongoGridFsBucketBackingStore(GridFSBucket gridFsBucket,
+                                  MongoCollection<Document> filesCollection,
+                                  MongoCollection<Document> chunksCollection,
+                                  int chunkSizeBytes,
+                                  int chunksPerBatch) {
+        this.gridFsBucket = gridFsBucket;
+        this.filesCollection = filesCollection;
+        this.chunksCollection = chunksCollection;
+        this.chunkSizeBytes = chunkSizeBytes;
+        this.chunksPerBatch = chunksPerBatch;
+        createIndexes();
+    }
+
+    @Override
+    public String uploadStream(InputStream inputStream, String fileName) {
+        return writeToBucket(inputStream, fileName, -1L);
+    }
+
+    @Override
+    public String uploadStream(InputStream inputStream, String fileName, long fileSize) {
+        return writeToBucket(inputStream, fileName, fileSize);
+    }
+
+    @Override
+    public void delete(String fileIdentifier) {
+        var fileId = objectIdOf(fileIdentifier);
+        filesCollection.deleteOne(eq("_id", fileId));
+        chunksCollection.deleteMany(eq("files_id", fileId));
+    }
+
+    @Override
+    public void deleteFiles(Set<String> fileIdentifiers) {
+        var fileIds = fileIdentifiers.stream().map(MongoGridFsBucketBackingStore::objectIdOf).collect(toList());
+        filesCollection.deleteMany(in("_id", fileIds));
+        chunksCollection.deleteMany(in("files_id", fileIds));
+    }
+
+    @Override
+    @SuppressWarnings("PMD.CloseResource")
+    public InputStreamOfKnownLength downloadAsStream(String fileIdentifier) {
+        var downloadStream = openDownloadStream(fileIdentifier);
+        return new InputStreamOfKnownLength(downloadStream, downloadStream.getGridFSFile().getLength());
+    }
+
+    @Override
+    @SuppressWarnings("PMD.CloseResource")
+    public InputStreamOfKnownLength downloadAsStream(String fileIdentifier, long startingOffset, long endingOffset) throws IOException {
+        var downloadStream = openDownloadStream(fileIdentifier);
+        var fileLength = downloadStream.getGridFSFile().getLength();
+        if (startingOffset > fileLength) {
+            downloadStream.close();
+            throw new BackingFileStoreException(
+                String.format("Starting offset %d is beyond the end of file %s of %d bytes", startingOffset, fileIdentifier, fileLength));
+        }
+        var length = max(0, min(endingOffset + 1, fileLength) - startingOffset);
+        downloadStream.skip(startingOffset);
+        return new InputStreamOfKnownLength(ByteStreams.limit(downloadStream, length), length);
+    }
+
+    @Override
+    public boolean supportsListing() {
+        return true;
+    }
+
+    @Override
+    public Stream<BackingFile> listFiles() {
+        var cursor = filesCollection.find()
+            .projection(include("_id", "uploadDate"))
+            .sort(ascending("_id"))
+            .iterator();
+        return Streams.stream(cursor)
+            .map(document -> new BackingFile(document.getObjectId("_id").toHexString(), document.getDate("uploadDate").toInstant()))
+            .onClose(cursor::close);
+    }
+
+    @Override
+    public BackingStorageType backingStorageType() {
+        return MONGO_GRID_FS;
+    }
+
+    /**
+     * Creates the indexes the GridFS specification requires, as the driver does before its first upload to an empty bucket. Creating an
+     * index that already exists has no effect.
+     */
+    private void createIndexes() {
+        chunksCollection.createIndex(Indexes.ascending("files_id", "n"), new IndexOptions().unique(true));
+        filesCollection.createIndex(Indexes.ascending("filename", "uploadDate"));
+    }
+
+    private String writeToBucket(InputStream inputStream, String fileName, long expectedFileSize) {
+        var fileId = new ObjectId();
+        try {
+            var length = writeChunks(fileId, inputStream);
+            if (expectedFileSize >= 0 && expectedFileSize != length) {
+                throw new BackingFileStoreException(String.format("Expected file size %d for uploaded file '%s' but content length is %d",
+                    expectedFileSize, fileName, length));
+            }
+            filesCollection.insertOne(new Document("_id", fileId)
+                .append("length", length)
+                .append("chunkSize", chunkSizeBytes)
+                .append("uploadDate", new Date())
+                .append("filename", fileName));
+            return fileId.toHexString();
+        } catch (IOException | MongoException e) {
+            chunksCollection.deleteMany(eq("files_id", fileId));
+            throw new BackingFileStoreException("Unable to upload file " + fileName, e);
+        } catch (RuntimeException e) {
+            chunksCollection.deleteMany(eq("files_id", fileId));
+            throw e;
+        }
+    }
+
+    private long writeChunks(ObjectId fileId, InputStream inputStream) throws IOException {
+        List<Document> batch = new ArrayList<>(chunksPerBatch);
+        long length = 0;
+        var chunkIndex = 0;
+        byte[] data;
+        do {
+            data = inputStream.readNBytes(chunkSizeBytes);
+            if (data.length > 0) {
+                batch.add(new Document("files_id", fileId).append("n", chunkIndex++).append("data", new Binary(data)));
+                length += data.length;
+            }
+            if (batch.size() == chunksPerBatch) {
+                chunksCollection.insertMany(batch);
+                batch = new ArrayList<>(chunksPerBatch);
+            }
+        } while (data.length == chunkSizeBytes);
+        if (!batch.isEmpty()) {
+            chunksCollection.insertMany(batch);
+        }
+        return length;
+    }
+
+    private GridFSDownloadStream openDownloadStream(String fileIdentifier) {
+        try {
+            return gridFsBucket.openDownloadStream(objectIdOf(fileIdentifier));
+        } catch (MongoException e) {
+            throw new BackingFileStoreException(String.format("Unable to retrieve file %s", fileIdentifier), e);
+        }
+    }
+
+    private static ObjectId objectIdOf(String fileIdentifier) {
+        if (!ObjectId.isValid(fileIdentifier)) {
+            throw new BackingFileStoreException(String.format("Invalid GridFS file identifier: %s", fileIdentifier));
+        }
+        return new ObjectId(fileIdentifier);
+    }
+}
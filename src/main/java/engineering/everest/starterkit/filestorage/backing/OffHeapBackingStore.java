@@ -0,0 +1,314 @@
+package engineering.everest.starterkit.filestorage.backing;
+
+import engineering.everest.starterkit.filestorage.InputStreamOfKnownLength;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferFactory;
+import reactor.core.publisher.Flux;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static engineering.everest.starterkit.filestorage.backing.BackingStorageType.IN_MEMORY;
+import static java.lang.Math.max;
+import static java.lang.Math.min;
+import static java.util.UUID.randomUUID;
+
+/**
+ * An in-memory file store holding content outside of the Java heap, intended as a fast ephemeral tier for shared test and integration
+ * environments. Not recommended for data that cannot be regenerated.
+ * <p>
+ * Files are held in segments of direct byte buffers, so files larger than 2 GB are supported and large files do not pressure the garbage
+ * collector. Downloads, including ranged downloads, read from read-only slices of the segments without copying. The store is safe for
+ * concurrent use.
+ * <p>
+ * Memory use is capped by a byte budget, against which each segment is reserved before it is allocated, so uploads in flight count
+ * towards the budget too. When a segment would exceed the budget, either the least recently accessed files are evicted or, for content
+ * that must not be silently lost, the upload fails. The JVM's {@code -XX:MaxDirectMemorySize} must allow for the budget.
+ */
+public class OffHeapBackingStore implements BackingStore {
+
+    private final int segmentSizeBytes;
+    private final long byteBudget;
+    private final boolean evictWhenFull;
+    private final Map<String, StoredFile> files;
+    private final AtomicLong bytesAllocated;
+
+    public OffHeapBackingStore(int segmentSizeBytes, long byteBudget) {
+        this(segmentSizeBytes, byteBudget, true);
+    }
+
+    /**
+     * @param segmentSizeBytes size of the direct buffers holding content
+     * @param byteBudget       most memory allocated to content at any one time
+     * @param evictWhenFull    whether to evict the least recently accessed files, rather than fail the upload, when the budget is full
+     */
+    public OffHeapBackingStore(int segmentSizeBytes, long byteBudget, boolean evictWhenFull) {
+        this.segmentSizeBytes = segmentSizeBytes;
+        this.byteBudget = byteBudget;
+        this.evictWhenFull = evictWhenFull;
+        this.files = new LinkedHashMap<>(16, 0.75f, true);
+        this.bytesAllocated = new AtomicLong();
+    }
+
+    @Override
+    public String uploadStream(InputStream inputStream, String fileName) {
+        return store(inputStream, fileName, -1L);
+    }
+
+    @Override
+    public String uploadStream(InputStream inputStream, String fileName, long fileSize) {
+        return store(inputStream, fileName, fileSize);
+    }
+
+    @Override
+    public void delete(String fileIdentifier) {
+        StoredFile storedFile;
+        synchronized (files) {
+            storedFile = files.remove(fileIdentifier);
+        }
+        if (storedFile != null) {
+            bytesAllocated.addAndGet(-storedFile.capacity);
+        }
+    }
+
+    @Override
+    public void deleteFiles(Set<String> fileIdentifiers) {
+        fileIdentifiers.forEach(this::delete);
+    }
+
+    @Override
+    public InputStreamOfKnownLength downloadAsStream(String fileIdentifier) {
+        var storedFile = getOrThrowIfFileNotInFilestore(fileIdentifier);
+        return new InputStreamOfKnownLength(new ByteBufferSequenceInputStream(storedFile.slices(0, storedFile.length - 1)),
+            storedFile.length);
+    }
+
+    @Override
+    public InputStreamOfKnownLength downloadAsStream(String fileIdentifier, long startingOffset, long endingOffset) {
+        var storedFile = getOrThrowIfFileNotInFilestore(fileIdentifier);
+        var clampedEndingOffset = min(endingOffset, storedFile.length - 1);
+        return new InputStreamOfKnownLength(new ByteBufferSequenceInputStream(storedFile.slices(startingOffset, clampedEndingOffset)),
+            max(0, clampedEndingOffset - startingOffset + 1));
+    }
+
+    @Override
+    public Flux<DataBuffer> downloadAsFlux(String fileIdentifier,
+                                           long startingOffset,
+                                           long endingOffset,
+                                           DataBufferFactory dataBufferFactory,
+                                           int bufferSize) {
+        return Flux.defer(() -> {
+            var storedFile = getOrThrowIfFileNotInFilestore(fileIdentifier);
+            return Flux.fromIterable(storedFile.slices(startingOffset, min(endingOffset, storedFile.length - 1)));
+        })
+            .concatMapIterable(slice -> split(slice, bufferSize))
+            .map(dataBufferFactory::wrap);
+    }
+
+    @Override
+    public BackingStorageType backingStorageType() {
+        return IN_MEMORY;
+    }
+
+    long bytesAllocated() {
+        return bytesAllocated.get();
+    }
+
+    private String store(InputStream inputStream, String fileName, long expectedFileSize) {
+        if (expectedFileSize > byteBudget) {
+            throw exceedsBudget(fileName);
+        }
+        var segments = new ArrayList<ByteBuffer>();
+        var stored = false;
+        try {
+            readSegments(inputStream, fileName, expectedFileSize, segments);
+            var length = segments.stream().mapToLong(ByteBuffer::remaining).sum();
+            var fileIdentifier = randomUUID().toString();
+            synchronized (files) {
+                files.put(fileIdentifier, new StoredFile(segments, length, capacityOf(segments)));
+            }
+            stored = true;
+            return fileIdentifier;
+        } catch (IOException e) {
+            throw new BackingFileStoreException("Unable to upload file " + fileName, e);
+        } finally {
+            if (!stored) {
+                bytesAllocated.addAndGet(-capacityOf(segments));
+            }
+        }
+    }
+
+    /**
+     * Reads content into direct buffers of the segment size, each reserved against the budget before it is allocated. When the file size
+     * is known the final segment is allocated to fit; otherwise a partially filled final segment is copied into a buffer that fits so that
+     * no memory is wasted. Segments are added to the given list once allocated, so that the caller can release them on failure.
+     */
+    private void readSegments(InputStream inputStream, String fileName, long expectedFileSize, List<ByteBuffer> segments)
+        throws IOException {
+        var source = Channels.newChannel(inputStream);
+        long bytesRead = 0;
+        long bytesReserved = 0;
+        var endOfStream = false;
+        while (!endOfStream) {
+            if (expectedFileSize >= 0 && bytesRead == expectedFileSize) {
+                var trailingBytes = inputStream.transferTo(OutputStream.nullOutputStream());
+                throwIfContentLengthNotExpectedFileSize(fileName, expectedFileSize, bytesRead + trailingBytes);
+                break;
+            }
+            var remainingExpected = expectedFileSize - bytesRead;
+            var segmentSize = expectedFileSize >= 0 && remainingExpected < segmentSizeBytes ? (int) remainingExpected : segmentSizeBytes;
+            reserve(segmentSize, bytesReserved, fileName);
+            var segment = allocateReserved(segmentSize);
+            segments.add(segment);
+            endOfStream = fill(source, segment);
+            bytesRead += segment.position();
+
+            var fittedSegment = fitted(segment);
+            bytesAllocated.addAndGet(fittedSegment.capacity() - segmentSize);
+            bytesReserved += fittedSegment.capacity();
+            if (fittedSegment.capacity() > 0) {
+                segments.set(segments.size() - 1, fittedSegment.asReadOnlyBuffer());
+            } else {
+                segments.remove(segments.size() - 1);
+            }
+        }
+        throwIfContentLengthNotExpectedFileSize(fileName, expectedFileSize, bytesRead);
+    }
+
+    private static boolean fill(ReadableByteChannel source, ByteBuffer segment) throws IOException {
+        while (segment.hasRemaining()) {
+            if (source.read(segment) == -1) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static ByteBuffer fitted(ByteBuffer segment) {
+        segment.flip();
+        if (segment.limit() == segment.capacity()) {
+            return segment;
+        }
+        var fittedSegment = ByteBuffer.allocateDirect(segment.limit());
+        fittedSegment.put(segment);
+        return fittedSegment.flip();
+    }
+
+    private ByteBuffer allocateReserved(int segmentSize) {
+        try {
+            return ByteBuffer.allocateDirect(segmentSize);
+        } catch (OutOfMemoryError e) {
+            bytesAllocated.addAndGet(-segmentSize);
+            throw e;
+        }
+    }
+
+    private static long capacityOf(List<ByteBuffer> segments) {
+        return segments.stream().mapToLong(ByteBuffer::capacity).sum();
+    }
+
+    /**
+     * Reserve a segment against the budget, evicting least recently accessed files if allowed. Fails without reserving anything if the
+     * budget cannot be met, leaving the segments the upload already holds for the caller to release.
+     */
+    private void reserve(int segmentSize, long reservedByUpload, String fileName) {
+        if (reservedByUpload + segmentSize > byteBudget) {
+            throw exceedsBudget(fileName);
+        }
+        if (bytesAllocated.addAndGet(segmentSize) <= byteBudget) {
+            return;
+        }
+        if (evictWhenFull) {
+            evictLeastRecentlyUsed();
+        }
+        if (bytesAllocated.get() > byteBudget) {
+            bytesAllocated.addAndGet(-segmentSize);
+            throw new BackingFileStoreException(
+                String.format("Unable to store file '%s': in-memory budget of %d bytes is full", fileName, byteBudget));
+        }
+    }
+
+    private void evictLeastRecentlyUsed() {
+        synchronized (files) {
+            var leastRecentlyUsed = files.values().iterator();
+            while (bytesAllocated.get() > byteBudget && leastRecentlyUsed.hasNext()) {
+                var storedFile = leastRecentlyUsed.next();
+                leastRecentlyUsed.remove();
+                bytesAllocated.addAndGet(-storedFile.capacity);
+            }
+        }
+    }
+
+    private BackingFileStoreException exceedsBudget(String fileName) {
+        return new BackingFileStoreException(
+            String.format("File '%s' exceeds the in-memory budget of %d bytes", fileName, byteBudget));
+    }
+
+    private StoredFile getOrThrowIfFileNotInFilestore(String fileIdentifier) {
+        StoredFile storedFile;
+        synchronized (files) {
+            // Marks the file as most recently accessed
+            storedFile = files.get(fileIdentifier);
+        }
+        if (storedFile == null) {
+            throw new BackingFileStoreException(String.format("File '%s' not in filestore", fileIdentifier));
+        }
+        return storedFile;
+    }
+
+    private static void throwIfContentLengthNotExpectedFileSize(String fileName, long expectedFileSize, long bytesRead) {
+        if (expectedFileSize >= 0 && expectedFileSize != bytesRead) {
+            throw new BackingFileStoreException(
+                String.format("Expected file size %d for uploaded file '%s' but content length is %d", expectedFileSize, fileName,
+                    bytesRead));
+        }
+    }
+
+    private static List<ByteBuffer> split(ByteBuffer slice, int bufferSize) {
+        var parts = new ArrayList<ByteBuffer>();
+        for (int index = 0; index < slice.remaining(); index += bufferSize) {
+            parts.add(slice.slice(index, min(bufferSize, slice.remaining() - index)));
+        }
+        return parts;
+    }
+
+    private static class StoredFile {
+        private final List<ByteBuffer> segments;
+        private final long length;
+        private final long capacity;
+
+        StoredFile(List<ByteBuffer> segments, long length, long capacity) {
+            this.segments = segments;
+            this.length = length;
+            this.capacity = capacity;
+        }
+
+        /**
+         * @return read-only slices sharing the segments' memory, covering the given (inclusive) offsets
+         */
+        List<ByteBuffer> slices(long startingOffset, long endingOffset) {
+            var slices = new ArrayList<ByteBuffer>();
+            long segmentStart = 0;
+            for (var segment : segments) {
+                var segmentEnd = segmentStart + segment.limit() - 1;
+                if (segmentEnd >= startingOffset && segmentStart <= endingOffset) {
+                    var from = (int) (max(startingOffset, segmentStart) - segmentStart);
+                    var to = (int) (min(endingOffset, segmentEnd) - segmentStart);
+                    slices.add(segment.slice(from, to - from + 1));
+                }
+                segmentStart = segmentEnd + 1;
+            }
+            return slices;
+        }
+    }
+}
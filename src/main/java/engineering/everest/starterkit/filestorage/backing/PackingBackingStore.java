@@ -0,0 +1,615 @@
+package engineering.everest.starterkit.filestorage.backing;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import engineering.everest.starterkit.filestorage.InputStreamOfKnownLength;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferFactory;
+import reactor.core.publisher.Flux;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Function;
+import java.util.stream.Stream;
+
+import static java.lang.Math.min;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static java.util.stream.Collectors.toList;
+
+/**
+ * Packs small files into large segment objects, so that each small upload does not cost a request of its own to the segment store.
+ * <p>
+ * Files up to the packing threshold are appended to an open segment, which is written to the segment store once it reaches the segment
+ * size or once the flush interval has passed. Uploads return when their segment has been written, so concurrent small uploads share a
+ * single write. Each segment starts with an index of the offset and length of its entries, and packed files are identified as
+ * {@code pack:<segment>:<offset>:<length>}, so a read is a single ranged read of the segment. Larger files are passed through to the
+ * segment store unchanged, as are empty files.
+ * <p>
+ * Deleting a packed file only records its bytes as dead. A background pass rewrites segments whose dead fraction exceeds the compaction
+ * threshold, reporting the new identifier of each live file to the {@link BackingStoreRelocationListener}. The old segment is deleted
+ * after a grace period, once the relocations have been reported again to catch references saved in the meantime, such as by a
+ * deduplicated upload that looked the file up before it was relocated. The grace period must therefore exceed the time between such a
+ * lookup and its save. Relocations are reported a final time after the old segment is deleted, and only then are copies of files that
+ * were never referenced discarded.
+ * <p>
+ * Dead bytes are tracked in memory. When the store is created, the dead bytes of existing segments are recovered in the background from
+ * the packed identifiers still referenced, and compaction starts once that is done. Segments with no referenced files at all cannot be
+ * found this way, so segments left entirely dead, or retired but not yet deleted, by a node that stopped without being closed remain in
+ * the segment store. Closing the store deletes segments still in their grace period, since no further uploads can reference them.
+ */
+@Slf4j
+public class PackingBackingStore implements BackingStore, AutoCloseable {
+
+    static final String FILE_IDENTIFIER_PREFIX = "pack:";
+    private static final String SEPARATOR = ":";
+    private static final String SEGMENT_FILE_NAME = "pack-segment";
+    private static final int SEGMENT_MAGIC = 0x5041434B;
+    private static final int HEADER_FIXED_BYTES = 8;
+    private static final int HEADER_ENTRY_BYTES = 12;
+    private static final long SHUTDOWN_TIMEOUT_SECONDS = 30;
+
+    private final BackingStore segmentStore;
+    private final BackingStoreRelocationListener relocationListener;
+    private final Function<String, Stream<String>> referencedFileIdentifiers;
+    private final PackingPolicy packingPolicy;
+    private final ScheduledThreadPoolExecutor packingExecutor;
+    private final Map<String, SegmentUsage> segmentUsage;
+    private final Set<String> retiredSegments;
+    private final Map<String, Runnable> pendingRetirements;
+    private OpenSegment openSegment;
+
+    /**
+     * @param segmentStore              to which segments and unpacked files are written
+     * @param relocationListener        told the new identifier of each file moved by compaction
+     * @param referencedFileIdentifiers streams, in ascending order, the distinct persisted file identifiers starting with a given prefix.
+     *                                  The stream is closed once read.
+     * @param packingPolicy             sizes and intervals for packing and compaction
+     * @param packingThreads            number of threads writing and compacting segments
+     */
+    public PackingBackingStore(BackingStore segmentStore,
+                               BackingStoreRelocationListener relocationListener,
+                               Function<String, Stream<String>> referencedFileIdentifiers,
+                               PackingPolicy packingPolicy,
+                               int packingThreads) {
+        this.segmentStore = segmentStore;
+        this.relocationListener = relocationListener;
+        this.referencedFileIdentifiers = referencedFileIdentifiers;
+        this.packingPolicy = packingPolicy;
+        this.segmentUsage = new ConcurrentHashMap<>();
+        this.retiredSegments = ConcurrentHashMap.newKeySet();
+        this.pendingRetirements = new ConcurrentHashMap<>();
+        this.packingExecutor = new ScheduledThreadPoolExecutor(packingThreads,
+            new ThreadFactoryBuilder().setNameFormat("pack-segment-%d").setDaemon(true).build());
+        packingExecutor.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+        packingExecutor.execute(() -> {
+            recoverSegmentUsage();
+            var compactionMillis = packingPolicy.getCompactionInterval().toMillis();
+            packingExecutor.scheduleWithFixedDelay(this::compact, compactionMillis, compactionMillis, MILLISECONDS);
+        });
+    }
+
+    @Override
+    public String uploadStream(InputStream inputStream, String fileName) {
+        try {
+            var leadingContent = inputStream.readNBytes(packingPolicy.getPackingThresholdBytes() + 1);
+            if (leadingContent.length == 0 || leadingContent.length > packingPolicy.getPackingThresholdBytes()) {
+                return segmentStore.uploadStream(new SequenceInputStream(new ByteArrayInputStream(leadingContent), inputStream), fileName);
+            }
+            return pack(leadingContent);
+        } catch (IOException e) {
+            throw new BackingFileStoreException("Unable to upload file " + fileName, e);
+        }
+    }
+
+    @Override
+    public String uploadStream(InputStream inputStream, String fileName, long fileSize) {
+        if (fileSize == 0 || fileSize > packingPolicy.getPackingThresholdBytes()) {
+            return segmentStore.uploadStream(inputStream, fileName, fileSize);
+        }
+        try {
+            var content = inputStream.readNBytes(packingPolicy.getPackingThresholdBytes() + 1);
+            if (content.length != fileSize) {
+                throw new BackingFileStoreException(String.format("Expected file size %d for uploaded file '%s' but content length is %d",
+                    fileSize, fileName, content.length));
+            }
+            return pack(content);
+        } catch (IOException e) {
+            throw new BackingFileStoreException("Unable to upload file " + fileName, e);
+        }
+    }
+
+    @Override
+    public void delete(String fileIdentifier) {
+        if (isPacked(fileIdentifier)) {
+            discard(PackedEntry.parse(fileIdentifier));
+        } else {
+            segmentStore.delete(fileIdentifier);
+        }
+    }
+
+    @Override
+    public void deleteFiles(Set<String> fileIdentifiers) {
+        var unpackedFileIdentifiers = new HashSet<String>();
+        for (var fileIdentifier : fileIdentifiers) {
+            if (isPacked(fileIdentifier)) {
+                discard(PackedEntry.parse(fileIdentifier));
+            } else {
+                unpackedFileIdentifiers.add(fileIdentifier);
+            }
+        }
+        if (!unpackedFileIdentifiers.isEmpty()) {
+            segmentStore.deleteFiles(unpackedFileIdentifiers);
+        }
+    }
+
+    @Override
+    public InputStreamOfKnownLength downloadAsStream(String fileIdentifier) throws IOException {
+        if (!isPacked(fileIdentifier)) {
+            return segmentStore.downloadAsStream(fileIdentifier);
+        }
+        var entry = PackedEntry.parse(fileIdentifier);
+        return readEntry(entry, 0, entry.getLength() - 1L);
+    }
+
+    @Override
+    public InputStreamOfKnownLength downloadAsStream(String fileIdentifier, long startingOffset, long endingOffset) throws IOException {
+        if (!isPacked(fileIdentifier)) {
+            return segmentStore.downloadAsStream(fileIdentifier, startingOffset, endingOffset);
+        }
+        var entry = PackedEntry.parse(fileIdentifier);
+        return readEntry(entry, startingOffset, min(endingOffset, entry.getLength() - 1L));
+    }
+
+    @Override
+    public Flux<DataBuffer> downloadAsFlux(String fileIdentifier,
+                                           long startingOffset,
+                                           long endingOffset,
+                                           DataBufferFactory dataBufferFactory,
+                                           int bufferSize) {
+        if (!isPacked(fileIdentifier)) {
+            return segmentStore.downloadAsFlux(fileIdentifier, startingOffset, endingOffset, dataBufferFactory, bufferSize);
+        }
+        var entry = PackedEntry.parse(fileIdentifier);
+        var lastOffset = min(endingOffset, entry.getLength() - 1L);
+        if (lastOffset < startingOffset) {
+            return Flux.empty();
+        }
+        return segmentStore.downloadAsFlux(entry.getSegmentId(), entry.getOffset() + startingOffset, entry.getOffset() + lastOffset,
+            dataBufferFactory, bufferSize);
+    }
+
+    @Override
+    public BackingStorageType backingStorageType() {
+        return segmentStore.backingStorageType();
+    }
+
+    @Override
+    public void close() {
+        OpenSegment segment;
+        synchronized (this) {
+            segment = openSegment;
+            openSegment = null;
+        }
+        if (segment != null) {
+            flush(segment);
+        }
+        packingExecutor.shutdown();
+        try {
+            if (!packingExecutor.awaitTermination(SHUTDOWN_TIMEOUT_SECONDS, SECONDS)) {
+                LOGGER.warn("Pack segment compaction still in progress at shutdown");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        packingExecutor.shutdownNow();
+        List.copyOf(pendingRetirements.values()).forEach(Runnable::run);
+    }
+
+    /**
+     * Recovers the dead bytes of segments written before the store was created from the packed identifiers that are still referenced.
+     * Identifiers are read in ascending order, so that each segment is visited once, and nothing is recovered if they are not.
+     */
+    void recoverSegmentUsage() {
+        var recoveredSegments = new HashMap<String, RecoveredSegment>();
+        try (var fileIdentifiers = referencedFileIdentifiers.apply(FILE_IDENTIFIER_PREFIX)) {
+            String previousFileIdentifier = null;
+            String segmentId = null;
+            var liveOffsets = new HashSet<Long>();
+            for (var iterator = fileIdentifiers.iterator(); iterator.hasNext();) {
+                var fileIdentifier = iterator.next();
+                if (previousFileIdentifier != null && fileIdentifier.compareTo(previousFileIdentifier) < 0) {
+                    LOGGER.warn("Packed file identifiers are not in ascending order, pack segment usage not recovered");
+                    return;
+                }
+                previousFileIdentifier = fileIdentifier;
+                var entry = PackedEntry.parse(fileIdentifier);
+                if (!entry.getSegmentId().equals(segmentId)) {
+                    recover(segmentId, liveOffsets, recoveredSegments);
+                    segmentId = entry.getSegmentId();
+                    liveOffsets.clear();
+                }
+                liveOffsets.add(entry.getOffset());
+            }
+            recover(segmentId, liveOffsets, recoveredSegments);
+        } catch (RuntimeException e) {
+            LOGGER.warn("Unable to recover pack segment usage", e);
+            return;
+        }
+        recoveredSegments.forEach((segmentId, recoveredSegment) -> {
+            if (retiredSegments.contains(segmentId)) {
+                return;
+            }
+            var usage = segmentUsage.computeIfAbsent(segmentId, id -> new SegmentUsage(-1L));
+            if (usage.recover(recoveredSegment.getDataBytes(), recoveredSegment.getDeadEntries())) {
+                deleteIfEntirelyDead(segmentId, usage);
+            }
+        });
+        LOGGER.debug("Recovered usage of {} pack segments", recoveredSegments.size());
+    }
+
+    /**
+     * Rewrites segments whose dead fraction has reached the compaction threshold.
+     */
+    void compact() {
+        for (var segmentId : List.copyOf(segmentUsage.keySet())) {
+            var usage = segmentUsage.get(segmentId);
+            if (usage == null) {
+                continue;
+            }
+            try {
+                if (!usage.isSizeKnown()) {
+                    usage.setDataBytes(readHeader(segmentId).stream().mapToLong(PackedEntry::getLength).sum());
+                }
+                if (usage.deadFraction() >= packingPolicy.getCompactionThreshold()) {
+                    compactSegment(segmentId, usage);
+                }
+            } catch (IOException | RuntimeException e) {
+                LOGGER.warn("Unable to compact pack segment {}", segmentId, e);
+            }
+        }
+    }
+
+    private void recover(String segmentId, Set<Long> liveOffsets, Map<String, RecoveredSegment> recoveredSegments) {
+        if (segmentId == null) {
+            return;
+        }
+        try {
+            var entries = readHeader(segmentId);
+            var deadEntries = entries.stream()
+                .filter(entry -> !liveOffsets.contains(entry.getOffset()))
+                .collect(toList());
+            recoveredSegments.put(segmentId, new RecoveredSegment(entries.stream().mapToLong(PackedEntry::getLength).sum(), deadEntries));
+        } catch (IOException | RuntimeException e) {
+            LOGGER.warn("Unable to read pack segment {}, its usage is not recovered", segmentId, e);
+        }
+    }
+
+    private String pack(byte[] content) {
+        OpenSegment segment;
+        int index;
+        synchronized (this) {
+            if (openSegment == null) {
+                var newSegment = new OpenSegment();
+                openSegment = newSegment;
+                packingExecutor.schedule(() -> flush(newSegment), packingPolicy.getFlushInterval().toMillis(), MILLISECONDS);
+            }
+            segment = openSegment;
+            index = segment.append(content);
+            if (segment.dataBytes() >= packingPolicy.getSegmentSizeBytes()) {
+                openSegment = null;
+                packingExecutor.execute(() -> flush(segment));
+            }
+        }
+        try {
+            return segment.fileIdentifierFor(index, segment.flushed.join());
+        } catch (CompletionException e) {
+            throw e.getCause() instanceof RuntimeException ? (RuntimeException) e.getCause() : e;
+        }
+    }
+
+    private void flush(OpenSegment segment) {
+        synchronized (this) {
+            if (openSegment == segment) {
+                openSegment = null;
+            }
+        }
+        if (!segment.startFlushing()) {
+            return;
+        }
+        try {
+            segment.flushed.complete(writeSegment(segment));
+        } catch (RuntimeException e) {
+            segment.flushed.completeExceptionally(e);
+        }
+    }
+
+    private String writeSegment(OpenSegment segment) {
+        var content = segment.toByteArray();
+        var segmentId = segmentStore.uploadStream(new ByteArrayInputStream(content), SEGMENT_FILE_NAME, content.length);
+        segmentUsage.put(segmentId, new SegmentUsage(segment.dataBytes()));
+        return segmentId;
+    }
+
+    private void discard(PackedEntry entry) {
+        if (retiredSegments.contains(entry.getSegmentId())) {
+            return;
+        }
+        var usage = segmentUsage.computeIfAbsent(entry.getSegmentId(), segmentId -> new SegmentUsage(-1L));
+        if (usage.recordDead(entry.getOffset(), entry.getLength())) {
+            deleteIfEntirelyDead(entry.getSegmentId(), usage);
+        }
+    }
+
+    private void deleteIfEntirelyDead(String segmentId, SegmentUsage usage) {
+        if (usage.isEntirelyDead() && segmentUsage.remove(segmentId, usage)) {
+            retiredSegments.add(segmentId);
+            segmentStore.delete(segmentId);
+        }
+    }
+
+    private void compactSegment(String segmentId, SegmentUsage usage) throws IOException {
+        if (!segmentUsage.remove(segmentId, usage)) {
+            return;
+        }
+        retiredSegments.add(segmentId);
+        byte[] content;
+        try (var inputStream = segmentStore.downloadAsStream(segmentId).getInputStream()) {
+            content = inputStream.readAllBytes();
+        }
+        var entries = parseHeader(segmentId, content);
+        var liveEntries = entries.stream()
+            .filter(entry -> !usage.isDead(entry.getOffset()))
+            .collect(toList());
+        if (liveEntries.isEmpty()) {
+            segmentStore.delete(segmentId);
+            return;
+        }
+
+        var compacted = new OpenSegment();
+        liveEntries.forEach(entry -> compacted.append(
+            Arrays.copyOfRange(content, (int) entry.getOffset(), (int) (entry.getOffset() + entry.getLength()))));
+        var compactedSegmentId = writeSegment(compacted);
+        var relocations = new LinkedHashMap<String, String>();
+        for (var index = 0; index < liveEntries.size(); index++) {
+            relocations.put(liveEntries.get(index).fileIdentifier(), compacted.fileIdentifierFor(index, compactedSegmentId));
+        }
+        var referenced = new HashSet<String>();
+        relocations.forEach((fromFileIdentifier, toFileIdentifier) -> {
+            if (relocationListener.relocated(fromFileIdentifier, toFileIdentifier)) {
+                referenced.add(fromFileIdentifier);
+            }
+        });
+        LOGGER.debug("Compacted pack segment {} into {}, {} of {} entries live", segmentId, compactedSegmentId, relocations.size(),
+            entries.size());
+        Runnable retirement = () -> retire(segmentId, relocations, referenced);
+        pendingRetirements.put(segmentId, retirement);
+        schedule(retirement, packingPolicy.getGracePeriod().toMillis());
+    }
+
+    /**
+     * Relocates references persisted while the segment was being compacted and deletes the compacted segment. Relocations are reported
+     * once more after the deletion, for references saved in between, before the copies of files that were never referenced are
+     * discarded.
+     */
+    private void retire(String segmentId, Map<String, String> relocations, Set<String> referenced) {
+        try {
+            relocations.forEach((fromFileIdentifier, toFileIdentifier) -> {
+                if (relocationListener.relocated(fromFileIdentifier, toFileIdentifier)) {
+                    referenced.add(fromFileIdentifier);
+                }
+            });
+            segmentStore.delete(segmentId);
+            relocations.forEach((fromFileIdentifier, toFileIdentifier) -> {
+                if (!relocationListener.relocated(fromFileIdentifier, toFileIdentifier) && !referenced.contains(fromFileIdentifier)) {
+                    discard(PackedEntry.parse(toFileIdentifier));
+                }
+            });
+            pendingRetirements.remove(segmentId);
+        } catch (RuntimeException e) {
+            LOGGER.warn("Unable to retire compacted pack segment {}, retrying in {}", segmentId, packingPolicy.getCompactionInterval(), e);
+            schedule(() -> retire(segmentId, relocations, referenced), packingPolicy.getCompactionInterval().toMillis());
+        }
+    }
+
+    private void schedule(Runnable task, long delayMillis) {
+        try {
+            packingExecutor.schedule(task, delayMillis, MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            LOGGER.debug("Packing store closed, not scheduling further work");
+        }
+    }
+
+    private InputStreamOfKnownLength readEntry(PackedEntry entry, long startingOffset, long endingOffset) throws IOException {
+        if (endingOffset < startingOffset) {
+            return new InputStreamOfKnownLength(InputStream.nullInputStream(), 0);
+        }
+        var segment = segmentStore.downloadAsStream(entry.getSegmentId(), entry.getOffset() + startingOffset,
+            entry.getOffset() + endingOffset);
+        return new InputStreamOfKnownLength(segment.getInputStream(), endingOffset - startingOffset + 1);
+    }
+
+    private List<PackedEntry> readHeader(String segmentId) throws IOException {
+        var entryCount = ByteBuffer.wrap(readRange(segmentId, HEADER_FIXED_BYTES)).getInt(Integer.BYTES);
+        return parseHeader(segmentId, readRange(segmentId, HEADER_FIXED_BYTES + HEADER_ENTRY_BYTES * entryCount));
+    }
+
+    private byte[] readRange(String segmentId, int length) throws IOException {
+        try (var inputStream = segmentStore.downloadAsStream(segmentId, 0, length - 1L).getInputStream()) {
+            return inputStream.readNBytes(length);
+        }
+    }
+
+    private static List<PackedEntry> parseHeader(String segmentId, byte[] content) {
+        var header = ByteBuffer.wrap(content);
+        if (content.length < HEADER_FIXED_BYTES || header.getInt() != SEGMENT_MAGIC) {
+            throw new BackingFileStoreException(String.format("Invalid pack segment %s", segmentId));
+        }
+        var entryCount = header.getInt();
+        var entries = new ArrayList<PackedEntry>(entryCount);
+        for (var index = 0; index < entryCount; index++) {
+            entries.add(new PackedEntry(segmentId, header.getLong(), header.getInt()));
+        }
+        return entries;
+    }
+
+    private static boolean isPacked(String fileIdentifier) {
+        return fileIdentifier.startsWith(FILE_IDENTIFIER_PREFIX);
+    }
+
+    static String format(String segmentId, long offset, int length) {
+        return FILE_IDENTIFIER_PREFIX + URLEncoder.encode(segmentId, UTF_8) + SEPARATOR + offset + SEPARATOR + length;
+    }
+
+    @AllArgsConstructor
+    @Getter
+    private static class PackedEntry {
+        private final String segmentId;
+        private final long offset;
+        private final int length;
+
+        String fileIdentifier() {
+            return format(segmentId, offset, length);
+        }
+
+        static PackedEntry parse(String fileIdentifier) {
+            var lengthSeparator = fileIdentifier.lastIndexOf(SEPARATOR);
+            var offsetSeparator = fileIdentifier.lastIndexOf(SEPARATOR, lengthSeparator - 1);
+            try {
+                return new PackedEntry(
+                    URLDecoder.decode(fileIdentifier.substring(FILE_IDENTIFIER_PREFIX.length(), offsetSeparator), UTF_8),
+                    Long.parseLong(fileIdentifier.substring(offsetSeparator + 1, lengthSeparator)),
+                    Integer.parseInt(fileIdentifier.substring(lengthSeparator + 1)));
+            } catch (IndexOutOfBoundsException | IllegalArgumentException e) {
+                throw new BackingFileStoreException(String.format("Invalid packed file identifier: %s", fileIdentifier), e);
+            }
+        }
+    }
+
+    @AllArgsConstructor
+    @Getter
+    private static class RecoveredSegment {
+        private final long dataBytes;
+        private final List<PackedEntry> deadEntries;
+    }
+
+    /**
+     * Content being accumulated for a segment. Guarded by the store until it is flushed, after which it is read only.
+     */
+    private static class OpenSegment {
+        private final ByteArrayOutputStream data = new ByteArrayOutputStream();
+        private final List<Integer> lengths = new ArrayList<>();
+        private final CompletableFuture<String> flushed = new CompletableFuture<>();
+        private final AtomicBoolean flushing = new AtomicBoolean();
+        private long[] offsets;
+
+        int append(byte[] content) {
+            data.writeBytes(content);
+            lengths.add(content.length);
+            return lengths.size() - 1;
+        }
+
+        int dataBytes() {
+            return data.size();
+        }
+
+        boolean startFlushing() {
+            return flushing.compareAndSet(false, true);
+        }
+
+        byte[] toByteArray() {
+            var header = ByteBuffer.allocate(HEADER_FIXED_BYTES + HEADER_ENTRY_BYTES * lengths.size());
+            header.putInt(SEGMENT_MAGIC).putInt(lengths.size());
+            offsets = new long[lengths.size()];
+            long offset = header.capacity();
+            for (var index = 0; index < lengths.size(); index++) {
+                offsets[index] = offset;
+                header.putLong(offset).putInt(lengths.get(index));
+                offset += lengths.get(index);
+            }
+            var content = Arrays.copyOf(header.array(), header.capacity() + data.size());
+            System.arraycopy(data.toByteArray(), 0, content, header.capacity(), data.size());
+            return content;
+        }
+
+        String fileIdentifierFor(int index, String segmentId) {
+            return format(segmentId, offsets[index], lengths.get(index));
+        }
+    }
+
+    /**
+     * Live and dead byte counts for a segment. The size of segments written before a restart is unknown until their header is read.
+     */
+    private static class SegmentUsage {
+        private final Set<Long> deadOffsets = new HashSet<>();
+        private long dataBytes;
+        private long deadBytes;
+
+        SegmentUsage(long dataBytes) {
+            this.dataBytes = dataBytes;
+        }
+
+        synchronized boolean isSizeKnown() {
+            return dataBytes >= 0;
+        }
+
+        synchronized void setDataBytes(long dataBytes) {
+            this.dataBytes = dataBytes;
+        }
+
+        /**
+         * Applies usage recovered for a segment written before a restart, unless its size has since become known.
+         */
+        synchronized boolean recover(long dataBytes, List<PackedEntry> deadEntries) {
+            if (isSizeKnown()) {
+                return false;
+            }
+            this.dataBytes = dataBytes;
+            deadEntries.forEach(entry -> recordDead(entry.getOffset(), entry.getLength()));
+            return true;
+        }
+
+        synchronized boolean recordDead(long offset, int length) {
+            if (deadOffsets.add(offset)) {
+                deadBytes += length;
+                return true;
+            }
+            return false;
+        }
+
+        synchronized boolean isDead(long offset) {
+            return deadOffsets.contains(offset);
+        }
+
+        synchronized boolean isEntirelyDead() {
+            return dataBytes >= 0 && deadBytes >= dataBytes;
+        }
+
+        synchronized double deadFraction() {
+            return dataBytes > 0 ? (double) deadBytes / dataBytes : 1.0;
+        }
+    }
+}
@@ -0,0 +1,39 @@
+package engineering.everest.starterkit.filestorage.backing;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+import java.time.Duration;
+
+/**
+ * Packing policy for a {@link PackingBackingStore}.
+ */
+@AllArgsConstructor
+@Getter
+public class PackingPolicy {
+    /**
+     * Files of at most this many bytes are packed into segments. Larger files are stored directly in the segment store.
+     */
+    private final int packingThresholdBytes;
+    /**
+     * Number of bytes of packed content after which a segment is written to the segment store.
+     */
+    private final int segmentSizeBytes;
+    /**
+     * Maximum time an upload waits for its segment to fill before the segment is written regardless of its size.
+     */
+    private final Duration flushInterval;
+    /**
+     * Fraction of a segment's bytes that must belong to deleted files before the segment is compacted.
+     */
+    private final double compactionThreshold;
+    /**
+     * Interval between background compaction passes.
+     */
+    private final Duration compactionInterval;
+    /**
+     * How long a compacted segment is kept, so that in-flight reads can complete and late references can be relocated, before it is
+     * deleted.
+     */
+    private final Duration gracePeriod;
+}
@@ -0,0 +1,181 @@
+package engineering.everest.starterkit.filestorage.backing;
+
+import engineering.everest.starterkit.filestorage.InputStreamOfKnownLength;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferFactory;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
+import java.util.stream.Stream;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static engineering.everest.starterkit.filestorage.backing.BackingStorageType.ROUTED;
+import static java.util.stream.Collectors.groupingBy;
+import static java.util.stream.Collectors.mapping;
+import static java.util.stream.Collectors.toSet;
+
+/**
+ * Places each upload on one of several named backing stores according to its size.
+ * <p>
+ * Routed files are identified as {@code route:<store name>:<file identifier>}, so reads and deletions go straight to the store holding
+ * the file. Identifiers without the prefix, written before routing was enabled, are passed to the default store.
+ * <p>
+ * Uploads of unknown length are buffered up to the size limit of the smallest route, as long as it is no more than 1 MB, and placed on
+ * that route if they fit. Otherwise, as with reactive uploads, they are placed on the store for large files.
+ */
+public class RoutingBackingStore implements BackingStore {
+
+    static final String FILE_IDENTIFIER_PREFIX = "route:";
+    private static final String SEPARATOR = ":";
+    private static final int MAX_BUFFERED_BYTES = 1024 * 1024;
+
+    private final Map<String, BackingStore> backingStores;
+    private final BackingStore defaultStore;
+    private final RoutingPolicy routingPolicy;
+
+    /**
+     * @param backingStores by name
+     * @param defaultStore  holding files stored before routing was enabled
+     * @param routingPolicy naming the stores to place uploads on
+     */
+    public RoutingBackingStore(Map<String, BackingStore> backingStores, BackingStore defaultStore, RoutingPolicy routingPolicy) {
+        var previousLimit = -1L;
+        for (var route : routingPolicy.getRoutes()) {
+            checkArgument(route.getMaxFileSizeBytes() > previousLimit, "Routes must be in ascending order of file size");
+            previousLimit = route.getMaxFileSizeBytes();
+        }
+        routedStoreNames(routingPolicy).forEach(storeName -> {
+            checkArgument(backingStores.containsKey(storeName), "No backing store named '%s'", storeName);
+            checkArgument(!storeName.contains(SEPARATOR), "Backing store name '%s' may not contain '%s'", storeName, SEPARATOR);
+        });
+        this.backingStores = Map.copyOf(backingStores);
+        this.defaultStore = defaultStore;
+        this.routingPolicy = routingPolicy;
+    }
+
+    @Override
+    public String uploadStream(InputStream inputStream, String fileName) {
+        var routes = routingPolicy.getRoutes();
+        if (routes.isEmpty() || routes.get(0).getMaxFileSizeBytes() > MAX_BUFFERED_BYTES) {
+            return upload(routingPolicy.getLargeFileStoreName(), backingStore -> backingStore.uploadStream(inputStream, fileName));
+        }
+        byte[] leadingContent;
+        try {
+            leadingContent = inputStream.readNBytes((int) routes.get(0).getMaxFileSizeBytes() + 1);
+        } catch (IOException e) {
+            throw new BackingFileStoreException("Unable to upload file " + fileName, e);
+        }
+        if (leadingContent.length <= routes.get(0).getMaxFileSizeBytes()) {
+            return uploadStream(new ByteArrayInputStream(leadingContent), fileName, leadingContent.length);
+        }
+        var content = new SequenceInputStream(new ByteArrayInputStream(leadingContent), inputStream);
+        return upload(routingPolicy.getLargeFileStoreName(), backingStore -> backingStore.uploadStream(content, fileName));
+    }
+
+    @Override
+    public String uploadStream(InputStream inputStream, String fileName, long fileSize) {
+        return upload(routingPolicy.storeNameFor(fileSize), backingStore -> backingStore.uploadStream(inputStream, fileName, fileSize));
+    }
+
+    @Override
+    public boolean supportsContentAddressing() {
+        return routedStoreNames(routingPolicy).allMatch(storeName -> backingStores.get(storeName).supportsContentAddressing());
+    }
+
+    @Override
+    public ContentAddressedUpload uploadContentAddressed(InputStream inputStream, String sha256, long fileSize) {
+        var storeName = routingPolicy.storeNameFor(fileSize);
+        var upload = backingStores.get(storeName).uploadContentAddressed(inputStream, sha256, fileSize);
+        return new ContentAddressedUpload(routedFileIdentifier(storeName, upload.getFileIdentifier()), upload.isAlreadyPresent());
+    }
+
+    @Override
+    public Mono<String> uploadFlux(Flux<DataBuffer> content, String fileName) {
+        var storeName = routingPolicy.getLargeFileStoreName();
+        return backingStores.get(storeName).uploadFlux(content, fileName)
+            .map(fileIdentifier -> routedFileIdentifier(storeName, fileIdentifier));
+    }
+
+    @Override
+    public void delete(String fileIdentifier) {
+        storeHolding(fileIdentifier).delete(unrouted(fileIdentifier));
+    }
+
+    @Override
+    public void deleteFiles(Set<String> fileIdentifiers) {
+        fileIdentifiers.stream()
+            .collect(groupingBy(this::storeHolding, mapping(RoutingBackingStore::unrouted, toSet())))
+            .forEach(BackingStore::deleteFiles);
+    }
+
+    @Override
+    public InputStreamOfKnownLength downloadAsStream(String fileIdentifier) throws IOException {
+        return storeHolding(fileIdentifier).downloadAsStream(unrouted(fileIdentifier));
+    }
+
+    @Override
+    public InputStreamOfKnownLength downloadAsStream(String fileIdentifier, long startingOffset, long endingOffset) throws IOException {
+        return storeHolding(fileIdentifier).downloadAsStream(unrouted(fileIdentifier), startingOffset, endingOffset);
+    }
+
+    @Override
+    public Flux<DataBuffer> downloadAsFlux(String fileIdentifier,
+                                           long startingOffset,
+                                           long endingOffset,
+                                           DataBufferFactory dataBufferFactory,
+                                           int bufferSize) {
+        return storeHolding(fileIdentifier).downloadAsFlux(unrouted(fileIdentifier), startingOffset, endingOffset, dataBufferFactory,
+            bufferSize);
+    }
+
+    @Override
+    public BackingStorageType backingStorageType() {
+        return ROUTED;
+    }
+
+    private String upload(String storeName, Function<BackingStore, String> upload) {
+        return routedFileIdentifier(storeName, upload.apply(backingStores.get(storeName)));
+    }
+
+    private BackingStore storeHolding(String fileIdentifier) {
+        if (!fileIdentifier.startsWith(FILE_IDENTIFIER_PREFIX)) {
+            return defaultStore;
+        }
+        var storeName = fileIdentifier.substring(FILE_IDENTIFIER_PREFIX.length(), separatorIndex(fileIdentifier));
+        var backingStore = backingStores.get(storeName);
+        if (backingStore == null) {
+            throw new BackingFileStoreException(String.format("Unknown backing store '%s' for file %s", storeName, fileIdentifier));
+        }
+        return backingStore;
+    }
+
+    private static String unrouted(String fileIdentifier) {
+        return fileIdentifier.startsWith(FILE_IDENTIFIER_PREFIX)
+            ? fileIdentifier.substring(separatorIndex(fileIdentifier) + 1)
+            : fileIdentifier;
+    }
+
+    private static int separatorIndex(String fileIdentifier) {
+        var separatorIndex = fileIdentifier.indexOf(SEPARATOR, FILE_IDENTIFIER_PREFIX.length());
+        if (separatorIndex < 0) {
+            throw new BackingFileStoreException(String.format("Invalid routed file identifier: %s", fileIdentifier));
+        }
+        return separatorIndex;
+    }
+
+    private static String routedFileIdentifier(String storeName, String fileIdentifier) {
+        return FILE_IDENTIFIER_PREFIX + storeName + SEPARATOR + fileIdentifier;
+    }
+
+    private static Stream<String> routedStoreNames(RoutingPolicy routingPolicy) {
+        return Stream.concat(routingPolicy.getRoutes().stream().map(RoutingPolicy.Route::getStoreName),
+            Stream.of(routingPolicy.getLargeFileStoreName()));
+    }
+}
@@ -0,0 +1,40 @@
+package engineering.everest.starterkit.filestorage.backing;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+import java.util.List;
+
+/**
+ * Placement policy for a {@link RoutingBackingStore}.
+ */
+@AllArgsConstructor
+@Getter
+public class RoutingPolicy {
+    /**
+     * Routes in ascending order of the largest file they accept. Each file is placed on the store of the first route it fits.
+     */
+    private final List<Route> routes;
+    /**
+     * Name of the store for files larger than every route, and for uploads that cannot be sized before they are placed.
+     */
+    private final String largeFileStoreName;
+
+    String storeNameFor(long fileSize) {
+        return routes.stream()
+            .filter(route -> fileSize <= route.getMaxFileSizeBytes())
+            .map(Route::getStoreName)
+            .findFirst()
+            .orElse(largeFileStoreName);
+    }
+
+    /**
+     * A named store for files of up to a given size.
+     */
+    @AllArgsConstructor
+    @Getter
+    public static class Route {
+        private final long maxFileSizeBytes;
+        private final String storeName;
+    }
+}
@@ -0,0 +1,82 @@
+package engineering.everest.starterkit.filestorage.backing;
+
+import com.google.common.hash.Hashing;
+
+import java.util.List;
+
+import static java.lang.Math.min;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.UUID.randomUUID;
+
+/**
+ * Chooses the bucket and object key under which an uploaded file is stored by the S3 backing stores. Placement only affects new
+ * uploads: stored file identifiers carry their bucket and key, so files written under one strategy remain readable under any other.
+ */
+public interface S3KeyStrategy {
+
+    int MAX_PREFIX_LENGTH = 8;
+
+    /**
+     * Keys of the form {@code <fileName>-<uuid>}, written to the first bucket.
+     */
+    S3KeyStrategy LEGACY = new S3KeyStrategy() {
+        @Override
+        public String keyFor(String fileName) {
+            return String.format("%s-%s", fileName, randomUUID());
+        }
+
+        @Override
+        public String bucketFor(String key, List<String> bucketNames) {
+            return bucketNames.get(0);
+        }
+    };
+
+    /**
+     * Generates a unique object key for an uploaded file.
+     *
+     * @param fileName original file name
+     * @return object key
+     */
+    String keyFor(String fileName);
+
+    /**
+     * Chooses one of the configured buckets for an object key.
+     *
+     * @param key         object key returned by {@link #keyFor(String)}, or the SHA-256 of content addressed objects
+     * @param bucketNames configured buckets, never empty
+     * @return bucket name
+     */
+    String bucketFor(String key, List<String> bucketNames);
+
+    /**
+     * Keys of the form {@code <hash>/<fileName>-<uuid>}, where the hash prefix is taken from the random part of the key so that writes
+     * are spread evenly over S3 prefix partitions regardless of the names users give their files. Objects are sharded across the
+     * configured buckets by the same hash prefix; content addressed objects, whose keys are their SHA-256, by its leading characters.
+     *
+     * @param prefixLength number of hexadecimal characters in the hash prefix, between 1 and 8
+     * @return hash prefixed key strategy
+     */
+    static S3KeyStrategy hashPrefixed(int prefixLength) {
+        if (prefixLength < 1 || prefixLength > MAX_PREFIX_LENGTH) {
+            throw new IllegalArgumentException("Hash prefix length must be between 1 and 8");
+        }
+        return new S3KeyStrategy() {
+            @Override
+            public String keyFor(String fileName) {
+                var uniqueSuffix = randomUUID().toString();
+                return String.format("%s/%s-%s", hashOf(uniqueSuffix).substring(0, prefixLength), fileName, uniqueSuffix);
+            }
+
+            @Override
+            public String bucketFor(String key, List<String> bucketNames) {
+                var separator = key.indexOf('/');
+                var prefix = separator < 0 ? key.substring(0, min(key.length(), MAX_PREFIX_LENGTH)) : key.substring(0, separator);
+                return bucketNames.get((int) (Long.parseLong(prefix, 16) % bucketNames.size()));
+            }
+        };
+    }
+
+    private static String hashOf(String value) {
+        return Hashing.murmur3_32_fixed().hashString(value, UTF_8).toString();
+    }
+}
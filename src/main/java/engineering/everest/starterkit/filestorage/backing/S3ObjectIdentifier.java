@@ -0,0 +1,45 @@
+package engineering.everest.starterkit.filestorage.backing;
+
+import lombok.AccessLevel;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+import java.util.Comparator;
+import java.util.List;
+
+import static java.util.stream.Collectors.toList;
+
+/**
+ * Parses the {@code s3://bucket/key} file identifiers shared by the S3 backing stores, without depending on either AWS SDK.
+ */
+@AllArgsConstructor(access = AccessLevel.PRIVATE)
+@Getter
+final class S3ObjectIdentifier {
+
+    private static final String SCHEME_PREFIX = "s3://";
+
+    private final String bucket;
+    private final String key;
+
+    static S3ObjectIdentifier parse(String fileIdentifier) {
+        var separator = fileIdentifier.indexOf('/', SCHEME_PREFIX.length());
+        if (!fileIdentifier.startsWith(SCHEME_PREFIX) || separator <= SCHEME_PREFIX.length() || separator == fileIdentifier.length() - 1) {
+            throw new BackingFileStoreException(String.format("Invalid S3 file identifier: %s", fileIdentifier));
+        }
+        return new S3ObjectIdentifier(fileIdentifier.substring(SCHEME_PREFIX.length(), separator), fileIdentifier.substring(separator + 1));
+    }
+
+    static String format(String bucket, String key) {
+        return String.format("%s%s/%s", SCHEME_PREFIX, bucket, key);
+    }
+
+    /**
+     * Orders buckets so that listing each in turn yields file identifiers in ascending order. Buckets are compared with their trailing
+     * separator, since bucket names may contain characters that sort before it.
+     */
+    static List<String> inFileIdentifierOrder(List<String> bucketNames) {
+        return bucketNames.stream()
+            .sorted(Comparator.comparing(bucketName -> bucketName + "/"))
+            .collect(toList());
+    }
+}
@@ -0,0 +1,136 @@
+package engineering.everest.starterkit.filestorage.backing;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Comparator;
+import java.util.List;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.util.stream.Collectors.toList;
+
+/**
+ * A directory of files sharded into two levels of subdirectories using the leading characters of each file identifier. Identifiers are
+ * random UUIDs or content digests, so the leading characters are uniformly distributed and no directory grows unreasonably large.
+ * <p>
+ * Files are written to a temporary directory on the same filesystem and atomically renamed into place once they have been synced, so a
+ * file is either absent or complete. Temporary files left behind by a crash are deleted when the directory is next opened, once they
+ * have not been written to for an hour.
+ */
+@Slf4j
+class ShardedDirectory {
+
+    private static final String TEMPORARY_DIRECTORY = ".incoming";
+    private static final Duration STALE_TEMPORARY_FILE_AGE = Duration.ofHours(1);
+    private static final Pattern VALID_FILE_IDENTIFIER = Pattern.compile("[A-Za-z0-9-]{4,}");
+
+    private final Path root;
+    private final Path temporaryDirectory;
+
+    ShardedDirectory(Path root) {
+        this.root = root;
+        this.temporaryDirectory = root.resolve(TEMPORARY_DIRECTORY);
+        try {
+            Files.createDirectories(temporaryDirectory);
+        } catch (IOException e) {
+            throw new BackingFileStoreException(String.format("Unable to create file store directory %s", root), e);
+        }
+        deleteStaleTemporaryFiles();
+    }
+
+    Path pathFor(String fileIdentifier) {
+        if (!VALID_FILE_IDENTIFIER.matcher(fileIdentifier).matches()) {
+            throw new BackingFileStoreException(String.format("Invalid file identifier '%s'", fileIdentifier));
+        }
+        return root.resolve(fileIdentifier.substring(0, 2)).resolve(fileIdentifier.substring(2, 4)).resolve(fileIdentifier);
+    }
+
+    Path createTemporaryFile() throws IOException {
+        return Files.createTempFile(temporaryDirectory, "upload-", ".tmp");
+    }
+
+    /**
+     * Atomically moves a fully written and synced temporary file into place, then syncs the containing directory so that the rename
+     * itself survives a crash.
+     */
+    void commit(Path temporaryFile, String fileIdentifier) throws IOException {
+        var target = pathFor(fileIdentifier);
+        Files.createDirectories(target.getParent());
+        Files.move(temporaryFile, target, ATOMIC_MOVE);
+        syncDirectory(target.getParent());
+    }
+
+    /**
+     * @return             the identifiers of all committed files, excluding files still being written
+     * @throws IOException if the directory could not be walked
+     */
+    List<String> fileIdentifiers() throws IOException {
+        try (var paths = Files.walk(root, 3)) {
+            return paths
+                .filter(path -> root.relativize(path).getNameCount() == 3 && !path.startsWith(temporaryDirectory))
+                .filter(Files::isRegularFile)
+                .map(path -> path.getFileName().toString())
+                .collect(toList());
+        }
+    }
+
+    /**
+     * Lists committed files one shard directory at a time, so that only a single directory's entries are held in memory.
+     *
+     * @return committed files in ascending order of file identifier, excluding files still being written
+     */
+    Stream<Path> filesInIdentifierOrder() {
+        return sortedEntries(root).stream()
+            .filter(shard -> !shard.equals(temporaryDirectory) && Files.isDirectory(shard))
+            .flatMap(shard -> sortedEntries(shard).stream().filter(Files::isDirectory))
+            .flatMap(subShard -> sortedEntries(subShard).stream().filter(Files::isRegularFile));
+    }
+
+    /**
+     * Files written recently are kept, as they may belong to an upload in progress in another process sharing the directory.
+     */
+    private void deleteStaleTemporaryFiles() {
+        var staleBefore = Instant.now().minus(STALE_TEMPORARY_FILE_AGE);
+        try (var temporaryFiles = Files.list(temporaryDirectory)) {
+            temporaryFiles.forEach(temporaryFile -> deleteIfLastModifiedBefore(temporaryFile, staleBefore));
+        } catch (IOException e) {
+            LOGGER.warn("Unable to list temporary files in {}", temporaryDirectory, e);
+        }
+    }
+
+    private static void deleteIfLastModifiedBefore(Path temporaryFile, Instant staleBefore) {
+        try {
+            if (Files.getLastModifiedTime(temporaryFile).toInstant().isBefore(staleBefore)) {
+                Files.deleteIfExists(temporaryFile);
+                LOGGER.info("Deleted stale temporary file {}", temporaryFile);
+            }
+        } catch (IOException e) {
+            LOGGER.warn("Unable to delete stale temporary file {}", temporaryFile, e);
+        }
+    }
+
+    private static List<Path> sortedEntries(Path directory) {
+        try (var entries = Files.list(directory)) {
+            return entries.sorted(Comparator.comparing(path -> path.getFileName().toString())).collect(toList());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static void syncDirectory(Path directory) {
+        try (var channel = FileChannel.open(directory, READ)) {
+            channel.force(true);
+        } catch (IOException ignored) {
+            // Not every platform supports syncing a directory; the rename has still been performed
+        }
+    }
+}
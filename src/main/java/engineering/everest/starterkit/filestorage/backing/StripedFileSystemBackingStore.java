@@ -0,0 +1,377 @@
+package engineering.everest.starterkit.filestorage.backing;
+
+import engineering.everest.starterkit.filestorage.InputStreamOfKnownLength;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static engineering.everest.starterkit.filestorage.backing.BackingStorageType.STRIPED_FILE_SYSTEM;
+import static java.lang.Math.floorMod;
+import static java.lang.Math.max;
+import static java.lang.Math.min;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.WRITE;
+import static java.util.UUID.randomUUID;
+import static java.util.concurrent.Executors.newFixedThreadPool;
+import static java.util.stream.Collectors.toList;
+
+/**
+ * A file store that spreads each file across several directories, typically one per physical device, in fixed size stripes.
+ * <p>
+ * The directory holding each stripe is derived from the file identifier and the stripe index, so no index needs to be maintained. Stripes
+ * are written and read concurrently, keeping one stripe per directory in flight, so both full and ranged downloads draw on the bandwidth
+ * of every device. Each stripe is written with the same sync and atomic rename guarantees as {@link FileSystemBackingStore}.
+ * <p>
+ * Every file has at least one (possibly empty) stripe. The number of stripes is discovered by probing for stripe files, which takes a
+ * logarithmic number of filesystem lookups.
+ * <p>
+ * Stripes are staged in buffers of the stripe size, which are returned to a pool once written or consumed. At most the configured number
+ * of direct buffers is ever allocated, bounding direct memory whatever the number of concurrent uploads and downloads. Should they all be
+ * in use, further stripes are staged on the Java heap and left for the garbage collector.
+ */
+public class StripedFileSystemBackingStore implements BackingStore, AutoCloseable {
+
+    private final List<ShardedDirectory> directories;
+    private final int stripeSizeBytes;
+    private final ExecutorService stripeIoExecutor;
+    private final BlockingQueue<ByteBuffer> stripeBuffers;
+    private final int maxDirectBuffers;
+    private final AtomicInteger directBuffersAllocated = new AtomicInteger();
+
+    public StripedFileSystemBackingStore(List<Path> directories, int stripeSizeBytes, int ioThreads) {
+        this(directories, stripeSizeBytes, ioThreads, ioThreads);
+    }
+
+    /**
+     * @param directories      holding the stripes, typically one per device
+     * @param stripeSizeBytes  size of every stripe but the last of each file
+     * @param ioThreads        number of stripes written or read concurrently across all files
+     * @param maxDirectBuffers maximum number of direct buffers of the stripe size to allocate
+     */
+    public StripedFileSystemBackingStore(List<Path> directories, int stripeSizeBytes, int ioThreads, int maxDirectBuffers) {
+        checkArgument(maxDirectBuffers > 0, "Maximum number of direct buffers must be positive");
+        this.directories = directories.stream().map(ShardedDirectory::new).collect(toList());
+        this.stripeSizeBytes = stripeSizeBytes;
+        this.stripeIoExecutor = newFixedThreadPool(ioThreads);
+        this.stripeBuffers = new ArrayBlockingQueue<>(maxDirectBuffers);
+        this.maxDirectBuffers = maxDirectBuffers;
+    }
+
+    @Override
+    public String uploadStream(InputStream inputStream, String fileName) {
+        return writeStripes(inputStream, fileName, -1L);
+    }
+
+    @Override
+    public String uploadStream(InputStream inputStream, String fileName, long fileSize) {
+        return writeStripes(inputStream, fileName, fileSize);
+    }
+
+    @Override
+    public void delete(String fileIdentifier) {
+        if (!stripeExists(fileIdentifier, 0)) {
+            return;
+        }
+        try {
+            var stripeCount = stripeCount(fileIdentifier);
+            for (int stripeIndex = stripeCount - 1; stripeIndex >= 0; stripeIndex--) {
+                Files.deleteIfExists(stripePath(fileIdentifier, stripeIndex));
+            }
+        } catch (IOException e) {
+            throw new BackingFileStoreException(String.format("Unable to delete file %s", fileIdentifier), e);
+        }
+    }
+
+    @Override
+    public void deleteFiles(Set<String> fileIdentifiers) {
+        fileIdentifiers.forEach(this::delete);
+    }
+
+    @Override
+    public InputStreamOfKnownLength downloadAsStream(String fileIdentifier) throws IOException {
+        var length = fileLength(fileIdentifier);
+        return new InputStreamOfKnownLength(new StripedInputStream(fileIdentifier, 0, length - 1), length);
+    }
+
+    @Override
+    public InputStreamOfKnownLength downloadAsStream(String fileIdentifier, long startingOffset, long endingOffset) throws IOException {
+        var fileLength = fileLength(fileIdentifier);
+        if (startingOffset > fileLength) {
+            throw new BackingFileStoreException(
+                String.format("Starting offset %d is beyond the end of file %s of %d bytes", startingOffset, fileIdentifier, fileLength));
+        }
+        var clampedEndingOffset = min(endingOffset, fileLength - 1);
+        return new InputStreamOfKnownLength(new StripedInputStream(fileIdentifier, startingOffset, clampedEndingOffset),
+            clampedEndingOffset - startingOffset + 1);
+    }
+
+    @Override
+    public BackingStorageType backingStorageType() {
+        return STRIPED_FILE_SYSTEM;
+    }
+
+    @Override
+    public void close() {
+        stripeIoExecutor.shutdown();
+    }
+
+    private String writeStripes(InputStream inputStream, String fileName, long expectedFileSize) {
+        var fileIdentifier = randomUUID().toString();
+        var source = Channels.newChannel(inputStream);
+        var inFlightWrites = new ArrayDeque<CompletableFuture<Void>>();
+        var stripeIndex = 0;
+        long bytesRead = 0;
+        try {
+            int stripeLength;
+            do {
+                var stripe = acquireStripeBuffer();
+                stripeLength = fill(source, stripe);
+                if (stripeLength > 0 || stripeIndex == 0) {
+                    bytesRead += stripeLength;
+                    if (inFlightWrites.size() == directories.size()) {
+                        inFlightWrites.removeFirst().join();
+                    }
+                    var index = stripeIndex++;
+                    inFlightWrites.addLast(CompletableFuture.runAsync(() -> writeStripe(fileIdentifier, index, stripe), stripeIoExecutor)
+                        .whenComplete((ignored, error) -> releaseStripeBuffer(stripe)));
+                } else {
+                    releaseStripeBuffer(stripe);
+                }
+            } while (stripeLength == stripeSizeBytes);
+            inFlightWrites.forEach(CompletableFuture::join);
+            throwIfContentLengthNotExpectedFileSize(fileName, expectedFileSize, bytesRead);
+            return fileIdentifier;
+        } catch (IOException | RuntimeException e) {
+            inFlightWrites.forEach(write -> write.exceptionally(ignored -> null).join());
+            deleteStripesQuietly(fileIdentifier, stripeIndex);
+            if (e instanceof BackingFileStoreException) {
+                throw (BackingFileStoreException) e;
+            }
+            throw new BackingFileStoreException("Unable to upload file " + fileName, e);
+        }
+    }
+
+    private void writeStripe(String fileIdentifier, int stripeIndex, ByteBuffer stripe) {
+        var directory = directoryFor(fileIdentifier, stripeIndex);
+        try {
+            var temporaryFile = directory.createTemporaryFile();
+            try (var channel = FileChannel.open(temporaryFile, WRITE)) {
+                while (stripe.hasRemaining()) {
+                    channel.write(stripe);
+                }
+                channel.force(true);
+            }
+            directory.commit(temporaryFile, stripeIdentifier(fileIdentifier, stripeIndex));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private ByteBuffer readStripe(String fileIdentifier, int stripeIndex, long fromOffset, int length) {
+        var buffer = acquireStripeBuffer().limit(length);
+        try (var channel = FileChannel.open(stripePath(fileIdentifier, stripeIndex), READ)) {
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer, fromOffset + buffer.position()) == -1) {
+                    throw new EOFException(String.format("Stripe %d of file %s is truncated", stripeIndex, fileIdentifier));
+                }
+            }
+        } catch (IOException e) {
+            releaseStripeBuffer(buffer);
+            throw new UncheckedIOException(e);
+        }
+        return buffer.flip();
+    }
+
+    private ByteBuffer acquireStripeBuffer() {
+        var buffer = stripeBuffers.poll();
+        if (buffer != null) {
+            return buffer.clear();
+        }
+        if (directBuffersAllocated.incrementAndGet() <= maxDirectBuffers) {
+            return ByteBuffer.allocateDirect(stripeSizeBytes);
+        }
+        directBuffersAllocated.decrementAndGet();
+        return ByteBuffer.allocate(stripeSizeBytes);
+    }
+
+    private void releaseStripeBuffer(ByteBuffer buffer) {
+        // Heap buffers are dropped for the garbage collector, while the pool always has room for every direct buffer allocated
+        if (buffer.isDirect()) {
+            stripeBuffers.offer(buffer);
+        }
+    }
+
+    private long fileLength(String fileIdentifier) throws IOException {
+        var lastStripeIndex = stripeCount(fileIdentifier) - 1;
+        return (long) lastStripeIndex * stripeSizeBytes + Files.size(stripePath(fileIdentifier, lastStripeIndex));
+    }
+
+    private int stripeCount(String fileIdentifier) {
+        if (!stripeExists(fileIdentifier, 0)) {
+            throw new BackingFileStoreException(String.format("Unable to retrieve file %s", fileIdentifier));
+        }
+        var existing = 0;
+        var missing = 1;
+        while (stripeExists(fileIdentifier, missing)) {
+            existing = missing;
+            missing *= 2;
+        }
+        while (missing - existing > 1) {
+            var middle = (existing + missing) >>> 1;
+            if (stripeExists(fileIdentifier, middle)) {
+                existing = middle;
+            } else {
+                missing = middle;
+            }
+        }
+        return existing + 1;
+    }
+
+    private boolean stripeExists(String fileIdentifier, int stripeIndex) {
+        return Files.exists(stripePath(fileIdentifier, stripeIndex));
+    }
+
+    private void deleteStripesQuietly(String fileIdentifier, int stripeCount) {
+        for (int stripeIndex = 0; stripeIndex < stripeCount; stripeIndex++) {
+            try {
+                Files.deleteIfExists(stripePath(fileIdentifier, stripeIndex));
+            } catch (IOException ignored) {
+                // The stripe is unreachable without the file identifier, which is never returned to the caller
+            }
+        }
+    }
+
+    private Path stripePath(String fileIdentifier, int stripeIndex) {
+        return directoryFor(fileIdentifier, stripeIndex).pathFor(stripeIdentifier(fileIdentifier, stripeIndex));
+    }
+
+    private ShardedDirectory directoryFor(String fileIdentifier, int stripeIndex) {
+        return directories.get(floorMod(fileIdentifier.hashCode() + stripeIndex, directories.size()));
+    }
+
+    private static String stripeIdentifier(String fileIdentifier, int stripeIndex) {
+        return String.format("%s-%d", fileIdentifier, stripeIndex);
+    }
+
+    private static int fill(ReadableByteChannel source, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (source.read(buffer) == -1) {
+                break;
+            }
+        }
+        buffer.flip();
+        return buffer.remaining();
+    }
+
+    private static void throwIfContentLengthNotExpectedFileSize(String fileName, long expectedFileSize, long bytesRead) {
+        if (expectedFileSize >= 0 && expectedFileSize != bytesRead) {
+            throw new BackingFileStoreException(
+                String.format("Expected file size %d for uploaded file '%s' but content length is %d", expectedFileSize, fileName,
+                    bytesRead));
+        }
+    }
+
+    /**
+     * Reads the stripes covering a byte range, keeping up to one stripe read per directory in flight ahead of the consumer.
+     */
+    private class StripedInputStream extends InputStream {
+
+        private final ArrayDeque<Supplier<CompletableFuture<ByteBuffer>>> pendingReads = new ArrayDeque<>();
+        private final ArrayDeque<CompletableFuture<ByteBuffer>> inFlightReads = new ArrayDeque<>();
+        private ByteBuffer currentStripe;
+
+        StripedInputStream(String fileIdentifier, long startingOffset, long endingOffset) {
+            super();
+            if (endingOffset >= startingOffset) {
+                var firstStripe = (int) (startingOffset / stripeSizeBytes);
+                var lastStripe = (int) (endingOffset / stripeSizeBytes);
+                for (int stripeIndex = firstStripe; stripeIndex <= lastStripe; stripeIndex++) {
+                    var stripeStart = (long) stripeIndex * stripeSizeBytes;
+                    var fromOffset = max(startingOffset, stripeStart) - stripeStart;
+                    var length = (int) (min(endingOffset + 1, stripeStart + stripeSizeBytes) - stripeStart - fromOffset);
+                    var index = stripeIndex;
+                    pendingReads.add(() -> CompletableFuture.supplyAsync(
+                        () -> readStripe(fileIdentifier, index, fromOffset, length), stripeIoExecutor));
+                }
+            }
+            while (inFlightReads.size() < directories.size() && !pendingReads.isEmpty()) {
+                inFlightReads.add(pendingReads.removeFirst().get());
+            }
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (!advanceToReadableStripe()) {
+                return -1;
+            }
+            return currentStripe.get() & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            if (!advanceToReadableStripe()) {
+                return -1;
+            }
+            var bytesToCopy = min(len, currentStripe.remaining());
+            currentStripe.get(b, off, bytesToCopy);
+            return bytesToCopy;
+        }
+
+        @Override
+        public void close() {
+            releaseCurrentStripe();
+            inFlightReads.forEach(read -> read.thenAccept(StripedFileSystemBackingStore.this::releaseStripeBuffer));
+            inFlightReads.clear();
+            pendingReads.clear();
+        }
+
+        private boolean advanceToReadableStripe() throws IOException {
+            while (currentStripe == null || !currentStripe.hasRemaining()) {
+                releaseCurrentStripe();
+                if (inFlightReads.isEmpty()) {
+                    return false;
+                }
+                try {
+                    currentStripe = inFlightReads.removeFirst().join();
+                } catch (CompletionException e) {
+                    throw e.getCause() instanceof UncheckedIOException
+                        ? ((UncheckedIOException) e.getCause()).getCause()
+                        : new IOException(e.getCause());
+                }
+                if (!pendingReads.isEmpty()) {
+                    inFlightReads.addLast(pendingReads.removeFirst().get());
+                }
+            }
+            return true;
+        }
+
+        private void releaseCurrentStripe() {
+            if (currentStripe != null) {
+                releaseStripeBuffer(currentStripe);
+                currentStripe = null;
+            }
+        }
+    }
+}
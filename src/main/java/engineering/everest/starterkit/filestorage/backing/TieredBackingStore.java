@@ -0,0 +1,351 @@
+package engineering.everest.starterkit.filestorage.backing;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import engineering.everest.starterkit.filestorage.InputStreamOfKnownLength;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferFactory;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+import static java.lang.System.nanoTime;
+import static java.util.Comparator.comparingInt;
+import static java.util.concurrent.Executors.newSingleThreadScheduledExecutor;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.function.Function.identity;
+import static java.util.stream.Collectors.toMap;
+import static java.util.stream.Collectors.toSet;
+
+/**
+ * Composes a fast tier, such as memory or local disk, with a capacity tier, such as S3 or GridFS.
+ * <p>
+ * Every file is written to the capacity tier and is identified by its capacity tier identifier, so the tiering is invisible to callers
+ * and to the persisted file mappings. Reads are counted per file; once a file is read often enough it is copied into the fast tier in the
+ * background and subsequent reads are served from the copy. A periodic sweep ages the read counts and removes fast tier copies of files
+ * that have gone unread, and the least frequently read copies are removed whenever the fast tier budget is exceeded.
+ * <p>
+ * Which files are held in the fast tier is not persisted, so the fast tier must be scratch space dedicated to this store. When the fast
+ * tier supports listing, copies left in it by a previous run are deleted in the background at startup, before any promotion. Reads that
+ * fail against the fast tier fall back to the capacity tier.
+ */
+@Slf4j
+public class TieredBackingStore implements BackingStore, AutoCloseable {
+
+    private final BackingStore fastTier;
+    private final BackingStore capacityTier;
+    private final TieringPolicy tieringPolicy;
+    private final ScheduledExecutorService tieringExecutor;
+    private final Map<String, AccessStatistics> accessStatistics;
+    private final Map<String, FastTierCopy> fastTierCopies;
+    private final AtomicLong fastTierBytes;
+    private final Counter hits;
+    private final Counter misses;
+    private final Counter promotions;
+    private final Counter demotions;
+
+    public TieredBackingStore(BackingStore fastTier,
+                              BackingStore capacityTier,
+                              TieringPolicy tieringPolicy,
+                              MeterRegistry meterRegistry,
+                              String storeName) {
+        this.fastTier = fastTier;
+        this.capacityTier = capacityTier;
+        this.tieringPolicy = tieringPolicy;
+        this.tieringExecutor = newSingleThreadScheduledExecutor(
+            new ThreadFactoryBuilder().setNameFormat("tiered-backing-store-" + storeName + "-%d").setDaemon(true).build());
+        this.accessStatistics = new ConcurrentHashMap<>();
+        this.fastTierCopies = new ConcurrentHashMap<>();
+        this.fastTierBytes = new AtomicLong();
+        this.hits = meterRegistry.counter("filestore.tiered.hits", "store", storeName);
+        this.misses = meterRegistry.counter("filestore.tiered.misses", "store", storeName);
+        this.promotions = meterRegistry.counter("filestore.tiered.promotions", "store", storeName);
+        this.demotions = meterRegistry.counter("filestore.tiered.demotions", "store", storeName);
+        Gauge.builder("filestore.tiered.fast.bytes", fastTierBytes, AtomicLong::get)
+            .tag("store", storeName)
+            .register(meterRegistry);
+
+        if (fastTier.supportsListing()) {
+            tieringExecutor.execute(this::deleteCopiesFromPreviousRuns);
+        }
+        var sweepIntervalMillis = tieringPolicy.getSweepInterval().toMillis();
+        tieringExecutor.scheduleWithFixedDelay(this::sweep, sweepIntervalMillis, sweepIntervalMillis, MILLISECONDS);
+    }
+
+    @Override
+    public String uploadStream(InputStream inputStream, String fileName) {
+        return capacityTier.uploadStream(inputStream, fileName);
+    }
+
+    @Override
+    public String uploadStream(InputStream inputStream, String fileName, long fileSize) {
+        return capacityTier.uploadStream(inputStream, fileName, fileSize);
+    }
+
+    @Override
+    public Mono<String> uploadFlux(Flux<DataBuffer> content, String fileName) {
+        return capacityTier.uploadFlux(content, fileName);
+    }
+
+    @Override
+    public void delete(String fileIdentifier) {
+        forget(fileIdentifier);
+        capacityTier.delete(fileIdentifier);
+    }
+
+    @Override
+    public void deleteFiles(Set<String> fileIdentifiers) {
+        fileIdentifiers.forEach(this::forget);
+        capacityTier.deleteFiles(fileIdentifiers);
+    }
+
+    @Override
+    public boolean supportsListing() {
+        return capacityTier.supportsListing();
+    }
+
+    @Override
+    public Stream<BackingFile> listFiles() {
+        return capacityTier.listFiles();
+    }
+
+    @Override
+    public InputStreamOfKnownLength downloadAsStream(String fileIdentifier) throws IOException {
+        var fastTierCopy = recordReadAndFindFastTierCopy(fileIdentifier);
+        if (fastTierCopy != null) {
+            try {
+                var inputStream = fastTier.downloadAsStream(fastTierCopy.fastTierIdentifier);
+                hits.increment();
+                return inputStream;
+            } catch (IOException | BackingFileStoreException e) {
+                discardUnreadableCopy(fileIdentifier, fastTierCopy, e);
+            }
+        }
+        misses.increment();
+        return capacityTier.downloadAsStream(fileIdentifier);
+    }
+
+    @Override
+    public InputStreamOfKnownLength downloadAsStream(String fileIdentifier, long startingOffset, long endingOffset) throws IOException {
+        var fastTierCopy = recordReadAndFindFastTierCopy(fileIdentifier);
+        if (fastTierCopy != null) {
+            try {
+                var inputStream = fastTier.downloadAsStream(fastTierCopy.fastTierIdentifier, startingOffset, endingOffset);
+                hits.increment();
+                return inputStream;
+            } catch (IOException | BackingFileStoreException e) {
+                discardUnreadableCopy(fileIdentifier, fastTierCopy, e);
+            }
+        }
+        misses.increment();
+        return capacityTier.downloadAsStream(fileIdentifier, startingOffset, endingOffset);
+    }
+
+    @Override
+    public Flux<DataBuffer> downloadAsFlux(String fileIdentifier,
+                                           long startingOffset,
+                                           long endingOffset,
+                                           DataBufferFactory dataBufferFactory,
+                                           int bufferSize) {
+        return Flux.defer(() -> {
+            var fromCapacityTier = Flux.defer(() -> {
+                misses.increment();
+                return capacityTier.downloadAsFlux(fileIdentifier, startingOffset, endingOffset, dataBufferFactory, bufferSize);
+            });
+            var fastTierCopy = recordReadAndFindFastTierCopy(fileIdentifier);
+            if (fastTierCopy == null) {
+                return fromCapacityTier;
+            }
+            var emitted = new AtomicBoolean();
+            return fastTier.downloadAsFlux(fastTierCopy.fastTierIdentifier, startingOffset, endingOffset, dataBufferFactory, bufferSize)
+                .doOnNext(dataBuffer -> {
+                    if (emitted.compareAndSet(false, true)) {
+                        hits.increment();
+                    }
+                })
+                .onErrorResume(error -> !emitted.get(), error -> {
+                    discardUnreadableCopy(fileIdentifier, fastTierCopy, error);
+                    return fromCapacityTier;
+                });
+        });
+    }
+
+    @Override
+    public BackingStorageType backingStorageType() {
+        return capacityTier.backingStorageType();
+    }
+
+    @Override
+    public void close() {
+        tieringExecutor.shutdownNow();
+    }
+
+    /**
+     * Ages read counts and demotes fast tier copies of files that have not been read within the idle period.
+     */
+    void sweep() {
+        var idleThreshold = nanoTime() - tieringPolicy.getIdleBeforeDemotion().toNanos();
+        accessStatistics.forEach((fileIdentifier, statistics) -> {
+            if (statistics.lastRead - idleThreshold < 0) {
+                accessStatistics.remove(fileIdentifier, statistics);
+                demote(fileIdentifier);
+            } else {
+                statistics.reads.updateAndGet(reads -> reads >> 1);
+            }
+        });
+    }
+
+    /**
+     * Blocks until promotions queued so far have completed.
+     */
+    void awaitPendingTiering() throws InterruptedException, ExecutionException {
+        tieringExecutor.submit(() -> {}).get();
+    }
+
+    long fastTierBytes() {
+        return fastTierBytes.get();
+    }
+
+    private void deleteCopiesFromPreviousRuns() {
+        var trackedCopies = fastTierCopies.values().stream().map(fastTierCopy -> fastTierCopy.fastTierIdentifier).collect(toSet());
+        try (var fastTierFiles = fastTier.listFiles()) {
+            fastTierFiles.map(BackingFile::getFileIdentifier)
+                .filter(fastTierIdentifier -> !trackedCopies.contains(fastTierIdentifier))
+                .forEach(fastTierIdentifier -> deleteFastTierCopyQuietly(new FastTierCopy(fastTierIdentifier, 0)));
+        } catch (RuntimeException e) {
+            LOGGER.warn("Unable to delete fast tier copies left by a previous run", e);
+        }
+    }
+
+    private FastTierCopy recordReadAndFindFastTierCopy(String fileIdentifier) {
+        var statistics = accessStatistics.computeIfAbsent(fileIdentifier, ignored -> new AccessStatistics());
+        statistics.lastRead = nanoTime();
+        var reads = statistics.reads.incrementAndGet();
+        var fastTierCopy = fastTierCopies.get(fileIdentifier);
+        if (fastTierCopy == null
+            && reads >= tieringPolicy.getPromotionThreshold()
+            && statistics.promotionPending.compareAndSet(false, true)) {
+            tieringExecutor.execute(() -> promote(fileIdentifier, statistics));
+        }
+        return fastTierCopy;
+    }
+
+    private void promote(String fileIdentifier, AccessStatistics statistics) {
+        try {
+            copyToFastTier(fileIdentifier);
+        } finally {
+            statistics.promotionPending.set(false);
+        }
+    }
+
+    private void copyToFastTier(String fileIdentifier) {
+        if (fastTierCopies.containsKey(fileIdentifier) || !accessStatistics.containsKey(fileIdentifier)) {
+            return;
+        }
+        try (var inputStreamOfKnownLength = capacityTier.downloadAsStream(fileIdentifier)) {
+            var length = inputStreamOfKnownLength.getLength();
+            if (length > tieringPolicy.getFastTierBudgetBytes()) {
+                return;
+            }
+            var fastTierIdentifier = fastTier.uploadStream(inputStreamOfKnownLength.getInputStream(), fileIdentifier, length);
+            fastTierCopies.put(fileIdentifier, new FastTierCopy(fastTierIdentifier, length));
+            fastTierBytes.addAndGet(length);
+            promotions.increment();
+            if (!accessStatistics.containsKey(fileIdentifier)) {
+                demote(fileIdentifier);
+            }
+            enforceFastTierBudget();
+        } catch (Exception e) {
+            LOGGER.warn("Unable to promote file {} to the fast tier", fileIdentifier, e);
+        }
+    }
+
+    private void enforceFastTierBudget() {
+        if (fastTierBytes.get() <= tieringPolicy.getFastTierBudgetBytes()) {
+            return;
+        }
+        var candidates = new ArrayList<>(fastTierCopies.keySet());
+        var reads = candidates.stream().collect(toMap(identity(), this::readsOf));
+        var lastReads = candidates.stream().collect(toMap(identity(), this::lastReadOf));
+        candidates.sort(comparingInt(reads::get).thenComparingLong(lastReads::get));
+        var leastFrequentlyRead = candidates.iterator();
+        while (fastTierBytes.get() > tieringPolicy.getFastTierBudgetBytes() && leastFrequentlyRead.hasNext()) {
+            demote(leastFrequentlyRead.next());
+        }
+    }
+
+    private void demote(String fileIdentifier) {
+        var fastTierCopy = fastTierCopies.remove(fileIdentifier);
+        if (fastTierCopy != null) {
+            fastTierBytes.addAndGet(-fastTierCopy.length);
+            demotions.increment();
+            deleteFastTierCopyQuietly(fastTierCopy);
+        }
+    }
+
+    private void forget(String fileIdentifier) {
+        accessStatistics.remove(fileIdentifier);
+        var fastTierCopy = fastTierCopies.remove(fileIdentifier);
+        if (fastTierCopy != null) {
+            fastTierBytes.addAndGet(-fastTierCopy.length);
+            deleteFastTierCopyQuietly(fastTierCopy);
+        }
+    }
+
+    private void discardUnreadableCopy(String fileIdentifier, FastTierCopy fastTierCopy, Throwable error) {
+        LOGGER.warn("Unable to read fast tier copy of file {}, reading from the capacity tier", fileIdentifier, error);
+        if (fastTierCopies.remove(fileIdentifier, fastTierCopy)) {
+            fastTierBytes.addAndGet(-fastTierCopy.length);
+            deleteFastTierCopyQuietly(fastTierCopy);
+        }
+    }
+
+    private void deleteFastTierCopyQuietly(FastTierCopy fastTierCopy) {
+        try {
+            fastTier.delete(fastTierCopy.fastTierIdentifier);
+        } catch (RuntimeException e) {
+            LOGGER.warn("Unable to delete fast tier file {}", fastTierCopy.fastTierIdentifier, e);
+        }
+    }
+
+    private int readsOf(String fileIdentifier) {
+        var statistics = accessStatistics.get(fileIdentifier);
+        return statistics == null ? 0 : statistics.reads.get();
+    }
+
+    private long lastReadOf(String fileIdentifier) {
+        var statistics = accessStatistics.get(fileIdentifier);
+        return statistics == null ? Long.MIN_VALUE : statistics.lastRead;
+    }
+
+    private static class AccessStatistics {
+        private final AtomicInteger reads = new AtomicInteger();
+        private final AtomicBoolean promotionPending = new AtomicBoolean();
+        private volatile long lastRead;
+    }
+
+    private static class FastTierCopy {
+        private final String fastTierIdentifier;
+        private final long length;
+
+        FastTierCopy(String fastTierIdentifier, long length) {
+            this.fastTierIdentifier = fastTierIdentifier;
+            this.length = length;
+        }
+    }
+}
@@ -0,0 +1,31 @@
+package engineering.everest.starterkit.filestorage.backing;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+import java.time.Duration;
+
+/**
+ * Placement policy for a {@link TieredBackingStore}.
+ */
+@AllArgsConstructor
+@Getter
+public class TieringPolicy {
+    /**
+     * Number of recent reads after which a file is copied into the fast tier. Read counts are halved on every sweep, so this is a measure
+     * of read frequency rather than of total reads.
+     */
+    private final int promotionThreshold;
+    /**
+     * How long a file may go unread before its fast tier copy is removed.
+     */
+    private final Duration idleBeforeDemotion;
+    /**
+     * Maximum number of bytes held in the fast tier. The least frequently read files are demoted first when it is exceeded.
+     */
+    private final long fastTierBudgetBytes;
+    /**
+     * Interval between background sweeps that age read counts and demote idle files.
+     */
+    private final Duration sweepInterval;
+}
@@ -0,0 +1,341 @@
+package engineering.everest.starterkit.filestorage.backing;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import engineering.everest.starterkit.filestorage.InputStreamOfKnownLength;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferFactory;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+
+import static java.lang.Math.max;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.StandardOpenOption.WRITE;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static reactor.core.scheduler.Schedulers.boundedElastic;
+
+/**
+ * Accepts uploads as soon as they are durably written to a local staging directory, replicating them to a remote backing store in the
+ * background.
+ * <p>
+ * Uploads return a {@code writeback:} prefixed identifier for the staged file. Once a file has been replicated, the
+ * {@link BackingStoreRelocationListener} is told its remote identifier so that persisted references can be updated. Reads of a staged
+ * identifier are served from the staging directory until a grace period after replication, and from the remote store thereafter. The
+ * relocation is reported once more when the grace period ends, before the staged copy is removed, so that references saved with the
+ * staged identifier in the meantime, such as by a deduplicated upload that looked the file up before it was relocated, are updated too.
+ * The grace period must therefore exceed the time between such a lookup and its save.
+ * <p>
+ * The staging directory is the replication queue. Each staged file has a pending marker recording its original file name until it has
+ * been replicated, and a replicated marker recording its remote identifier until the grace period has passed. Both are synced to disk, so
+ * replication resumes where it left off when the store is next created. A crash after a remote upload but before its marker is written
+ * causes the file to be uploaded again, leaving an unreferenced remote copy. Replicated files that are still unreferenced once the grace
+ * period has passed, because the caller never persisted the staged identifier, are removed from both stores.
+ */
+@Slf4j
+public class WriteBackBackingStore implements BackingStore, AutoCloseable {
+
+    static final String STAGED_FILE_IDENTIFIER_PREFIX = "writeback:";
+    private static final long SHUTDOWN_TIMEOUT_SECONDS = 30;
+
+    private final FileSystemBackingStore stagedFiles;
+    private final ShardedDirectory pendingMarkers;
+    private final ShardedDirectory replicatedMarkers;
+    private final BackingStore remoteBackingStore;
+    private final BackingStoreRelocationListener relocationListener;
+    private final Duration retryDelay;
+    private final Duration gracePeriod;
+    private final ScheduledThreadPoolExecutor replicationExecutor;
+
+    public WriteBackBackingStore(Path stagingDirectory,
+                                 BackingStore remoteBackingStore,
+                                 BackingStoreRelocationListener relocationListener,
+                                 int replicationThreads,
+                                 Duration retryDelay,
+                                 Duration gracePeriod) {
+        this.stagedFiles = new FileSystemBackingStore(stagingDirectory.resolve("staged"));
+        this.pendingMarkers = new ShardedDirectory(stagingDirectory.resolve("pending"));
+        this.replicatedMarkers = new ShardedDirectory(stagingDirectory.resolve("replicated"));
+        this.remoteBackingStore = remoteBackingStore;
+        this.relocationListener = relocationListener;
+        this.retryDelay = retryDelay;
+        this.gracePeriod = gracePeriod;
+        this.replicationExecutor = new ScheduledThreadPoolExecutor(replicationThreads,
+            new ThreadFactoryBuilder().setNameFormat("write-back-replication-%d").setDaemon(true).build());
+        replicationExecutor.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+        replayStagingDirectory();
+    }
+
+    @Override
+    public String uploadStream(InputStream inputStream, String fileName) {
+        return stage(stagedFiles.uploadStream(inputStream, fileName), fileName);
+    }
+
+    @Override
+    public String uploadStream(InputStream inputStream, String fileName, long fileSize) {
+        return stage(stagedFiles.uploadStream(inputStream, fileName, fileSize), fileName);
+    }
+
+    @Override
+    public Mono<String> uploadFlux(Flux<DataBuffer> content, String fileName) {
+        return stagedFiles.uploadFlux(content, fileName)
+            .publishOn(boundedElastic())
+            .map(stagedFileIdentifier -> stage(stagedFileIdentifier, fileName));
+    }
+
+    @Override
+    public void delete(String fileIdentifier) {
+        if (!isStaged(fileIdentifier)) {
+            remoteBackingStore.delete(fileIdentifier);
+            return;
+        }
+        var stagedFileIdentifier = stagedFileIdentifier(fileIdentifier);
+        var remoteFileIdentifier = readMarker(replicatedMarkers, stagedFileIdentifier);
+        discardStagedFile(stagedFileIdentifier);
+        if (remoteFileIdentifier != null) {
+            remoteBackingStore.delete(remoteFileIdentifier);
+        }
+    }
+
+    @Override
+    public void deleteFiles(Set<String> fileIdentifiers) {
+        var remoteFileIdentifiers = new HashSet<String>();
+        for (var fileIdentifier : fileIdentifiers) {
+            if (isStaged(fileIdentifier)) {
+                var stagedFileIdentifier = stagedFileIdentifier(fileIdentifier);
+                var remoteFileIdentifier = readMarker(replicatedMarkers, stagedFileIdentifier);
+                discardStagedFile(stagedFileIdentifier);
+                if (remoteFileIdentifier != null) {
+                    remoteFileIdentifiers.add(remoteFileIdentifier);
+                }
+            } else {
+                remoteFileIdentifiers.add(fileIdentifier);
+            }
+        }
+        if (!remoteFileIdentifiers.isEmpty()) {
+            remoteBackingStore.deleteFiles(remoteFileIdentifiers);
+        }
+    }
+
+    @Override
+    public InputStreamOfKnownLength downloadAsStream(String fileIdentifier) throws IOException {
+        if (isStaged(fileIdentifier)) {
+            var stagedFileIdentifier = stagedFileIdentifier(fileIdentifier);
+            if (stagedFiles.contains(stagedFileIdentifier)) {
+                try {
+                    return stagedFiles.downloadAsStream(stagedFileIdentifier);
+                } catch (BackingFileStoreException e) {
+                    LOGGER.debug("Staged file {} removed while being opened, reading from the remote store", stagedFileIdentifier);
+                }
+            }
+            return remoteBackingStore.downloadAsStream(remoteFileIdentifierFor(fileIdentifier));
+        }
+        return remoteBackingStore.downloadAsStream(fileIdentifier);
+    }
+
+    @Override
+    public InputStreamOfKnownLength downloadAsStream(String fileIdentifier, long startingOffset, long endingOffset) throws IOException {
+        if (isStaged(fileIdentifier)) {
+            var stagedFileIdentifier = stagedFileIdentifier(fileIdentifier);
+            if (stagedFiles.contains(stagedFileIdentifier)) {
+                try {
+                    return stagedFiles.downloadAsStream(stagedFileIdentifier, startingOffset, endingOffset);
+                } catch (BackingFileStoreException e) {
+                    LOGGER.debug("Staged file {} removed while being opened, reading from the remote store", stagedFileIdentifier);
+                }
+            }
+            return remoteBackingStore.downloadAsStream(remoteFileIdentifierFor(fileIdentifier), startingOffset, endingOffset);
+        }
+        return remoteBackingStore.downloadAsStream(fileIdentifier, startingOffset, endingOffset);
+    }
+
+    @Override
+    public Flux<DataBuffer> downloadAsFlux(String fileIdentifier,
+                                           long startingOffset,
+                                           long endingOffset,
+                                           DataBufferFactory dataBufferFactory,
+                                           int bufferSize) {
+        if (!isStaged(fileIdentifier)) {
+            return remoteBackingStore.downloadAsFlux(fileIdentifier, startingOffset, endingOffset, dataBufferFactory, bufferSize);
+        }
+        return Flux.defer(() -> {
+            var stagedFileIdentifier = stagedFileIdentifier(fileIdentifier);
+            if (stagedFiles.contains(stagedFileIdentifier)) {
+                return stagedFiles.downloadAsFlux(stagedFileIdentifier, startingOffset, endingOffset, dataBufferFactory, bufferSize);
+            }
+            return remoteBackingStore.downloadAsFlux(remoteFileIdentifierFor(fileIdentifier), startingOffset, endingOffset,
+                dataBufferFactory, bufferSize);
+        }).subscribeOn(boundedElastic());
+    }
+
+    @Override
+    public BackingStorageType backingStorageType() {
+        return remoteBackingStore.backingStorageType();
+    }
+
+    /**
+     * Waits for queued replications to finish, for up to {@value #SHUTDOWN_TIMEOUT_SECONDS} seconds. Scheduled retries and removals are
+     * abandoned; like any unfinished replication, they are resumed from the staging directory when the store is next created.
+     */
+    @Override
+    public void close() {
+        replicationExecutor.shutdown();
+        try {
+            if (!replicationExecutor.awaitTermination(SHUTDOWN_TIMEOUT_SECONDS, SECONDS)) {
+                LOGGER.warn("Write-back replication still in progress at shutdown, it will resume on restart");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        replicationExecutor.shutdownNow();
+    }
+
+    private String stage(String stagedFileIdentifier, String fileName) {
+        try {
+            writeMarker(pendingMarkers, stagedFileIdentifier, fileName);
+        } catch (IOException e) {
+            stagedFiles.delete(stagedFileIdentifier);
+            throw new BackingFileStoreException("Unable to upload file " + fileName, e);
+        }
+        schedule(() -> replicate(stagedFileIdentifier), Duration.ZERO);
+        return STAGED_FILE_IDENTIFIER_PREFIX + stagedFileIdentifier;
+    }
+
+    private void replicate(String stagedFileIdentifier) {
+        try {
+            var fileName = readMarker(pendingMarkers, stagedFileIdentifier);
+            if (fileName == null) {
+                return;
+            }
+            var remoteFileIdentifier = readMarker(replicatedMarkers, stagedFileIdentifier);
+            if (remoteFileIdentifier == null) {
+                try (var stagedFile = stagedFiles.downloadAsStream(stagedFileIdentifier)) {
+                    remoteFileIdentifier = remoteBackingStore.uploadStream(stagedFile.getInputStream(), fileName, stagedFile.getLength());
+                }
+                if (!Files.exists(pendingMarkers.pathFor(stagedFileIdentifier))) {
+                    remoteBackingStore.delete(remoteFileIdentifier);
+                    return;
+                }
+                writeMarker(replicatedMarkers, stagedFileIdentifier, remoteFileIdentifier);
+            }
+            if (relocationListener.relocated(STAGED_FILE_IDENTIFIER_PREFIX + stagedFileIdentifier, remoteFileIdentifier)) {
+                Files.deleteIfExists(pendingMarkers.pathFor(stagedFileIdentifier));
+                schedule(() -> expire(stagedFileIdentifier), gracePeriod);
+            } else if (ageOf(replicatedMarkers.pathFor(stagedFileIdentifier)) < gracePeriod.toMillis()) {
+                schedule(() -> replicate(stagedFileIdentifier), retryDelay);
+            } else {
+                LOGGER.warn("Staged file {} was never referenced, removing its replicated copy {}", stagedFileIdentifier,
+                    remoteFileIdentifier);
+                discardStagedFile(stagedFileIdentifier);
+                remoteBackingStore.delete(remoteFileIdentifier);
+            }
+        } catch (Exception e) {
+            LOGGER.warn("Unable to replicate staged file {}, retrying in {}", stagedFileIdentifier, retryDelay, e);
+            schedule(() -> replicate(stagedFileIdentifier), retryDelay);
+        }
+    }
+
+    private void expire(String stagedFileIdentifier) {
+        try {
+            var remoteFileIdentifier = readMarker(replicatedMarkers, stagedFileIdentifier);
+            if (remoteFileIdentifier != null) {
+                relocationListener.relocated(STAGED_FILE_IDENTIFIER_PREFIX + stagedFileIdentifier, remoteFileIdentifier);
+            }
+            stagedFiles.delete(stagedFileIdentifier);
+            Files.deleteIfExists(replicatedMarkers.pathFor(stagedFileIdentifier));
+        } catch (IOException | RuntimeException e) {
+            LOGGER.warn("Unable to remove replicated staged file {}, retrying in {}", stagedFileIdentifier, retryDelay, e);
+            schedule(() -> expire(stagedFileIdentifier), retryDelay);
+        }
+    }
+
+    private void schedule(Runnable task, Duration delay) {
+        try {
+            replicationExecutor.schedule(task, delay.toMillis(), MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            LOGGER.debug("Write-back store closed, leaving staged file work to be resumed on restart");
+        }
+    }
+
+    /**
+     * Re-queues staged files that were not replicated before the store was last shut down, schedules the removal of replicated files and
+     * removes staged files that were never acknowledged to a caller.
+     */
+    private void replayStagingDirectory() {
+        try {
+            for (var stagedFileIdentifier : stagedFiles.fileIdentifiers()) {
+                var pendingMarker = pendingMarkers.pathFor(stagedFileIdentifier);
+                var replicatedMarker = replicatedMarkers.pathFor(stagedFileIdentifier);
+                if (Files.exists(pendingMarker)) {
+                    schedule(() -> replicate(stagedFileIdentifier), Duration.ZERO);
+                } else if (Files.exists(replicatedMarker)) {
+                    var remainingGracePeriod = max(0, gracePeriod.toMillis() - ageOf(replicatedMarker));
+                    schedule(() -> expire(stagedFileIdentifier), Duration.ofMillis(remainingGracePeriod));
+                } else {
+                    stagedFiles.delete(stagedFileIdentifier);
+                }
+            }
+        } catch (IOException e) {
+            throw new BackingFileStoreException("Unable to replay write-back staging directory", e);
+        }
+    }
+
+    private String remoteFileIdentifierFor(String fileIdentifier) {
+        var remoteFileIdentifier = readMarker(replicatedMarkers, stagedFileIdentifier(fileIdentifier));
+        if (remoteFileIdentifier == null) {
+            throw new BackingFileStoreException(String.format("Unable to retrieve file %s", fileIdentifier));
+        }
+        return remoteFileIdentifier;
+    }
+
+    private void discardStagedFile(String stagedFileIdentifier) {
+        try {
+            Files.deleteIfExists(pendingMarkers.pathFor(stagedFileIdentifier));
+            stagedFiles.delete(stagedFileIdentifier);
+            Files.deleteIfExists(replicatedMarkers.pathFor(stagedFileIdentifier));
+        } catch (IOException e) {
+            throw new BackingFileStoreException(String.format("Unable to delete file %s", stagedFileIdentifier), e);
+        }
+    }
+
+    private static long ageOf(Path marker) throws IOException {
+        return System.currentTimeMillis() - Files.getLastModifiedTime(marker).toMillis();
+    }
+
+    private static boolean isStaged(String fileIdentifier) {
+        return fileIdentifier.startsWith(STAGED_FILE_IDENTIFIER_PREFIX);
+    }
+
+    private static String stagedFileIdentifier(String fileIdentifier) {
+        return fileIdentifier.substring(STAGED_FILE_IDENTIFIER_PREFIX.length());
+    }
+
+    private static void writeMarker(ShardedDirectory markers, String stagedFileIdentifier, String content) throws IOException {
+        var temporaryFile = markers.createTemporaryFile();
+        Files.writeString(temporaryFile, content, UTF_8);
+        try (var channel = FileChannel.open(temporaryFile, WRITE)) {
+            channel.force(true);
+        }
+        markers.commit(temporaryFile, stagedFileIdentifier);
+    }
+
+    private static String readMarker(ShardedDirectory markers, String stagedFileIdentifier) {
+        var marker = markers.pathFor(stagedFileIdentifier);
+        try {
+            return Files.exists(marker) ? Files.readString(marker, UTF_8) : null;
+        } catch (IOException e) {
+            throw new BackingFileStoreException(String.format("Unable to read marker for staged file %s", stagedFileIdentifier), e);
+        }
+    }
+}
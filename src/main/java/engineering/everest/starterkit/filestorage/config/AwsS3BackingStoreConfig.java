@@ -5,44 +5,150 @@ import com.amazonaws.client.builder.AwsClientBuilder;
 import com.amazonaws.services.s3.AmazonS3;
 import com.amazonaws.services.s3.AmazonS3ClientBuilder;
 import com.amazonaws.util.StringUtils;
+import com.google.common.net.InetAddresses;
+import engineering.everest.starterkit.filestorage.backing.AwsS3AsyncBackingStore;
 import engineering.everest.starterkit.filestorage.backing.BackingStore;
 import engineering.everest.starterkit.filestorage.backing.AwsS3BackingStore;
+import engineering.everest.starterkit.filestorage.backing.S3KeyStrategy;
 import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnClass;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import software.amazon.awssdk.regions.Region;
+import software.amazon.awssdk.services.s3.S3AsyncClient;
+
+import java.net.URI;
+import java.util.Arrays;
+import java.util.List;
+
+import static java.util.stream.Collectors.toList;
 
 @Configuration
 @ConditionalOnProperty(name = "application.filestore.backend", havingValue = "awsS3")
 public class AwsS3BackingStoreConfig {
 
+    private static final String CLIENT_PROPERTY = "application.filestore.awsS3.client";
+    private static final String REGION = "${application.filestore.awsS3.region:}";
+    private static final String DEFAULT_REGION = "us-east-1";
+
     @Bean
+    @ConditionalOnProperty(name = CLIENT_PROPERTY, havingValue = "v1", matchIfMissing = true)
     AmazonS3 s3Client(@Value("${application.filestore.awsS3.endpoint:}") String customEndpoint,
+                      @Value(REGION) String region,
                       AWSCredentialsProvider awsCredentialsProvider) {
         if (StringUtils.isNullOrEmpty(customEndpoint)) {
             return AmazonS3ClientBuilder.defaultClient();
         }
 
         return AmazonS3ClientBuilder.standard()
-            .withEndpointConfiguration(new AwsClientBuilder.EndpointConfiguration(customEndpoint, regionFor(customEndpoint)))
+            .withEndpointConfiguration(new AwsClientBuilder.EndpointConfiguration(customEndpoint, regionFor(customEndpoint, region)))
             .withCredentials(awsCredentialsProvider)
             .build();
     }
 
+    @Bean
+    S3KeyStrategy s3KeyStrategy(@Value("${application.filestore.awsS3.keys.strategy:legacy}") String strategy,
+                                @Value("${application.filestore.awsS3.keys.prefixLength:4}") int prefixLength) {
+        switch (strategy) {
+            case "legacy":
+                return S3KeyStrategy.LEGACY;
+            case "hashPrefixed":
+                return S3KeyStrategy.hashPrefixed(prefixLength);
+            default:
+                throw new IllegalArgumentException("Unknown S3 key strategy: " + strategy);
+        }
+    }
+
     @Bean
     @Qualifier("permanentBackingStore")
-    BackingStore awsS3PermanentFileStore(AmazonS3 s3Client, @Value("${application.filestore.awsS3.buckets.permanent}") String bucketName) {
-        return new AwsS3BackingStore(s3Client, bucketName);
+    @ConditionalOnProperty(name = CLIENT_PROPERTY, havingValue = "v1", matchIfMissing = true)
+    BackingStore awsS3PermanentFileStore(AmazonS3 s3Client,
+                                         @Value("${application.filestore.awsS3.buckets.permanent}") String[] bucketNames,
+                                         S3KeyStrategy s3KeyStrategy) {
+        return new AwsS3BackingStore(s3Client, trimmed(bucketNames), s3KeyStrategy);
     }
 
     @Bean
     @Qualifier("ephemeralBackingStore")
-    BackingStore awsS3EphemeralFileStore(AmazonS3 s3Client, @Value("${application.filestore.awsS3.buckets.ephemeral}") String bucketName) {
-        return new AwsS3BackingStore(s3Client, bucketName);
+    @ConditionalOnProperty(name = CLIENT_PROPERTY, havingValue = "v1", matchIfMissing = true)
+    BackingStore awsS3EphemeralFileStore(AmazonS3 s3Client,
+                                         @Value("${application.filestore.awsS3.buckets.ephemeral}") String[] bucketNames,
+                                         S3KeyStrategy s3KeyStrategy) {
+        return new AwsS3BackingStore(s3Client, trimmed(bucketNames), s3KeyStrategy);
+    }
+
+    /**
+     * The AWS SDK v2 is an optional dependency, so the async client is only configured when it is on the classpath. The CRT based client
+     * additionally needs {@code aws-crt}.
+     */
+    @Configuration
+    @ConditionalOnClass(name = "software.amazon.awssdk.services.s3.S3AsyncClient")
+    @ConditionalOnProperty(name = CLIENT_PROPERTY, havingValue = "async")
+    static class AsyncClientConfig {
+
+        @Bean(destroyMethod = "close")
+        S3AsyncClient s3AsyncClient(@Value("${application.filestore.awsS3.endpoint:}") String customEndpoint,
+                                    @Value(REGION) String region,
+                                    @Value("${application.filestore.awsS3.crt.enabled:true}") boolean crtEnabled) {
+            if (crtEnabled) {
+                var builder = S3AsyncClient.crtBuilder();
+                if (!StringUtils.isNullOrEmpty(customEndpoint)) {
+                    var endpoint = endpointUriFor(customEndpoint);
+                    builder.endpointOverride(endpoint).region(Region.of(regionFor(customEndpoint, region)));
+                }
+                return builder.build();
+            }
+
+            var builder = S3AsyncClient.builder();
+            if (!StringUtils.isNullOrEmpty(customEndpoint)) {
+                var endpoint = endpointUriFor(customEndpoint);
+                builder.endpointOverride(endpoint).region(Region.of(regionFor(customEndpoint, region)));
+            }
+            return builder.build();
+        }
+
+        @Bean
+        @Qualifier("permanentBackingStore")
+        BackingStore awsS3AsyncPermanentFileStore(S3AsyncClient s3AsyncClient,
+                                                  @Value("${application.filestore.awsS3.buckets.permanent}") String[] bucketNames,
+                                                  S3KeyStrategy s3KeyStrategy,
+                                                  @Value("${application.filestore.awsS3.async.uploadThreads:16}") int uploadThreads) {
+            return new AwsS3AsyncBackingStore(s3AsyncClient, trimmed(bucketNames), s3KeyStrategy, uploadThreads);
+        }
+
+        @Bean
+        @Qualifier("ephemeralBackingStore")
+        BackingStore awsS3AsyncEphemeralFileStore(S3AsyncClient s3AsyncClient,
+                                                  @Value("${application.filestore.awsS3.buckets.ephemeral}") String[] bucketNames,
+                                                  S3KeyStrategy s3KeyStrategy,
+                                                  @Value("${application.filestore.awsS3.async.uploadThreads:16}") int uploadThreads) {
+            return new AwsS3AsyncBackingStore(s3AsyncClient, trimmed(bucketNames), s3KeyStrategy, uploadThreads);
+        }
+    }
+
+    private static List<String> trimmed(String[] bucketNames) {
+        return Arrays.stream(bucketNames).map(String::trim).filter(bucketName -> !bucketName.isEmpty()).collect(toList());
+    }
+
+    /**
+     * Uses the configured region if there is one, then the leading label of the endpoint's host name, as in
+     * {@code eu-west-1.example.com}. Endpoints without such a label, such as {@code http://minio:9000} or an IP address, fall back to the
+     * default region, which S3 compatible stores generally accept.
+     */
+    private static String regionFor(String customEndpoint, String configuredRegion) {
+        if (!StringUtils.isNullOrEmpty(configuredRegion)) {
+            return configuredRegion;
+        }
+        var host = endpointUriFor(customEndpoint).getHost();
+        if (host == null || InetAddresses.isInetAddress(host) || host.indexOf('.') < 0) {
+            return DEFAULT_REGION;
+        }
+        return host.substring(0, host.indexOf('.'));
     }
 
-    private String regionFor(String customEndpoint) {
-        return customEndpoint.substring(0, customEndpoint.indexOf('.'));
+    private static URI endpointUriFor(String customEndpoint) {
+        return URI.create(customEndpoint.contains("://") ? customEndpoint : "https://" + customEndpoint);
     }
 }
@@ -0,0 +1,21 @@
+package engineering.everest.starterkit.filestorage.config;
+
+import engineering.everest.starterkit.filestorage.backing.BackingStore;
+import engineering.everest.starterkit.filestorage.filestores.FileStoreType;
+
+/**
+ * Extension point for wrapping the configured backing stores before they are handed to the deduplicating file stores.
+ * <p>
+ * Every bean of this type is applied in {@link org.springframework.core.annotation.Order} order, each decorator receiving the result of the
+ * previous one. Decorators must return the backing store unchanged for file store types they do not apply to.
+ */
+@FunctionalInterface
+public interface BackingStoreDecorator {
+
+    /**
+     * @param  fileStoreType the file store the backing store will serve
+     * @param  backingStore  the configured, possibly already decorated, backing store
+     * @return               the backing store to use in its place
+     */
+    BackingStore decorate(FileStoreType fileStoreType, BackingStore backingStore);
+}
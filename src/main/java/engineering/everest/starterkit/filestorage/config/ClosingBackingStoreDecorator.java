@@ -0,0 +1,56 @@
+package engineering.everest.starterkit.filestorage.config;
+
+import engineering.everest.starterkit.filestorage.backing.BackingStore;
+import engineering.everest.starterkit.filestorage.filestores.FileStoreType;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static java.util.Collections.reverse;
+
+/**
+ * Wraps a decorator so that the backing stores it creates, which are not beans themselves, are closed with the application context.
+ */
+@Slf4j
+class ClosingBackingStoreDecorator implements BackingStoreDecorator, AutoCloseable {
+
+    private final BackingStoreDecorator backingStoreDecorator;
+    private final List<AutoCloseable> createdBackingStores;
+
+    ClosingBackingStoreDecorator(BackingStoreDecorator backingStoreDecorator) {
+        this.backingStoreDecorator = backingStoreDecorator;
+        this.createdBackingStores = new ArrayList<>();
+    }
+
+    @Override
+    public BackingStore decorate(FileStoreType fileStoreType, BackingStore backingStore) {
+        var decoratedBackingStore = backingStoreDecorator.decorate(fileStoreType, backingStore);
+        if (decoratedBackingStore != backingStore && decoratedBackingStore instanceof AutoCloseable) {
+            synchronized (createdBackingStores) {
+                createdBackingStores.add((AutoCloseable) decoratedBackingStore);
+            }
+        }
+        return decoratedBackingStore;
+    }
+
+    /**
+     * Closes the created backing stores in the reverse order of their creation.
+     */
+    @Override
+    public void close() {
+        List<AutoCloseable> backingStores;
+        synchronized (createdBackingStores) {
+            backingStores = new ArrayList<>(createdBackingStores);
+            createdBackingStores.clear();
+        }
+        reverse(backingStores);
+        for (var backingStore : backingStores) {
+            try {
+                backingStore.close();
+            } catch (Exception e) {
+                LOGGER.warn("Unable to close backing store {}", backingStore, e);
+            }
+        }
+    }
+}
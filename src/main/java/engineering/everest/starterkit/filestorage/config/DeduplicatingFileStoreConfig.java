@@ -1,36 +1,159 @@
 package engineering.everest.starterkit.filestorage.config;
 
 import engineering.everest.starterkit.filestorage.filestores.EphemeralDeduplicatingFileStore;
+import engineering.everest.starterkit.filestorage.filestores.FileIdGenerator;
 import engineering.everest.starterkit.filestorage.FileService;
 import engineering.everest.starterkit.filestorage.backing.BackingStore;
+import engineering.everest.starterkit.filestorage.filestores.FileStoreOptions;
+import engineering.everest.starterkit.filestorage.filestores.FileStoreType;
 import engineering.everest.starterkit.filestorage.filestores.PermanentDeduplicatingFileStore;
+import engineering.everest.starterkit.filestorage.persistence.BackingObjectReferences;
+import engineering.everest.starterkit.filestorage.persistence.BackingObjectRepository;
+import engineering.everest.starterkit.filestorage.persistence.CoalescingFileMappingStore;
 import engineering.everest.starterkit.filestorage.persistence.FileMappingRepository;
+import engineering.everest.starterkit.filestorage.persistence.FileMappingScans;
+import engineering.everest.starterkit.filestorage.persistence.FileMappingStore;
+import engineering.everest.starterkit.filestorage.persistence.JdbcFileMappingStore;
+import engineering.everest.starterkit.filestorage.persistence.JpaFileMappingStore;
+import jakarta.persistence.EntityManagerFactory;
+import org.springframework.beans.factory.ObjectProvider;
 import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.Duration;
+
+import static engineering.everest.starterkit.filestorage.filestores.FileStoreType.EPHEMERAL;
+import static engineering.everest.starterkit.filestorage.filestores.FileStoreType.PERMANENT;
 
 @Configuration
 public class DeduplicatingFileStoreConfig {
 
+    private static final String CONTENT_ADDRESSED = "${application.filestore.contentAddressed:false}";
+    private static final String INLINE_THRESHOLD = "${application.filestore.inline.threshold.bytes:-1}";
+    private static final String REFERENCE_COUNTED = "${application.filestore.referenceCounted:false}";
+    private static final String SCAN_FETCH_SIZE = "${application.filestore.scan.fetchSize:1000}";
+    private static final String MAPPING_STORE = "${application.filestore.mappingStore:jpa}";
+    private static final String COALESCE_WINDOW = "${application.filestore.coalesce.window.millis:0}";
+    private static final String COALESCE_BATCH_SIZE = "${application.filestore.coalesce.batch.size:100}";
+    private static final String FILE_IDS = "${application.filestore.fileIds:timeOrdered}";
+
+    @Bean
+    BackingObjectReferences backingObjectReferences(FileMappingRepository fileMappingRepository,
+                                                    BackingObjectRepository backingObjectRepository) {
+        return new BackingObjectReferences(fileMappingRepository, backingObjectRepository);
+    }
+
+    @Bean
+    FileMappingStore fileMappingStore(FileMappingRepository fileMappingRepository,
+                                      ObjectProvider<JdbcTemplate> jdbcTemplate,
+                                      ObjectProvider<PlatformTransactionManager> transactionManager,
+                                      @Value(MAPPING_STORE) String mappingStore,
+                                      @Value(COALESCE_WINDOW) long coalesceWindowMillis,
+                                      @Value(COALESCE_BATCH_SIZE) int coalesceBatchSize) {
+        var fileMappingStore = selectFileMappingStore(fileMappingRepository, jdbcTemplate, mappingStore);
+        if (coalesceWindowMillis <= 0) {
+            return fileMappingStore;
+        }
+        return new CoalescingFileMappingStore(fileMappingStore, new TransactionTemplate(transactionManager.getObject()),
+            Duration.ofMillis(coalesceWindowMillis), coalesceBatchSize);
+    }
+
+    @Bean
+    FileIdGenerator fileIdGenerator(@Value(FILE_IDS) String fileIds) {
+        switch (fileIds) {
+            case "timeOrdered":
+                return FileIdGenerator.timeOrdered();
+            case "random":
+                return FileIdGenerator.RANDOM;
+            default:
+                throw new IllegalArgumentException("Unknown file identifier generator: " + fileIds);
+        }
+    }
+
+    @Bean
+    FileMappingScans fileMappingScans(EntityManagerFactory entityManagerFactory, @Value(SCAN_FETCH_SIZE) int fetchSize) {
+        return new FileMappingScans(entityManagerFactory, fetchSize);
+    }
+
     @Bean
     @Qualifier("permanentDeduplicatingFileStore")
     PermanentDeduplicatingFileStore permanentFileStore(FileMappingRepository fileMappingRepository,
-                                                       @Qualifier("permanentBackingStore") BackingStore backingStore) {
-        return new PermanentDeduplicatingFileStore(fileMappingRepository, backingStore);
+                                                       @Qualifier("permanentBackingStore") BackingStore backingStore,
+                                                       ObjectProvider<BackingStoreDecorator> backingStoreDecorators,
+                                                       @Value(CONTENT_ADDRESSED) boolean contentAddressed,
+                                                       @Value(INLINE_THRESHOLD) int inlineThreshold,
+                                                       @Value(REFERENCE_COUNTED) boolean referenceCounted,
+                                                       BackingObjectReferences backingObjectReferences,
+                                                       FileMappingStore fileMappingStore,
+                                                       FileIdGenerator fileIdGenerator) {
+        return new PermanentDeduplicatingFileStore(fileMappingRepository, decorate(PERMANENT, backingStore, backingStoreDecorators),
+            fileStoreOptions(contentAddressed, inlineThreshold, referenceCounted ? backingObjectReferences : null, fileMappingStore,
+                fileIdGenerator));
     }
 
     @Bean
     @Qualifier("ephemeralDeduplicatingFileStore")
     EphemeralDeduplicatingFileStore ephemeralFileStore(FileMappingRepository fileMappingRepository,
-                                                       @Qualifier("ephemeralBackingStore") BackingStore backingStore) {
-        return new EphemeralDeduplicatingFileStore(fileMappingRepository, backingStore);
+                                                       @Qualifier("ephemeralBackingStore") BackingStore backingStore,
+                                                       ObjectProvider<BackingStoreDecorator> backingStoreDecorators,
+                                                       @Value(CONTENT_ADDRESSED) boolean contentAddressed,
+                                                       @Value(INLINE_THRESHOLD) int inlineThreshold,
+                                                       @Value(REFERENCE_COUNTED) boolean referenceCounted,
+                                                       BackingObjectReferences backingObjectReferences,
+                                                       FileMappingStore fileMappingStore,
+                                                       FileIdGenerator fileIdGenerator) {
+        return new EphemeralDeduplicatingFileStore(fileMappingRepository, decorate(EPHEMERAL, backingStore, backingStoreDecorators),
+            fileStoreOptions(contentAddressed, inlineThreshold, referenceCounted ? backingObjectReferences : null, fileMappingStore,
+                fileIdGenerator));
     }
 
     @Bean
     public FileService fileService(
-                                   FileMappingRepository fileMappingRepository,
+                                   FileMappingStore fileMappingStore,
                                    @Qualifier("permanentDeduplicatingFileStore") PermanentDeduplicatingFileStore permanentDeduplicatingFileStore,
                                    @Qualifier("ephemeralDeduplicatingFileStore") EphemeralDeduplicatingFileStore ephemeralDeduplicatingFileStore) {
-        return new FileService(fileMappingRepository, permanentDeduplicatingFileStore, ephemeralDeduplicatingFileStore);
+        return new FileService(fileMappingStore, permanentDeduplicatingFileStore, ephemeralDeduplicatingFileStore);
+    }
+
+    private static FileStoreOptions fileStoreOptions(boolean contentAddressed,
+                                                     int inlineThreshold,
+                                                     BackingObjectReferences backingObjectReferences,
+                                                     FileMappingStore fileMappingStore,
+                                                     FileIdGenerator fileIdGenerator) {
+        return FileStoreOptions.builder()
+            .contentAddressed(contentAddressed)
+            .inlineThresholdBytes(inlineThreshold)
+            .backingObjectReferences(backingObjectReferences)
+            .fileMappingStore(fileMappingStore)
+            .fileIdGenerator(fileIdGenerator)
+            .build();
+    }
+
+    private static FileMappingStore selectFileMappingStore(FileMappingRepository fileMappingRepository,
+                                                           ObjectProvider<JdbcTemplate> jdbcTemplate,
+                                                           String mappingStore) {
+        switch (mappingStore) {
+            case "jpa":
+                return new JpaFileMappingStore(fileMappingRepository);
+            case "jdbc":
+                return new JdbcFileMappingStore(jdbcTemplate.getObject());
+            default:
+                throw new IllegalArgumentException("Unknown file mapping store: " + mappingStore);
+        }
+    }
+
+    private static BackingStore decorate(FileStoreType fileStoreType,
+                                         BackingStore backingStore,
+                                         ObjectProvider<BackingStoreDecorator> backingStoreDecorators) {
+        var decoratedBackingStore = backingStore;
+        for (var backingStoreDecorator : (Iterable<BackingStoreDecorator>) backingStoreDecorators.orderedStream()::iterator) {
+            decoratedBackingStore = backingStoreDecorator.decorate(fileStoreType, decoratedBackingStore);
+        }
+        return decoratedBackingStore;
     }
 }
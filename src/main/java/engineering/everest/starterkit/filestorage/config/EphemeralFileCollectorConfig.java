@@ -0,0 +1,40 @@
+package engineering.everest.starterkit.filestorage.config;
+
+import engineering.everest.starterkit.filestorage.filestores.CollectionPolicy;
+import engineering.everest.starterkit.filestorage.filestores.EphemeralDeduplicatingFileStore;
+import engineering.everest.starterkit.filestorage.filestores.EphemeralFileCollector;
+import engineering.everest.starterkit.filestorage.persistence.FileMappingClaims;
+import engineering.everest.starterkit.filestorage.persistence.FileMappingRepository;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.time.Clock;
+import java.time.Duration;
+
+@Configuration
+@ConditionalOnProperty(name = "application.filestore.gc.enabled", havingValue = "true")
+public class EphemeralFileCollectorConfig {
+
+    @Bean
+    FileMappingClaims fileMappingClaims(FileMappingRepository fileMappingRepository) {
+        return new FileMappingClaims(fileMappingRepository);
+    }
+
+    @Bean
+    EphemeralFileCollector ephemeralFileCollector(@Qualifier("ephemeralDeduplicatingFileStore") EphemeralDeduplicatingFileStore fileStore,
+                                                  FileMappingClaims fileMappingClaims,
+                                                  @Value("${application.filestore.gc.workers:2}") int workers,
+                                                  @Value("${application.filestore.gc.poll.seconds:10}") long pollSeconds,
+                                                  @Value("${application.filestore.gc.lease.seconds:300}") long leaseSeconds,
+                                                  @Value("${application.filestore.gc.batch.min:10}") int minBatchSize,
+                                                  @Value("${application.filestore.gc.batch.max:1000}") int maxBatchSize,
+                                                  @Value("${application.filestore.gc.batch.target.millis:1000}") long targetMillis,
+                                                  @Value("${application.filestore.gc.rate.per.second:0}") double deletionsPerSecond) {
+        var collectionPolicy = new CollectionPolicy(workers, Duration.ofSeconds(pollSeconds), Duration.ofSeconds(leaseSeconds),
+            minBatchSize, maxBatchSize, Duration.ofMillis(targetMillis), deletionsPerSecond);
+        return new EphemeralFileCollector(fileStore, fileMappingClaims, collectionPolicy, Clock.systemUTC());
+    }
+}
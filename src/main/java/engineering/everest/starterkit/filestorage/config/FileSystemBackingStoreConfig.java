@@ -0,0 +1,28 @@
+package engineering.everest.starterkit.filestorage.config;
+
+import engineering.everest.starterkit.filestorage.backing.BackingStore;
+import engineering.everest.starterkit.filestorage.backing.FileSystemBackingStore;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.nio.file.Path;
+
+@Configuration
+@ConditionalOnProperty(name = "application.filestore.backend", havingValue = "fileSystem")
+public class FileSystemBackingStoreConfig {
+
+    @Bean
+    @Qualifier("permanentBackingStore")
+    BackingStore fileSystemPermanentBackingStore(@Value("${application.filestore.fileSystem.paths.permanent}") String path) {
+        return new FileSystemBackingStore(Path.of(path));
+    }
+
+    @Bean
+    @Qualifier("ephemeralBackingStore")
+    BackingStore fileSystemEphemeralBackingStore(@Value("${application.filestore.fileSystem.paths.ephemeral}") String path) {
+        return new FileSystemBackingStore(Path.of(path));
+    }
+}
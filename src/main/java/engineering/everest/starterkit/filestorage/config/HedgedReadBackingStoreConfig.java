@@ -0,0 +1,41 @@
+package engineering.everest.starterkit.filestorage.config;
+
+import engineering.everest.starterkit.filestorage.backing.BackingStore;
+import engineering.everest.starterkit.filestorage.backing.HedgedReadBackingStore;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+
+import java.time.Duration;
+
+import static engineering.everest.starterkit.filestorage.filestores.FileStoreType.PERMANENT;
+
+/**
+ * Hedges reads of the configured backing stores against secondary backing stores supplied by the application as beans qualified with
+ * {@code permanentSecondaryBackingStore} and, optionally, {@code ephemeralSecondaryBackingStore}.
+ */
+@Configuration
+@ConditionalOnProperty(name = "application.filestore.hedged.enabled", havingValue = "true")
+public class HedgedReadBackingStoreConfig {
+
+    @Bean(destroyMethod = "close")
+    @Order(Ordered.HIGHEST_PRECEDENCE + 1)
+    BackingStoreDecorator hedgedBackingStoreDecorator(@Qualifier("permanentSecondaryBackingStore") ObjectProvider<BackingStore> permanent,
+                                                      @Qualifier("ephemeralSecondaryBackingStore") ObjectProvider<BackingStore> ephemeral,
+                                                      @Value("${application.filestore.hedged.percentile:95}") double percentile,
+                                                      @Value("${application.filestore.hedged.minimumDelay.millis:10}") long minDelay,
+                                                      @Value("${application.filestore.hedged.window:1000}") int window,
+                                                      @Value("${application.filestore.hedged.threads:64}") int maxThreads) {
+        return new ClosingBackingStoreDecorator((fileStoreType, backingStore) -> {
+            var secondary = (fileStoreType == PERMANENT ? permanent : ephemeral).getIfAvailable();
+            return secondary == null
+                ? backingStore
+                : new HedgedReadBackingStore(backingStore, secondary, percentile, Duration.ofMillis(minDelay), window, maxThreads);
+        });
+    }
+}
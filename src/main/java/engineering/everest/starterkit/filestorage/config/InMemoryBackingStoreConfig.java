@@ -2,7 +2,9 @@ package engineering.everest.starterkit.filestorage.config;
 
 import engineering.everest.starterkit.filestorage.backing.BackingStore;
 import engineering.everest.starterkit.filestorage.backing.InMemoryBackingStore;
+import engineering.everest.starterkit.filestorage.backing.OffHeapBackingStore;
 import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
@@ -11,15 +13,33 @@ import org.springframework.context.annotation.Configuration;
 @ConditionalOnProperty(name = "application.filestore.backend", havingValue = "inMemory")
 public class InMemoryBackingStoreConfig {
 
+    private final boolean offHeapEnabled;
+    private final long offHeapBudgetBytes;
+    private final int offHeapSegmentBytes;
+
+    public InMemoryBackingStoreConfig(@Value("${application.filestore.inMemory.offHeap.enabled:false}") boolean offHeapEnabled,
+                                      @Value("${application.filestore.inMemory.offHeap.budget.bytes:1073741824}") long offHeapBudgetBytes,
+                                      @Value("${application.filestore.inMemory.offHeap.segment.bytes:1048576}") int offHeapSegmentBytes) {
+        this.offHeapEnabled = offHeapEnabled;
+        this.offHeapBudgetBytes = offHeapBudgetBytes;
+        this.offHeapSegmentBytes = offHeapSegmentBytes;
+    }
+
     @Bean
     @Qualifier("permanentBackingStore")
     BackingStore inMemoryPermanentBackingStore() {
-        return new InMemoryBackingStore();
+        return createBackingStore(false);
     }
 
     @Bean
     @Qualifier("ephemeralBackingStore")
     BackingStore inMemoryEphemeralBackingStore() {
-        return new InMemoryBackingStore();
+        return createBackingStore(true);
+    }
+
+    private BackingStore createBackingStore(boolean evictWhenFull) {
+        return offHeapEnabled
+            ? new OffHeapBackingStore(offHeapSegmentBytes, offHeapBudgetBytes, evictWhenFull)
+            : new InMemoryBackingStore();
     }
 }
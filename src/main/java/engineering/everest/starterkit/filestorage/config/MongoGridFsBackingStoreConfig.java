@@ -1,14 +1,14 @@
 package engineering.everest.starterkit.filestorage.config;
 
+import com.mongodb.WriteConcern;
 import engineering.everest.starterkit.filestorage.backing.BackingStore;
-import engineering.everest.starterkit.filestorage.backing.MongoGridFsBackingStore;
+import engineering.everest.starterkit.filestorage.backing.MongoGridFsBucketBackingStore;
 import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.data.mongodb.MongoDatabaseFactory;
-import org.springframework.data.mongodb.core.convert.MongoConverter;
-import org.springframework.data.mongodb.gridfs.GridFsTemplate;
 
 @Configuration
 @ConditionalOnProperty(name = "application.filestore.backend", havingValue = "mongoGridFs")
@@ -16,15 +16,30 @@ public class MongoGridFsBackingStoreConfig {
 
     @Bean
     @Qualifier("permanentBackingStore")
-    BackingStore mongoGridFsPermanentFileStoreTemplate(MongoConverter mongoConverter, MongoDatabaseFactory dbFactory) {
-        GridFsTemplate gridFsTemplate = new GridFsTemplate(dbFactory, mongoConverter, "fs.permanent");
-        return new MongoGridFsBackingStore(gridFsTemplate);
+    BackingStore mongoGridFsPermanentFileStore(MongoDatabaseFactory dbFactory,
+                                               @Value("${application.filestore.mongoGridFs.chunkBytes.permanent:1048576}") int chunk,
+                                               @Value("${application.filestore.mongoGridFs.batchChunks.permanent:16}") int batch,
+                                               @Value("${application.filestore.mongoGridFs.writeConcern.permanent:}") String concern) {
+        return new MongoGridFsBucketBackingStore(dbFactory.getMongoDatabase(), "fs.permanent", chunk, batch, writeConcern(concern));
     }
 
     @Bean
     @Qualifier("ephemeralBackingStore")
-    BackingStore mongoGridFsEphemeralFileStoreTemplate(MongoConverter mongoConverter, MongoDatabaseFactory dbFactory) {
-        GridFsTemplate gridFsTemplate = new GridFsTemplate(dbFactory, mongoConverter, "fs.ephemeral");
-        return new MongoGridFsBackingStore(gridFsTemplate);
+    BackingStore mongoGridFsEphemeralFileStore(MongoDatabaseFactory dbFactory,
+                                               @Value("${application.filestore.mongoGridFs.chunkBytes.ephemeral:1048576}") int chunk,
+                                               @Value("${application.filestore.mongoGridFs.batchChunks.ephemeral:16}") int batch,
+                                               @Value("${application.filestore.mongoGridFs.writeConcern.ephemeral:}") String concern) {
+        return new MongoGridFsBucketBackingStore(dbFactory.getMongoDatabase(), "fs.ephemeral", chunk, batch, writeConcern(concern));
+    }
+
+    private static WriteConcern writeConcern(String writeConcern) {
+        if (writeConcern.isEmpty()) {
+            return null;
+        }
+        var namedWriteConcern = WriteConcern.valueOf(writeConcern);
+        if (namedWriteConcern == null) {
+            throw new IllegalArgumentException(String.format("Unknown write concern '%s'", writeConcern));
+        }
+        return namedWriteConcern;
     }
 }
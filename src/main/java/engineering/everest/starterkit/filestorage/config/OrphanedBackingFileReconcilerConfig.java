@@ -0,0 +1,44 @@
+package engineering.everest.starterkit.filestorage.config;
+
+import engineering.everest.starterkit.filestorage.filestores.EphemeralDeduplicatingFileStore;
+import engineering.everest.starterkit.filestorage.filestores.OrphanedBackingFileReconciler;
+import engineering.everest.starterkit.filestorage.filestores.PermanentDeduplicatingFileStore;
+import engineering.everest.starterkit.filestorage.persistence.FileMappingRepository;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.time.Clock;
+import java.time.Duration;
+
+@Configuration
+@ConditionalOnProperty(name = "application.filestore.reconciliation.enabled", havingValue = "true")
+public class OrphanedBackingFileReconcilerConfig {
+
+    private static final String GRACE_SECONDS = "${application.filestore.reconciliation.grace.seconds:86400}";
+    private static final String BATCH_SIZE = "${application.filestore.reconciliation.batch.size:1000}";
+    private static final String INTERVAL_SECONDS = "${application.filestore.reconciliation.interval.seconds:86400}";
+
+    @Bean
+    OrphanedBackingFileReconciler permanentReconciler(@Qualifier("permanentDeduplicatingFileStore") PermanentDeduplicatingFileStore store,
+                                                      FileMappingRepository fileMappingRepository,
+                                                      @Value(GRACE_SECONDS) long graceSeconds,
+                                                      @Value(BATCH_SIZE) int batchSize,
+                                                      @Value(INTERVAL_SECONDS) long intervalSeconds) {
+        return new OrphanedBackingFileReconciler(store, fileMappingRepository, Duration.ofSeconds(graceSeconds), batchSize,
+            Duration.ofSeconds(intervalSeconds), Clock.systemUTC());
+    }
+
+    @Bean
+    @ConditionalOnProperty(name = "application.filestore.reconciliation.ephemeral", havingValue = "true", matchIfMissing = true)
+    OrphanedBackingFileReconciler ephemeralReconciler(@Qualifier("ephemeralDeduplicatingFileStore") EphemeralDeduplicatingFileStore store,
+                                                      FileMappingRepository fileMappingRepository,
+                                                      @Value(GRACE_SECONDS) long graceSeconds,
+                                                      @Value(BATCH_SIZE) int batchSize,
+                                                      @Value(INTERVAL_SECONDS) long intervalSeconds) {
+        return new OrphanedBackingFileReconciler(store, fileMappingRepository, Duration.ofSeconds(graceSeconds), batchSize,
+            Duration.ofSeconds(intervalSeconds), Clock.systemUTC());
+    }
+}
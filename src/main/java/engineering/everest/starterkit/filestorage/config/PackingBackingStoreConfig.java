@@ -0,0 +1,37 @@
+package engineering.everest.starterkit.filestorage.config;
+
+import engineering.everest.starterkit.filestorage.backing.PackingBackingStore;
+import engineering.everest.starterkit.filestorage.backing.PackingPolicy;
+import engineering.everest.starterkit.filestorage.persistence.BackingObjectReferences;
+import engineering.everest.starterkit.filestorage.persistence.FileMappingScans;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+
+import java.time.Duration;
+
+@Configuration
+@ConditionalOnProperty(name = "application.filestore.packing.enabled", havingValue = "true")
+public class PackingBackingStoreConfig {
+
+    @Bean(destroyMethod = "close")
+    @Order(Ordered.HIGHEST_PRECEDENCE + 2)
+    BackingStoreDecorator packingBackingStoreDecorator(BackingObjectReferences backingObjectReferences,
+                                                       FileMappingScans fileMappingScans,
+                                                       @Value("${application.filestore.packing.threshold.bytes:65536}") int threshold,
+                                                       @Value("${application.filestore.packing.segment.bytes:8388608}") int segmentSize,
+                                                       @Value("${application.filestore.packing.flush.millis:50}") long flushMillis,
+                                                       @Value("${application.filestore.packing.threads:4}") int threads,
+                                                       @Value("${application.filestore.packing.compaction.threshold:0.5}") double deadRatio,
+                                                       @Value("${application.filestore.packing.compaction.seconds:300}") long interval,
+                                                       @Value("${application.filestore.packing.grace.seconds:300}") long graceSeconds) {
+        var packingPolicy = new PackingPolicy(threshold, segmentSize, Duration.ofMillis(flushMillis), deadRatio,
+            Duration.ofSeconds(interval), Duration.ofSeconds(graceSeconds));
+        return new ClosingBackingStoreDecorator((fileStoreType, backingStore) -> new PackingBackingStore(backingStore,
+            backingObjectReferences::relocate, prefix -> fileMappingScans.streamBackingStorageFileIdsStartingWith(fileStoreType, prefix),
+            packingPolicy, threads));
+    }
+}
@@ -0,0 +1,57 @@
+package engineering.everest.starterkit.filestorage.config;
+
+import engineering.everest.starterkit.filestorage.backing.BackingStore;
+import engineering.everest.starterkit.filestorage.backing.RoutingBackingStore;
+import engineering.everest.starterkit.filestorage.backing.RoutingPolicy;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+
+import static engineering.everest.starterkit.filestorage.filestores.FileStoreType.PERMANENT;
+
+/**
+ * Routes uploads by size across {@link BackingStore} beans declared by the application, referred to by bean name. The backing store
+ * configured by {@code application.filestore.backend} is named {@code default}.
+ * <p>
+ * Routes are listed as comma separated {@code <max bytes>:<store name>} pairs in ascending order of size, followed by the name of the
+ * store for larger files, for example {@code 262144:default,5368709120:s3BackingStore,s3MultipartBackingStore}.
+ */
+@Configuration
+@ConditionalOnProperty(name = "application.filestore.routing.enabled", havingValue = "true")
+public class RoutingBackingStoreConfig {
+
+    static final String DEFAULT_STORE_NAME = "default";
+
+    @Bean
+    @Order(Ordered.HIGHEST_PRECEDENCE)
+    BackingStoreDecorator routingBackingStoreDecorator(Map<String, BackingStore> backingStores,
+                                                       @Value("${application.filestore.routing.permanent:default}") String permanent,
+                                                       @Value("${application.filestore.routing.ephemeral:default}") String ephemeral) {
+        return (fileStoreType, backingStore) -> {
+            var namedBackingStores = new HashMap<>(backingStores);
+            namedBackingStores.put(DEFAULT_STORE_NAME, backingStore);
+            var routes = fileStoreType == PERMANENT ? permanent : ephemeral;
+            return new RoutingBackingStore(namedBackingStores, backingStore, routingPolicy(routes));
+        };
+    }
+
+    static RoutingPolicy routingPolicy(String routes) {
+        var sizeBoundedRoutes = new ArrayList<RoutingPolicy.Route>();
+        var entries = routes.split(",");
+        for (var i = 0; i < entries.length - 1; i++) {
+            var route = entries[i].trim().split(":");
+            if (route.length != 2) {
+                throw new IllegalArgumentException(String.format("Invalid route '%s', expected <max bytes>:<store name>", entries[i]));
+            }
+            sizeBoundedRoutes.add(new RoutingPolicy.Route(Long.parseLong(route[0].trim()), route[1].trim()));
+        }
+        return new RoutingPolicy(sizeBoundedRoutes, entries[entries.length - 1].trim());
+    }
+}
@@ -0,0 +1,43 @@
+package engineering.everest.starterkit.filestorage.config;
+
+import engineering.everest.starterkit.filestorage.backing.BackingStore;
+import engineering.everest.starterkit.filestorage.backing.StripedFileSystemBackingStore;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.nio.file.Path;
+import java.util.List;
+
+import static java.util.stream.Collectors.toList;
+
+@Configuration
+@ConditionalOnProperty(name = "application.filestore.backend", havingValue = "stripedFileSystem")
+public class StripedFileSystemBackingStoreConfig {
+
+    private static final String DIRECT_BUFFERS = "${application.filestore.stripedFileSystem.directBuffers:32}";
+
+    @Bean
+    @Qualifier("permanentBackingStore")
+    BackingStore stripedPermanentBackingStore(@Value("${application.filestore.stripedFileSystem.paths.permanent}") List<String> paths,
+                                              @Value("${application.filestore.stripedFileSystem.stripe.bytes:8388608}") int stripeSize,
+                                              @Value("${application.filestore.stripedFileSystem.threads:16}") int ioThreads,
+                                              @Value(DIRECT_BUFFERS) int directBuffers) {
+        return new StripedFileSystemBackingStore(toPaths(paths), stripeSize, ioThreads, directBuffers);
+    }
+
+    @Bean
+    @Qualifier("ephemeralBackingStore")
+    BackingStore stripedEphemeralBackingStore(@Value("${application.filestore.stripedFileSystem.paths.ephemeral}") List<String> paths,
+                                              @Value("${application.filestore.stripedFileSystem.stripe.bytes:8388608}") int stripeSize,
+                                              @Value("${application.filestore.stripedFileSystem.threads:16}") int ioThreads,
+                                              @Value(DIRECT_BUFFERS) int directBuffers) {
+        return new StripedFileSystemBackingStore(toPaths(paths), stripeSize, ioThreads, directBuffers);
+    }
+
+    private static List<Path> toPaths(List<String> paths) {
+        return paths.stream().map(String::trim).map(Path::of).collect(toList());
+    }
+}
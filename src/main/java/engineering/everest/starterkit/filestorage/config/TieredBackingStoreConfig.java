@@ -0,0 +1,69 @@
+package engineering.everest.starterkit.filestorage.config;
+
+import engineering.everest.starterkit.filestorage.backing.BackingStore;
+import engineering.everest.starterkit.filestorage.backing.FileSystemBackingStore;
+import engineering.everest.starterkit.filestorage.backing.OffHeapBackingStore;
+import engineering.everest.starterkit.filestorage.backing.TieredBackingStore;
+import engineering.everest.starterkit.filestorage.backing.TieringPolicy;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Metrics;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.annotation.Order;
+import org.springframework.core.env.Environment;
+
+import java.nio.file.Path;
+import java.time.Duration;
+
+import static engineering.everest.starterkit.filestorage.filestores.FileStoreType.PERMANENT;
+
+@Configuration
+@ConditionalOnProperty(name = "application.filestore.tiered.enabled", havingValue = "true")
+public class TieredBackingStoreConfig {
+
+    private static final int OFF_HEAP_SEGMENT_BYTES = 1024 * 1024;
+    private static final String FAST_TIER_PATH = "application.filestore.tiered.fast.path";
+
+    @Bean(destroyMethod = "close")
+    @Order(0)
+    BackingStoreDecorator tieredBackingStoreDecorator(@Value("${application.filestore.tiered.fast.type:offHeap}") String fastTierType,
+                                                      @Value("${application.filestore.tiered.fast.budget.bytes:1073741824}") long budget,
+                                                      @Value("${application.filestore.tiered.promotion.threshold:3}") int threshold,
+                                                      @Value("${application.filestore.tiered.demotion.idle.seconds:3600}") long idleSeconds,
+                                                      @Value("${application.filestore.tiered.sweep.seconds:60}") long sweepSeconds,
+                                                      ObjectProvider<MeterRegistry> meterRegistry,
+                                                      Environment environment) {
+        var fastTierPath = "fileSystem".equals(fastTierType) ? fastTierPath(environment) : null;
+        var tieringPolicy = new TieringPolicy(threshold, Duration.ofSeconds(idleSeconds), budget, Duration.ofSeconds(sweepSeconds));
+        return new ClosingBackingStoreDecorator((fileStoreType, backingStore) -> fileStoreType == PERMANENT
+            ? new TieredBackingStore(fastTier(fastTierType, fastTierPath, budget), backingStore, tieringPolicy,
+                meterRegistry.getIfAvailable(() -> Metrics.globalRegistry), "permanent")
+            : backingStore);
+    }
+
+    /**
+     * Everything in the fast tier's directory is deleted at startup, so the directory must be given explicitly rather than defaulting to
+     * the working directory.
+     */
+    private static Path fastTierPath(Environment environment) {
+        var fastTierPath = environment.getRequiredProperty(FAST_TIER_PATH);
+        if (fastTierPath.isBlank()) {
+            throw new IllegalArgumentException(String.format("%s must name a directory dedicated to the fast tier", FAST_TIER_PATH));
+        }
+        return Path.of(fastTierPath);
+    }
+
+    private static BackingStore fastTier(String fastTierType, Path fastTierPath, long budget) {
+        switch (fastTierType) {
+            case "offHeap":
+                return new OffHeapBackingStore(OFF_HEAP_SEGMENT_BYTES, budget);
+            case "fileSystem":
+                return new FileSystemBackingStore(fastTierPath);
+            default:
+                throw new IllegalArgumentException(String.format("Unsupported fast tier type '%s'", fastTierType));
+        }
+    }
+}
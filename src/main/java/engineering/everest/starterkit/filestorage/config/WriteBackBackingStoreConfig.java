@@ -0,0 +1,34 @@
+package engineering.everest.starterkit.filestorage.config;
+
+import engineering.everest.starterkit.filestorage.backing.WriteBackBackingStore;
+import engineering.everest.starterkit.filestorage.persistence.BackingObjectReferences;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+
+import java.nio.file.Path;
+import java.time.Duration;
+
+import static engineering.everest.starterkit.filestorage.filestores.FileStoreType.PERMANENT;
+
+@Configuration
+@ConditionalOnProperty(name = "application.filestore.writeBack.enabled", havingValue = "true")
+public class WriteBackBackingStoreConfig {
+
+    @Bean(destroyMethod = "close")
+    @Order(Ordered.LOWEST_PRECEDENCE)
+    BackingStoreDecorator writeBackBackingStoreDecorator(BackingObjectReferences backingObjectReferences,
+                                                         @Value("${application.filestore.writeBack.path}") String stagingPath,
+                                                         @Value("${application.filestore.writeBack.threads:4}") int threads,
+                                                         @Value("${application.filestore.writeBack.retry.seconds:30}") long retrySeconds,
+                                                         @Value("${application.filestore.writeBack.grace.seconds:300}") long graceSeconds) {
+        return new ClosingBackingStoreDecorator((fileStoreType, backingStore) -> fileStoreType == PERMANENT
+            ? new WriteBackBackingStore(Path.of(stagingPath), backingStore,
+                backingObjectReferences::relocate,
+                threads, Duration.ofSeconds(retrySeconds), Duration.ofSeconds(graceSeconds))
+            : backingStore);
+    }
+}
@@ -0,0 +1,45 @@
+package engineering.everest.starterkit.filestorage.filestores;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static java.lang.Math.max;
+import static java.lang.Math.min;
+
+/**
+ * Batch size that grows additively while batches complete within a target latency and halves when they do not.
+ */
+class AdaptiveBatchSize {
+
+    private final int minBatchSize;
+    private final int maxBatchSize;
+    private final Duration targetLatency;
+    private final AtomicInteger batchSize;
+
+    AdaptiveBatchSize(int minBatchSize, int maxBatchSize, Duration targetLatency) {
+        this.minBatchSize = minBatchSize;
+        this.maxBatchSize = maxBatchSize;
+        this.targetLatency = targetLatency;
+        this.batchSize = new AtomicInteger(minBatchSize);
+    }
+
+    int current() {
+        return batchSize.get();
+    }
+
+    void completed(Duration latency) {
+        if (latency.compareTo(targetLatency) > 0) {
+            decrease();
+        } else {
+            batchSize.updateAndGet(size -> min(maxBatchSize, size + minBatchSize));
+        }
+    }
+
+    void failed() {
+        decrease();
+    }
+
+    private void decrease() {
+        batchSize.updateAndGet(size -> max(minBatchSize, size / 2));
+    }
+}
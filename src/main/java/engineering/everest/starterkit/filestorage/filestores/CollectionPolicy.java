@@ -0,0 +1,42 @@
+package engineering.everest.starterkit.filestorage.filestores;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+import java.time.Duration;
+
+/**
+ * Scheduling policy for an {@link EphemeralFileCollector}.
+ */
+@AllArgsConstructor
+@Getter
+public class CollectionPolicy {
+    /**
+     * Number of threads claiming and deleting batches concurrently on this node.
+     */
+    private final int workers;
+    /**
+     * Delay before a worker looks for more files once none are left to claim, or after a batch fails.
+     */
+    private final Duration pollInterval;
+    /**
+     * How long a claimed batch is held before another worker may claim it. Must comfortably exceed the time taken to delete a batch.
+     */
+    private final Duration lease;
+    /**
+     * Smallest batch size, and the amount by which the batch size grows after each batch completing within the target latency.
+     */
+    private final int minBatchSize;
+    /**
+     * Largest batch size.
+     */
+    private final int maxBatchSize;
+    /**
+     * Batches taking longer than this to delete halve the batch size.
+     */
+    private final Duration targetBatchLatency;
+    /**
+     * Maximum number of file mappings deleted per second across all workers on this node, or zero for no limit.
+     */
+    private final double maxDeletionsPerSecond;
+}
@@ -0,0 +1,40 @@
+package engineering.everest.starterkit.filestorage.filestores;
+
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import org.springframework.core.io.buffer.DataBuffer;
+
+/**
+ * Incrementally computes the content hashes and length of a file uploaded as a stream of data buffers. Buffers are inspected without
+ * consuming them so that they can be forwarded unchanged to the backing store.
+ * <p>
+ * Not thread safe. Reactive streams signal buffers serially, which is all that is required.
+ */
+class DataBufferHasher {
+
+    private final Hasher sha256Hasher = Hashing.sha256().newHasher();
+    private final Hasher sha512Hasher = Hashing.sha512().newHasher();
+    private long byteCount;
+
+    @SuppressWarnings("deprecation")
+    void update(DataBuffer dataBuffer) {
+        // A view sharing the buffer's memory; neither its position nor its contents are changed by hashing
+        var contents = dataBuffer.asByteBuffer();
+
+        sha256Hasher.putBytes(contents.duplicate());
+        sha512Hasher.putBytes(contents);
+        byteCount += dataBuffer.readableByteCount();
+    }
+
+    String sha256() {
+        return sha256Hasher.hash().toString();
+    }
+
+    String sha512() {
+        return sha512Hasher.hash().toString();
+    }
+
+    long byteCount() {
+        return byteCount;
+    }
+}
@@ -1,99 +1,306 @@
 package engineering.everest.starterkit.filestorage.filestores;
 
+import com.google.common.collect.Iterators;
+import com.google.common.collect.Lists;
 import engineering.everest.starterkit.filestorage.backing.BackingStore;
 import engineering.everest.starterkit.filestorage.InputStreamOfKnownLength;
+import engineering.everest.starterkit.filestorage.PersistedFile;
 import engineering.everest.starterkit.filestorage.PersistedFileIdentifier;
+import engineering.everest.starterkit.filestorage.persistence.FileMappingClaims;
 import engineering.everest.starterkit.filestorage.persistence.FileMappingRepository;
+import engineering.everest.starterkit.filestorage.persistence.FileMappingScans;
 import engineering.everest.starterkit.filestorage.persistence.PersistableFileMapping;
+import org.reactivestreams.Publisher;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferFactory;
 import org.springframework.data.domain.PageRequest;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
 
 import java.io.IOException;
-import java.util.HashMap;
+import java.io.InputStream;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Collection;
 import java.util.HashSet;
 import java.util.List;
 import java.util.NoSuchElementException;
 import java.util.Set;
 import java.util.UUID;
+import java.util.stream.Stream;
 
 import static com.google.common.base.Preconditions.checkArgument;
+import static engineering.everest.starterkit.filestorage.backing.BackingStorageType.INLINE;
 import static engineering.everest.starterkit.filestorage.filestores.FileStoreType.EPHEMERAL;
-import static java.util.stream.Collectors.toSet;
+import static java.util.stream.Collectors.toCollection;
+import static java.util.stream.Collectors.toList;
 
 /**
  * File store that removes duplicate copies of files and manages the mapping of individual file uploads to a single backing file.
  * <p>
  * This implementation augments the default deduplicating file store by adding the ability to delete. It can not be used to delete files
  * added by the base class.
+ * <p>
+ * Files may be uploaded with a time to live. Once it has passed, reads of the file are rejected without calling the backing store, and
+ * the file is marked for deletion by {@link #markExpiredFilesForDeletion(int)}.
  *
  * @see PermanentDeduplicatingFileStore
  */
 public class EphemeralDeduplicatingFileStore extends PermanentDeduplicatingFileStore {
 
+    private static final int MARK_FOR_DELETION_CHUNK_SIZE = 1000;
+
+    private final Clock clock;
+
     public EphemeralDeduplicatingFileStore(FileMappingRepository fileMappingRepository,
                                            BackingStore backingStore) {
-        super(EPHEMERAL, fileMappingRepository, backingStore);
+        this(fileMappingRepository, backingStore, FileStoreOptions.defaults());
+    }
+
+    /**
+     * @param fileMappingRepository for file mappings
+     * @param backingStore          for file content
+     * @param options               optional features of the file store, including the clock against which file expiry is measured
+     */
+    public EphemeralDeduplicatingFileStore(FileMappingRepository fileMappingRepository,
+                                           BackingStore backingStore,
+                                           FileStoreOptions options) {
+        super(EPHEMERAL, fileMappingRepository, backingStore, options);
+        this.clock = options.getClock();
+    }
+
+    /**
+     * Stream a file of unknown length to the file store, expiring it after a time to live.
+     *
+     * @param  originalFilename to record. Typically the original filename a user would associate with the file contents.
+     * @param  inputStream      containing content to upload. Managed by the caller.
+     * @param  timeToLive       after which the file is expired
+     * @return                  persisted file information
+     * @throws IOException      if the file could not be persisted
+     */
+    public PersistedFile uploadAsStream(String originalFilename, InputStream inputStream, Duration timeToLive) throws IOException {
+        return uploadAsStream(originalFilename, inputStream, expiryAfter(timeToLive));
+    }
+
+    /**
+     * Stream a file to the file store, expiring it after a time to live.
+     *
+     * @param  originalFilename to record. Typically the original filename a user would associate with the file contents.
+     * @param  fileSize         in bytes
+     * @param  inputStream      containing content to upload. Managed by the caller.
+     * @param  timeToLive       after which the file is expired
+     * @return                  persisted file information
+     * @throws IOException      if the file could not be persisted
+     */
+    public PersistedFile uploadAsStream(String originalFilename, long fileSize, InputStream inputStream, Duration timeToLive)
+        throws IOException {
+        return uploadAsStream(originalFilename, fileSize, inputStream, expiryAfter(timeToLive));
+    }
+
+    /**
+     * Reactive upload of a file of unknown length, expiring it after a time to live.
+     *
+     * @param  originalFilename to record. Typically the original filename a user would associate with the file contents.
+     * @param  content          to upload. Consumed with backpressure from the backing store.
+     * @param  timeToLive       after which the file is expired
+     * @return                  a mono of the persisted file information
+     */
+    public Mono<PersistedFile> uploadAsFlux(String originalFilename, Publisher<DataBuffer> content, Duration timeToLive) {
+        return Mono.defer(() -> uploadAsFlux(originalFilename, content, expiryAfter(timeToLive)));
     }
 
     @Override
     public InputStreamOfKnownLength downloadAsStream(PersistableFileMapping persistableFileMapping) throws IOException {
-        if (persistableFileMapping.isMarkedForDeletion()) {
+        if (isDeletedOrExpired(persistableFileMapping)) {
             throw new NoSuchElementException("Ephemeral file not found");
         }
         return super.downloadAsStream(persistableFileMapping);
     }
 
+    @Override
+    public InputStreamOfKnownLength downloadAsStream(PersistableFileMapping persistableFileMapping, long startingOffset, long endingOffset)
+        throws IOException {
+        if (isDeletedOrExpired(persistableFileMapping)) {
+            throw new NoSuchElementException("Ephemeral file not found");
+        }
+        return super.downloadAsStream(persistableFileMapping, startingOffset, endingOffset);
+    }
+
+    @Override
+    public Flux<DataBuffer> downloadAsFlux(PersistableFileMapping persistableFileMapping,
+                                           long startingOffset,
+                                           long endingOffset,
+                                           DataBufferFactory dataBufferFactory,
+                                           int bufferSize) {
+        if (isDeletedOrExpired(persistableFileMapping)) {
+            return Flux.error(new NoSuchElementException("Ephemeral file not found"));
+        }
+        return super.downloadAsFlux(persistableFileMapping, startingOffset, endingOffset, dataBufferFactory, bufferSize);
+    }
+
     public void markFilesForDeletion(List<PersistedFileIdentifier> persistedFileIdentifiers) {
         persistedFileIdentifiers.forEach(identifier -> checkArgument(identifier.getFileStoreType() == EPHEMERAL));
-        persistedFileIdentifiers.forEach(identifier -> fileMappingRepository.findById(identifier.getFileId())
-            .ifPresent(this::markPersistedFileForDeletion));
+        markFilesForDeletionById(persistedFileIdentifiers.stream()
+            .map(PersistedFileIdentifier::getFileId)
+            .collect(toList()));
     }
 
     public void markFileForDeletion(PersistedFileIdentifier persistedFileIdentifier) {
         checkArgument(persistedFileIdentifier.getFileStoreType() == EPHEMERAL);
 
-        fileMappingRepository.findById(persistedFileIdentifier.getFileId())
-            .ifPresent(this::markPersistedFileForDeletion);
+        fileMappingRepository.markForDeletion(List.of(persistedFileIdentifier.getFileId()), EPHEMERAL);
+    }
+
+    /**
+     * Mark files for deletion without loading their file mappings. Identifiers are updated in chunks of a fixed size, so that each update
+     * statement stays within database parameter limits. Unknown identifiers are ignored.
+     *
+     * @param  fileIds                  to mark for deletion
+     * @throws IllegalArgumentException if any file is not ephemeral, in which case no files are marked
+     */
+    public void markFilesForDeletionById(Collection<UUID> fileIds) {
+        var chunks = Lists.partition(List.copyOf(fileIds), MARK_FOR_DELETION_CHUNK_SIZE);
+        chunks.forEach(chunk -> checkArgument(fileMappingRepository.countByFileIdInAndFileStoreTypeNot(chunk, EPHEMERAL) == 0,
+            "Only ephemeral files can be marked for deletion"));
+        chunks.forEach(chunk -> fileMappingRepository.markForDeletion(chunk, EPHEMERAL));
     }
 
     public void markAllFilesForDeletion() {
-        var persistableFileMappings = fileMappingRepository.findByFileStoreType(EPHEMERAL);
-        persistableFileMappings.forEach(persistableFileMapping -> persistableFileMapping.setMarkedForDeletion(true));
-        fileMappingRepository.saveAll(persistableFileMappings);
+        fileMappingRepository.markAllForDeletion(EPHEMERAL);
+    }
+
+    /**
+     * Mark a batch of expired files for deletion, earliest expiry first. Expired files are found by a range scan of the expiry index, and
+     * their expiry is cleared as they are marked so that the range only ever holds files still to be expired.
+     *
+     * @param  batchSize maximum number of files to mark
+     * @return           number of files marked, which is less than the batch size once no more files have expired
+     */
+    public int markExpiredFilesForDeletion(int batchSize) {
+        var expiredFileIds = fileMappingRepository.findExpiredFileIds(clock.instant(), PageRequest.of(0, batchSize));
+        if (expiredFileIds.isEmpty()) {
+            return 0;
+        }
+        fileMappingRepository.expire(expiredFileIds, EPHEMERAL);
+        return expiredFileIds.size();
     }
 
+    /**
+     * Delete a batch of files marked for deletion, along with any backing files that are no longer referenced.
+     * <p>
+     * Concurrent calls may select the same files. Use {@link EphemeralFileCollector} to delete files from several threads or nodes.
+     *
+     * @param batchSize maximum number of file mappings to delete
+     * @see             #deleteFilesMarkedForDeletion(List, int)
+     */
     public void deleteBatchOfFilesMarkedForDeletion(int batchSize) {
-        var filesMarkedForDeletion = fileMappingRepository.findByMarkedForDeletionTrue(PageRequest.of(0, batchSize));
-        var backingStorageFilesToDeletionBatchMapping = createBackingStorageFileToDeletionBatchMapping(filesMarkedForDeletion);
+        deleteFilesMarkedForDeletion(fileMappingRepository.findByMarkedForDeletionTrue(PageRequest.of(0, batchSize)), batchSize);
+    }
 
-        backingStorageFilesToDeletionBatchMapping.forEach((backingStorageFileId, persistableFiles) -> {
-            var filesMappingToThisBackingStorageFile = fileMappingRepository.findByBackingStorageFileId(backingStorageFileId).stream()
-                .map(PersistableFileMapping::getFileId)
-                .collect(toSet());
-            filesMappingToThisBackingStorageFile.removeAll(persistableFiles);
+    /**
+     * Delete files marked for deletion, along with any backing files that are no longer referenced.
+     * <p>
+     * The file mappings are deleted first. Their backing files still referenced by other file mappings are then found with a single
+     * query, and the remainder are passed to the backing store in one call so that it can use multi-object deletion. Checking once the
+     * file mappings are gone means that concurrent batches sharing a backing file cannot each leave it in place for the other. When
+     * backing objects are reference counted, this query is only needed for file mappings that are not tracked by a backing object.
+     * Tracked file mappings release their references instead, and up to a batch of backing objects whose count has reached zero are
+     * then deleted.
+     *
+     * @param filesMarkedForDeletion file mappings to delete
+     * @param batchSize              maximum number of unreferenced backing objects to delete
+     */
+    public void deleteFilesMarkedForDeletion(List<PersistableFileMapping> filesMarkedForDeletion, int batchSize) {
+        var backingStorageFileIds = backingFilesToRecheck(filesMarkedForDeletion);
+        if (!filesMarkedForDeletion.isEmpty()) {
+            removeFileMappings(filesMarkedForDeletion);
+        }
+        deleteBackingFilesNoLongerReferenced(backingStorageFileIds);
+        removeUnreferencedBackingObjects(batchSize);
+    }
 
-            if (filesMappingToThisBackingStorageFile.isEmpty()) {
-                backingStore.deleteFiles(Set.of(backingStorageFileId));
-            }
-        });
+    /**
+     * Delete files claimed by {@link FileMappingClaims}, along with any backing files that are no longer referenced. File mappings whose
+     * claim has expired, and may since have been claimed by another collector, are left in place.
+     *
+     * @param  claimedFiles      file mappings claimed for deletion by the caller
+     * @param  fileMappingClaims by which the files were claimed
+     * @param  batchSize         maximum number of unreferenced backing objects to delete
+     * @return                   number of file mappings deleted
+     * @see                      #deleteFilesMarkedForDeletion(List, int)
+     */
+    public int deleteClaimedFilesMarkedForDeletion(List<PersistableFileMapping> claimedFiles,
+                                                   FileMappingClaims fileMappingClaims,
+                                                   int batchSize) {
+        var backingStorageFileIds = backingFilesToRecheck(claimedFiles);
+        var deletedFiles = fileMappingClaims.deleteClaimedFiles(claimedFiles, clock.instant(), this::removeFileMappings);
+        deleteBackingFilesNoLongerReferenced(backingStorageFileIds);
+        removeUnreferencedBackingObjects(batchSize);
+        return deletedFiles.size();
+    }
 
-        fileMappingRepository.deleteAll(filesMarkedForDeletion);
+    /**
+     * Delete every file in a stream of files marked for deletion, a batch at a time, along with any backing files that are no longer
+     * referenced. Intended for sweeping large numbers of files streamed from {@link FileMappingScans} without holding them all in memory.
+     *
+     * @param  filesMarkedForDeletion file mappings to delete, which are consumed but not closed
+     * @param  batchSize              number of file mappings deleted at a time
+     * @return                        number of file mappings deleted
+     * @see                           #deleteFilesMarkedForDeletion(List, int)
+     */
+    public long deleteFilesMarkedForDeletion(Stream<PersistableFileMapping> filesMarkedForDeletion, int batchSize) {
+        var deleted = 0L;
+        for (var batch : (Iterable<List<PersistableFileMapping>>) () -> Iterators.partition(filesMarkedForDeletion.iterator(), batchSize)) {
+            deleteFilesMarkedForDeletion(batch, batchSize);
+            deleted += batch.size();
+        }
+        return deleted;
     }
 
-    private static HashMap<String,
-        Set<UUID>> createBackingStorageFileToDeletionBatchMapping(List<PersistableFileMapping> filesMarkedForDeletion) {
-        var backingStorageFilesToDeletionBatchMapping = new HashMap<String, Set<UUID>>();
+    private Set<String> backingFilesToRecheck(List<PersistableFileMapping> filesMarkedForDeletion) {
+        if (filesMarkedForDeletion.isEmpty()) {
+            return new HashSet<>();
+        }
+        var untrackedFileMappings = backingObjectReferences == null
+            ? filesMarkedForDeletion
+            : backingObjectReferences.untrackedFileMappings(filesMarkedForDeletion);
+        return untrackedFileMappings.stream()
+            .filter(persistableFileMapping -> persistableFileMapping.getBackingStorageType() != INLINE)
+            .map(PersistableFileMapping::getBackingStorageFileId)
+            .collect(toCollection(HashSet::new));
+    }
+
+    private void removeFileMappings(List<PersistableFileMapping> fileMappings) {
+        if (backingObjectReferences == null) {
+            fileMappingRepository.deleteAllInBatch(fileMappings);
+        } else {
+            backingObjectReferences.removeFileMappings(fileMappings);
+        }
+    }
+
+    private void deleteBackingFilesNoLongerReferenced(Set<String> backingStorageFileIds) {
+        if (!backingStorageFileIds.isEmpty()) {
+            backingStorageFileIds.removeAll(fileMappingRepository.findReferencedBackingStorageFileIds(backingStorageFileIds));
+        }
+        if (!backingStorageFileIds.isEmpty()) {
+            backingStore.deleteFiles(backingStorageFileIds);
+        }
+    }
 
-        filesMarkedForDeletion.forEach(persistableFileMapping -> {
-            var filesForBackingFile = backingStorageFilesToDeletionBatchMapping.computeIfAbsent(
-                persistableFileMapping.getBackingStorageFileId(), key -> new HashSet<>());
-            filesForBackingFile.add(persistableFileMapping.getPersistedFileIdentifier().getFileId());
-        });
+    private void removeUnreferencedBackingObjects(int batchSize) {
+        if (backingObjectReferences != null) {
+            backingObjectReferences.removeUnreferencedBackingObjects(EPHEMERAL, batchSize, backingStore::deleteFiles);
+        }
+    }
 
-        return backingStorageFilesToDeletionBatchMapping;
+    private Instant expiryAfter(Duration timeToLive) {
+        checkArgument(!timeToLive.isNegative(), "Time to live may not be negative");
+        return clock.instant().plus(timeToLive);
     }
 
-    private void markPersistedFileForDeletion(PersistableFileMapping persistableFileMapping) {
-        persistableFileMapping.setMarkedForDeletion(true);
-        fileMappingRepository.save(persistableFileMapping);
+    private boolean isDeletedOrExpired(PersistableFileMapping persistableFileMapping) {
+        return persistableFileMapping.isMarkedForDeletion()
+            || persistableFileMapping.getExpiresAt() != null && !persistableFileMapping.getExpiresAt().isAfter(clock.instant());
     }
 }
@@ -0,0 +1,102 @@
+package engineering.everest.starterkit.filestorage.filestores;
+
+import com.google.common.util.concurrent.RateLimiter;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import engineering.everest.starterkit.filestorage.persistence.FileMappingClaims;
+import lombok.extern.slf4j.Slf4j;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.util.concurrent.ScheduledExecutorService;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static java.lang.System.nanoTime;
+import static java.util.concurrent.Executors.newScheduledThreadPool;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+
+/**
+ * Background garbage collector for ephemeral files marked for deletion.
+ * <p>
+ * Each worker repeatedly marks a batch of expired files for deletion, then claims a batch of files marked for deletion and deletes them
+ * and their unreferenced backing files, until none remain. It then waits for the poll interval. Claims are leased in the database, so
+ * any number of workers on any number of nodes can collect in parallel without deleting the same files, and a batch whose lease expires
+ * before it is deleted is left to whichever worker claims it next. The batch size adapts to the observed deletion latency, and deletions
+ * may be rate limited to protect the backing store.
+ * <p>
+ * When backing objects are reference counted, the worker holding a batch also collects up to a batch of backing objects whose count has
+ * reached zero. These are locked while they are deleted, so concurrent workers collect different backing objects.
+ */
+@Slf4j
+public class EphemeralFileCollector implements AutoCloseable {
+
+    private final EphemeralDeduplicatingFileStore ephemeralFileStore;
+    private final FileMappingClaims fileMappingClaims;
+    private final CollectionPolicy collectionPolicy;
+    private final Clock clock;
+    private final RateLimiter rateLimiter;
+    private final AdaptiveBatchSize batchSize;
+    private final ScheduledExecutorService collectionExecutor;
+
+    public EphemeralFileCollector(EphemeralDeduplicatingFileStore ephemeralFileStore,
+                                  FileMappingClaims fileMappingClaims,
+                                  CollectionPolicy collectionPolicy,
+                                  Clock clock) {
+        checkArgument(collectionPolicy.getMinBatchSize() > 0 && collectionPolicy.getMinBatchSize() <= collectionPolicy.getMaxBatchSize(),
+            "Minimum batch size must be positive and no larger than the maximum batch size");
+        this.ephemeralFileStore = ephemeralFileStore;
+        this.fileMappingClaims = fileMappingClaims;
+        this.collectionPolicy = collectionPolicy;
+        this.clock = clock;
+        this.rateLimiter = collectionPolicy.getMaxDeletionsPerSecond() > 0
+            ? RateLimiter.create(collectionPolicy.getMaxDeletionsPerSecond())
+            : null;
+        this.batchSize = new AdaptiveBatchSize(collectionPolicy.getMinBatchSize(), collectionPolicy.getMaxBatchSize(),
+            collectionPolicy.getTargetBatchLatency());
+        this.collectionExecutor = newScheduledThreadPool(collectionPolicy.getWorkers(),
+            new ThreadFactoryBuilder().setNameFormat("ephemeral-file-collector-%d").setDaemon(true).build());
+
+        var pollIntervalMillis = collectionPolicy.getPollInterval().toMillis();
+        for (var worker = 0; worker < collectionPolicy.getWorkers(); worker++) {
+            collectionExecutor.scheduleWithFixedDelay(this::collect, pollIntervalMillis, pollIntervalMillis, MILLISECONDS);
+        }
+    }
+
+    @Override
+    public void close() {
+        collectionExecutor.shutdownNow();
+    }
+
+    /**
+     * Claims and deletes batches until no files remain to be claimed or a batch fails.
+     *
+     * @return number of file mappings deleted
+     */
+    int collect() {
+        var deleted = 0;
+        while (!collectionExecutor.isShutdown()) {
+            var size = batchSize.current();
+            try {
+                ephemeralFileStore.markExpiredFilesForDeletion(size);
+                var claimedFiles = fileMappingClaims.claimFilesMarkedForDeletion(size, clock.instant(), collectionPolicy.getLease());
+                if (claimedFiles.isEmpty()) {
+                    return deleted;
+                }
+                if (rateLimiter != null) {
+                    rateLimiter.acquire(claimedFiles.size());
+                }
+                var startTime = nanoTime();
+                deleted += ephemeralFileStore.deleteClaimedFilesMarkedForDeletion(claimedFiles, fileMappingClaims, size);
+                batchSize.completed(Duration.ofNanos(nanoTime() - startTime));
+            } catch (RuntimeException e) {
+                LOGGER.warn("Unable to delete batch of {} ephemeral files, retrying in {}", size, collectionPolicy.getPollInterval(), e);
+                batchSize.failed();
+                return deleted;
+            }
+        }
+        return deleted;
+    }
+
+    int batchSize() {
+        return batchSize.current();
+    }
+}
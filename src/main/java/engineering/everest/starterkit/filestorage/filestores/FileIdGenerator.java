@@ -0,0 +1,31 @@
+package engineering.everest.starterkit.filestorage.filestores;
+
+import java.time.Clock;
+import java.util.UUID;
+
+/**
+ * Assigns the identifier of each newly uploaded file, which is also the primary key of its file mapping.
+ */
+@FunctionalInterface
+public interface FileIdGenerator {
+
+    /**
+     * Random version 4 UUIDs. Consecutive inserts land on arbitrary pages of the file mapping primary key index.
+     */
+    FileIdGenerator RANDOM = UUID::randomUUID;
+
+    /**
+     * @return a new, unique file identifier
+     */
+    UUID nextFileId();
+
+    /**
+     * Version 7 UUIDs, which lead with the time of their creation in milliseconds so that each insert appends to the right-hand edge of
+     * the file mapping primary key index. They carry 74 random bits rather than 122 and reveal when the file was uploaded.
+     *
+     * @return time ordered file identifier generator
+     */
+    static FileIdGenerator timeOrdered() {
+        return new TimeOrderedFileIdGenerator(Clock.systemUTC());
+    }
+}
@@ -0,0 +1,49 @@
+package engineering.everest.starterkit.filestorage.filestores;
+
+import engineering.everest.starterkit.filestorage.persistence.BackingObjectReferences;
+import engineering.everest.starterkit.filestorage.persistence.FileMappingRepository;
+import engineering.everest.starterkit.filestorage.persistence.FileMappingStore;
+import lombok.Builder;
+import lombok.Getter;
+
+import java.time.Clock;
+
+/**
+ * Optional features of a {@link PermanentDeduplicatingFileStore} or {@link EphemeralDeduplicatingFileStore}. Options left unset take
+ * the defaults given below.
+ */
+@Builder
+@Getter
+public class FileStoreOptions {
+    /**
+     * Whether backing files are keyed by the SHA-256 digest of their content. Off by default.
+     */
+    private final boolean contentAddressed;
+    /**
+     * Size of the largest file to hold in its file mapping, or a negative value, the default, to disable inlining.
+     */
+    @Builder.Default
+    private final int inlineThresholdBytes = -1;
+    /**
+     * For reference counted deduplication, or {@code null}, the default, to search file mappings for duplicates.
+     */
+    private final BackingObjectReferences backingObjectReferences;
+    /**
+     * For inserting and looking up file mappings on upload, or {@code null}, the default, to use the {@link FileMappingRepository}.
+     */
+    private final FileMappingStore fileMappingStore;
+    /**
+     * For the identifiers of newly uploaded files. Defaults to {@link FileIdGenerator#timeOrdered()}.
+     */
+    @Builder.Default
+    private final FileIdGenerator fileIdGenerator = FileIdGenerator.timeOrdered();
+    /**
+     * Against which the expiry of ephemeral files is measured. Defaults to the system clock in UTC.
+     */
+    @Builder.Default
+    private final Clock clock = Clock.systemUTC();
+
+    public static FileStoreOptions defaults() {
+        return builder().build();
+    }
+}
@@ -0,0 +1,191 @@
+package engineering.everest.starterkit.filestorage.filestores;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import engineering.everest.starterkit.filestorage.backing.BackingStore;
+import engineering.everest.starterkit.filestorage.persistence.BackingObjectReferences;
+import engineering.everest.starterkit.filestorage.persistence.FileMappingRepository;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.domain.PageRequest;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ScheduledExecutorService;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static java.util.concurrent.Executors.newSingleThreadScheduledExecutor;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+
+/**
+ * Periodically deletes backing files that no file mapping refers to. These are left behind when an upload reaches the backing store but
+ * its file mapping is never saved, or when deleting a backing file fails after its file mappings have been removed.
+ * <p>
+ * The backing store listing and the referenced backing file identifiers are both read in ascending order and merge-joined, so a store
+ * of any size is reconciled in memory proportional to the batch size. Backing files modified within the grace period are left alone,
+ * since their uploads may still be in flight. Each batch of orphans is checked against the file mappings once more immediately before
+ * it is deleted.
+ * <p>
+ * The backing store must support listing, and the database must order backing file identifiers as Java does, which in practice means a
+ * binary collation for the column. Reconciliation stops rather than deleting anything further if either side is found out of order.
+ * Identifiers are matched against the file mappings of every file store using the same type of backing store, so backing stores may be
+ * shared between file stores. Where the file store counts references, backing files still held by a backing object are kept too, since
+ * a backing object awaiting collection may yet be referenced by a new upload of the same content. Reconciliation needs to run on one
+ * node only.
+ */
+@Slf4j
+public class OrphanedBackingFileReconciler implements AutoCloseable {
+
+    private final BackingStore backingStore;
+    private final FileMappingRepository fileMappingRepository;
+    private final BackingObjectReferences backingObjectReferences;
+    private final Duration gracePeriod;
+    private final int batchSize;
+    private final Clock clock;
+    private final ScheduledExecutorService reconciliationExecutor;
+
+    /**
+     * @param fileStore             whose backing store is reconciled
+     * @param fileMappingRepository file mappings referring to backing files
+     * @param gracePeriod           backing files modified more recently than this are never deleted
+     * @param batchSize             number of identifiers read from the database, and of orphans deleted, at a time
+     * @param interval              delay between reconciliations
+     * @param clock                 against which the grace period is measured
+     */
+    public OrphanedBackingFileReconciler(PermanentDeduplicatingFileStore fileStore,
+                                         FileMappingRepository fileMappingRepository,
+                                         Duration gracePeriod,
+                                         int batchSize,
+                                         Duration interval,
+                                         Clock clock) {
+        this(fileStore.backingStore, fileMappingRepository, fileStore.backingObjectReferences, gracePeriod, batchSize, interval, clock);
+    }
+
+    OrphanedBackingFileReconciler(BackingStore backingStore,
+                                  FileMappingRepository fileMappingRepository,
+                                  BackingObjectReferences backingObjectReferences,
+                                  Duration gracePeriod,
+                                  int batchSize,
+                                  Duration interval,
+                                  Clock clock) {
+        checkArgument(backingStore.supportsListing(), "Backing store %s does not support listing", backingStore.backingStorageType());
+        checkArgument(batchSize > 0, "Batch size must be positive");
+        this.backingStore = backingStore;
+        this.fileMappingRepository = fileMappingRepository;
+        this.backingObjectReferences = backingObjectReferences;
+        this.gracePeriod = gracePeriod;
+        this.batchSize = batchSize;
+        this.clock = clock;
+        this.reconciliationExecutor = newSingleThreadScheduledExecutor(
+            new ThreadFactoryBuilder().setNameFormat("orphaned-backing-file-reconciler-%d").setDaemon(true).build());
+
+        var intervalMillis = interval.toMillis();
+        reconciliationExecutor.scheduleWithFixedDelay(this::reconcile, intervalMillis, intervalMillis, MILLISECONDS);
+    }
+
+    @Override
+    public void close() {
+        reconciliationExecutor.shutdownNow();
+    }
+
+    /**
+     * Lists the backing store and deletes every backing file that is not referred to by a file mapping and was last modified before the
+     * grace period.
+     *
+     * @return number of orphaned backing files deleted
+     */
+    public int deleteOrphanedBackingFiles() {
+        var cutoff = clock.instant().minus(gracePeriod);
+        var referencedFileIds = new ReferencedFileIds();
+        var candidates = new HashSet<String>();
+        var deleted = 0;
+        var previousFileIdentifier = "";
+        try (var backingFiles = backingStore.listFiles()) {
+            for (var iterator = backingFiles.iterator(); iterator.hasNext();) {
+                var backingFile = iterator.next();
+                var fileIdentifier = backingFile.getFileIdentifier();
+                throwIfOutOfOrder(previousFileIdentifier, fileIdentifier, "backing store listing");
+                previousFileIdentifier = fileIdentifier;
+
+                if (!referencedFileIds.contains(fileIdentifier) && backingFile.getLastModified().isBefore(cutoff)) {
+                    candidates.add(fileIdentifier);
+                    if (candidates.size() == batchSize) {
+                        deleted += deleteOrphans(candidates);
+                        candidates.clear();
+                    }
+                }
+            }
+        }
+        return deleted + deleteOrphans(candidates);
+    }
+
+    private void reconcile() {
+        try {
+            var deleted = deleteOrphanedBackingFiles();
+            LOGGER.info("Deleted {} orphaned {} backing files", deleted, backingStore.backingStorageType());
+        } catch (Exception e) {
+            LOGGER.warn("Reconciliation of {} backing files failed", backingStore.backingStorageType(), e);
+        }
+    }
+
+    private int deleteOrphans(Set<String> candidates) {
+        if (candidates.isEmpty()) {
+            return 0;
+        }
+        var orphans = new HashSet<>(candidates);
+        orphans.removeAll(fileMappingRepository.findReferencedBackingStorageFileIds(candidates));
+        if (backingObjectReferences != null && !orphans.isEmpty()) {
+            orphans.removeAll(backingObjectReferences.trackedBackingStorageFileIds(orphans));
+        }
+        if (!orphans.isEmpty()) {
+            backingStore.deleteFiles(orphans);
+        }
+        return orphans.size();
+    }
+
+    private static void throwIfOutOfOrder(String previous, String next, String source) {
+        if (previous.compareTo(next) >= 0) {
+            throw new IllegalStateException(
+                String.format("Identifiers from the %s are out of order: '%s' then '%s'", source, previous, next));
+        }
+    }
+
+    /**
+     * Walks the referenced backing file identifiers a page at a time. Must be queried in ascending order of identifier.
+     */
+    private class ReferencedFileIds {
+        private List<String> page = List.of();
+        private int position;
+        private String lastFileIdentifier = "";
+        private boolean lastPage;
+
+        boolean contains(String fileIdentifier) {
+            while (true) {
+                if (position == page.size()) {
+                    if (lastPage) {
+                        return false;
+                    }
+                    fetchNextPage();
+                    continue;
+                }
+                var comparison = page.get(position).compareTo(fileIdentifier);
+                if (comparison >= 0) {
+                    return comparison == 0;
+                }
+                position++;
+            }
+        }
+
+        private void fetchNextPage() {
+            page = fileMappingRepository.findBackingStorageFileIdsAfter(backingStore.backingStorageType(), lastFileIdentifier,
+                PageRequest.of(0, batchSize));
+            position = 0;
+            lastPage = page.size() < batchSize;
+            for (var fileIdentifier : page) {
+                throwIfOutOfOrder(lastFileIdentifier, fileIdentifier, "file mappings");
+                lastFileIdentifier = fileIdentifier;
+            }
+        }
+    }
+}
@@ -5,23 +5,59 @@ import com.google.common.hash.HashingInputStream;
 import com.google.common.io.CountingInputStream;
 import engineering.everest.starterkit.filestorage.backing.BackingStorageType;
 import engineering.everest.starterkit.filestorage.backing.BackingStore;
+import engineering.everest.starterkit.filestorage.backing.ContentAddressedUpload;
 import engineering.everest.starterkit.filestorage.InputStreamOfKnownLength;
 import engineering.everest.starterkit.filestorage.PersistedFile;
+import engineering.everest.starterkit.filestorage.persistence.BackingObjectReferences;
 import engineering.everest.starterkit.filestorage.persistence.FileMappingRepository;
+import engineering.everest.starterkit.filestorage.persistence.FileMappingStore;
+import engineering.everest.starterkit.filestorage.persistence.JpaFileMappingStore;
 import engineering.everest.starterkit.filestorage.persistence.PersistableFileMapping;
-import org.springframework.data.domain.Example;
+import org.reactivestreams.Publisher;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferFactory;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.dao.DataIntegrityViolationException;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.atomic.AtomicLong;
 
+import static com.google.common.base.Preconditions.checkArgument;
+import static engineering.everest.starterkit.filestorage.backing.BackingStorageType.INLINE;
 import static engineering.everest.starterkit.filestorage.filestores.FileStoreType.PERMANENT;
-import static java.util.UUID.randomUUID;
+import static engineering.everest.starterkit.filestorage.persistence.PersistableFileMapping.MAX_INLINE_CONTENT_BYTES;
+import static java.lang.Math.max;
+import static java.lang.Math.min;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+import static reactor.core.scheduler.Schedulers.boundedElastic;
 
 /**
  * File store that removes duplicate copies of files and manages the mapping of individual file uploads to a single backing file.
  * <p>
  * This default implementation does not support file deletion. It is intended to be used as a permanent file store.
+ * <p>
+ * When content addressing is enabled, uploads are spooled to a temporary file while their digests are computed and are then written to
+ * the backing store under a key derived from the SHA-256 digest. Duplicate content is detected by the backing store itself, so it is
+ * neither uploaded again nor looked up in the file mappings.
+ * <p>
+ * When an inline threshold is set, stream uploads no larger than the threshold, including empty files, are held in the file mapping
+ * itself. They are read back from the file mapping without calling the backing store.
+ * <p>
+ * When backing object references are given, uploads are deduplicated by a primary key lookup of the backing object for their content
+ * rather than by searching file mappings, and each backing object counts the file mappings referring to it.
+ * <p>
+ * These features, and the {@link FileMappingStore} and {@link FileIdGenerator} used for uploads, are selected with
+ * {@link FileStoreOptions}.
  *
  * @see EphemeralDeduplicatingFileStore
  */
@@ -30,18 +66,54 @@ public class PermanentDeduplicatingFileStore {
     protected final FileStoreType fileStoreType;
     protected final FileMappingRepository fileMappingRepository;
     protected final BackingStore backingStore;
+    private final boolean contentAddressed;
+    private final int inlineThresholdBytes;
+    protected final BackingObjectReferences backingObjectReferences;
+    protected final FileMappingStore fileMappingStore;
+    private final FileIdGenerator fileIdGenerator;
 
     public PermanentDeduplicatingFileStore(FileMappingRepository fileMappingRepository,
                                            BackingStore backingStore) {
         this(PERMANENT, fileMappingRepository, backingStore);
     }
 
+    /**
+     * @param fileMappingRepository for file mappings
+     * @param backingStore          for file content
+     * @param options               optional features of the file store
+     */
+    public PermanentDeduplicatingFileStore(FileMappingRepository fileMappingRepository,
+                                           BackingStore backingStore,
+                                           FileStoreOptions options) {
+        this(PERMANENT, fileMappingRepository, backingStore, options);
+    }
+
     protected PermanentDeduplicatingFileStore(FileStoreType fileStoreType,
                                               FileMappingRepository fileMappingRepository,
                                               BackingStore backingStore) {
+        this(fileStoreType, fileMappingRepository, backingStore, FileStoreOptions.defaults());
+    }
+
+    protected PermanentDeduplicatingFileStore(FileStoreType fileStoreType,
+                                              FileMappingRepository fileMappingRepository,
+                                              BackingStore backingStore,
+                                              FileStoreOptions options) {
+        var contentAddressed = options.isContentAddressed();
+        var inlineThresholdBytes = options.getInlineThresholdBytes();
+        checkArgument(!contentAddressed || backingStore.supportsContentAddressing(),
+            "%s backing store does not support content addressing", fileStoreType);
+        checkArgument(inlineThresholdBytes <= MAX_INLINE_CONTENT_BYTES, "Inline threshold may not exceed %s bytes",
+            MAX_INLINE_CONTENT_BYTES);
         this.fileStoreType = fileStoreType;
         this.fileMappingRepository = fileMappingRepository;
         this.backingStore = backingStore;
+        this.contentAddressed = contentAddressed;
+        this.inlineThresholdBytes = inlineThresholdBytes;
+        this.backingObjectReferences = options.getBackingObjectReferences();
+        this.fileMappingStore = options.getFileMappingStore() == null
+            ? new JpaFileMappingStore(fileMappingRepository)
+            : options.getFileMappingStore();
+        this.fileIdGenerator = options.getFileIdGenerator();
     }
 
     /**
@@ -56,14 +128,7 @@ public class PermanentDeduplicatingFileStore {
      * @throws IOException      if the file could not be persisted
      */
     public PersistedFile uploadAsStream(String originalFilename, InputStream inputStream) throws IOException {
-        try (var countingInputStream = new CountingInputStream(inputStream);
-             var sha256ingInputStream = new HashingInputStream(Hashing.sha256(), countingInputStream);
-             var sha512ingInputStream = new HashingInputStream(Hashing.sha512(), sha256ingInputStream)) {
-            var fileIdentifier = backingStore.uploadStream(sha512ingInputStream, originalFilename);
-
-            return persistDeduplicateAndUpdateFileMapping(sha256ingInputStream.hash().toString(),
-                sha512ingInputStream.hash().toString(), fileIdentifier, countingInputStream.getCount());
-        }
+        return uploadAsStream(originalFilename, inputStream, null);
     }
 
     /**
@@ -78,13 +143,88 @@ public class PermanentDeduplicatingFileStore {
      * @throws IOException      if the file could not be persisted
      */
     public PersistedFile uploadAsStream(String originalFilename, long fileSize, InputStream inputStream) throws IOException {
+        return uploadAsStream(originalFilename, fileSize, inputStream, null);
+    }
+
+    /**
+     * Reactive upload of a file of unknown length, recording its name.
+     * <p>
+     * Content hashes are updated incrementally as each buffer passes through to the backing store. Deduplication and the file mapping
+     * update, which are blocking, run on the bounded elastic scheduler once the backing store has accepted the upload. When inlining is
+     * enabled, buffers are held back until the content is known to exceed the inline threshold, and content that does not is held in its
+     * file mapping instead.
+     *
+     * @param  originalFilename to record. Typically the original filename a user would associate with the file contents.
+     * @param  content          to upload. Consumed with backpressure from the backing store.
+     * @return                  a mono of the persisted file information
+     */
+    public Mono<PersistedFile> uploadAsFlux(String originalFilename, Publisher<DataBuffer> content) {
+        return uploadAsFlux(originalFilename, content, null);
+    }
+
+    /**
+     * As {@link #uploadAsStream(String, InputStream)}, recording when the file expires unless {@code null}.
+     */
+    protected PersistedFile uploadAsStream(String originalFilename, InputStream inputStream, Instant expiresAt) throws IOException {
+        if (inlineThresholdBytes >= 0) {
+            var leadingContent = inputStream.readNBytes(inlineThresholdBytes + 1);
+            if (leadingContent.length <= inlineThresholdBytes) {
+                return persistInlineFile(leadingContent, expiresAt);
+            }
+            return uploadToBackingStore(originalFilename, new SequenceInputStream(new ByteArrayInputStream(leadingContent), inputStream),
+                expiresAt);
+        }
+        return uploadToBackingStore(originalFilename, inputStream, expiresAt);
+    }
+
+    /**
+     * As {@link #uploadAsStream(String, long, InputStream)}, recording when the file expires unless {@code null}.
+     */
+    protected PersistedFile uploadAsStream(String originalFilename, long fileSize, InputStream inputStream, Instant expiresAt)
+        throws IOException {
+        if (fileSize >= 0 && fileSize <= inlineThresholdBytes) {
+            var content = inputStream.readNBytes((int) fileSize + 1);
+            throwIfContentLengthNotExpectedFileSize(originalFilename, fileSize, content.length);
+            return persistInlineFile(content, expiresAt);
+        }
+        if (contentAddressed) {
+            return uploadContentAddressed(originalFilename, inputStream, fileSize, expiresAt);
+        }
         try (var sha256ingInputStream = new HashingInputStream(Hashing.sha256(), inputStream);
              var sha512ingInputStream = new HashingInputStream(Hashing.sha512(), sha256ingInputStream)) {
             var fileIdentifier = backingStore.uploadStream(sha512ingInputStream, originalFilename, fileSize);
 
             return persistDeduplicateAndUpdateFileMapping(sha256ingInputStream.hash().toString(),
-                sha512ingInputStream.hash().toString(), fileIdentifier, fileSize);
+                sha512ingInputStream.hash().toString(), fileIdentifier, fileSize, expiresAt);
+        }
+    }
+
+    /**
+     * As {@link #uploadAsFlux(String, Publisher)}, recording when the file expires unless {@code null}.
+     */
+    protected Mono<PersistedFile> uploadAsFlux(String originalFilename, Publisher<DataBuffer> content, Instant expiresAt) {
+        if (inlineThresholdBytes >= 0) {
+            return Flux.defer(() -> {
+                var bytesBuffered = new AtomicLong();
+                return Flux.from(content)
+                    .bufferUntil(dataBuffer -> bytesBuffered.addAndGet(dataBuffer.readableByteCount()) > inlineThresholdBytes);
+            })
+                .switchOnFirst((leadingSignal, bufferedContent) -> {
+                    if (leadingSignal.isOnError()) {
+                        return Mono.<PersistedFile>error(leadingSignal.getThrowable());
+                    }
+                    var leadingBuffers = leadingSignal.hasValue() ? leadingSignal.get() : List.<DataBuffer>of();
+                    if (byteCount(leadingBuffers) > inlineThresholdBytes) {
+                        var replayedContent = bufferedContent.concatMapIterable(dataBuffers -> dataBuffers);
+                        return uploadToBackingStore(originalFilename, replayedContent, expiresAt);
+                    }
+                    return Mono.fromCallable(() -> persistInlineFile(drain(leadingBuffers), expiresAt))
+                        .subscribeOn(boundedElastic());
+                })
+                .doOnDiscard(DataBuffer.class, DataBufferUtils::release)
+                .single();
         }
+        return uploadToBackingStore(originalFilename, content, expiresAt);
     }
 
     /**
@@ -97,6 +237,9 @@ public class PermanentDeduplicatingFileStore {
      * @throws IOException            if the file doesn't exist or could not be read
      */
     public InputStreamOfKnownLength downloadAsStream(PersistableFileMapping persistableFileMapping) throws IOException {
+        if (persistableFileMapping.getBackingStorageType() == INLINE) {
+            return inlineContent(persistableFileMapping, 0L, persistableFileMapping.getFileSizeBytes() - 1);
+        }
         var persistedFileIdentifier = persistableFileMapping.getPersistedFileIdentifier();
         return backingStore.downloadAsStream(persistedFileIdentifier.getBackingStorageFileId());
     }
@@ -114,19 +257,215 @@ public class PermanentDeduplicatingFileStore {
      */
     public InputStreamOfKnownLength downloadAsStream(PersistableFileMapping persistableFileMapping, long startingOffset, long endingOffset)
         throws IOException {
+        if (persistableFileMapping.getBackingStorageType() == INLINE) {
+            return inlineContent(persistableFileMapping, startingOffset, endingOffset);
+        }
         var persistedFileIdentifier = persistableFileMapping.getPersistedFileIdentifier();
         return backingStore.downloadAsStream(persistedFileIdentifier.getBackingStorageFileId(), startingOffset, endingOffset);
     }
 
+    /**
+     * Reactive streaming download starting at a given offset
+     * <p>
+     * Subscribers are responsible for releasing the emitted data buffers.
+     *
+     * @param  persistableFileMapping returned when a file was uploaded to the file store
+     * @param  startingOffset         binary offset into the file from which to start streaming from
+     * @param  endingOffset           binary offset into the file to stream to (inclusive)
+     * @param  dataBufferFactory      used to allocate the emitted buffers
+     * @param  bufferSize             maximum size in bytes of each emitted buffer
+     * @return                        a flux of data buffers honouring subscriber demand
+     */
+    public Flux<DataBuffer> downloadAsFlux(PersistableFileMapping persistableFileMapping,
+                                           long startingOffset,
+                                           long endingOffset,
+                                           DataBufferFactory dataBufferFactory,
+                                           int bufferSize) {
+        if (persistableFileMapping.getBackingStorageType() == INLINE) {
+            return DataBufferUtils.readInputStream(
+                () -> inlineContent(persistableFileMapping, startingOffset, endingOffset).getInputStream(), dataBufferFactory, bufferSize);
+        }
+        var persistedFileIdentifier = persistableFileMapping.getPersistedFileIdentifier();
+        return backingStore.downloadAsFlux(persistedFileIdentifier.getBackingStorageFileId(), startingOffset, endingOffset,
+            dataBufferFactory, bufferSize);
+    }
+
+    private Mono<PersistedFile> uploadToBackingStore(String originalFilename, Publisher<DataBuffer> content, Instant expiresAt) {
+        if (contentAddressed) {
+            return uploadContentAddressed(content, expiresAt);
+        }
+        return Mono.defer(() -> {
+            var dataBufferHasher = new DataBufferHasher();
+            return backingStore.uploadFlux(Flux.from(content).doOnNext(dataBufferHasher::update), originalFilename)
+                .publishOn(boundedElastic())
+                .map(fileIdentifier -> persistDeduplicateAndUpdateFileMapping(dataBufferHasher.sha256(), dataBufferHasher.sha512(),
+                    fileIdentifier, dataBufferHasher.byteCount(), expiresAt));
+        });
+    }
+
+    private PersistedFile uploadToBackingStore(String originalFilename, InputStream inputStream, Instant expiresAt) throws IOException {
+        if (contentAddressed) {
+            return uploadContentAddressed(originalFilename, inputStream, -1L, expiresAt);
+        }
+        try (var countingInputStream = new CountingInputStream(inputStream);
+             var sha256ingInputStream = new HashingInputStream(Hashing.sha256(), countingInputStream);
+             var sha512ingInputStream = new HashingInputStream(Hashing.sha512(), sha256ingInputStream)) {
+            var fileIdentifier = backingStore.uploadStream(sha512ingInputStream, originalFilename);
+
+            return persistDeduplicateAndUpdateFileMapping(sha256ingInputStream.hash().toString(),
+                sha512ingInputStream.hash().toString(), fileIdentifier, countingInputStream.getCount(), expiresAt);
+        }
+    }
+
+    private PersistedFile uploadContentAddressed(String originalFilename,
+                                                 InputStream inputStream,
+                                                 long expectedFileSize,
+                                                 Instant expiresAt)
+        throws IOException {
+        var spooledFile = Files.createTempFile("content-addressed-", ".tmp");
+        try (var countingInputStream = new CountingInputStream(inputStream);
+             var sha256ingInputStream = new HashingInputStream(Hashing.sha256(), countingInputStream);
+             var sha512ingInputStream = new HashingInputStream(Hashing.sha512(), sha256ingInputStream)) {
+            Files.copy(sha512ingInputStream, spooledFile, REPLACE_EXISTING);
+            throwIfContentLengthNotExpectedFileSize(originalFilename, expectedFileSize, countingInputStream.getCount());
+            return persistContentAddressedFile(spooledFile, sha256ingInputStream.hash().toString(),
+                sha512ingInputStream.hash().toString(), countingInputStream.getCount(), expiresAt);
+        } finally {
+            Files.deleteIfExists(spooledFile);
+        }
+    }
+
+    private Mono<PersistedFile> uploadContentAddressed(Publisher<DataBuffer> content, Instant expiresAt) {
+        return Mono.fromCallable(() -> Files.createTempFile("content-addressed-", ".tmp"))
+            .subscribeOn(boundedElastic())
+            .flatMap(spooledFile -> {
+                var dataBufferHasher = new DataBufferHasher();
+                return DataBufferUtils.write(Flux.from(content).doOnNext(dataBufferHasher::update), spooledFile)
+                    .then(Mono.fromCallable(() -> persistContentAddressedFile(spooledFile, dataBufferHasher.sha256(),
+                        dataBufferHasher.sha512(), dataBufferHasher.byteCount(), expiresAt)).subscribeOn(boundedElastic()))
+                    .doFinally(signal -> deleteQuietly(spooledFile));
+            });
+    }
+
+    private PersistedFile persistContentAddressedFile(Path spooledFile,
+                                                      String sha256,
+                                                      String sha512,
+                                                      long fileSizeBytes,
+                                                      Instant expiresAt)
+        throws IOException {
+        ContentAddressedUpload upload;
+        try (var inputStream = Files.newInputStream(spooledFile)) {
+            upload = backingStore.uploadContentAddressed(inputStream, sha256, fileSizeBytes);
+        }
+        var fileIdentifier = upload.getFileIdentifier();
+        PersistedFile persistedFile;
+        if (backingObjectReferences != null) {
+            persistedFile = persistReferenceCountedFileMapping(sha256, sha512, fileIdentifier, fileSizeBytes, expiresAt);
+        } else {
+            persistedFile = new PersistedFile(fileIdGenerator.nextFileId(), fileStoreType, backingStore.backingStorageType(),
+                fileIdentifier, sha256, sha512, fileSizeBytes);
+            addFileMapping(persistedFile, fileSizeBytes, backingStore.backingStorageType(), expiresAt);
+        }
+        if (upload.isAlreadyPresent() && fileIdentifier.equals(persistedFile.getBackingStorageFileId())) {
+            // The existing object may have been garbage collected between the existence check and the file mapping being saved
+            try (var inputStream = Files.newInputStream(spooledFile)) {
+                backingStore.uploadContentAddressed(inputStream, sha256, fileSizeBytes);
+            }
+        }
+        return persistedFile;
+    }
+
+    private PersistedFile persistInlineFile(byte[] content, Instant expiresAt) {
+        var sha256 = Hashing.sha256().hashBytes(content).toString();
+        var sha512 = Hashing.sha512().hashBytes(content).toString();
+        var persistedFile = new PersistedFile(fileIdGenerator.nextFileId(), fileStoreType, INLINE, null, sha256, sha512,
+            content.length);
+        var fileMapping = new PersistableFileMapping(persistedFile.getFileId(), fileStoreType, INLINE, null, sha256, sha512,
+            (long) content.length, false, content);
+        fileMapping.setExpiresAt(expiresAt);
+        fileMappingStore.insert(fileMapping);
+        return persistedFile;
+    }
+
+    private static long byteCount(List<DataBuffer> dataBuffers) {
+        return dataBuffers.stream().mapToLong(DataBuffer::readableByteCount).sum();
+    }
+
+    private static byte[] drain(List<DataBuffer> dataBuffers) {
+        var content = new byte[(int) byteCount(dataBuffers)];
+        var offset = 0;
+        for (var dataBuffer : dataBuffers) {
+            var length = dataBuffer.readableByteCount();
+            dataBuffer.read(content, offset, length);
+            offset += length;
+            DataBufferUtils.release(dataBuffer);
+        }
+        return content;
+    }
+
+    private static InputStreamOfKnownLength inlineContent(PersistableFileMapping persistableFileMapping,
+                                                          long startingOffset,
+                                                          long endingOffset) {
+        var content = persistableFileMapping.getInlineContent();
+        var offset = (int) min(startingOffset, content.length);
+        var length = max(0, (int) min(endingOffset + 1, content.length) - offset);
+        return new InputStreamOfKnownLength(new ByteArrayInputStream(content, offset, length), length);
+    }
+
+    private static void throwIfContentLengthNotExpectedFileSize(String fileName, long expectedFileSize, long contentLength)
+        throws IOException {
+        if (expectedFileSize >= 0 && expectedFileSize != contentLength) {
+            throw new IOException(String.format("Expected file size %d for uploaded file '%s' but content length is %d",
+                expectedFileSize, fileName, contentLength));
+        }
+    }
+
+    private static void deleteQuietly(Path spooledFile) {
+        try {
+            Files.deleteIfExists(spooledFile);
+        } catch (IOException ignored) {
+            // Left for the operating system to clear out of the temporary directory
+        }
+    }
+
     private PersistedFile persistDeduplicateAndUpdateFileMapping(String sha256,
                                                                  String sha512,
                                                                  String fileIdentifier,
-                                                                 long fileSizeBytes) {
+                                                                 long fileSizeBytes,
+                                                                 Instant expiresAt) {
+        if (backingObjectReferences != null) {
+            return persistReferenceCountedFileMapping(sha256, sha512, fileIdentifier, fileSizeBytes, expiresAt);
+        }
         var persistedFile = deduplicateUploadedFile(fileIdentifier, sha256, sha512, fileSizeBytes, backingStore.backingStorageType());
-        addFileMapping(persistedFile, fileSizeBytes, backingStore.backingStorageType());
+        addFileMapping(persistedFile, fileSizeBytes, backingStore.backingStorageType(), expiresAt);
         return persistedFile;
     }
 
+    private PersistedFile persistReferenceCountedFileMapping(String sha256,
+                                                             String sha512,
+                                                             String fileIdentifier,
+                                                             long fileSizeBytes,
+                                                             Instant expiresAt) {
+        var newFileMapping = new PersistableFileMapping(fileIdGenerator.nextFileId(), fileStoreType, backingStore.backingStorageType(),
+            fileIdentifier, sha256, sha512, fileSizeBytes, false);
+        newFileMapping.setExpiresAt(expiresAt);
+        var fileMapping = addReferenceCountedFileMapping(newFileMapping);
+        if (!fileIdentifier.equals(fileMapping.getBackingStorageFileId())) {
+            deletePersistedFile(fileIdentifier);
+        }
+        return new PersistedFile(fileMapping.getFileId(), fileStoreType, fileMapping.getBackingStorageType(),
+            fileMapping.getBackingStorageFileId(), sha256, sha512, fileSizeBytes);
+    }
+
+    private PersistableFileMapping addReferenceCountedFileMapping(PersistableFileMapping fileMapping) {
+        try {
+            return backingObjectReferences.addFileMapping(fileMapping);
+        } catch (DataIntegrityViolationException e) {
+            // A concurrent upload of the same content registered its backing object first, so reference that one instead
+            return backingObjectReferences.addFileMapping(fileMapping);
+        }
+    }
+
     private PersistedFile deduplicateUploadedFile(String fileIdentifier,
                                                   String uploadSha256,
                                                   String uploadSha512,
@@ -135,28 +474,23 @@ public class PermanentDeduplicatingFileStore {
         var existingFileMapping = searchForExistingFileMappingToBothHashes(uploadSha256, uploadSha512);
         if (existingFileMapping.isPresent()) {
             deletePersistedFile(fileIdentifier);
-            return new PersistedFile(randomUUID(), fileStoreType, backingStorageType, existingFileMapping.get().getBackingStorageFileId(),
-                uploadSha256, uploadSha512, fileSizeBytes);
+            return new PersistedFile(fileIdGenerator.nextFileId(), fileStoreType, backingStorageType,
+                existingFileMapping.get().getBackingStorageFileId(), uploadSha256, uploadSha512, fileSizeBytes);
         } else {
-            return new PersistedFile(randomUUID(), fileStoreType, backingStorageType, fileIdentifier, uploadSha256, uploadSha512,
-                fileSizeBytes);
+            return new PersistedFile(fileIdGenerator.nextFileId(), fileStoreType, backingStorageType, fileIdentifier, uploadSha256,
+                uploadSha512, fileSizeBytes);
         }
     }
 
     protected Optional<PersistableFileMapping> searchForExistingFileMappingToBothHashes(String uploadSha256, String uploadSha512) {
-        var fileMappingExample = new PersistableFileMapping();
-        fileMappingExample.setSha256(uploadSha256);
-        fileMappingExample.setSha512(uploadSha512);
-        fileMappingExample.setMarkedForDeletion(false);
-        var matchingFiles = fileMappingRepository.findAll(Example.of(fileMappingExample));
-        return matchingFiles.isEmpty()
-            ? Optional.empty()
-            : Optional.of(matchingFiles.get(0));
-    }
-
-    private void addFileMapping(PersistedFile persistedFile, long fileSizeBytes, BackingStorageType backingStorageType) {
-        fileMappingRepository.save(new PersistableFileMapping(persistedFile.getFileId(), fileStoreType, backingStorageType,
-            persistedFile.getBackingStorageFileId(), persistedFile.getSha256(), persistedFile.getSha512(), fileSizeBytes, false));
+        return fileMappingStore.findBackedFileMappingWithHashes(uploadSha256, uploadSha512);
+    }
+
+    private void addFileMapping(PersistedFile persistedFile, long fileSizeBytes, BackingStorageType backingStorageType, Instant expiresAt) {
+        var fileMapping = new PersistableFileMapping(persistedFile.getFileId(), fileStoreType, backingStorageType,
+            persistedFile.getBackingStorageFileId(), persistedFile.getSha256(), persistedFile.getSha512(), fileSizeBytes, false);
+        fileMapping.setExpiresAt(expiresAt);
+        fileMappingStore.insert(fileMapping);
     }
 
     private void deletePersistedFile(String fileIdentifier) {
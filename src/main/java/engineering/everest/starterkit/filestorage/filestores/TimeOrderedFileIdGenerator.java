@@ -0,0 +1,54 @@
+package engineering.everest.starterkit.filestorage.filestores;
+
+import java.security.SecureRandom;
+import java.time.Clock;
+import java.util.UUID;
+
+/**
+ * Generates version 7 UUIDs as laid out by RFC 9562: a 48 bit Unix timestamp in milliseconds, the version, a 12 bit counter, the variant
+ * and 62 random bits. The counter starts at a random value in the lower half of its range each millisecond and is incremented for each
+ * further identifier in the same millisecond. Should it overflow, or the clock step backwards, the timestamp is advanced past the last
+ * one used, so identifiers from one generator always increase.
+ */
+final class TimeOrderedFileIdGenerator implements FileIdGenerator {
+
+    private static final int COUNTER_BITS = 12;
+    private static final long MAX_COUNTER = (1L << COUNTER_BITS) - 1;
+    private static final long TIMESTAMP_MASK = (1L << 48) - 1;
+    private static final long VERSION_7 = 0x7000L;
+    private static final long VARIANT_MASK = 0x3FFFFFFFFFFFFFFFL;
+    private static final long VARIANT_RFC_4122 = 0x8000000000000000L;
+
+    private final Clock clock;
+    private final SecureRandom random;
+    private long lastTimestamp = -1;
+    private long counter;
+
+    TimeOrderedFileIdGenerator(Clock clock) {
+        this.clock = clock;
+        this.random = new SecureRandom();
+    }
+
+    @Override
+    public UUID nextFileId() {
+        long timestamp;
+        long sequence;
+        synchronized (this) {
+            var now = clock.millis();
+            if (now > lastTimestamp) {
+                lastTimestamp = now;
+                counter = random.nextInt(1 << (COUNTER_BITS - 1));
+            } else if (counter < MAX_COUNTER) {
+                counter++;
+            } else {
+                lastTimestamp++;
+                counter = 0;
+            }
+            timestamp = lastTimestamp;
+            sequence = counter;
+        }
+        var mostSignificantBits = (timestamp & TIMESTAMP_MASK) << 16 | VERSION_7 | sequence;
+        var leastSignificantBits = random.nextLong() & VARIANT_MASK | VARIANT_RFC_4122;
+        return new UUID(mostSignificantBits, leastSignificantBits);
+    }
+}
@@ -0,0 +1,19 @@
+package engineering.everest.starterkit.filestorage.persistence;
+
+import engineering.everest.starterkit.filestorage.filestores.FileStoreType;
+import jakarta.persistence.Embeddable;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.io.Serializable;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Embeddable
+public class BackingObjectKey implements Serializable {
+
+    private FileStoreType fileStoreType;
+    private String sha512;
+}
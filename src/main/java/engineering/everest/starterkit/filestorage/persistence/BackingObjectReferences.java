@@ -0,0 +1,150 @@
+package engineering.everest.starterkit.filestorage.persistence;
+
+import engineering.everest.starterkit.filestorage.filestores.FileStoreType;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+import static engineering.everest.starterkit.filestorage.backing.BackingStorageType.INLINE;
+import static java.util.stream.Collectors.counting;
+import static java.util.stream.Collectors.groupingBy;
+import static java.util.stream.Collectors.toList;
+import static java.util.stream.Collectors.toMap;
+import static java.util.stream.Collectors.toSet;
+
+/**
+ * Keeps a reference count for each backing object in step with the file mappings that refer to it.
+ * <p>
+ * Deduplication is a primary key lookup of the backing object for the uploaded content, and a backing file may be deleted once the
+ * reference count of its backing object reaches zero. Uploads and collection both lock the backing object's row, so an upload either
+ * references a backing object awaiting collection before the collector rechecks its count, or registers a new one once it has been
+ * collected. File mappings created before reference counting was enabled have no backing object and are said to be untracked.
+ * <p>
+ * Counts and file mappings are updated in the same transaction, so this class must be used through its Spring managed bean.
+ */
+public class BackingObjectReferences {
+
+    private final FileMappingRepository fileMappingRepository;
+    private final BackingObjectRepository backingObjectRepository;
+
+    public BackingObjectReferences(FileMappingRepository fileMappingRepository, BackingObjectRepository backingObjectRepository) {
+        this.fileMappingRepository = fileMappingRepository;
+        this.backingObjectRepository = backingObjectRepository;
+    }
+
+    /**
+     * Save a file mapping, referring it to the backing object of the same content if there is one and otherwise registering the mapping's
+     * backing file as a new backing object.
+     *
+     * @param  fileMapping of a newly uploaded file
+     * @return             the saved file mapping, whose backing file is that of the existing backing object if one was referenced
+     */
+    @Transactional
+    public PersistableFileMapping addFileMapping(PersistableFileMapping fileMapping) {
+        var key = new BackingObjectKey(fileMapping.getFileStoreType(), fileMapping.getSha512());
+        if (backingObjectRepository.incrementReferenceCount(key.getFileStoreType(), key.getSha512()) > 0) {
+            var backingObject = backingObjectRepository.findById(key).orElseThrow();
+            var referencingFileMapping = new PersistableFileMapping(fileMapping.getFileId(), fileMapping.getFileStoreType(),
+                backingObject.getBackingStorageType(), backingObject.getBackingStorageFileId(), fileMapping.getSha256(),
+                fileMapping.getSha512(), fileMapping.getFileSizeBytes(), false);
+            referencingFileMapping.setExpiresAt(fileMapping.getExpiresAt());
+            return fileMappingRepository.save(referencingFileMapping);
+        }
+        backingObjectRepository.saveAndFlush(new PersistableBackingObject(key, fileMapping.getSha256(),
+            fileMapping.getBackingStorageType(), fileMapping.getBackingStorageFileId(), fileMapping.getFileSizeBytes(), 1L));
+        return fileMappingRepository.save(fileMapping);
+    }
+
+    /**
+     * @param  fileMappings to check
+     * @return              those file mappings that are not counted by a backing object, excluding inline files
+     */
+    public List<PersistableFileMapping> untrackedFileMappings(List<PersistableFileMapping> fileMappings) {
+        var keys = fileMappings.stream().map(BackingObjectReferences::keyOf).collect(toList());
+        var backingObjects = backingObjectRepository.findAllById(keys).stream()
+            .collect(toMap(PersistableBackingObject::getKey, Function.identity()));
+        return fileMappings.stream()
+            .filter(fileMapping -> fileMapping.getBackingStorageType() != INLINE)
+            .filter(fileMapping -> {
+                var backingObject = backingObjects.get(keyOf(fileMapping));
+                return backingObject == null
+                    || !Objects.equals(backingObject.getBackingStorageFileId(), fileMapping.getBackingStorageFileId());
+            })
+            .collect(toList());
+    }
+
+    /**
+     * @param  backingStorageFileIds to check
+     * @return                       those identifiers of backing files held by a backing object, whatever its reference count
+     */
+    public Set<String> trackedBackingStorageFileIds(Collection<String> backingStorageFileIds) {
+        return backingObjectRepository.findTrackedBackingStorageFileIds(backingStorageFileIds);
+    }
+
+    /**
+     * Delete file mappings, releasing their references to backing objects.
+     *
+     * @param fileMappings to delete
+     */
+    @Transactional
+    public void removeFileMappings(List<PersistableFileMapping> fileMappings) {
+        Map<BackingObjectKey, Map<String, Long>> references = fileMappings.stream()
+            .filter(fileMapping -> fileMapping.getBackingStorageType() != INLINE)
+            .collect(groupingBy(BackingObjectReferences::keyOf, groupingBy(PersistableFileMapping::getBackingStorageFileId, counting())));
+        references.forEach((key, referencesByBackingFile) -> referencesByBackingFile.forEach((backingStorageFileId, count) ->
+            backingObjectRepository.decrementReferenceCount(key.getFileStoreType(), key.getSha512(), backingStorageFileId, count)));
+        fileMappingRepository.deleteAllInBatch(fileMappings);
+    }
+
+    /**
+     * Delete up to a batch of backing objects no longer referenced by any file mapping, together with their backing files. The backing
+     * objects stay locked until their rows are deleted, so that a concurrent upload of the same content cannot reference a backing file
+     * being deleted. Backing files still referred to by untracked file mappings, which share content addressed identifiers with tracked
+     * uploads of the same content, are kept and left for those mappings' own deletion. Should deleting the backing files fail, the
+     * backing objects are kept for a later attempt.
+     *
+     * @param  fileStoreType      of the backing objects
+     * @param  limit              maximum number of backing objects to delete
+     * @param  deleteBackingFiles deletes the backing files with the given identifiers
+     * @return                    number of backing objects deleted
+     */
+    @Transactional
+    public int removeUnreferencedBackingObjects(FileStoreType fileStoreType, int limit, Consumer<Set<String>> deleteBackingFiles) {
+        var backingObjects = backingObjectRepository.findUnreferencedForUpdate(fileStoreType, PageRequest.of(0, limit));
+        if (backingObjects.isEmpty()) {
+            return 0;
+        }
+        var backingStorageFileIds = backingObjects.stream().map(PersistableBackingObject::getBackingStorageFileId).collect(toSet());
+        backingStorageFileIds.removeAll(fileMappingRepository.findReferencedBackingStorageFileIds(backingStorageFileIds));
+        if (!backingStorageFileIds.isEmpty()) {
+            deleteBackingFiles.accept(backingStorageFileIds);
+        }
+        backingObjectRepository.deleteAllInBatch(backingObjects);
+        return backingObjects.size();
+    }
+
+    /**
+     * Point the file mappings and backing object referring to a relocated backing file at its new location.
+     *
+     * @param  fromFileId previous identifier of the backing file
+     * @param  toFileId   identifier of the backing file's copy
+     * @return            whether anything still referred to the previous identifier
+     */
+    @Transactional
+    public boolean relocate(String fromFileId, String toFileId) {
+        var backingObjectsUpdated = backingObjectRepository.updateBackingStorageFileId(fromFileId, toFileId);
+        var fileMappingsUpdated = fileMappingRepository.updateBackingStorageFileId(fromFileId, toFileId);
+        return backingObjectsUpdated + fileMappingsUpdated > 0;
+    }
+
+    private static BackingObjectKey keyOf(PersistableFileMapping fileMapping) {
+        return new BackingObjectKey(fileMapping.getFileStoreType(), fileMapping.getSha512());
+    }
+}
@@ -0,0 +1,53 @@
+package engineering.everest.starterkit.filestorage.persistence;
+
+import engineering.everest.starterkit.filestorage.filestores.FileStoreType;
+import jakarta.persistence.LockModeType;
+import jakarta.persistence.QueryHint;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Lock;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+
+@Repository
+public interface BackingObjectRepository extends JpaRepository<PersistableBackingObject, BackingObjectKey> {
+
+    /**
+     * Rows are locked for update, skipping rows locked by concurrent uploads where the database supports it.
+     */
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    @QueryHints(@QueryHint(name = "jakarta.persistence.lock.timeout", value = "-2"))
+    @Query("select o from backingobject o where o.key.fileStoreType = :fileStoreType and o.referenceCount <= 0")
+    List<PersistableBackingObject> findUnreferencedForUpdate(@Param("fileStoreType") FileStoreType fileStoreType, Pageable pageable);
+
+    @Query("select distinct o.backingStorageFileId from backingobject o where o.backingStorageFileId in :backingStorageFileIds")
+    Set<String> findTrackedBackingStorageFileIds(@Param("backingStorageFileIds") Collection<String> backingStorageFileIds);
+
+    @Modifying
+    @Transactional
+    @Query("update backingobject o set o.referenceCount = o.referenceCount + 1 "
+        + "where o.key.fileStoreType = :fileStoreType and o.key.sha512 = :sha512")
+    int incrementReferenceCount(@Param("fileStoreType") FileStoreType fileStoreType, @Param("sha512") String sha512);
+
+    @Modifying
+    @Transactional
+    @Query("update backingobject o set o.referenceCount = o.referenceCount - :references "
+        + "where o.key.fileStoreType = :fileStoreType and o.key.sha512 = :sha512 and o.backingStorageFileId = :backingStorageFileId")
+    int decrementReferenceCount(@Param("fileStoreType") FileStoreType fileStoreType,
+                                @Param("sha512") String sha512,
+                                @Param("backingStorageFileId") String backingStorageFileId,
+                                @Param("references") long references);
+
+    @Modifying
+    @Transactional
+    @Query("update backingobject o set o.backingStorageFileId = :toFileId where o.backingStorageFileId = :fromFileId")
+    int updateBackingStorageFileId(@Param("fromFileId") String fromFileId, @Param("toFileId") String toFileId);
+}
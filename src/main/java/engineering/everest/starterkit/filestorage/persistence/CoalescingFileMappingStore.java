@@ -0,0 +1,212 @@
+package engineering.everest.starterkit.filestorage.persistence;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.transaction.support.TransactionOperations;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static java.lang.System.nanoTime;
+import static java.util.concurrent.Executors.newSingleThreadExecutor;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+import static java.util.stream.Collectors.toList;
+
+/**
+ * Decorates a file mapping store so that concurrently completing uploads share a single multi-row insert and commit.
+ * <p>
+ * Each insert is queued and the calling thread waits. A single writer takes the first queued file mapping, gathers any others queued
+ * within the coalescing window, up to the maximum batch size, and inserts them with one call to the delegate in one transaction. Callers
+ * return only once that transaction has committed, so durability is unchanged; they may wait up to the window longer than an
+ * uncoalesced insert. While a batch is being written, further inserts queue for the next, so batches grow with the insert rate.
+ * <p>
+ * Should a batch fail, its file mappings are inserted one at a time so that each failure is reported to its own caller only. Errors
+ * are reported to every caller in the batch. Should the writer stop, for example because it was interrupted, file mappings still
+ * queued are handed back to their callers and later inserts are written individually by the calling thread, as after closing. Lookups
+ * and explicit batch inserts go straight to the delegate.
+ */
+@Slf4j
+public class CoalescingFileMappingStore implements FileMappingStore, AutoCloseable {
+
+    private static final long POLL_INTERVAL_MILLIS = 100;
+    private static final long CLOSE_TIMEOUT_MILLIS = 10_000;
+
+    private final FileMappingStore fileMappingStore;
+    private final TransactionOperations transactionOperations;
+    private final long windowNanos;
+    private final int maxBatchSize;
+    private final BlockingQueue<PendingInsert> pendingInserts;
+    private final ExecutorService writerExecutor;
+    private volatile boolean closed;
+
+    /**
+     * @param fileMappingStore      to which batches of file mappings are written
+     * @param transactionOperations in which each batch is written
+     * @param window                how long to wait for further file mappings after the first of a batch is queued
+     * @param maxBatchSize          largest number of file mappings written at once
+     */
+    public CoalescingFileMappingStore(FileMappingStore fileMappingStore,
+                                      TransactionOperations transactionOperations,
+                                      Duration window,
+                                      int maxBatchSize) {
+        checkArgument(maxBatchSize > 0, "Maximum batch size must be positive");
+        this.fileMappingStore = fileMappingStore;
+        this.transactionOperations = transactionOperations;
+        this.windowNanos = window.toNanos();
+        this.maxBatchSize = maxBatchSize;
+        this.pendingInserts = new LinkedBlockingQueue<>();
+        this.writerExecutor = newSingleThreadExecutor(
+            new ThreadFactoryBuilder().setNameFormat("coalescing-file-mapping-writer-%d").setDaemon(true).build());
+        writerExecutor.execute(this::writeUntilClosed);
+    }
+
+    @Override
+    public void insert(PersistableFileMapping fileMapping) {
+        if (closed) {
+            fileMappingStore.insert(fileMapping);
+            return;
+        }
+        var pendingInsert = new PendingInsert(fileMapping);
+        pendingInserts.add(pendingInsert);
+        if (closed && pendingInserts.remove(pendingInsert)) {
+            // The writer may already have stopped
+            fileMappingStore.insert(fileMapping);
+            return;
+        }
+        boolean written;
+        try {
+            written = pendingInsert.written.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            if (e.getCause() instanceof Error) {
+                throw (Error) e.getCause();
+            }
+            throw e;
+        }
+        if (!written) {
+            // The writer stopped before reaching this file mapping
+            fileMappingStore.insert(fileMapping);
+        }
+    }
+
+    @Override
+    public void insertAll(Collection<PersistableFileMapping> fileMappings) {
+        fileMappingStore.insertAll(fileMappings);
+    }
+
+    @Override
+    public Optional<PersistableFileMapping> findById(UUID fileId) {
+        return fileMappingStore.findById(fileId);
+    }
+
+    @Override
+    public Optional<PersistableFileMapping> findBackedFileMappingWithHashes(String sha256, String sha512) {
+        return fileMappingStore.findBackedFileMappingWithHashes(sha256, sha512);
+    }
+
+    /**
+     * Writes any queued file mappings and stops the writer. Later inserts are written individually by the calling thread.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        writerExecutor.shutdown();
+        try {
+            writerExecutor.awaitTermination(CLOSE_TIMEOUT_MILLIS, MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void writeUntilClosed() {
+        var batch = new ArrayList<PendingInsert>();
+        try {
+            while (!closed || !pendingInserts.isEmpty()) {
+                var first = pendingInserts.poll(POLL_INTERVAL_MILLIS, MILLISECONDS);
+                if (first != null) {
+                    batch.add(first);
+                    gatherBatch(batch);
+                    write(batch);
+                    batch.clear();
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            stop(batch);
+        }
+    }
+
+    private void gatherBatch(List<PendingInsert> batch) throws InterruptedException {
+        var deadline = nanoTime() + windowNanos;
+        while (batch.size() < maxBatchSize) {
+            var next = pendingInserts.poll(deadline - nanoTime(), NANOSECONDS);
+            if (next == null) {
+                break;
+            }
+            batch.add(next);
+        }
+    }
+
+    private void write(List<PendingInsert> batch) {
+        var fileMappings = batch.stream().map(pendingInsert -> pendingInsert.fileMapping).collect(toList());
+        try {
+            transactionOperations.executeWithoutResult(status -> fileMappingStore.insertAll(fileMappings));
+        } catch (RuntimeException e) {
+            LOGGER.warn("Batch of {} file mappings failed, inserting individually", batch.size(), e);
+            batch.forEach(this::writeIndividually);
+            return;
+        } catch (Throwable e) {
+            LOGGER.error("Batch of {} file mappings failed", batch.size(), e);
+            batch.forEach(pendingInsert -> pendingInsert.written.completeExceptionally(e));
+            return;
+        }
+        batch.forEach(pendingInsert -> pendingInsert.written.complete(true));
+    }
+
+    private void writeIndividually(PendingInsert pendingInsert) {
+        try {
+            fileMappingStore.insert(pendingInsert.fileMapping);
+            pendingInsert.written.complete(true);
+        } catch (Throwable e) {
+            pendingInsert.written.completeExceptionally(e);
+        }
+    }
+
+    private void stop(List<PendingInsert> unwrittenBatch) {
+        if (!closed) {
+            LOGGER.warn("File mapping writer stopped, inserting file mappings individually");
+            closed = true;
+        }
+        unwrittenBatch.forEach(pendingInsert -> pendingInsert.written.complete(false));
+        PendingInsert pendingInsert;
+        while ((pendingInsert = pendingInserts.poll()) != null) {
+            pendingInsert.written.complete(false);
+        }
+    }
+
+    private static class PendingInsert {
+        private final PersistableFileMapping fileMapping;
+        /**
+         * Completes with whether the file mapping was written, or exceptionally if writing it failed.
+         */
+        private final CompletableFuture<Boolean> written = new CompletableFuture<>();
+
+        PendingInsert(PersistableFileMapping fileMapping) {
+            this.fileMapping = fileMapping;
+        }
+    }
+}
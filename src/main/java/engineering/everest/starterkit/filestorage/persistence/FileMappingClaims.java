@@ -0,0 +1,80 @@
+package engineering.everest.starterkit.filestorage.persistence;
+
+import org.springframework.data.domain.PageRequest;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.function.Consumer;
+
+import static java.util.UUID.randomUUID;
+import static java.util.stream.Collectors.toList;
+
+/**
+ * Hands out batches of files marked for deletion to concurrent garbage collectors, so that no two collectors, on the same or different
+ * nodes, delete the same file mappings at the same time.
+ * <p>
+ * A claim is a lease recorded on the file mapping. Candidates are selected with row locks that skip rows locked by concurrent claims
+ * where the database supports {@code SKIP LOCKED}, and are claimed by a conditional update, so a file mapping is only ever held by one
+ * claim whether or not the database can skip locked rows. File mappings that are not deleted before their lease expires, for example
+ * because the collector holding them failed, may be claimed again. Claimed file mappings are only deleted while their lease is still held,
+ * so a collector that overran its lease cannot delete file mappings, or release their references, after another has claimed them.
+ * <p>
+ * Claims must be made and released through the Spring managed bean so that each happens in a single transaction.
+ */
+public class FileMappingClaims {
+
+    private final FileMappingRepository fileMappingRepository;
+
+    public FileMappingClaims(FileMappingRepository fileMappingRepository) {
+        this.fileMappingRepository = fileMappingRepository;
+    }
+
+    /**
+     * @param  batchSize maximum number of file mappings to claim
+     * @param  now       current time, against which existing leases are compared
+     * @param  lease     how long the claimed file mappings are held before they may be claimed again
+     * @return           file mappings marked for deletion that are now held by the caller, recording their claim
+     */
+    @Transactional
+    public List<PersistableFileMapping> claimFilesMarkedForDeletion(int batchSize, Instant now, Duration lease) {
+        var candidateFileIds = fileMappingRepository.findUnclaimedFilesMarkedForDeletion(now, PageRequest.of(0, batchSize)).stream()
+            .map(PersistableFileMapping::getFileId)
+            .collect(toList());
+        if (candidateFileIds.isEmpty()) {
+            return List.of();
+        }
+        var claimant = randomUUID().toString();
+        if (fileMappingRepository.claimForDeletion(candidateFileIds, claimant, now.plus(lease), now) == 0) {
+            return List.of();
+        }
+        return fileMappingRepository.findAllById(candidateFileIds).stream()
+            .filter(fileMapping -> claimant.equals(fileMapping.getDeletionClaimedBy()))
+            .collect(toList());
+    }
+
+    /**
+     * Delete those claimed file mappings whose lease is still held by the caller, locking them so that they cannot be claimed again
+     * before they are deleted.
+     *
+     * @param  claimedFiles       file mappings returned by {@link #claimFilesMarkedForDeletion(int, Instant, Duration)}
+     * @param  now                current time, before which the lease must not have expired
+     * @param  deleteFileMappings deletes the given file mappings in the caller's transaction
+     * @return                    file mappings deleted
+     */
+    @Transactional
+    public List<PersistableFileMapping> deleteClaimedFiles(List<PersistableFileMapping> claimedFiles,
+                                                           Instant now,
+                                                           Consumer<List<PersistableFileMapping>> deleteFileMappings) {
+        if (claimedFiles.isEmpty()) {
+            return List.of();
+        }
+        var fileIds = claimedFiles.stream().map(PersistableFileMapping::getFileId).collect(toList());
+        var heldFiles = fileMappingRepository.findClaimedForUpdate(fileIds, claimedFiles.get(0).getDeletionClaimedBy(), now);
+        if (!heldFiles.isEmpty()) {
+            deleteFileMappings.accept(heldFiles);
+        }
+        return heldFiles;
+    }
+}
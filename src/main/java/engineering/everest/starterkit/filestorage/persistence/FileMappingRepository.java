@@ -1,11 +1,23 @@
 package engineering.everest.starterkit.filestorage.persistence;
 
+import engineering.everest.starterkit.filestorage.backing.BackingStorageType;
 import engineering.everest.starterkit.filestorage.filestores.FileStoreType;
 import org.springframework.data.domain.Pageable;
+import jakarta.persistence.LockModeType;
+import jakarta.persistence.QueryHint;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Lock;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
 
+import java.time.Instant;
+import java.util.Collection;
 import java.util.List;
+import java.util.Set;
 import java.util.UUID;
 
 @Repository
@@ -13,7 +25,80 @@ public interface FileMappingRepository extends JpaRepository<PersistableFileMapp
 
     List<PersistableFileMapping> findByMarkedForDeletionTrue(Pageable pageable);
 
+    /**
+     * Rows are locked for update, skipping rows locked by concurrent claims where the database supports it.
+     */
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    @QueryHints(@QueryHint(name = "jakarta.persistence.lock.timeout", value = "-2"))
+    @Query("select m from filemapping m where m.markedForDeletion = true "
+        + "and (m.deletionClaimExpiresAt is null or m.deletionClaimExpiresAt < :now)")
+    List<PersistableFileMapping> findUnclaimedFilesMarkedForDeletion(@Param("now") Instant now, Pageable pageable);
+
+    @Query("select m.fileId from filemapping m where m.expiresAt <= :now and m.markedForDeletion = false order by m.expiresAt")
+    List<UUID> findExpiredFileIds(@Param("now") Instant now, Pageable pageable);
+
+    /**
+     * Rows are locked for update, so that their claims cannot be taken over before they are deleted.
+     */
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    @Query("select m from filemapping m where m.fileId in :fileIds "
+        + "and m.deletionClaimedBy = :claimant and m.deletionClaimExpiresAt > :now")
+    List<PersistableFileMapping> findClaimedForUpdate(@Param("fileIds") Collection<UUID> fileIds,
+                                                      @Param("claimant") String claimant,
+                                                      @Param("now") Instant now);
+
+    /**
+     * @see FileMappingScans#streamByFileStoreType(FileStoreType)
+     */
     List<PersistableFileMapping> findByFileStoreType(FileStoreType fileStoreType);
 
+    /**
+     * @see FileMappingScans#streamByBackingStorageFileId(String)
+     */
     List<PersistableFileMapping> findByBackingStorageFileId(String backingStorageFileId);
+
+    /**
+     * Pages through referenced backing files in ascending order of identifier, starting after the last identifier of the previous page.
+     */
+    @Query("select distinct m.backingStorageFileId from filemapping m "
+        + "where m.backingStorageType = :backingStorageType and m.backingStorageFileId > :after order by m.backingStorageFileId")
+    List<String> findBackingStorageFileIdsAfter(@Param("backingStorageType") BackingStorageType backingStorageType,
+                                                @Param("after") String after,
+                                                Pageable pageable);
+
+    @Query("select distinct m.backingStorageFileId from filemapping m where m.backingStorageFileId in :backingStorageFileIds")
+    Set<String> findReferencedBackingStorageFileIds(@Param("backingStorageFileIds") Collection<String> backingStorageFileIds);
+
+    long countByFileIdInAndFileStoreTypeNot(Collection<UUID> fileIds, FileStoreType fileStoreType);
+
+    @Modifying
+    @Transactional
+    @Query("update filemapping m set m.markedForDeletion = true where m.fileId in :fileIds and m.fileStoreType = :fileStoreType")
+    int markForDeletion(@Param("fileIds") Collection<UUID> fileIds, @Param("fileStoreType") FileStoreType fileStoreType);
+
+    @Modifying
+    @Transactional
+    @Query("update filemapping m set m.markedForDeletion = true where m.fileStoreType = :fileStoreType and m.markedForDeletion = false")
+    int markAllForDeletion(@Param("fileStoreType") FileStoreType fileStoreType);
+
+    @Modifying
+    @Transactional
+    @Query("update filemapping m set m.markedForDeletion = true, m.expiresAt = null "
+        + "where m.fileId in :fileIds and m.fileStoreType = :fileStoreType")
+    int expire(@Param("fileIds") Collection<UUID> fileIds, @Param("fileStoreType") FileStoreType fileStoreType);
+
+    @Modifying(clearAutomatically = true)
+    @Transactional
+    @Query("update filemapping m set m.deletionClaimedBy = :claimant, m.deletionClaimExpiresAt = :expiresAt "
+        + "where m.fileId in :fileIds and m.markedForDeletion = true "
+        + "and (m.deletionClaimExpiresAt is null or m.deletionClaimExpiresAt < :now)")
+    int claimForDeletion(@Param("fileIds") Collection<UUID> fileIds,
+                         @Param("claimant") String claimant,
+                         @Param("expiresAt") Instant expiresAt,
+                         @Param("now") Instant now);
+
+    @Modifying
+    @Transactional
+    @Query("update filemapping m set m.backingStorageFileId = :toFileId where m.backingStorageFileId = :fromFileId")
+    int updateBackingStorageFileId(@Param("fromFileId") String fromFileId, @Param("toFileId") String toFileId);
 }
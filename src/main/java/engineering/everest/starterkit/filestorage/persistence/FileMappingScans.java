@@ -0,0 +1,88 @@
+package engineering.everest.starterkit.filestorage.persistence;
+
+import engineering.everest.starterkit.filestorage.filestores.FileStoreType;
+import jakarta.persistence.EntityManagerFactory;
+import org.hibernate.SessionFactory;
+import org.hibernate.StatelessSession;
+
+import java.util.Map;
+import java.util.stream.Stream;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Streams file mappings for maintenance jobs that visit more of them than fit comfortably in the heap.
+ * <p>
+ * Each scan runs in its own stateless session and read-only transaction, independently of any surrounding transaction. Rows are
+ * fetched from a database cursor a fetch size at a time, and file mappings are neither tracked nor cached, so memory use does not grow
+ * with the number of rows visited. The returned stream holds a connection until it is closed, and must be closed by the caller.
+ * <p>
+ * Some drivers only honour the fetch size under certain settings, for example MySQL Connector/J with {@code useCursorFetch=true}, and
+ * otherwise read the entire result before returning the first row.
+ */
+public class FileMappingScans {
+
+    private final EntityManagerFactory entityManagerFactory;
+    private final int fetchSize;
+
+    public FileMappingScans(EntityManagerFactory entityManagerFactory, int fetchSize) {
+        checkArgument(fetchSize > 0, "Fetch size must be positive");
+        this.entityManagerFactory = entityManagerFactory;
+        this.fetchSize = fetchSize;
+    }
+
+    public Stream<PersistableFileMapping> streamByFileStoreType(FileStoreType fileStoreType) {
+        return stream("select m from filemapping m where m.fileStoreType = :value", fileStoreType);
+    }
+
+    public Stream<PersistableFileMapping> streamByBackingStorageFileId(String backingStorageFileId) {
+        return stream("select m from filemapping m where m.backingStorageFileId = :value", backingStorageFileId);
+    }
+
+    public Stream<PersistableFileMapping> streamFilesMarkedForDeletion(FileStoreType fileStoreType) {
+        return stream("select m from filemapping m where m.fileStoreType = :value and m.markedForDeletion = true", fileStoreType);
+    }
+
+    /**
+     * @param  fileStoreType of the file mappings
+     * @param  prefix        of the backing file identifiers, which may not contain {@code LIKE} wildcards
+     * @return               distinct backing file identifiers starting with the prefix, in ascending order
+     */
+    public Stream<String> streamBackingStorageFileIdsStartingWith(FileStoreType fileStoreType, String prefix) {
+        return stream("select distinct m.backingStorageFileId from filemapping m "
+            + "where m.fileStoreType = :fileStoreType and m.backingStorageFileId like :prefix order by m.backingStorageFileId",
+            String.class, Map.of("fileStoreType", fileStoreType, "prefix", prefix + "%"));
+    }
+
+    private Stream<PersistableFileMapping> stream(String query, Object value) {
+        return stream(query, PersistableFileMapping.class, Map.of("value", value));
+    }
+
+    private <T> Stream<T> stream(String query, Class<T> resultType, Map<String, Object> parameters) {
+        var session = entityManagerFactory.unwrap(SessionFactory.class).openStatelessSession();
+        try {
+            session.beginTransaction();
+            var selectionQuery = session.createSelectionQuery(query, resultType);
+            parameters.forEach(selectionQuery::setParameter);
+            return selectionQuery
+                .setFetchSize(fetchSize)
+                .setReadOnly(true)
+                .stream()
+                .onClose(() -> close(session));
+        } catch (RuntimeException e) {
+            close(session);
+            throw e;
+        }
+    }
+
+    private static void close(StatelessSession session) {
+        try {
+            if (session.getTransaction().isActive()) {
+                // Nothing has been written
+                session.getTransaction().rollback();
+            }
+        } finally {
+            session.close();
+        }
+    }
+}
@@ -0,0 +1,34 @@
+package engineering.everest.starterkit.filestorage.persistence;
+
+import java.util.Collection;
+import java.util.Optional;
+import java.util.UUID;
+
+/**
+ * The file mapping operations made on every upload and download. File mappings are never updated through this interface once inserted,
+ * so implementations need not track them.
+ *
+ * @see JpaFileMappingStore
+ * @see JdbcFileMappingStore
+ */
+public interface FileMappingStore {
+
+    /**
+     * @param fileMapping of a newly uploaded file, with an identifier that has not been used before
+     */
+    void insert(PersistableFileMapping fileMapping);
+
+    /**
+     * @param fileMappings of newly uploaded files, with identifiers that have not been used before
+     */
+    void insertAll(Collection<PersistableFileMapping> fileMappings);
+
+    Optional<PersistableFileMapping> findById(UUID fileId);
+
+    /**
+     * @param  sha256 digest of the file content
+     * @param  sha512 digest of the file content
+     * @return        a file mapping of the same content, held in a backing store and not marked for deletion, if there is one
+     */
+    Optional<PersistableFileMapping> findBackedFileMappingWithHashes(String sha256, String sha512);
+}
@@ -0,0 +1,114 @@
+package engineering.everest.starterkit.filestorage.persistence;
+
+import engineering.everest.starterkit.filestorage.backing.BackingStorageType;
+import engineering.everest.starterkit.filestorage.filestores.FileStoreType;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowMapper;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.time.Instant;
+import java.util.Collection;
+import java.util.Optional;
+import java.util.UUID;
+
+import static engineering.everest.starterkit.filestorage.backing.BackingStorageType.INLINE;
+
+/**
+ * File mapping store that reads and writes the {@code filemapping} table with prepared statements, bypassing the persistence context.
+ * <p>
+ * Inserts are plain {@code INSERT} statements, without the select that a JPA merge of an entity with an assigned identifier issues
+ * first, and multiple file mappings are inserted in a single JDBC batch. File mappings read back are not tracked, so changes made to
+ * them are never written. The table is expected to have the layout generated for {@link PersistableFileMapping} by Hibernate with the
+ * Spring Boot naming strategy: enumerations are stored as ordinals and identifiers are bound as {@link UUID} objects, which requires a
+ * driver and column type supporting them, such as PostgreSQL's {@code uuid}.
+ * <p>
+ * Statements run in the surrounding Spring managed transaction, if any.
+ */
+public class JdbcFileMappingStore implements FileMappingStore {
+
+    private static final String COLUMNS = "file_id, file_store_type, backing_storage_type, backing_storage_file_id, sha256, sha512, "
+        + "file_size_bytes, marked_for_deletion, inline_content, deletion_claimed_by, deletion_claim_expires_at, expires_at";
+    private static final String INSERT = "insert into filemapping (" + COLUMNS + ") values (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
+    private static final String SELECT_BY_ID = "select " + COLUMNS + " from filemapping where file_id = ?";
+    private static final String SELECT_BY_HASHES = "select " + COLUMNS + " from filemapping "
+        + "where sha256 = ? and sha512 = ? and marked_for_deletion = false and backing_storage_type <> ?";
+    private static final RowMapper<PersistableFileMapping> ROW_MAPPER = JdbcFileMappingStore::fileMapping;
+
+    private final JdbcTemplate jdbcTemplate;
+
+    public JdbcFileMappingStore(JdbcTemplate jdbcTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    @Override
+    public void insert(PersistableFileMapping fileMapping) {
+        jdbcTemplate.update(INSERT, preparedStatement -> bind(preparedStatement, fileMapping));
+    }
+
+    @Override
+    public void insertAll(Collection<PersistableFileMapping> fileMappings) {
+        if (!fileMappings.isEmpty()) {
+            jdbcTemplate.batchUpdate(INSERT, fileMappings, fileMappings.size(), JdbcFileMappingStore::bind);
+        }
+    }
+
+    @Override
+    public Optional<PersistableFileMapping> findById(UUID fileId) {
+        return jdbcTemplate.query(SELECT_BY_ID, ROW_MAPPER, fileId).stream().findFirst();
+    }
+
+    @Override
+    public Optional<PersistableFileMapping> findBackedFileMappingWithHashes(String sha256, String sha512) {
+        return jdbcTemplate.query(connection -> {
+            var preparedStatement = connection.prepareStatement(SELECT_BY_HASHES);
+            preparedStatement.setMaxRows(1);
+            preparedStatement.setString(1, sha256);
+            preparedStatement.setString(2, sha512);
+            preparedStatement.setInt(3, INLINE.ordinal());
+            return preparedStatement;
+        }, ROW_MAPPER).stream().findFirst();
+    }
+
+    private static void bind(PreparedStatement preparedStatement, PersistableFileMapping fileMapping) throws SQLException {
+        preparedStatement.setObject(1, fileMapping.getFileId());
+        preparedStatement.setInt(2, fileMapping.getFileStoreType().ordinal());
+        preparedStatement.setInt(3, fileMapping.getBackingStorageType().ordinal());
+        preparedStatement.setString(4, fileMapping.getBackingStorageFileId());
+        preparedStatement.setString(5, fileMapping.getSha256());
+        preparedStatement.setString(6, fileMapping.getSha512());
+        preparedStatement.setObject(7, fileMapping.getFileSizeBytes(), Types.BIGINT);
+        preparedStatement.setBoolean(8, fileMapping.isMarkedForDeletion());
+        preparedStatement.setBytes(9, fileMapping.getInlineContent());
+        preparedStatement.setString(10, fileMapping.getDeletionClaimedBy());
+        preparedStatement.setTimestamp(11, timestamp(fileMapping.getDeletionClaimExpiresAt()));
+        preparedStatement.setTimestamp(12, timestamp(fileMapping.getExpiresAt()));
+    }
+
+    private static PersistableFileMapping fileMapping(ResultSet resultSet, int rowNumber) throws SQLException {
+        return new PersistableFileMapping(
+            resultSet.getObject("file_id", UUID.class),
+            FileStoreType.values()[resultSet.getInt("file_store_type")],
+            BackingStorageType.values()[resultSet.getInt("backing_storage_type")],
+            resultSet.getString("backing_storage_file_id"),
+            resultSet.getString("sha256"),
+            resultSet.getString("sha512"),
+            resultSet.getObject("file_size_bytes", Long.class),
+            resultSet.getBoolean("marked_for_deletion"),
+            resultSet.getBytes("inline_content"),
+            resultSet.getString("deletion_claimed_by"),
+            instant(resultSet.getTimestamp("deletion_claim_expires_at")),
+            instant(resultSet.getTimestamp("expires_at")));
+    }
+
+    private static Timestamp timestamp(Instant instant) {
+        return instant == null ? null : Timestamp.from(instant);
+    }
+
+    private static Instant instant(Timestamp timestamp) {
+        return timestamp == null ? null : timestamp.toInstant();
+    }
+}
@@ -0,0 +1,47 @@
+package engineering.everest.starterkit.filestorage.persistence;
+
+import org.springframework.data.domain.Example;
+
+import java.util.Collection;
+import java.util.Optional;
+import java.util.UUID;
+
+import static engineering.everest.starterkit.filestorage.backing.BackingStorageType.INLINE;
+
+/**
+ * File mapping store backed by the Spring Data JPA {@link FileMappingRepository}.
+ */
+public class JpaFileMappingStore implements FileMappingStore {
+
+    private final FileMappingRepository fileMappingRepository;
+
+    public JpaFileMappingStore(FileMappingRepository fileMappingRepository) {
+        this.fileMappingRepository = fileMappingRepository;
+    }
+
+    @Override
+    public void insert(PersistableFileMapping fileMapping) {
+        fileMappingRepository.save(fileMapping);
+    }
+
+    @Override
+    public void insertAll(Collection<PersistableFileMapping> fileMappings) {
+        fileMappingRepository.saveAll(fileMappings);
+    }
+
+    @Override
+    public Optional<PersistableFileMapping> findById(UUID fileId) {
+        return fileMappingRepository.findById(fileId);
+    }
+
+    @Override
+    public Optional<PersistableFileMapping> findBackedFileMappingWithHashes(String sha256, String sha512) {
+        var fileMappingExample = new PersistableFileMapping();
+        fileMappingExample.setSha256(sha256);
+        fileMappingExample.setSha512(sha512);
+        fileMappingExample.setMarkedForDeletion(false);
+        return fileMappingRepository.findAll(Example.of(fileMappingExample)).stream()
+            .filter(fileMapping -> fileMapping.getBackingStorageType() != INLINE)
+            .findFirst();
+    }
+}
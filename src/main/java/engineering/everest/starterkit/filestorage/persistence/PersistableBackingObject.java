@@ -0,0 +1,33 @@
+package engineering.everest.starterkit.filestorage.persistence;
+
+import engineering.everest.starterkit.filestorage.backing.BackingStorageType;
+import jakarta.persistence.Column;
+import jakarta.persistence.EmbeddedId;
+import jakarta.persistence.Entity;
+import jakarta.persistence.Index;
+import jakarta.persistence.Table;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import static engineering.everest.starterkit.filestorage.persistence.PersistableFileMapping.MAX_BACKING_STORAGE_FILE_ID_LENGTH;
+
+/**
+ * A file held in a backing store, shared by every file mapping of the same content in the same file store.
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Entity(name = "backingobject")
+@Table(indexes = @Index(name = "backingobject_backing_storage_file_id", columnList = "backingStorageFileId"))
+public class PersistableBackingObject {
+
+    @EmbeddedId
+    private BackingObjectKey key;
+    private String sha256;
+    private BackingStorageType backingStorageType;
+    @Column(length = MAX_BACKING_STORAGE_FILE_ID_LENGTH)
+    private String backingStorageFileId;
+    private Long fileSizeBytes;
+    private long referenceCount;
+}
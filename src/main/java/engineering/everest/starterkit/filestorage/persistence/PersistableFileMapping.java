@@ -3,29 +3,78 @@ package engineering.everest.starterkit.filestorage.persistence;
 import engineering.everest.starterkit.filestorage.filestores.FileStoreType;
 import engineering.everest.starterkit.filestorage.backing.BackingStorageType;
 import engineering.everest.starterkit.filestorage.PersistedFileIdentifier;
+import jakarta.persistence.Column;
 import jakarta.persistence.Entity;
 import jakarta.persistence.Id;
+import jakarta.persistence.Index;
+import jakarta.persistence.Table;
 import lombok.AllArgsConstructor;
 import lombok.Data;
 import lombok.NoArgsConstructor;
 
+import java.time.Instant;
 import java.util.UUID;
 
 @Data
 @NoArgsConstructor
 @AllArgsConstructor
 @Entity(name = "filemapping")
+@Table(indexes = {
+    @Index(name = "filemapping_expires_at", columnList = "expiresAt"),
+    @Index(name = "filemapping_backing_storage_file_id", columnList = "backingStorageType, backingStorageFileId")
+})
 public class PersistableFileMapping {
 
+    /**
+     * Largest file that may be held in the file mapping itself rather than in a backing store.
+     */
+    public static final int MAX_INLINE_CONTENT_BYTES = 65_535;
+
+    /**
+     * Longest backing storage file identifier, allowing for the identifiers of hedged and routed stores, which embed those of the stores
+     * they wrap.
+     */
+    public static final int MAX_BACKING_STORAGE_FILE_ID_LENGTH = 1024;
+
     @Id
     private UUID fileId;
     private FileStoreType fileStoreType;
     private BackingStorageType backingStorageType;
+    @Column(length = MAX_BACKING_STORAGE_FILE_ID_LENGTH)
     private String backingStorageFileId;
     private String sha256;
     private String sha512;
     private Long fileSizeBytes;
     private boolean markedForDeletion;
+    @Column(length = MAX_INLINE_CONTENT_BYTES)
+    private byte[] inlineContent;
+    private String deletionClaimedBy;
+    private Instant deletionClaimExpiresAt;
+    private Instant expiresAt;
+
+    public PersistableFileMapping(UUID fileId,
+                                  FileStoreType fileStoreType,
+                                  BackingStorageType backingStorageType,
+                                  String backingStorageFileId,
+                                  String sha256,
+                                  String sha512,
+                                  Long fileSizeBytes,
+                                  boolean markedForDeletion) {
+        this(fileId, fileStoreType, backingStorageType, backingStorageFileId, sha256, sha512, fileSizeBytes, markedForDeletion, null);
+    }
+
+    public PersistableFileMapping(UUID fileId,
+                                  FileStoreType fileStoreType,
+                                  BackingStorageType backingStorageType,
+                                  String backingStorageFileId,
+                                  String sha256,
+                                  String sha512,
+                                  Long fileSizeBytes,
+                                  boolean markedForDeletion,
+                                  byte[] inlineContent) {
+        this(fileId, fileStoreType, backingStorageType, backingStorageFileId, sha256, sha512, fileSizeBytes, markedForDeletion,
+            inlineContent, null, null, null);
+    }
 
     public PersistedFileIdentifier getPersistedFileIdentifier() {
         return new PersistedFileIdentifier(fileId, fileStoreType, backingStorageType, backingStorageFileId);
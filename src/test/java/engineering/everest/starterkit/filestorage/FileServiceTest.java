@@ -9,6 +9,10 @@ import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DefaultDataBufferFactory;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
 
 import java.io.ByteArrayInputStream;
 import java.io.FileInputStream;
@@ -86,6 +90,28 @@ class FileServiceTest {
         verifyNoInteractions(ephemeralFileStore);
     }
 
+    @Test
+    void transferToPermanentStoreFromPublisher_WillDelegateToPermanentStore() {
+        var fileId = randomUUID();
+        var content = Flux.just(DefaultDataBufferFactory.sharedInstance.wrap("hello".getBytes()));
+        when(permanentFileStore.uploadAsFlux(ORIGINAL_FILENAME, content)).thenReturn(Mono.just(
+            new PersistedFile(fileId, PERMANENT, AWS_S3, "native-file-id", "", "", 5L)));
+
+        assertEquals(fileId, fileService.transferToPermanentStore(ORIGINAL_FILENAME, content).block());
+        verifyNoInteractions(ephemeralFileStore);
+    }
+
+    @Test
+    void transferToEphemeralStoreFromPublisher_WillDelegateToEphemeralStore() {
+        var fileId = randomUUID();
+        var content = Flux.just(DefaultDataBufferFactory.sharedInstance.wrap("hello".getBytes()));
+        when(ephemeralFileStore.uploadAsFlux(ORIGINAL_FILENAME, content)).thenReturn(Mono.just(
+            new PersistedFile(fileId, EPHEMERAL, AWS_S3, "native-file-id", "", "", 5L)));
+
+        assertEquals(fileId, fileService.transferToEphemeralStore(ORIGINAL_FILENAME, content).block());
+        verifyNoInteractions(permanentFileStore);
+    }
+
     @Test
     void transferToEphemeralStore_WillDelegateToEphemeralStore() throws IOException {
         when(ephemeralFileStore.uploadAsStream(eq(ORIGINAL_FILENAME), any(InputStream.class))).thenReturn(new PersistedFile());
@@ -169,6 +195,37 @@ class FileServiceTest {
             fileService.stream(persistedFileIdentifier.getFileId()));
     }
 
+    @Test
+    void streamAsFlux_WillDelegateToPermanentFileStoreForWholeFile_WhenFileMapsToPermanentStore() {
+        var fileId = randomUUID();
+        var persistableFileMapping = new PersistableFileMapping(fileId, PERMANENT, MONGO_GRID_FS, "native-file-id",
+            "", "", 123L, false);
+        var dataBuffer = DefaultDataBufferFactory.sharedInstance.wrap("hello".getBytes());
+
+        when(fileMappingRepository.findById(fileId)).thenReturn(Optional.of(persistableFileMapping));
+        when(permanentFileStore.downloadAsFlux(persistableFileMapping, 0L, 122L, DefaultDataBufferFactory.sharedInstance, 65536))
+            .thenReturn(Flux.just(dataBuffer));
+
+        assertEquals(List.<DataBuffer>of(dataBuffer), fileService.streamAsFlux(fileId).collectList().block());
+        verifyNoInteractions(ephemeralFileStore);
+    }
+
+    @Test
+    void streamAsFlux_WillDelegateToEphemeralFileStoreForRange_WhenFileMapsToEphemeralStore() {
+        var fileId = randomUUID();
+        var persistableFileMapping = new PersistableFileMapping(fileId, EPHEMERAL, MONGO_GRID_FS, "native-file-id",
+            "", "", 123L, false);
+        var dataBuffer = DefaultDataBufferFactory.sharedInstance.wrap("hello".getBytes());
+
+        when(fileMappingRepository.findById(fileId)).thenReturn(Optional.of(persistableFileMapping));
+        when(ephemeralFileStore.downloadAsFlux(persistableFileMapping, 10L, 14L, DefaultDataBufferFactory.sharedInstance, 1024))
+            .thenReturn(Flux.just(dataBuffer));
+
+        assertEquals(List.<DataBuffer>of(dataBuffer),
+            fileService.streamAsFlux(fileId, 10L, 14L, DefaultDataBufferFactory.sharedInstance, 1024).collectList().block());
+        verifyNoInteractions(permanentFileStore);
+    }
+
     @Test
     void markFileForDeletion_WillDelegateToEphemeralFileStore() {
         var fileId = randomUUID();
@@ -195,14 +252,11 @@ class FileServiceTest {
     @Test
     void markFilesForDeletion_WillDelegateToEphemeralFileStore() {
         var fileId = randomUUID();
-        var persistedFileIdentifier = new PersistedFileIdentifier(fileId, EPHEMERAL, MONGO_GRID_FS, "native-file-id");
-        var persistableFileMapping = new PersistableFileMapping(fileId, EPHEMERAL, MONGO_GRID_FS, "native-file-id",
-            "", "", 123L, false);
-        when(fileMappingRepository.findAllById(Set.of(fileId))).thenReturn(List.of(persistableFileMapping));
 
         fileService.markEphemeralFilesForDeletion(Set.of(fileId));
 
-        verify(ephemeralFileStore).markFilesForDeletion(List.of(persistedFileIdentifier));
+        verify(ephemeralFileStore).markFilesForDeletionById(Set.of(fileId));
+        verify(fileMappingRepository, never()).findAllById(any());
     }
 
     @Test
@@ -218,4 +272,11 @@ class FileServiceTest {
 
         verify(ephemeralFileStore).deleteBatchOfFilesMarkedForDeletion(BATCH_SIZE);
     }
+
+    @Test
+    void markExpiredEphemeralFilesForDeletion_WillDelegateToEphemeralFileStore() {
+        when(ephemeralFileStore.markExpiredFilesForDeletion(BATCH_SIZE)).thenReturn(3);
+
+        assertEquals(3, fileService.markExpiredEphemeralFilesForDeletion(BATCH_SIZE));
+    }
 }
@@ -0,0 +1,188 @@
+package engineering.everest.starterkit.filestorage.backing;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import software.amazon.awssdk.core.ResponseInputStream;
+import software.amazon.awssdk.core.async.AsyncRequestBody;
+import software.amazon.awssdk.core.async.AsyncResponseTransformer;
+import software.amazon.awssdk.http.AbortableInputStream;
+import software.amazon.awssdk.services.s3.S3AsyncClient;
+import software.amazon.awssdk.services.s3.model.DeleteObjectRequest;
+import software.amazon.awssdk.services.s3.model.DeleteObjectResponse;
+import software.amazon.awssdk.services.s3.model.DeleteObjectsRequest;
+import software.amazon.awssdk.services.s3.model.DeleteObjectsResponse;
+import software.amazon.awssdk.services.s3.model.GetObjectRequest;
+import software.amazon.awssdk.services.s3.model.GetObjectResponse;
+import software.amazon.awssdk.services.s3.model.NoSuchKeyException;
+import software.amazon.awssdk.services.s3.model.ObjectIdentifier;
+import software.amazon.awssdk.services.s3.model.PutObjectRequest;
+import software.amazon.awssdk.services.s3.model.PutObjectResponse;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.UUID;
+
+import static engineering.everest.starterkit.filestorage.backing.BackingStorageType.AWS_S3;
+import static java.util.Set.of;
+import static java.util.concurrent.CompletableFuture.completedFuture;
+import static java.util.concurrent.CompletableFuture.failedFuture;
+import static java.util.stream.Collectors.toMap;
+import static java.util.stream.Collectors.toSet;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class AwsS3AsyncBackingStoreTest {
+
+    private static final byte[] FILE_CONTENTS = "some file contents".getBytes();
+
+    private AwsS3AsyncBackingStore fileStore;
+
+    @Mock
+    private S3AsyncClient s3AsyncClient;
+
+    @BeforeEach
+    void setUp() {
+        this.fileStore = new AwsS3AsyncBackingStore(s3AsyncClient, "bucket", 2);
+    }
+
+    @AfterEach
+    void tearDown() {
+        fileStore.close();
+    }
+
+    @Test
+    void backingStorageType_WillBeAwsS3() {
+        assertEquals(AWS_S3, fileStore.backingStorageType());
+    }
+
+    @Test
+    void uploadStreamWithFileSize_WillCreateUniquelyNamedS3Object() {
+        when(s3AsyncClient.putObject(any(PutObjectRequest.class), any(AsyncRequestBody.class)))
+            .thenReturn(completedFuture(PutObjectResponse.builder().build()));
+
+        var fileIdentifier = fileStore.uploadStream(new ByteArrayInputStream(FILE_CONTENTS), "fileName", FILE_CONTENTS.length);
+        var randomUUIDPart = UUID.fromString(fileIdentifier.substring(fileIdentifier.indexOf('-') + 1));
+
+        assertEquals(String.format("s3://bucket/fileName-%s", randomUUIDPart), fileIdentifier);
+        var putObjectRequest = ArgumentCaptor.forClass(PutObjectRequest.class);
+        verify(s3AsyncClient).putObject(putObjectRequest.capture(), any(AsyncRequestBody.class));
+        assertEquals("bucket", putObjectRequest.getValue().bucket());
+        assertEquals(String.format("fileName-%s", randomUUIDPart), putObjectRequest.getValue().key());
+        assertEquals(FILE_CONTENTS.length, putObjectRequest.getValue().contentLength());
+    }
+
+    @Test
+    void uploadStream_WillSpoolContentOfUnknownLength() {
+        when(s3AsyncClient.putObject(any(PutObjectRequest.class), any(AsyncRequestBody.class)))
+            .thenReturn(completedFuture(PutObjectResponse.builder().build()));
+
+        fileStore.uploadStream(new ByteArrayInputStream(FILE_CONTENTS), "fileName");
+
+        var requestBody = ArgumentCaptor.forClass(AsyncRequestBody.class);
+        verify(s3AsyncClient).putObject(any(PutObjectRequest.class), requestBody.capture());
+        assertEquals(FILE_CONTENTS.length, requestBody.getValue().contentLength().orElseThrow());
+    }
+
+    @Test
+    void uploadStream_WillFail_WhenPutObjectFails() {
+        when(s3AsyncClient.putObject(any(PutObjectRequest.class), any(AsyncRequestBody.class)))
+            .thenReturn(failedFuture(new IllegalStateException("bucket on fire")));
+
+        var exception = assertThrows(BackingFileStoreException.class,
+            () -> fileStore.uploadStream(new ByteArrayInputStream(FILE_CONTENTS), "fileName", FILE_CONTENTS.length));
+
+        assertEquals("Unable to upload file fileName", exception.getMessage());
+    }
+
+    @Test
+    void delete_WillDeleteFromTheS3Bucket() {
+        when(s3AsyncClient.deleteObject(any(DeleteObjectRequest.class)))
+            .thenReturn(completedFuture(DeleteObjectResponse.builder().build()));
+
+        fileStore.delete("s3://bucket/fileName");
+
+        verify(s3AsyncClient).deleteObject(DeleteObjectRequest.builder().bucket("bucket").key("fileName").build());
+    }
+
+    @Test
+    void deleteFiles_WillDeleteFromEachBucket() {
+        when(s3AsyncClient.deleteObjects(any(DeleteObjectsRequest.class)))
+            .thenReturn(completedFuture(DeleteObjectsResponse.builder().build()));
+
+        fileStore.deleteFiles(of("s3://bucket/file1", "s3://bucket/file2", "s3://legacy-bucket/file3"));
+
+        var deleteObjectsRequests = ArgumentCaptor.forClass(DeleteObjectsRequest.class);
+        verify(s3AsyncClient, times(2)).deleteObjects(deleteObjectsRequests.capture());
+        var keysByBucket = deleteObjectsRequests.getAllValues().stream()
+            .collect(toMap(DeleteObjectsRequest::bucket,
+                request -> request.delete().objects().stream().map(ObjectIdentifier::key).collect(toSet())));
+        assertEquals(of("file1", "file2"), keysByBucket.get("bucket"));
+        assertEquals(of("file3"), keysByBucket.get("legacy-bucket"));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void downloadAsStream_WillReturnObjectContentAndLength() throws IOException {
+        when(s3AsyncClient.getObject(any(GetObjectRequest.class), any(AsyncResponseTransformer.class)))
+            .thenReturn(completedFuture(responseStream(FILE_CONTENTS)));
+
+        var inputStreamOfKnownLength = fileStore.downloadAsStream("s3://bucket/fileName");
+
+        assertEquals(FILE_CONTENTS.length, inputStreamOfKnownLength.getLength());
+        assertArrayEquals(FILE_CONTENTS, inputStreamOfKnownLength.getInputStream().readAllBytes());
+        var getObjectRequest = ArgumentCaptor.forClass(GetObjectRequest.class);
+        verify(s3AsyncClient).getObject(getObjectRequest.capture(), any(AsyncResponseTransformer.class));
+        assertEquals("bucket", getObjectRequest.getValue().bucket());
+        assertEquals("fileName", getObjectRequest.getValue().key());
+        assertNull(getObjectRequest.getValue().range());
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void downloadAsStream_WillRequestByteRange() {
+        when(s3AsyncClient.getObject(any(GetObjectRequest.class), any(AsyncResponseTransformer.class)))
+            .thenReturn(completedFuture(responseStream(new byte[5])));
+
+        var inputStreamOfKnownLength = fileStore.downloadAsStream("s3://bucket/fileName", 10, 14);
+
+        assertEquals(5, inputStreamOfKnownLength.getLength());
+        var getObjectRequest = ArgumentCaptor.forClass(GetObjectRequest.class);
+        verify(s3AsyncClient).getObject(getObjectRequest.capture(), any(AsyncResponseTransformer.class));
+        assertEquals("bytes=10-14", getObjectRequest.getValue().range());
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void downloadAsStream_WillFailWhenTheObjectDoesNotExistInTheS3Bucket() {
+        when(s3AsyncClient.getObject(any(GetObjectRequest.class), any(AsyncResponseTransformer.class)))
+            .thenReturn(failedFuture(NoSuchKeyException.builder().build()));
+
+        var exception = assertThrows(BackingFileStoreException.class, () -> fileStore.downloadAsStream("s3://bucket/fileName"));
+
+        assertEquals("Unable to retrieve file: s3://bucket/fileName", exception.getMessage());
+    }
+
+    @Test
+    void downloadAsStream_WillFail_WhenFileIdentifierIsNotAnS3Uri() {
+        var exception = assertThrows(BackingFileStoreException.class, () -> fileStore.downloadAsStream("bucket/fileName"));
+
+        assertEquals("Invalid S3 file identifier: bucket/fileName", exception.getMessage());
+    }
+
+    private static ResponseInputStream<GetObjectResponse> responseStream(byte[] content) {
+        return new ResponseInputStream<>(GetObjectResponse.builder().contentLength((long) content.length).build(),
+            AbortableInputStream.create(new ByteArrayInputStream(content)));
+    }
+}
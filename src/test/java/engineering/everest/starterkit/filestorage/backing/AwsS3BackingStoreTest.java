@@ -14,17 +14,25 @@ import org.mockito.junit.jupiter.MockitoExtension;
 
 import java.io.InputStream;
 import java.util.List;
+import java.util.Map;
 import java.util.UUID;
+import java.util.regex.Pattern;
+import java.util.stream.IntStream;
 
 import static engineering.everest.starterkit.filestorage.backing.BackingStorageType.AWS_S3;
 import static java.util.Set.of;
+import static java.util.stream.Collectors.toList;
+import static java.util.stream.Collectors.toMap;
+import static java.util.stream.Collectors.toSet;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertNull;
 import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.mockito.Mockito.any;
 import static org.mockito.Mockito.eq;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
@@ -134,4 +142,51 @@ class AwsS3BackingStoreTest {
         assertEquals("fileName", keys.get(0).getKey());
         assertNull(keys.get(0).getVersion());
     }
+
+    @Test
+    void deleteFiles_WillDeleteFromEachBucket() {
+        fileStore.deleteFiles(of("s3://bucket/fileName", "s3://other-bucket/abcd/fileName"));
+
+        ArgumentCaptor<DeleteObjectsRequest> captor = ArgumentCaptor.forClass(DeleteObjectsRequest.class);
+        verify(amazonS3, times(2)).deleteObjects(captor.capture());
+
+        var keysByBucket = captor.getAllValues().stream()
+            .collect(toMap(DeleteObjectsRequest::getBucketName, request -> request.getKeys().get(0).getKey()));
+        assertEquals(Map.of("bucket", "fileName", "other-bucket", "abcd/fileName"), keysByBucket);
+    }
+
+    @Test
+    void deleteFiles_WillSplitDeletionsIntoMultiObjectRequestsOfAtMost1000Keys() {
+        var fileIdentifiers = IntStream.range(0, 2500).mapToObj(i -> "s3://bucket/fileName-" + i).collect(toSet());
+
+        fileStore.deleteFiles(fileIdentifiers);
+
+        ArgumentCaptor<DeleteObjectsRequest> captor = ArgumentCaptor.forClass(DeleteObjectsRequest.class);
+        verify(amazonS3, times(3)).deleteObjects(captor.capture());
+        assertEquals(List.of(1000, 1000, 500), captor.getAllValues().stream().map(request -> request.getKeys().size()).collect(toList()));
+    }
+
+    @Test
+    void uploadStream_WillPlaceObjectsUsingKeyStrategy() {
+        var buckets = List.of("bucket-1", "bucket-2");
+        fileStore = new AwsS3BackingStore(amazonS3, buckets, S3KeyStrategy.hashPrefixed(4));
+        var mockInputStream = mock(InputStream.class);
+
+        var fileIdentifier = fileStore.uploadStream(mockInputStream, "fileName", 4543L);
+
+        var matcher = Pattern.compile("s3://(bucket-[12])/(([0-9a-f]{4})/fileName-[0-9a-f-]{36})").matcher(fileIdentifier);
+        assertTrue(matcher.matches());
+        assertEquals(buckets.get(Integer.parseInt(matcher.group(3), 16) % buckets.size()), matcher.group(1));
+        verify(amazonS3).putObject(eq(matcher.group(1)), eq(matcher.group(2)), eq(mockInputStream), any(ObjectMetadata.class));
+    }
+
+    @Test
+    void bucketFor_WillShardContentAddressedKeysByTheirLeadingCharacters() {
+        var buckets = List.of("bucket-1", "bucket-2", "bucket-3");
+        var keyStrategy = S3KeyStrategy.hashPrefixed(4);
+
+        assertEquals("bucket-1", keyStrategy.bucketFor("0000000f0a1b2c3d", buckets));
+        assertEquals("bucket-2", keyStrategy.bucketFor("00000010ffffffff", buckets));
+        assertEquals("bucket-3", keyStrategy.bucketFor("0002/fileName-uuid", buckets));
+    }
 }
@@ -0,0 +1,81 @@
+package engineering.everest.starterkit.filestorage.backing;
+
+import engineering.everest.starterkit.filestorage.InputStreamOfKnownLength;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.core.io.buffer.DefaultDataBufferFactory;
+import reactor.core.publisher.Flux;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.CALLS_REAL_METHODS;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class BlockingBackingStoreAdapterTest {
+
+    private static final String FILENAME = "my-filename";
+    private static final String FILE_CONTENTS = "This is my file. There are many like it but this one is my own.";
+
+    private BackingStore backingStore;
+
+    @BeforeEach
+    void setUp() {
+        backingStore = mock(BackingStore.class, CALLS_REAL_METHODS);
+    }
+
+    @Test
+    void downloadAsFlux_WillAdaptBlockingRangedDownload() throws IOException {
+        when(backingStore.downloadAsStream("file-id", 44L, 47L))
+            .thenReturn(new InputStreamOfKnownLength(new ByteArrayInputStream("this".getBytes()), 4L));
+
+        var content = DataBufferUtils.join(
+            backingStore.downloadAsFlux("file-id", 44L, 47L, DefaultDataBufferFactory.sharedInstance, 2)).block();
+
+        assertEquals("this", content.toString(UTF_8));
+    }
+
+    @Test
+    void uploadFlux_WillPipeContentToBlockingUpload() {
+        when(backingStore.uploadStream(any(InputStream.class), eq(FILENAME))).thenAnswer(invocation -> {
+            InputStream inputStream = invocation.getArgument(0);
+            assertEquals(FILE_CONTENTS, new String(inputStream.readAllBytes(), UTF_8));
+            return "file-id";
+        });
+
+        var fileIdentifier = backingStore.uploadFlux(contentInTwoBuffers(), FILENAME).block();
+
+        assertEquals("file-id", fileIdentifier);
+    }
+
+    @Test
+    void uploadFlux_WillFailUpload_WhenContentPublisherFails() {
+        when(backingStore.uploadStream(any(InputStream.class), eq(FILENAME))).thenAnswer(invocation -> {
+            InputStream inputStream = invocation.getArgument(0);
+            inputStream.readAllBytes();
+            return "truncated-file-id";
+        });
+
+        var content = contentInTwoBuffers().concatWith(Flux.error(new IllegalStateException("client went away")));
+
+        assertThrows(BackingFileStoreException.class, () -> backingStore.uploadFlux(content, FILENAME).block());
+        verify(backingStore).delete("truncated-file-id");
+    }
+
+    private static Flux<DataBuffer> contentInTwoBuffers() {
+        var dataBufferFactory = DefaultDataBufferFactory.sharedInstance;
+        return Flux.just(
+            dataBufferFactory.wrap(FILE_CONTENTS.substring(0, 20).getBytes(UTF_8)),
+            dataBufferFactory.wrap(FILE_CONTENTS.substring(20).getBytes(UTF_8)));
+    }
+}
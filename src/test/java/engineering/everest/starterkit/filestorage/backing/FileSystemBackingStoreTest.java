@@ -0,0 +1,192 @@
+package engineering.everest.starterkit.filestorage.backing;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.core.io.buffer.DefaultDataBufferFactory;
+import reactor.core.publisher.Flux;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Set;
+
+import static engineering.everest.starterkit.filestorage.backing.BackingStorageType.FILE_SYSTEM;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.stream.Collectors.toList;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class FileSystemBackingStoreTest {
+
+    private static final String FILENAME = "my-filename";
+    private static final byte[] FILE_CONTENTS = "This is my file. There are many like it but this one is my own.".getBytes();
+
+    @TempDir
+    Path rootDirectory;
+
+    private FileSystemBackingStore fileSystemBackingStore;
+
+    @BeforeEach
+    void setUp() {
+        fileSystemBackingStore = new FileSystemBackingStore(rootDirectory);
+    }
+
+    @Test
+    void backingStorageType_WillBeFileSystem() {
+        assertEquals(FILE_SYSTEM, fileSystemBackingStore.backingStorageType());
+    }
+
+    @Test
+    void uploadStream_WillPersistFileInShardedDirectory() throws IOException {
+        var fileIdentifier = fileSystemBackingStore.uploadStream(new ByteArrayInputStream(FILE_CONTENTS), FILENAME);
+
+        var expectedPath = rootDirectory.resolve(fileIdentifier.substring(0, 2)).resolve(fileIdentifier.substring(2, 4))
+            .resolve(fileIdentifier);
+        assertArrayEquals(FILE_CONTENTS, Files.readAllBytes(expectedPath));
+        assertArrayEquals(FILE_CONTENTS, fileSystemBackingStore.downloadAsStream(fileIdentifier).getInputStream().readAllBytes());
+    }
+
+    @Test
+    void uploadStreamWithFileSize_WillRecordContentLength() throws IOException {
+        var fileIdentifier = fileSystemBackingStore.uploadStream(new ByteArrayInputStream(FILE_CONTENTS), FILENAME, FILE_CONTENTS.length);
+
+        assertEquals(FILE_CONTENTS.length, fileSystemBackingStore.downloadAsStream(fileIdentifier).getLength());
+    }
+
+    @Test
+    void uploadStreamWithFileSize_WillFailAndLeaveNoTemporaryFile_WhenExpectedFileSizeDiffersFromContentLength() throws IOException {
+        var exception = assertThrows(BackingFileStoreException.class,
+            () -> fileSystemBackingStore.uploadStream(new ByteArrayInputStream(FILE_CONTENTS), FILENAME, FILE_CONTENTS.length + 1));
+
+        assertEquals("Expected file size 64 for uploaded file 'my-filename' but content length is 63", exception.getMessage());
+        try (var temporaryFiles = Files.list(rootDirectory.resolve(".incoming"))) {
+            assertEquals(0, temporaryFiles.count());
+        }
+    }
+
+    @Test
+    void uploadContentAddressed_WillNotRewriteContentAlreadyPresent() throws IOException {
+        var sha256 = "108e0047119fdf8db72dc146283d0cd717d620a9b4fb9ead902e22f4c04fbe7b";
+        var upload = fileSystemBackingStore.uploadContentAddressed(new ByteArrayInputStream(FILE_CONTENTS), sha256,
+            FILE_CONTENTS.length);
+        var fileIdentifier = upload.getFileIdentifier();
+        var unreadableInputStream = new ByteArrayInputStream(new byte[0]) {
+            @Override
+            public synchronized int read(byte[] b, int off, int len) {
+                throw new AssertionError("Content should not be read again");
+            }
+        };
+
+        assertEquals(new ContentAddressedUpload(sha256, false), upload);
+        assertEquals(new ContentAddressedUpload(sha256, true),
+            fileSystemBackingStore.uploadContentAddressed(unreadableInputStream, sha256, FILE_CONTENTS.length));
+        assertArrayEquals(FILE_CONTENTS, fileSystemBackingStore.downloadAsStream(fileIdentifier).getInputStream().readAllBytes());
+    }
+
+    @Test
+    void downloadAsStream_WillStreamRange() throws IOException {
+        var fileIdentifier = fileSystemBackingStore.uploadStream(new ByteArrayInputStream(FILE_CONTENTS), FILENAME);
+
+        var inputStreamOfKnownLength = fileSystemBackingStore.downloadAsStream(fileIdentifier, 44L, 47L);
+
+        assertEquals(4L, inputStreamOfKnownLength.getLength());
+        assertEquals("this", new String(inputStreamOfKnownLength.getInputStream().readAllBytes(), UTF_8));
+    }
+
+    @Test
+    void downloadAsStream_WillFail_WhenStartingOffsetIsBeyondEndOfFile() {
+        var fileIdentifier = fileSystemBackingStore.uploadStream(new ByteArrayInputStream(FILE_CONTENTS), FILENAME);
+
+        var exception = assertThrows(BackingFileStoreException.class,
+            () -> fileSystemBackingStore.downloadAsStream(fileIdentifier, 100L, 200L));
+
+        assertEquals(String.format("Starting offset 100 is beyond the end of file %s of 63 bytes", fileIdentifier), exception.getMessage());
+    }
+
+    @Test
+    void downloadAsFlux_WillFail_WhenStartingOffsetIsBeyondEndOfFile() {
+        var fileIdentifier = fileSystemBackingStore.uploadStream(new ByteArrayInputStream(FILE_CONTENTS), FILENAME);
+
+        var content = fileSystemBackingStore.downloadAsFlux(fileIdentifier, 100L, 200L, DefaultDataBufferFactory.sharedInstance, 16);
+
+        assertThrows(BackingFileStoreException.class, content::blockLast);
+    }
+
+    @Test
+    void downloadAsStream_WillFail_WhenFileDoesNotExist() {
+        var exception = assertThrows(BackingFileStoreException.class,
+            () -> fileSystemBackingStore.downloadAsStream("8a5c4f7e-0f1d-4c5e-9a53-3d8d1a0e1f4b"));
+
+        assertEquals("Unable to retrieve file 8a5c4f7e-0f1d-4c5e-9a53-3d8d1a0e1f4b", exception.getMessage());
+    }
+
+    @Test
+    void downloadAsStream_WillRejectIdentifiersThatCouldEscapeTheRootDirectory() {
+        assertThrows(BackingFileStoreException.class, () -> fileSystemBackingStore.downloadAsStream("../../etc/passwd"));
+    }
+
+    @Test
+    void deleteFiles_WillDeleteAllSpecifiedFiles() {
+        var fileIdentifier1 = fileSystemBackingStore.uploadStream(new ByteArrayInputStream(FILE_CONTENTS), FILENAME);
+        var fileIdentifier2 = fileSystemBackingStore.uploadStream(new ByteArrayInputStream(FILE_CONTENTS), FILENAME);
+
+        fileSystemBackingStore.deleteFiles(Set.of(fileIdentifier1, fileIdentifier2));
+        fileSystemBackingStore.delete(fileIdentifier1);
+
+        assertThrows(BackingFileStoreException.class, () -> fileSystemBackingStore.downloadAsStream(fileIdentifier1));
+        assertThrows(BackingFileStoreException.class, () -> fileSystemBackingStore.downloadAsStream(fileIdentifier2));
+    }
+
+    @Test
+    void listFiles_WillListCommittedFilesInIdentifierOrder() throws IOException {
+        var fileIdentifiers = new ArrayList<String>();
+        for (var i = 0; i < 5; i++) {
+            fileIdentifiers.add(fileSystemBackingStore.uploadStream(new ByteArrayInputStream(FILE_CONTENTS), FILENAME));
+        }
+        Files.createTempFile(rootDirectory.resolve(".incoming"), "upload-", ".tmp");
+        Collections.sort(fileIdentifiers);
+
+        assertTrue(fileSystemBackingStore.supportsListing());
+        try (var backingFiles = fileSystemBackingStore.listFiles()) {
+            assertEquals(fileIdentifiers, backingFiles.map(BackingFile::getFileIdentifier).collect(toList()));
+        }
+    }
+
+    @Test
+    void constructor_WillDeleteStaleTemporaryFilesLeftByInterruptedUploads() throws IOException {
+        var staleFile = Files.createTempFile(rootDirectory.resolve(".incoming"), "upload-", ".tmp");
+        Files.setLastModifiedTime(staleFile, FileTime.from(Instant.now().minus(Duration.ofDays(1))));
+        var recentFile = Files.createTempFile(rootDirectory.resolve(".incoming"), "upload-", ".tmp");
+
+        new FileSystemBackingStore(rootDirectory);
+
+        assertFalse(Files.exists(staleFile));
+        assertTrue(Files.exists(recentFile));
+    }
+
+    @Test
+    void uploadFluxAndDownloadAsFlux_WillRoundTripContent() {
+        var dataBufferFactory = DefaultDataBufferFactory.sharedInstance;
+        var content = Flux.just(dataBufferFactory.wrap(new String(FILE_CONTENTS, 0, 20, UTF_8).getBytes(UTF_8)),
+            dataBufferFactory.wrap(new String(FILE_CONTENTS, 20, FILE_CONTENTS.length - 20, UTF_8).getBytes(UTF_8)));
+
+        var fileIdentifier = fileSystemBackingStore.uploadFlux(content, FILENAME).block();
+        var downloaded = DataBufferUtils.join(
+            fileSystemBackingStore.downloadAsFlux(fileIdentifier, 44L, 47L, dataBufferFactory, 3)).block();
+
+        assertEquals("this", downloaded.toString(UTF_8));
+        assertTrue(Files.exists(rootDirectory.resolve(fileIdentifier.substring(0, 2)).resolve(fileIdentifier.substring(2, 4))
+            .resolve(fileIdentifier)));
+    }
+}
@@ -0,0 +1,173 @@
+package engineering.everest.starterkit.filestorage.backing;
+
+import engineering.everest.starterkit.filestorage.InputStreamOfKnownLength;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.core.io.buffer.DefaultDataBufferFactory;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.time.Duration;
+import java.util.Set;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.verify;
+
+class HedgedReadBackingStoreTest {
+
+    private static final String FILENAME = "my-filename";
+    private static final byte[] FILE_CONTENTS = "This is my file. There are many like it but this one is my own.".getBytes();
+
+    private InMemoryBackingStore primary;
+    private InMemoryBackingStore secondary;
+    private HedgedReadBackingStore hedgedReadBackingStore;
+
+    @BeforeEach
+    void setUp() {
+        primary = spy(new InMemoryBackingStore());
+        secondary = spy(new InMemoryBackingStore());
+        hedgedReadBackingStore = new HedgedReadBackingStore(primary, secondary, 95, Duration.ofMillis(50), 100, 4);
+    }
+
+    @AfterEach
+    void tearDown() {
+        hedgedReadBackingStore.close();
+    }
+
+    @Test
+    void uploadStream_WillWriteToBothStores() throws Exception {
+        var fileIdentifier = hedgedReadBackingStore.uploadStream(new ByteArrayInputStream(FILE_CONTENTS), FILENAME, FILE_CONTENTS.length);
+
+        assertTrue(fileIdentifier.startsWith("hedged:"));
+        verify(primary).uploadStream(any(InputStream.class), anyString(), anyLong());
+        verify(secondary).uploadStream(any(InputStream.class), anyString(), anyLong());
+    }
+
+    @Test
+    void uploadStream_WillRemovePrimaryCopy_WhenSecondaryUploadFails() {
+        doThrow(new BackingFileStoreException("secondary unavailable")).when(secondary)
+            .uploadStream(any(InputStream.class), anyString(), anyLong());
+
+        var exception = assertThrows(BackingFileStoreException.class,
+            () -> hedgedReadBackingStore.uploadStream(new ByteArrayInputStream(FILE_CONTENTS), FILENAME));
+
+        assertEquals("secondary unavailable", exception.getMessage());
+        verify(primary).delete(anyString());
+    }
+
+    @Test
+    void downloadAsStream_WillReadFromPrimary_WhenPrimaryIsFast() throws Exception {
+        var fileIdentifier = hedgedReadBackingStore.uploadStream(new ByteArrayInputStream(FILE_CONTENTS), FILENAME);
+
+        assertArrayEquals(FILE_CONTENTS, hedgedReadBackingStore.downloadAsStream(fileIdentifier).getInputStream().readAllBytes());
+        verify(secondary, never()).downloadAsStream(anyString());
+    }
+
+    @Test
+    void downloadAsStream_WillUseSecondary_WhenPrimaryIsSlowerThanHedgeDelay() throws Exception {
+        var fileIdentifier = hedgedReadBackingStore.uploadStream(new ByteArrayInputStream(FILE_CONTENTS), FILENAME);
+        doAnswer(invocation -> {
+            Thread.sleep(5000);
+            return new InputStreamOfKnownLength(new ByteArrayInputStream(FILE_CONTENTS), FILE_CONTENTS.length);
+        }).when(primary).downloadAsStream(anyString());
+
+        var startedAt = System.nanoTime();
+        var content = hedgedReadBackingStore.downloadAsStream(fileIdentifier).getInputStream().readAllBytes();
+
+        assertArrayEquals(FILE_CONTENTS, content);
+        assertTrue(Duration.ofNanos(System.nanoTime() - startedAt).toMillis() < 2000);
+        verify(secondary).downloadAsStream(anyString());
+    }
+
+    @Test
+    void downloadAsStream_WillFallBackToSecondary_WhenPrimaryFails() throws Exception {
+        var fileIdentifier = hedgedReadBackingStore.uploadStream(new ByteArrayInputStream(FILE_CONTENTS), FILENAME);
+        doThrow(new BackingFileStoreException("primary unavailable")).when(primary).downloadAsStream(anyString(), anyLong(), anyLong());
+
+        var content = hedgedReadBackingStore.downloadAsStream(fileIdentifier, 8, 14).getInputStream().readAllBytes();
+
+        assertEquals("my file", new String(content, UTF_8));
+    }
+
+    @Test
+    void downloadAsFlux_WillReadFromPrimary() {
+        var fileIdentifier = hedgedReadBackingStore.uploadStream(new ByteArrayInputStream(FILE_CONTENTS), FILENAME);
+
+        var content = DataBufferUtils.join(hedgedReadBackingStore.downloadAsFlux(fileIdentifier, 0, FILE_CONTENTS.length - 1,
+            DefaultDataBufferFactory.sharedInstance, 16)).block();
+
+        assertEquals(new String(FILE_CONTENTS, UTF_8), content.toString(UTF_8));
+    }
+
+    @Test
+    void downloadAsStream_WillWaitForPrimary_WhenNoHedgingThreadIsAvailable() throws Exception {
+        hedgedReadBackingStore.close();
+        hedgedReadBackingStore = new HedgedReadBackingStore(primary, secondary, 95, Duration.ofMillis(50), 100, 1);
+        var fileIdentifier = HedgedReadBackingStore.format(primary.uploadStream(new ByteArrayInputStream(FILE_CONTENTS), FILENAME),
+            secondary.uploadStream(new ByteArrayInputStream(FILE_CONTENTS), FILENAME));
+        doAnswer(invocation -> {
+            Thread.sleep(300);
+            return new InputStreamOfKnownLength(new ByteArrayInputStream(FILE_CONTENTS), FILE_CONTENTS.length);
+        }).when(primary).downloadAsStream(anyString());
+
+        assertArrayEquals(FILE_CONTENTS, hedgedReadBackingStore.downloadAsStream(fileIdentifier).getInputStream().readAllBytes());
+        verify(secondary, never()).downloadAsStream(anyString());
+    }
+
+    @Test
+    void downloadAsStream_WillReadFromPrimaryOnly_WhenFileWasStoredBeforeHedging() throws Exception {
+        var fileIdentifier = primary.uploadStream(new ByteArrayInputStream(FILE_CONTENTS), FILENAME);
+
+        assertArrayEquals(FILE_CONTENTS, hedgedReadBackingStore.downloadAsStream(fileIdentifier).getInputStream().readAllBytes());
+        var content = DataBufferUtils.join(hedgedReadBackingStore.downloadAsFlux(fileIdentifier, 0, FILE_CONTENTS.length - 1,
+            DefaultDataBufferFactory.sharedInstance, 16)).block();
+        assertEquals(new String(FILE_CONTENTS, UTF_8), content.toString(UTF_8));
+        verify(secondary, never()).downloadAsStream(anyString());
+        verify(secondary, never()).downloadAsFlux(anyString(), anyLong(), anyLong(), any(), anyInt());
+    }
+
+    @Test
+    void downloadAsFlux_WillCompleteEmpty_WhenFileIsEmpty() {
+        var fileIdentifier = hedgedReadBackingStore.uploadStream(new ByteArrayInputStream(new byte[0]), FILENAME, 0);
+
+        var buffers = hedgedReadBackingStore.downloadAsFlux(fileIdentifier, 0, -1, DefaultDataBufferFactory.sharedInstance, 16)
+            .collectList()
+            .block(Duration.ofSeconds(10));
+
+        assertTrue(buffers.isEmpty());
+    }
+
+    @Test
+    void delete_WillDeleteFromPrimaryOnly_WhenFileWasStoredBeforeHedging() {
+        var fileIdentifier = primary.uploadStream(new ByteArrayInputStream(FILE_CONTENTS), FILENAME);
+
+        hedgedReadBackingStore.delete(fileIdentifier);
+
+        verify(primary).delete(fileIdentifier);
+        verify(secondary, never()).delete(anyString());
+    }
+
+    @Test
+    void deleteFiles_WillDeleteFromBothStores() {
+        var fileIdentifier = HedgedReadBackingStore.format("s3://bucket/key|with-separator", "secondary-id");
+
+        hedgedReadBackingStore.deleteFiles(Set.of(fileIdentifier));
+
+        verify(primary).deleteFiles(Set.of("s3://bucket/key|with-separator"));
+        verify(secondary).deleteFiles(Set.of("secondary-id"));
+    }
+}
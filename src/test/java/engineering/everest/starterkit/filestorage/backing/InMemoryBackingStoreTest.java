@@ -2,6 +2,9 @@ package engineering.everest.starterkit.filestorage.backing;
 
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.core.io.buffer.DefaultDataBufferFactory;
+import reactor.core.publisher.Flux;
 
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
@@ -9,6 +12,7 @@ import java.io.InputStream;
 import java.util.Set;
 
 import static engineering.everest.starterkit.filestorage.backing.BackingStorageType.IN_MEMORY;
+import static java.nio.charset.StandardCharsets.UTF_8;
 import static org.junit.jupiter.api.Assertions.assertArrayEquals;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
@@ -132,4 +136,16 @@ class InMemoryBackingStoreTest {
         var leftoverContent = inMemoryBackingStore.downloadAsStream(persistedFileId, 44L, 47L).getInputStream().readAllBytes();
         assertEquals("this", new String(leftoverContent));
     }
+
+    @Test
+    void downloadAsFlux_WillStreamRangeInBuffersOfRequestedSize() {
+        var persistedFileId = inMemoryBackingStore.uploadStream(new ByteArrayInputStream(FILE_CONTENTS), FILENAME);
+
+        var buffers = inMemoryBackingStore.downloadAsFlux(persistedFileId, 44L, 57L, DefaultDataBufferFactory.sharedInstance, 4)
+            .collectList().block();
+        assertEquals(4, buffers.size());
+
+        var joined = DataBufferUtils.join(Flux.fromIterable(buffers)).block();
+        assertEquals("this one is my", joined.toString(UTF_8));
+    }
 }
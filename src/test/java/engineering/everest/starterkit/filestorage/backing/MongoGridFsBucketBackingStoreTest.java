@@ -0,0 +1,152 @@
+package engineering.everest.starterkit.filestorage.backing;
+
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.gridfs.GridFSBucket;
+import com.mongodb.client.gridfs.GridFSDownloadStream;
+import com.mongodb.client.gridfs.model.GridFSFile;
+import com.mongodb.client.model.IndexOptions;
+import com.mongodb.client.model.Indexes;
+import org.bson.BsonObjectId;
+import org.bson.Document;
+import org.bson.conversions.Bson;
+import org.bson.types.Binary;
+import org.bson.types.ObjectId;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.Date;
+import java.util.List;
+
+import static com.mongodb.client.model.Filters.eq;
+import static java.util.Set.of;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class MongoGridFsBucketBackingStoreTest {
+
+    private static final int CHUNK_SIZE_BYTES = 4;
+    private static final byte[] FILE_CONTENTS = "0123456789".getBytes();
+
+    private MongoGridFsBucketBackingStore fileStore;
+
+    @Mock
+    private GridFSBucket gridFsBucket;
+    @Mock
+    private MongoCollection<Document> filesCollection;
+    @Mock
+    private MongoCollection<Document> chunksCollection;
+    @Mock
+    private GridFSDownloadStream downloadStream;
+
+    @BeforeEach
+    void setUp() {
+        fileStore = new MongoGridFsBucketBackingStore(gridFsBucket, filesCollection, chunksCollection, CHUNK_SIZE_BYTES, 2);
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void uploadStreamWithFileSize_WillInsertChunksInBatchesBeforeTheFilesDocument() {
+        var fileIdentifier = fileStore.uploadStream(new ByteArrayInputStream(FILE_CONTENTS), "file", FILE_CONTENTS.length);
+
+        ArgumentCaptor<List<Document>> batches = ArgumentCaptor.forClass(List.class);
+        verify(chunksCollection, times(2)).insertMany(batches.capture());
+        assertEquals(2, batches.getAllValues().get(0).size());
+        assertEquals(1, batches.getAllValues().get(1).size());
+        var lastChunk = batches.getAllValues().get(1).get(0);
+        assertEquals(2, lastChunk.getInteger("n"));
+        assertArrayEquals("89".getBytes(), ((Binary) lastChunk.get("data")).getData());
+
+        var filesDocument = ArgumentCaptor.forClass(Document.class);
+        verify(filesCollection).insertOne(filesDocument.capture());
+        assertEquals(new ObjectId(fileIdentifier), filesDocument.getValue().getObjectId("_id"));
+        assertEquals(FILE_CONTENTS.length, filesDocument.getValue().getLong("length"));
+        assertEquals(CHUNK_SIZE_BYTES, filesDocument.getValue().getInteger("chunkSize"));
+        assertEquals("file", filesDocument.getValue().getString("filename"));
+    }
+
+    @Test
+    void uploadStreamWithFileSize_WillRemoveWrittenChunks_WhenContentLengthDiffersFromFileSize() {
+        var exception = assertThrows(BackingFileStoreException.class,
+            () -> fileStore.uploadStream(new ByteArrayInputStream(FILE_CONTENTS), "file", 12L));
+
+        assertEquals("Expected file size 12 for uploaded file 'file' but content length is 10", exception.getMessage());
+        verify(chunksCollection).deleteMany(any());
+        verify(filesCollection, never()).insertOne(any());
+    }
+
+    @Test
+    void downloadAsStream_WillSkipToStartingOffset() throws IOException {
+        var fileId = new ObjectId();
+        when(gridFsBucket.openDownloadStream(fileId)).thenReturn(downloadStream);
+        when(downloadStream.getGridFSFile())
+            .thenReturn(new GridFSFile(new BsonObjectId(fileId), "file", FILE_CONTENTS.length, CHUNK_SIZE_BYTES, new Date(), null));
+
+        var inputStreamOfKnownLength = fileStore.downloadAsStream(fileId.toHexString(), 5, 20);
+
+        assertEquals(5, inputStreamOfKnownLength.getLength());
+        verify(downloadStream).skip(5);
+    }
+
+    @Test
+    void downloadAsStream_WillFail_WhenStartingOffsetIsBeyondEndOfFile() throws IOException {
+        var fileId = new ObjectId();
+        when(gridFsBucket.openDownloadStream(fileId)).thenReturn(downloadStream);
+        when(downloadStream.getGridFSFile())
+            .thenReturn(new GridFSFile(new BsonObjectId(fileId), "file", FILE_CONTENTS.length, CHUNK_SIZE_BYTES, new Date(), null));
+
+        var exception = assertThrows(BackingFileStoreException.class, () -> fileStore.downloadAsStream(fileId.toHexString(), 11, 20));
+
+        assertEquals(String.format("Starting offset 11 is beyond the end of file %s of 10 bytes", fileId.toHexString()),
+            exception.getMessage());
+        verify(downloadStream).close();
+    }
+
+    @Test
+    void constructor_WillCreateGridFsIndexes() {
+        var chunksIndexKeys = ArgumentCaptor.forClass(Bson.class);
+        var chunksIndexOptions = ArgumentCaptor.forClass(IndexOptions.class);
+        verify(chunksCollection).createIndex(chunksIndexKeys.capture(), chunksIndexOptions.capture());
+        assertEquals(Indexes.ascending("files_id", "n"), chunksIndexKeys.getValue());
+        assertTrue(chunksIndexOptions.getValue().isUnique());
+        verify(filesCollection).createIndex(Indexes.ascending("filename", "uploadDate"));
+    }
+
+    @Test
+    void downloadAsStream_WillFail_WhenFileIdentifierIsInvalid() {
+        var exception = assertThrows(BackingFileStoreException.class, () -> fileStore.downloadAsStream("not-an-object-id"));
+
+        assertEquals("Invalid GridFS file identifier: not-an-object-id", exception.getMessage());
+    }
+
+    @Test
+    void delete_WillRemoveFilesDocumentAndChunks() {
+        var fileId = new ObjectId();
+
+        fileStore.delete(fileId.toHexString());
+
+        verify(filesCollection).deleteOne(eq("_id", fileId));
+        verify(chunksCollection).deleteMany(eq("files_id", fileId));
+    }
+
+    @Test
+    void deleteFiles_WillRemoveAllFilesDocumentsAndChunks() {
+        fileStore.deleteFiles(of(new ObjectId().toHexString(), new ObjectId().toHexString()));
+
+        verify(filesCollection).deleteMany(any());
+        verify(chunksCollection).deleteMany(any());
+    }
+}
@@ -0,0 +1,163 @@
+package engineering.everest.starterkit.filestorage.backing;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.core.io.buffer.DefaultDataBufferFactory;
+import reactor.core.publisher.Flux;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.Set;
+
+import static engineering.everest.starterkit.filestorage.backing.BackingStorageType.IN_MEMORY;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.Arrays.copyOfRange;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class OffHeapBackingStoreTest {
+
+    private static final String FILENAME = "my-filename";
+    private static final byte[] FILE_CONTENTS = "This is my file. There are many like it but this one is my own.".getBytes();
+    private static final int SEGMENT_SIZE = 16;
+    private static final long BUDGET = 256;
+
+    private OffHeapBackingStore offHeapBackingStore;
+
+    @BeforeEach
+    void setUp() {
+        offHeapBackingStore = new OffHeapBackingStore(SEGMENT_SIZE, BUDGET);
+    }
+
+    @Test
+    void backingStorageType_WillBeInMemory() {
+        assertEquals(IN_MEMORY, offHeapBackingStore.backingStorageType());
+    }
+
+    @Test
+    void uploadStreamWithFileSize_WillPersistFileAcrossSegments() throws IOException {
+        var persistedFileId = offHeapBackingStore.uploadStream(new ByteArrayInputStream(FILE_CONTENTS), FILENAME, FILE_CONTENTS.length);
+        var download = offHeapBackingStore.downloadAsStream(persistedFileId);
+
+        assertEquals(FILE_CONTENTS.length, download.getLength());
+        assertArrayEquals(FILE_CONTENTS, download.getInputStream().readAllBytes());
+        assertEquals(FILE_CONTENTS.length, offHeapBackingStore.bytesAllocated());
+    }
+
+    @Test
+    void uploadStream_WillFitFinalSegment_WhenFileSizeUnknown() throws IOException {
+        var persistedFileId = offHeapBackingStore.uploadStream(new ByteArrayInputStream(FILE_CONTENTS), FILENAME);
+
+        assertArrayEquals(FILE_CONTENTS, offHeapBackingStore.downloadAsStream(persistedFileId).getInputStream().readAllBytes());
+        assertEquals(FILE_CONTENTS.length, offHeapBackingStore.bytesAllocated());
+    }
+
+    @Test
+    void uploadStreamWithFileSize_WillFail_WhenContentLengthDoesNotMatch() {
+        var exception = assertThrows(BackingFileStoreException.class,
+            () -> offHeapBackingStore.uploadStream(new ByteArrayInputStream(FILE_CONTENTS), FILENAME, 10));
+
+        assertEquals(String.format("Expected file size 10 for uploaded file 'my-filename' but content length is %d", FILE_CONTENTS.length),
+            exception.getMessage());
+        assertEquals(0, offHeapBackingStore.bytesAllocated());
+    }
+
+    @Test
+    void downloadAsStream_WillReturnRangeSpanningSegments() throws IOException {
+        var persistedFileId = offHeapBackingStore.uploadStream(new ByteArrayInputStream(FILE_CONTENTS), FILENAME);
+        var download = offHeapBackingStore.downloadAsStream(persistedFileId, 10, 40);
+
+        assertEquals(31, download.getLength());
+        assertArrayEquals(copyOfRange(FILE_CONTENTS, 10, 41), download.getInputStream().readAllBytes());
+    }
+
+    @Test
+    void downloadAsStream_WillClampRangeToEndOfFile() throws IOException {
+        var persistedFileId = offHeapBackingStore.uploadStream(new ByteArrayInputStream(FILE_CONTENTS), FILENAME);
+        var download = offHeapBackingStore.downloadAsStream(persistedFileId, 50, 1000);
+
+        assertEquals(FILE_CONTENTS.length - 50, download.getLength());
+        assertArrayEquals(copyOfRange(FILE_CONTENTS, 50, FILE_CONTENTS.length), download.getInputStream().readAllBytes());
+    }
+
+    @Test
+    void downloadAsFlux_WillEmitBuffersNoLargerThanBufferSize() {
+        var persistedFileId = offHeapBackingStore.uploadStream(new ByteArrayInputStream(FILE_CONTENTS), FILENAME);
+        var buffers = offHeapBackingStore.downloadAsFlux(persistedFileId, 5, 44, DefaultDataBufferFactory.sharedInstance, 7)
+            .collectList().block();
+
+        buffers.forEach(buffer -> assertTrue(buffer.readableByteCount() <= 7));
+        var joined = DataBufferUtils.join(Flux.fromIterable(buffers)).block();
+        assertEquals(new String(copyOfRange(FILE_CONTENTS, 5, 45), UTF_8), joined.toString(UTF_8));
+    }
+
+    @Test
+    void downloadAsStream_WillFail_WhenFileNotInStore() {
+        var exception = assertThrows(BackingFileStoreException.class, () -> offHeapBackingStore.downloadAsStream("missing"));
+
+        assertEquals("File 'missing' not in filestore", exception.getMessage());
+    }
+
+    @Test
+    void uploadStream_WillEvictLeastRecentlyAccessedFiles_WhenBudgetExceeded() throws IOException {
+        var first = offHeapBackingStore.uploadStream(new ByteArrayInputStream(new byte[100]), "first");
+        var second = offHeapBackingStore.uploadStream(new ByteArrayInputStream(new byte[100]), "second");
+        offHeapBackingStore.downloadAsStream(first);
+
+        var third = offHeapBackingStore.uploadStream(new ByteArrayInputStream(new byte[100]), "third");
+
+        assertEquals(200, offHeapBackingStore.bytesAllocated());
+        assertEquals(100, offHeapBackingStore.downloadAsStream(first).getLength());
+        assertEquals(100, offHeapBackingStore.downloadAsStream(third).getLength());
+        assertThrows(BackingFileStoreException.class, () -> offHeapBackingStore.downloadAsStream(second));
+    }
+
+    @Test
+    void uploadStream_WillFailAndKeepExistingFiles_WhenBudgetFullAndEvictionDisabled() throws IOException {
+        var nonEvictingBackingStore = new OffHeapBackingStore(SEGMENT_SIZE, BUDGET, false);
+        var first = nonEvictingBackingStore.uploadStream(new ByteArrayInputStream(new byte[100]), "first");
+        var second = nonEvictingBackingStore.uploadStream(new ByteArrayInputStream(new byte[100]), "second");
+
+        var exception = assertThrows(BackingFileStoreException.class,
+            () -> nonEvictingBackingStore.uploadStream(new ByteArrayInputStream(new byte[100]), "third"));
+
+        assertEquals("Unable to store file 'third': in-memory budget of 256 bytes is full", exception.getMessage());
+        assertEquals(200, nonEvictingBackingStore.bytesAllocated());
+        assertEquals(100, nonEvictingBackingStore.downloadAsStream(first).getLength());
+        assertEquals(100, nonEvictingBackingStore.downloadAsStream(second).getLength());
+    }
+
+    @Test
+    void uploadStream_WillFailAndReleaseSegments_WhenFileExceedsBudget() {
+        var exception = assertThrows(BackingFileStoreException.class,
+            () -> offHeapBackingStore.uploadStream(new ByteArrayInputStream(new byte[300]), FILENAME));
+
+        assertEquals("File 'my-filename' exceeds the in-memory budget of 256 bytes", exception.getMessage());
+        assertEquals(0, offHeapBackingStore.bytesAllocated());
+    }
+
+    @Test
+    void uploadStreamWithFileSize_WillFailWithoutReadingContent_WhenFileSizeExceedsBudget() {
+        var inputStream = new ByteArrayInputStream(new byte[300]);
+
+        var exception = assertThrows(BackingFileStoreException.class,
+            () -> offHeapBackingStore.uploadStream(inputStream, FILENAME, 300));
+
+        assertEquals("File 'my-filename' exceeds the in-memory budget of 256 bytes", exception.getMessage());
+        assertEquals(300, inputStream.available());
+        assertEquals(0, offHeapBackingStore.bytesAllocated());
+    }
+
+    @Test
+    void deleteFiles_WillReleaseMemory() {
+        var first = offHeapBackingStore.uploadStream(new ByteArrayInputStream(FILE_CONTENTS), FILENAME);
+        var second = offHeapBackingStore.uploadStream(new ByteArrayInputStream(FILE_CONTENTS), FILENAME);
+
+        offHeapBackingStore.deleteFiles(Set.of(first, second, "missing"));
+
+        assertEquals(0, offHeapBackingStore.bytesAllocated());
+    }
+}
@@ -0,0 +1,192 @@
+package engineering.everest.starterkit.filestorage.backing;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+class PackingBackingStoreTest {
+
+    private static final int PACKING_THRESHOLD_BYTES = 100;
+
+    private InMemoryBackingStore segmentStore;
+    private Map<String, String> fileMappings;
+    private PackingBackingStore packingBackingStore;
+
+    @BeforeEach
+    void setUp() {
+        segmentStore = spy(new InMemoryBackingStore());
+        fileMappings = new ConcurrentHashMap<>();
+        packingBackingStore = createPackingBackingStore(Duration.ofMillis(100));
+    }
+
+    @AfterEach
+    void tearDown() {
+        packingBackingStore.close();
+    }
+
+    @Test
+    void uploadStream_WillPackConcurrentSmallUploadsIntoASingleSegment() throws Exception {
+        var fileIdentifiers = uploadSmallFiles(20);
+
+        verify(segmentStore, times(1)).uploadStream(any(InputStream.class), anyString(), anyLong());
+        for (var index = 0; index < fileIdentifiers.size(); index++) {
+            assertTrue(fileIdentifiers.get(index).startsWith("pack:"));
+            assertEquals("file-" + index, read(fileIdentifiers.get(index)));
+        }
+    }
+
+    @Test
+    void uploadStream_WillPassLargeFilesThroughToTheSegmentStore() throws IOException {
+        var content = new byte[PACKING_THRESHOLD_BYTES + 1];
+
+        var fileIdentifier = packingBackingStore.uploadStream(new ByteArrayInputStream(content), "large-file");
+
+        assertFalse(fileIdentifier.startsWith("pack:"));
+        assertArrayEquals(content, packingBackingStore.downloadAsStream(fileIdentifier).getInputStream().readAllBytes());
+    }
+
+    @Test
+    void uploadStream_WillFail_WhenContentLengthDiffersFromFileSize() {
+        var exception = assertThrows(BackingFileStoreException.class,
+            () -> packingBackingStore.uploadStream(new ByteArrayInputStream("abc".getBytes()), "small-file", 5));
+
+        assertEquals("Expected file size 5 for uploaded file 'small-file' but content length is 3", exception.getMessage());
+    }
+
+    @Test
+    void downloadAsStream_WillServeRangesWithASingleRangedRead() throws Exception {
+        var fileIdentifier = uploadSmallFiles(1).get(0);
+
+        var inputStreamOfKnownLength = packingBackingStore.downloadAsStream(fileIdentifier, 2, 100);
+
+        assertEquals(4, inputStreamOfKnownLength.getLength());
+        assertEquals("le-0", new String(inputStreamOfKnownLength.getInputStream().readAllBytes(), UTF_8));
+        verify(segmentStore).downloadAsStream(anyString(), anyLong(), anyLong());
+    }
+
+    @Test
+    void compact_WillRelocateLiveFilesAndDeleteTheOldSegmentAfterTheGracePeriod() throws Exception {
+        var fileIdentifiers = uploadSmallFiles(4);
+        var segmentId = segmentIdOf(fileIdentifiers.get(0));
+        fileMappings.put("live", fileIdentifiers.get(3));
+        packingBackingStore.deleteFiles(Set.of(fileIdentifiers.get(0), fileIdentifiers.get(1), fileIdentifiers.get(2)));
+
+        packingBackingStore.compact();
+
+        var relocatedFileIdentifier = fileMappings.get("live");
+        assertNotEquals(fileIdentifiers.get(3), relocatedFileIdentifier);
+        assertEquals("file-3", read(relocatedFileIdentifier));
+        assertEquals("file-3", read(fileIdentifiers.get(3)));
+        verify(segmentStore, timeout(5000)).delete(segmentId);
+    }
+
+    @Test
+    void close_WillRetireCompactedSegmentsStillInTheirGracePeriod() throws Exception {
+        packingBackingStore.close();
+        packingBackingStore = createPackingBackingStore(Duration.ofHours(1));
+        var fileIdentifiers = uploadSmallFiles(4);
+        var segmentId = segmentIdOf(fileIdentifiers.get(0));
+        fileMappings.put("live", fileIdentifiers.get(3));
+        packingBackingStore.deleteFiles(Set.of(fileIdentifiers.get(0), fileIdentifiers.get(1), fileIdentifiers.get(2)));
+        packingBackingStore.compact();
+        fileMappings.put("saved-after-compaction", fileIdentifiers.get(3));
+
+        packingBackingStore.close();
+
+        verify(segmentStore).delete(segmentId);
+        assertEquals(fileMappings.get("live"), fileMappings.get("saved-after-compaction"));
+        assertEquals("file-3", read(fileMappings.get("saved-after-compaction")));
+    }
+
+    @Test
+    void recoverSegmentUsage_WillCompactSegmentsWrittenBeforeARestart() throws Exception {
+        var fileIdentifiers = uploadSmallFiles(4);
+        fileMappings.put("live", fileIdentifiers.get(3));
+        packingBackingStore.close();
+        packingBackingStore = createPackingBackingStore(Duration.ofMillis(100));
+
+        packingBackingStore.recoverSegmentUsage();
+        packingBackingStore.compact();
+
+        assertNotEquals(fileIdentifiers.get(3), fileMappings.get("live"));
+        assertEquals("file-3", read(fileMappings.get("live")));
+    }
+
+    @Test
+    void delete_WillDeleteSegment_WhenAllOfItsFilesAreDeleted() throws Exception {
+        var fileIdentifiers = uploadSmallFiles(2);
+
+        packingBackingStore.delete(fileIdentifiers.get(0));
+        packingBackingStore.delete(fileIdentifiers.get(1));
+
+        verify(segmentStore).delete(eq(segmentIdOf(fileIdentifiers.get(0))));
+    }
+
+    private PackingBackingStore createPackingBackingStore(Duration gracePeriod) {
+        BackingStoreRelocationListener relocationListener = (fromFileIdentifier, toFileIdentifier) -> {
+            var relocated = fileMappings.containsValue(fromFileIdentifier);
+            fileMappings.replaceAll((fileId, backingStorageFileId) -> backingStorageFileId.equals(fromFileIdentifier)
+                ? toFileIdentifier
+                : backingStorageFileId);
+            return relocated;
+        };
+        return new PackingBackingStore(segmentStore, relocationListener,
+            prefix -> fileMappings.values().stream().filter(fileIdentifier -> fileIdentifier.startsWith(prefix)).distinct().sorted(),
+            new PackingPolicy(PACKING_THRESHOLD_BYTES, 1024, Duration.ofMillis(50), 0.5, Duration.ofHours(1), gracePeriod), 2);
+    }
+
+    private List<String> uploadSmallFiles(int count) throws Exception {
+        var executor = Executors.newFixedThreadPool(count);
+        try {
+            var uploads = new ArrayList<Future<String>>();
+            for (var index = 0; index < count; index++) {
+                var content = ("file-" + index).getBytes(UTF_8);
+                uploads.add(executor.submit(() -> packingBackingStore.uploadStream(new ByteArrayInputStream(content), "small-file",
+                    content.length)));
+            }
+            var fileIdentifiers = new ArrayList<String>();
+            for (var upload : uploads) {
+                fileIdentifiers.add(upload.get());
+            }
+            return fileIdentifiers;
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    private String read(String fileIdentifier) throws IOException {
+        return new String(packingBackingStore.downloadAsStream(fileIdentifier).getInputStream().readAllBytes(), UTF_8);
+    }
+
+    private static String segmentIdOf(String fileIdentifier) {
+        return fileIdentifier.split(":")[1];
+    }
+}
@@ -0,0 +1,119 @@
+package engineering.everest.starterkit.filestorage.backing;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.verify;
+
+class RoutingBackingStoreTest {
+
+    private static final byte[] SMALL_FILE = "small".getBytes();
+    private static final byte[] LARGE_FILE = "a file larger than the small file route".getBytes();
+
+    private InMemoryBackingStore defaultStore;
+    private InMemoryBackingStore smallFileStore;
+    private InMemoryBackingStore largeFileStore;
+    private RoutingBackingStore routingBackingStore;
+
+    @BeforeEach
+    void setUp() {
+        defaultStore = spy(new InMemoryBackingStore());
+        smallFileStore = spy(new InMemoryBackingStore());
+        largeFileStore = spy(new InMemoryBackingStore());
+        routingBackingStore = new RoutingBackingStore(Map.of("default", defaultStore, "small", smallFileStore, "large", largeFileStore),
+            defaultStore, new RoutingPolicy(List.of(new RoutingPolicy.Route(16, "small")), "large"));
+    }
+
+    @Test
+    void uploadStreamWithFileSize_WillPlaceFilesOnStoreOfFirstRouteTheyFit() throws IOException {
+        var smallFileIdentifier = routingBackingStore.uploadStream(new ByteArrayInputStream(SMALL_FILE), "small", SMALL_FILE.length);
+        var largeFileIdentifier = routingBackingStore.uploadStream(new ByteArrayInputStream(LARGE_FILE), "large", LARGE_FILE.length);
+
+        assertTrue(smallFileIdentifier.startsWith("route:small:"));
+        assertTrue(largeFileIdentifier.startsWith("route:large:"));
+        assertArrayEquals(SMALL_FILE, smallFileStore.downloadAsStream(smallFileIdentifier.substring(12)).getInputStream().readAllBytes());
+        assertArrayEquals(LARGE_FILE, largeFileStore.downloadAsStream(largeFileIdentifier.substring(12)).getInputStream().readAllBytes());
+    }
+
+    @Test
+    void uploadStream_WillSizeUploadsOfUnknownLengthAgainstSmallestRoute() throws IOException {
+        var smallFileIdentifier = routingBackingStore.uploadStream(new ByteArrayInputStream(SMALL_FILE), "small");
+        var largeFileIdentifier = routingBackingStore.uploadStream(new ByteArrayInputStream(LARGE_FILE), "large");
+
+        assertTrue(smallFileIdentifier.startsWith("route:small:"));
+        assertTrue(largeFileIdentifier.startsWith("route:large:"));
+        assertArrayEquals(LARGE_FILE, routingBackingStore.downloadAsStream(largeFileIdentifier).getInputStream().readAllBytes());
+    }
+
+    @Test
+    void downloadAsStream_WillReadFromRoutedStore() throws IOException {
+        var fileIdentifier = routingBackingStore.uploadStream(new ByteArrayInputStream(LARGE_FILE), "large", LARGE_FILE.length);
+
+        var inputStreamOfKnownLength = routingBackingStore.downloadAsStream(fileIdentifier, 2, 5);
+
+        assertEquals(4, inputStreamOfKnownLength.getLength());
+        assertEquals("file", new String(inputStreamOfKnownLength.getInputStream().readAllBytes()));
+    }
+
+    @Test
+    void downloadAsStream_WillReadFilesStoredBeforeRoutingFromDefaultStore() throws IOException {
+        var fileIdentifier = defaultStore.uploadStream(new ByteArrayInputStream(SMALL_FILE), "small", SMALL_FILE.length);
+
+        assertArrayEquals(SMALL_FILE, routingBackingStore.downloadAsStream(fileIdentifier).getInputStream().readAllBytes());
+    }
+
+    @Test
+    void downloadAsStream_WillFail_WhenRoutedStoreIsUnknown() {
+        assertThrows(BackingFileStoreException.class, () -> routingBackingStore.downloadAsStream("route:removed:file-id"));
+    }
+
+    @Test
+    void deleteFiles_WillDeleteFromEachRoutedStore() {
+        var smallFileIdentifier = routingBackingStore.uploadStream(new ByteArrayInputStream(SMALL_FILE), "small", SMALL_FILE.length);
+        var largeFileIdentifier = routingBackingStore.uploadStream(new ByteArrayInputStream(LARGE_FILE), "large", LARGE_FILE.length);
+        var legacyFileIdentifier = defaultStore.uploadStream(new ByteArrayInputStream(SMALL_FILE), "small", SMALL_FILE.length);
+
+        routingBackingStore.deleteFiles(Set.of(smallFileIdentifier, largeFileIdentifier, legacyFileIdentifier));
+
+        verify(smallFileStore).deleteFiles(Set.of(smallFileIdentifier.substring(12)));
+        verify(largeFileStore).deleteFiles(Set.of(largeFileIdentifier.substring(12)));
+        verify(defaultStore).deleteFiles(Set.of(legacyFileIdentifier));
+    }
+
+    @Test
+    void uploadContentAddressed_WillRouteBySize() {
+        assertTrue(routingBackingStore.supportsContentAddressing());
+
+        var upload = routingBackingStore.uploadContentAddressed(new ByteArrayInputStream(SMALL_FILE), "digest", SMALL_FILE.length);
+
+        assertEquals(new ContentAddressedUpload("route:small:digest", false), upload);
+    }
+
+    @Test
+    void routingBackingStore_WillBeRejected_WhenRouteNamesUnknownStore() {
+        var routingPolicy = new RoutingPolicy(List.of(new RoutingPolicy.Route(16, "missing")), "large");
+
+        assertThrows(IllegalArgumentException.class,
+            () -> new RoutingBackingStore(Map.of("large", largeFileStore), defaultStore, routingPolicy));
+    }
+
+    @Test
+    void routingBackingStore_WillBeRejected_WhenRoutesAreNotInAscendingOrderOfSize() {
+        var routingPolicy = new RoutingPolicy(List.of(new RoutingPolicy.Route(16, "small"), new RoutingPolicy.Route(8, "small")),
+            "large");
+
+        assertThrows(IllegalArgumentException.class,
+            () -> new RoutingBackingStore(Map.of("small", smallFileStore, "large", largeFileStore), defaultStore, routingPolicy));
+    }
+}
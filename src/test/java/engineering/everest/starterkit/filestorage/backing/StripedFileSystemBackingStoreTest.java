@@ -0,0 +1,160 @@
+package engineering.everest.starterkit.filestorage.backing;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+
+import static engineering.everest.starterkit.filestorage.backing.BackingStorageType.STRIPED_FILE_SYSTEM;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class StripedFileSystemBackingStoreTest {
+
+    private static final String FILENAME = "my-filename";
+    private static final int STRIPE_SIZE = 16;
+    private static final byte[] FILE_CONTENTS = "This is my file. There are many like it but this one is my own.".getBytes();
+
+    @TempDir
+    Path firstDevice;
+    @TempDir
+    Path secondDevice;
+    @TempDir
+    Path thirdDevice;
+
+    private StripedFileSystemBackingStore stripedFileSystemBackingStore;
+
+    @BeforeEach
+    void setUp() {
+        stripedFileSystemBackingStore = new StripedFileSystemBackingStore(List.of(firstDevice, secondDevice, thirdDevice), STRIPE_SIZE, 4);
+    }
+
+    @AfterEach
+    void tearDown() {
+        stripedFileSystemBackingStore.close();
+    }
+
+    @Test
+    void backingStorageType_WillBeStripedFileSystem() {
+        assertEquals(STRIPED_FILE_SYSTEM, stripedFileSystemBackingStore.backingStorageType());
+    }
+
+    @Test
+    void uploadStream_WillSpreadStripesAcrossEveryDevice() throws IOException {
+        var fileIdentifier = stripedFileSystemBackingStore.uploadStream(new ByteArrayInputStream(FILE_CONTENTS), FILENAME);
+
+        for (var device : List.of(firstDevice, secondDevice, thirdDevice)) {
+            try (var files = Files.walk(device)) {
+                assertTrue(files.anyMatch(path -> path.getFileName().toString().startsWith(fileIdentifier)));
+            }
+        }
+    }
+
+    @Test
+    void downloadAsStream_WillReassembleStripes() throws IOException {
+        var fileIdentifier = stripedFileSystemBackingStore.uploadStream(new ByteArrayInputStream(FILE_CONTENTS), FILENAME,
+            FILE_CONTENTS.length);
+
+        var inputStreamOfKnownLength = stripedFileSystemBackingStore.downloadAsStream(fileIdentifier);
+
+        assertEquals(FILE_CONTENTS.length, inputStreamOfKnownLength.getLength());
+        assertArrayEquals(FILE_CONTENTS, inputStreamOfKnownLength.getInputStream().readAllBytes());
+    }
+
+    @Test
+    void downloadAsStream_WillStreamRangeSpanningStripes() throws IOException {
+        var fileIdentifier = stripedFileSystemBackingStore.uploadStream(new ByteArrayInputStream(FILE_CONTENTS), FILENAME);
+
+        var inputStreamOfKnownLength = stripedFileSystemBackingStore.downloadAsStream(fileIdentifier, 10L, 50L);
+
+        assertEquals(41L, inputStreamOfKnownLength.getLength());
+        assertArrayEquals(Arrays.copyOfRange(FILE_CONTENTS, 10, 51), inputStreamOfKnownLength.getInputStream().readAllBytes());
+    }
+
+    @Test
+    void downloadAsStream_WillReassembleStripes_WhenEarlierDownloadsWereClosedPartwayThrough() throws IOException {
+        var fileIdentifier = stripedFileSystemBackingStore.uploadStream(new ByteArrayInputStream(FILE_CONTENTS), FILENAME);
+        for (var i = 0; i < 10; i++) {
+            try (var inputStream = stripedFileSystemBackingStore.downloadAsStream(fileIdentifier).getInputStream()) {
+                inputStream.readNBytes(STRIPE_SIZE + 1);
+            }
+        }
+
+        var inputStreamOfKnownLength = stripedFileSystemBackingStore.downloadAsStream(fileIdentifier);
+
+        assertArrayEquals(FILE_CONTENTS, inputStreamOfKnownLength.getInputStream().readAllBytes());
+    }
+
+    @Test
+    void downloadAsStream_WillFail_WhenStartingOffsetIsBeyondEndOfFile() {
+        var fileIdentifier = stripedFileSystemBackingStore.uploadStream(new ByteArrayInputStream(FILE_CONTENTS), FILENAME);
+
+        var exception = assertThrows(BackingFileStoreException.class,
+            () -> stripedFileSystemBackingStore.downloadAsStream(fileIdentifier, 100L, 200L));
+
+        assertEquals(String.format("Starting offset 100 is beyond the end of file %s of 63 bytes", fileIdentifier), exception.getMessage());
+    }
+
+    @Test
+    void downloadAsStream_WillReassembleStripes_WhenMoreStripesAreInUseThanDirectBuffers() throws IOException {
+        stripedFileSystemBackingStore.close();
+        stripedFileSystemBackingStore = new StripedFileSystemBackingStore(List.of(firstDevice, secondDevice, thirdDevice), STRIPE_SIZE, 4,
+            1);
+        var fileIdentifier = stripedFileSystemBackingStore.uploadStream(new ByteArrayInputStream(FILE_CONTENTS), FILENAME);
+
+        try (var first = stripedFileSystemBackingStore.downloadAsStream(fileIdentifier).getInputStream();
+             var second = stripedFileSystemBackingStore.downloadAsStream(fileIdentifier).getInputStream()) {
+            assertArrayEquals(FILE_CONTENTS, first.readAllBytes());
+            assertArrayEquals(FILE_CONTENTS, second.readAllBytes());
+        }
+    }
+
+    @Test
+    void uploadStream_WillStoreEmptyFile() throws IOException {
+        var fileIdentifier = stripedFileSystemBackingStore.uploadStream(new ByteArrayInputStream(new byte[0]), FILENAME);
+
+        var inputStreamOfKnownLength = stripedFileSystemBackingStore.downloadAsStream(fileIdentifier);
+
+        assertEquals(0L, inputStreamOfKnownLength.getLength());
+        assertEquals(-1, inputStreamOfKnownLength.getInputStream().read());
+    }
+
+    @Test
+    void uploadStream_WillStoreFileThatIsAnExactMultipleOfTheStripeSize() throws IOException {
+        var contents = Arrays.copyOf(FILE_CONTENTS, STRIPE_SIZE * 3);
+        var fileIdentifier = stripedFileSystemBackingStore.uploadStream(new ByteArrayInputStream(contents), FILENAME);
+
+        assertArrayEquals(contents, stripedFileSystemBackingStore.downloadAsStream(fileIdentifier).getInputStream().readAllBytes());
+    }
+
+    @Test
+    void uploadStreamWithFileSize_WillFailAndRemoveStripes_WhenExpectedFileSizeDiffersFromContentLength() throws IOException {
+        assertThrows(BackingFileStoreException.class,
+            () -> stripedFileSystemBackingStore.uploadStream(new ByteArrayInputStream(FILE_CONTENTS), FILENAME, FILE_CONTENTS.length + 1));
+
+        for (var device : List.of(firstDevice, secondDevice, thirdDevice)) {
+            try (var files = Files.walk(device)) {
+                assertTrue(files.noneMatch(Files::isRegularFile));
+            }
+        }
+    }
+
+    @Test
+    void delete_WillRemoveEveryStripeAndBeIdempotent() {
+        var fileIdentifier = stripedFileSystemBackingStore.uploadStream(new ByteArrayInputStream(FILE_CONTENTS), FILENAME);
+
+        stripedFileSystemBackingStore.delete(fileIdentifier);
+        stripedFileSystemBackingStore.delete(fileIdentifier);
+
+        assertThrows(BackingFileStoreException.class, () -> stripedFileSystemBackingStore.downloadAsStream(fileIdentifier));
+    }
+}
@@ -0,0 +1,166 @@
+package engineering.everest.starterkit.filestorage.backing;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.core.io.buffer.DefaultDataBufferFactory;
+
+import java.io.ByteArrayInputStream;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Set;
+
+import static engineering.everest.starterkit.filestorage.backing.BackingStorageType.MONGO_GRID_FS;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.spy;
+
+class TieredBackingStoreTest {
+
+    private static final byte[] FILE_CONTENTS = "This is my file. There are many like it but this one is my own.".getBytes();
+    private static final int PROMOTION_THRESHOLD = 2;
+
+    private InMemoryBackingStore fastTier;
+    private InMemoryBackingStore capacityTier;
+    private SimpleMeterRegistry meterRegistry;
+    private TieredBackingStore tieredBackingStore;
+
+    @BeforeEach
+    void setUp() {
+        fastTier = spy(new InMemoryBackingStore());
+        capacityTier = spy(new InMemoryBackingStore());
+        meterRegistry = new SimpleMeterRegistry();
+        tieredBackingStore = new TieredBackingStore(fastTier, capacityTier,
+            new TieringPolicy(PROMOTION_THRESHOLD, Duration.ZERO, 100, Duration.ofHours(1)), meterRegistry, "permanent");
+    }
+
+    @AfterEach
+    void tearDown() {
+        tieredBackingStore.close();
+    }
+
+    @Test
+    void constructor_WillDeleteFastTierCopiesLeftByPreviousRun_WhenFastTierSupportsListing(@TempDir Path fastTierDirectory)
+        throws Exception {
+        var fileSystemFastTier = new FileSystemBackingStore(fastTierDirectory);
+        fileSystemFastTier.uploadStream(new ByteArrayInputStream(FILE_CONTENTS), "file");
+
+        try (var restartedBackingStore = new TieredBackingStore(fileSystemFastTier, capacityTier,
+            new TieringPolicy(PROMOTION_THRESHOLD, Duration.ZERO, 100, Duration.ofHours(1)), meterRegistry, "restarted")) {
+            restartedBackingStore.awaitPendingTiering();
+        }
+
+        try (var fastTierFiles = fileSystemFastTier.listFiles()) {
+            assertEquals(0, fastTierFiles.count());
+        }
+    }
+
+    @Test
+    void backingStorageType_WillBeThatOfTheCapacityTier() {
+        doReturn(MONGO_GRID_FS).when(capacityTier).backingStorageType();
+
+        assertEquals(MONGO_GRID_FS, tieredBackingStore.backingStorageType());
+    }
+
+    @Test
+    void uploadStream_WillWriteToCapacityTierOnly() throws Exception {
+        var fileIdentifier = tieredBackingStore.uploadStream(new ByteArrayInputStream(FILE_CONTENTS), "file", FILE_CONTENTS.length);
+
+        assertArrayEquals(FILE_CONTENTS, capacityTier.downloadAsStream(fileIdentifier).getInputStream().readAllBytes());
+        assertEquals(0, tieredBackingStore.fastTierBytes());
+    }
+
+    @Test
+    void downloadAsStream_WillPromoteFileToFastTier_WhenReadFrequently() throws Exception {
+        var fileIdentifier = uploadAndReadUntilPromoted();
+
+        var content = tieredBackingStore.downloadAsStream(fileIdentifier).getInputStream().readAllBytes();
+
+        assertArrayEquals(FILE_CONTENTS, content);
+        assertEquals(FILE_CONTENTS.length, tieredBackingStore.fastTierBytes());
+        assertEquals(1, meterRegistry.counter("filestore.tiered.hits", "store", "permanent").count());
+        assertEquals(PROMOTION_THRESHOLD, meterRegistry.counter("filestore.tiered.misses", "store", "permanent").count());
+        assertEquals(1, meterRegistry.counter("filestore.tiered.promotions", "store", "permanent").count());
+    }
+
+    @Test
+    void downloadAsStream_WillServeRangesFromFastTier() throws Exception {
+        var fileIdentifier = uploadAndReadUntilPromoted();
+
+        var content = tieredBackingStore.downloadAsStream(fileIdentifier, 5, 11).getInputStream().readAllBytes();
+
+        assertEquals("is my f", new String(content, UTF_8));
+        assertEquals(1, meterRegistry.counter("filestore.tiered.hits", "store", "permanent").count());
+    }
+
+    @Test
+    void downloadAsFlux_WillServeFromFastTier() throws Exception {
+        var fileIdentifier = uploadAndReadUntilPromoted();
+
+        var content = DataBufferUtils.join(tieredBackingStore.downloadAsFlux(fileIdentifier, 0, FILE_CONTENTS.length - 1,
+            DefaultDataBufferFactory.sharedInstance, 16)).block();
+
+        assertEquals(new String(FILE_CONTENTS, UTF_8), content.toString(UTF_8));
+        assertEquals(1, meterRegistry.counter("filestore.tiered.hits", "store", "permanent").count());
+    }
+
+    @Test
+    void downloadAsStream_WillFallBackToCapacityTier_WhenFastTierCopyIsUnreadable() throws Exception {
+        var fileIdentifier = uploadAndReadUntilPromoted();
+        doThrow(new BackingFileStoreException("gone")).when(fastTier).downloadAsStream(anyString());
+
+        var content = tieredBackingStore.downloadAsStream(fileIdentifier).getInputStream().readAllBytes();
+
+        assertArrayEquals(FILE_CONTENTS, content);
+        assertEquals(0, tieredBackingStore.fastTierBytes());
+    }
+
+    @Test
+    void sweep_WillDemoteIdleFiles() throws Exception {
+        uploadAndReadUntilPromoted();
+
+        tieredBackingStore.sweep();
+
+        assertEquals(0, tieredBackingStore.fastTierBytes());
+        assertEquals(1, meterRegistry.counter("filestore.tiered.demotions", "store", "permanent").count());
+    }
+
+    @Test
+    void promotion_WillDemoteLeastFrequentlyReadFiles_WhenFastTierBudgetIsExceeded() throws Exception {
+        var first = uploadAndReadUntilPromoted();
+        tieredBackingStore.downloadAsStream(first);
+        uploadAndReadUntilPromoted();
+
+        assertEquals(FILE_CONTENTS.length, tieredBackingStore.fastTierBytes());
+        assertEquals(1, meterRegistry.counter("filestore.tiered.demotions", "store", "permanent").count());
+        tieredBackingStore.downloadAsStream(first);
+        assertEquals(2, meterRegistry.counter("filestore.tiered.hits", "store", "permanent").count());
+    }
+
+    @Test
+    void delete_WillRemoveFileFromBothTiers() throws Exception {
+        var fileIdentifier = uploadAndReadUntilPromoted();
+
+        tieredBackingStore.deleteFiles(Set.of(fileIdentifier));
+
+        assertEquals(0, tieredBackingStore.fastTierBytes());
+        assertThrows(BackingFileStoreException.class, () -> tieredBackingStore.downloadAsStream(fileIdentifier));
+    }
+
+    private String uploadAndReadUntilPromoted() throws Exception {
+        var fileIdentifier = tieredBackingStore.uploadStream(new ByteArrayInputStream(FILE_CONTENTS), "file", FILE_CONTENTS.length);
+        for (int read = 0; read < PROMOTION_THRESHOLD; read++) {
+            tieredBackingStore.downloadAsStream(fileIdentifier).getInputStream().readAllBytes();
+        }
+        tieredBackingStore.awaitPendingTiering();
+        return fileIdentifier;
+    }
+}
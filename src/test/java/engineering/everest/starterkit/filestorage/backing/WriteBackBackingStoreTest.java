@@ -0,0 +1,166 @@
+package engineering.everest.starterkit.filestorage.backing;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class WriteBackBackingStoreTest {
+
+    private static final String FILENAME = "my-filename";
+    private static final byte[] FILE_CONTENTS = "This is my file. There are many like it but this one is my own.".getBytes();
+
+    @TempDir
+    Path stagingDirectory;
+
+    private InMemoryBackingStore remoteBackingStore;
+    private BlockingQueue<List<String>> relocations;
+    private WriteBackBackingStore writeBackBackingStore;
+
+    @BeforeEach
+    void setUp() {
+        remoteBackingStore = spy(new InMemoryBackingStore());
+        relocations = new LinkedBlockingQueue<>();
+        writeBackBackingStore = writeBackBackingStore(remoteBackingStore, Duration.ofHours(1));
+    }
+
+    @AfterEach
+    void tearDown() {
+        writeBackBackingStore.close();
+    }
+
+    @Test
+    void uploadStream_WillReturnStagedFileIdentifierReadableBeforeReplication() throws Exception {
+        var failingRemoteBackingStore = failingRemoteBackingStore();
+        var stagingStore = writeBackBackingStore(failingRemoteBackingStore, Duration.ofHours(1));
+
+        var fileIdentifier = stagingStore.uploadStream(new ByteArrayInputStream(FILE_CONTENTS), FILENAME, FILE_CONTENTS.length);
+
+        assertTrue(fileIdentifier.startsWith("writeback:"));
+        assertArrayEquals(FILE_CONTENTS, stagingStore.downloadAsStream(fileIdentifier).getInputStream().readAllBytes());
+        assertArrayEquals("my file".getBytes(), stagingStore.downloadAsStream(fileIdentifier, 8, 14).getInputStream().readAllBytes());
+        stagingStore.close();
+    }
+
+    @Test
+    void uploadStream_WillReplicateToRemoteStoreAndReportRelocation() throws Exception {
+        var fileIdentifier = writeBackBackingStore.uploadStream(new ByteArrayInputStream(FILE_CONTENTS), FILENAME);
+
+        var relocation = relocations.poll(5, SECONDS);
+
+        assertNotNull(relocation);
+        assertEquals(fileIdentifier, relocation.get(0));
+        assertArrayEquals(FILE_CONTENTS, remoteBackingStore.downloadAsStream(relocation.get(1)).getInputStream().readAllBytes());
+        assertArrayEquals(FILE_CONTENTS, writeBackBackingStore.downloadAsStream(fileIdentifier).getInputStream().readAllBytes());
+    }
+
+    @Test
+    void replication_WillReportRelocationAgainBeforeRemovingStagedCopy_WhenGracePeriodEnds() throws Exception {
+        var expiringStore = writeBackBackingStore(remoteBackingStore, Duration.ZERO);
+
+        var fileIdentifier = expiringStore.uploadStream(new ByteArrayInputStream(FILE_CONTENTS), FILENAME);
+        var relocation = relocations.poll(5, SECONDS);
+        var repeatedRelocation = relocations.poll(5, SECONDS);
+        expiringStore.close();
+
+        assertNotNull(relocation);
+        assertEquals(fileIdentifier, relocation.get(0));
+        assertEquals(relocation, repeatedRelocation);
+    }
+
+    @Test
+    void close_WillFinishQueuedReplications() throws Exception {
+        var fileIdentifier = writeBackBackingStore.uploadStream(new ByteArrayInputStream(FILE_CONTENTS), FILENAME);
+
+        writeBackBackingStore.close();
+
+        var relocation = relocations.poll();
+        assertNotNull(relocation);
+        assertEquals(fileIdentifier, relocation.get(0));
+    }
+
+    @Test
+    void uploadStream_WillReplicateStagedFiles_WhenRecreatedAfterReplicationFailed() throws Exception {
+        var failingStore = writeBackBackingStore(failingRemoteBackingStore(), Duration.ofHours(1));
+        var fileIdentifier = failingStore.uploadStream(new ByteArrayInputStream(FILE_CONTENTS), FILENAME);
+        failingStore.close();
+
+        var recreatedStore = writeBackBackingStore(remoteBackingStore, Duration.ofHours(1));
+        var relocation = relocations.poll(5, SECONDS);
+        recreatedStore.close();
+
+        assertNotNull(relocation);
+        assertEquals(fileIdentifier, relocation.get(0));
+        assertArrayEquals(FILE_CONTENTS, remoteBackingStore.downloadAsStream(relocation.get(1)).getInputStream().readAllBytes());
+    }
+
+    @Test
+    void downloadAsStream_WillReadFromRemoteStore_WhenNotStaged() throws Exception {
+        var remoteFileIdentifier = remoteBackingStore.uploadStream(new ByteArrayInputStream(FILE_CONTENTS), FILENAME);
+
+        assertArrayEquals(FILE_CONTENTS, writeBackBackingStore.downloadAsStream(remoteFileIdentifier).getInputStream().readAllBytes());
+    }
+
+    @Test
+    void delete_WillDiscardStagedFile_WhenNotYetReplicated() {
+        var stagingStore = writeBackBackingStore(failingRemoteBackingStore(), Duration.ofHours(1));
+        var fileIdentifier = stagingStore.uploadStream(new ByteArrayInputStream(FILE_CONTENTS), FILENAME);
+
+        stagingStore.deleteFiles(Set.of(fileIdentifier));
+
+        assertThrows(BackingFileStoreException.class, () -> stagingStore.downloadAsStream(fileIdentifier));
+        stagingStore.close();
+    }
+
+    @Test
+    void replication_WillRemoveReplicatedCopy_WhenStagedFileIsNeverReferenced() throws Exception {
+        var unreferencedStore = new WriteBackBackingStore(stagingDirectory, remoteBackingStore, (from, to) -> false, 1,
+            Duration.ofMillis(10), Duration.ZERO);
+
+        unreferencedStore.uploadStream(new ByteArrayInputStream(FILE_CONTENTS), FILENAME);
+
+        verify(remoteBackingStore, timeout(5000)).delete(anyString());
+        unreferencedStore.close();
+    }
+
+    @Test
+    void backingStorageType_WillBeThatOfTheRemoteStore() {
+        assertEquals(remoteBackingStore.backingStorageType(), writeBackBackingStore.backingStorageType());
+    }
+
+    private WriteBackBackingStore writeBackBackingStore(BackingStore remote, Duration gracePeriod) {
+        return new WriteBackBackingStore(stagingDirectory, remote, (from, to) -> relocations.add(List.of(from, to)), 2,
+            Duration.ofHours(1), gracePeriod);
+    }
+
+    private static BackingStore failingRemoteBackingStore() {
+        var failingRemoteBackingStore = mock(BackingStore.class);
+        when(failingRemoteBackingStore.uploadStream(any(InputStream.class), anyString(), anyLong()))
+            .thenThrow(new BackingFileStoreException("remote unavailable"));
+        return failingRemoteBackingStore;
+    }
+}
@@ -3,6 +3,8 @@ package engineering.everest.starterkit.filestorage.filestores;
 import engineering.everest.starterkit.filestorage.InputStreamOfKnownLength;
 import engineering.everest.starterkit.filestorage.PersistedFileIdentifier;
 import engineering.everest.starterkit.filestorage.backing.BackingStore;
+import engineering.everest.starterkit.filestorage.persistence.BackingObjectReferences;
+import engineering.everest.starterkit.filestorage.persistence.FileMappingClaims;
 import engineering.everest.starterkit.filestorage.persistence.FileMappingRepository;
 import engineering.everest.starterkit.filestorage.persistence.PersistableFileMapping;
 import org.junit.jupiter.api.BeforeEach;
@@ -10,25 +12,35 @@ import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.core.io.buffer.DefaultDataBufferFactory;
 import org.springframework.data.domain.PageRequest;
 
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
 import java.util.List;
 import java.util.NoSuchElementException;
-import java.util.Optional;
 import java.util.Set;
 import java.util.UUID;
+import java.util.function.Consumer;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
 
+import static engineering.everest.starterkit.filestorage.backing.BackingStorageType.INLINE;
 import static engineering.everest.starterkit.filestorage.backing.BackingStorageType.MONGO_GRID_FS;
 import static engineering.everest.starterkit.filestorage.filestores.FileStoreType.EPHEMERAL;
 import static engineering.everest.starterkit.filestorage.filestores.FileStoreType.PERMANENT;
-import static java.util.Optional.of;
+import static java.time.ZoneOffset.UTC;
 import static java.util.UUID.randomUUID;
+import static java.util.stream.Collectors.toList;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertThrows;
-import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.inOrder;
 import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.verifyNoInteractions;
@@ -47,6 +59,7 @@ class EphemeralDeduplicatingFileStoreTest {
     private static final UUID FILE_ID_1 = randomUUID();
     private static final UUID FILE_ID_2 = randomUUID();
     private static final int BATCH_SIZE = 50;
+    private static final Instant NOW = Instant.parse("2023-01-01T00:00:00Z");
 
     private EphemeralDeduplicatingFileStore ephemeralDeduplicatingFileStore;
 
@@ -54,6 +67,10 @@ class EphemeralDeduplicatingFileStoreTest {
     protected BackingStore backingStore;
     @Mock
     protected FileMappingRepository fileMappingRepository;
+    @Mock
+    private BackingObjectReferences backingObjectReferences;
+    @Mock
+    private FileMappingClaims fileMappingClaims;
 
     @BeforeEach
     void setUp() {
@@ -62,24 +79,20 @@ class EphemeralDeduplicatingFileStoreTest {
 
     @Test
     void markFileForDeletion_WillMarkFileForDeletionInFileMappingRepository() {
-        var uuid = randomUUID();
-        var uuid2 = randomUUID();
-        when(fileMappingRepository.findById(uuid)).thenReturn(of(new PersistableFileMapping(uuid2, EPHEMERAL, MONGO_GRID_FS,
-            EXISTING_BACKING_STORE_FILE_ID, SHA_256, SHA_512, FILE_SIZE, false)));
-
-        var persistedFileIdentifier = new PersistedFileIdentifier(uuid, EPHEMERAL, MONGO_GRID_FS, EXISTING_BACKING_STORE_FILE_ID);
+        var fileId = randomUUID();
+        var persistedFileIdentifier = new PersistedFileIdentifier(fileId, EPHEMERAL, MONGO_GRID_FS, EXISTING_BACKING_STORE_FILE_ID);
 
         ephemeralDeduplicatingFileStore.markFileForDeletion(persistedFileIdentifier);
 
         verifyNoInteractions(backingStore);
-        verify(fileMappingRepository).save(
-            new PersistableFileMapping(uuid2, EPHEMERAL, MONGO_GRID_FS, EXISTING_BACKING_STORE_FILE_ID, SHA_256, SHA_512, FILE_SIZE, true));
+        verify(fileMappingRepository).markForDeletion(List.of(fileId), EPHEMERAL);
+        verifyNoMoreInteractions(fileMappingRepository);
     }
 
     @Test
     void markFileForDeletion_WillDoNothingIfFileMappingDoesNotExist() {
         var fileId = randomUUID();
-        when(fileMappingRepository.findById(fileId)).thenReturn(Optional.empty());
+        when(fileMappingRepository.markForDeletion(List.of(fileId), EPHEMERAL)).thenReturn(0);
 
         var persistedFileIdentifier = new PersistedFileIdentifier(fileId, EPHEMERAL, MONGO_GRID_FS, EXISTING_BACKING_STORE_FILE_ID);
 
@@ -92,17 +105,33 @@ class EphemeralDeduplicatingFileStoreTest {
     @Test
     void markFilesForDeletion_WillMarkFilesForDeletionInFileMappingRepository() {
         var fileId = randomUUID();
-        when(fileMappingRepository.findById(fileId)).thenReturn(of(new PersistableFileMapping(fileId, EPHEMERAL, MONGO_GRID_FS,
-            EXISTING_BACKING_STORE_FILE_ID, SHA_256, SHA_512, FILE_SIZE, false)));
-
         var persistedFileIdentifier = new PersistedFileIdentifier(fileId, EPHEMERAL, MONGO_GRID_FS, EXISTING_BACKING_STORE_FILE_ID);
 
         ephemeralDeduplicatingFileStore.markFilesForDeletion(List.of(persistedFileIdentifier));
 
         verifyNoInteractions(backingStore);
-        verify(fileMappingRepository).save(
-            new PersistableFileMapping(fileId, EPHEMERAL, MONGO_GRID_FS, EXISTING_BACKING_STORE_FILE_ID, SHA_256, SHA_512, FILE_SIZE,
-                true));
+        verify(fileMappingRepository).markForDeletion(List.of(fileId), EPHEMERAL);
+        verify(fileMappingRepository, never()).findById(any());
+    }
+
+    @Test
+    void markFilesForDeletionById_WillMarkFilesInChunks() {
+        var fileIds = IntStream.range(0, 2500).mapToObj(i -> randomUUID()).collect(toList());
+
+        ephemeralDeduplicatingFileStore.markFilesForDeletionById(fileIds);
+
+        verify(fileMappingRepository).markForDeletion(fileIds.subList(0, 1000), EPHEMERAL);
+        verify(fileMappingRepository).markForDeletion(fileIds.subList(1000, 2000), EPHEMERAL);
+        verify(fileMappingRepository).markForDeletion(fileIds.subList(2000, 2500), EPHEMERAL);
+    }
+
+    @Test
+    void markFilesForDeletionById_WillFailWithoutMarkingAnyFile_WhenAnyFileIsNotEphemeral() {
+        var fileIds = List.of(FILE_ID_1, FILE_ID_2);
+        when(fileMappingRepository.countByFileIdInAndFileStoreTypeNot(fileIds, EPHEMERAL)).thenReturn(1L);
+
+        assertThrows(IllegalArgumentException.class, () -> ephemeralDeduplicatingFileStore.markFilesForDeletionById(fileIds));
+        verify(fileMappingRepository, never()).markForDeletion(any(), any());
     }
 
     @Test
@@ -115,14 +144,10 @@ class EphemeralDeduplicatingFileStoreTest {
 
     @Test
     void markAllFilesForDeletion_WillMarkAllFilesInFileMappingRepositoryForDeletion() {
-        var persistableFileMapping = new PersistableFileMapping(FILE_ID_1, EPHEMERAL, MONGO_GRID_FS,
-            EXISTING_BACKING_STORE_FILE_ID, SHA_256, SHA_512, FILE_SIZE, false);
-        when(fileMappingRepository.findByFileStoreType(EPHEMERAL)).thenReturn(List.of(persistableFileMapping));
-
         ephemeralDeduplicatingFileStore.markAllFilesForDeletion();
 
-        assertTrue(persistableFileMapping.isMarkedForDeletion());
-        verify(fileMappingRepository).saveAll(List.of(persistableFileMapping));
+        verify(fileMappingRepository).markAllForDeletion(EPHEMERAL);
+        verify(fileMappingRepository, never()).findByFileStoreType(any());
     }
 
     @Test
@@ -131,15 +156,28 @@ class EphemeralDeduplicatingFileStoreTest {
             EXISTING_BACKING_STORE_FILE_ID, SHA_256, SHA_512, FILE_SIZE, false);
         when(fileMappingRepository.findByMarkedForDeletionTrue(PageRequest.of(0, BATCH_SIZE)))
             .thenReturn(List.of(persistableFileMapping));
-        when(fileMappingRepository.findByBackingStorageFileId(EXISTING_BACKING_STORE_FILE_ID))
-            .thenReturn(List.of(persistableFileMapping));
+        when(fileMappingRepository.findReferencedBackingStorageFileIds(Set.of(EXISTING_BACKING_STORE_FILE_ID))).thenReturn(Set.of());
 
         ephemeralDeduplicatingFileStore.deleteBatchOfFilesMarkedForDeletion(BATCH_SIZE);
 
-        verify(fileMappingRepository).deleteAll(List.of(persistableFileMapping));
+        verify(fileMappingRepository).deleteAllInBatch(List.of(persistableFileMapping));
         verify(backingStore).deleteFiles(Set.of(EXISTING_BACKING_STORE_FILE_ID));
     }
 
+    @Test
+    void deleteBatchOfFilesMarkedForDeletion_WillNotCallBackingStore_WhenContentIsInline() {
+        var persistableFileMapping = new PersistableFileMapping(FILE_ID_1, EPHEMERAL, INLINE, null, SHA_256, SHA_512, FILE_SIZE, true,
+            TEMPORARY_FILE_CONTENTS.getBytes());
+        when(fileMappingRepository.findByMarkedForDeletionTrue(PageRequest.of(0, BATCH_SIZE)))
+            .thenReturn(List.of(persistableFileMapping));
+
+        ephemeralDeduplicatingFileStore.deleteBatchOfFilesMarkedForDeletion(BATCH_SIZE);
+
+        verify(fileMappingRepository).deleteAllInBatch(List.of(persistableFileMapping));
+        verify(fileMappingRepository, never()).findReferencedBackingStorageFileIds(any());
+        verifyNoInteractions(backingStore);
+    }
+
     @Test
     void deleteBatchOfFilesMarkedForDeletion_WillOnlyUnlinkFileInFileMappingRepository_WhenBackingFileIsStillReferenced() {
         var persistableFileMappingToDelete = new PersistableFileMapping(FILE_ID_1, EPHEMERAL, MONGO_GRID_FS,
@@ -149,12 +187,12 @@ class EphemeralDeduplicatingFileStoreTest {
 
         when(fileMappingRepository.findByMarkedForDeletionTrue(PageRequest.of(0, BATCH_SIZE)))
             .thenReturn(List.of(persistableFileMappingToDelete));
-        when(fileMappingRepository.findByBackingStorageFileId(EXISTING_BACKING_STORE_FILE_ID))
-            .thenReturn(List.of(persistableFileMappingToDelete, persistableFileMappingToRetain));
+        when(fileMappingRepository.findReferencedBackingStorageFileIds(Set.of(EXISTING_BACKING_STORE_FILE_ID)))
+            .thenReturn(Set.of(persistableFileMappingToRetain.getBackingStorageFileId()));
 
         ephemeralDeduplicatingFileStore.deleteBatchOfFilesMarkedForDeletion(BATCH_SIZE);
 
-        verify(fileMappingRepository).deleteAll(List.of(persistableFileMappingToDelete));
+        verify(fileMappingRepository).deleteAllInBatch(List.of(persistableFileMappingToDelete));
         verify(fileMappingRepository, never()).deleteById(FILE_ID_2);
         verify(backingStore, never()).deleteFiles(any());
     }
@@ -167,15 +205,120 @@ class EphemeralDeduplicatingFileStoreTest {
             EXISTING_BACKING_STORE_FILE_ID, SHA_256, SHA_512, FILE_SIZE, true);
         when(fileMappingRepository.findByMarkedForDeletionTrue(PageRequest.of(0, BATCH_SIZE)))
             .thenReturn(List.of(persistableFileMappingToDelete1, persistableFileMappingToDelete2));
-        when(fileMappingRepository.findByBackingStorageFileId(EXISTING_BACKING_STORE_FILE_ID))
-            .thenReturn(List.of(persistableFileMappingToDelete2));
+        when(fileMappingRepository.findReferencedBackingStorageFileIds(Set.of(EXISTING_BACKING_STORE_FILE_ID))).thenReturn(Set.of());
 
         ephemeralDeduplicatingFileStore.deleteBatchOfFilesMarkedForDeletion(BATCH_SIZE);
 
-        verify(fileMappingRepository).deleteAll(List.of(persistableFileMappingToDelete1, persistableFileMappingToDelete2));
+        verify(fileMappingRepository).deleteAllInBatch(List.of(persistableFileMappingToDelete1, persistableFileMappingToDelete2));
         verify(backingStore).deleteFiles(Set.of(EXISTING_BACKING_STORE_FILE_ID));
     }
 
+    @Test
+    void deleteBatchOfFilesMarkedForDeletion_WillDeleteAllUnreferencedBackingFilesInOneCall() {
+        var persistableFileMapping1 = new PersistableFileMapping(FILE_ID_1, EPHEMERAL, MONGO_GRID_FS, "backing-file-1", SHA_256, SHA_512,
+            FILE_SIZE, true);
+        var persistableFileMapping2 = new PersistableFileMapping(FILE_ID_2, EPHEMERAL, MONGO_GRID_FS, "backing-file-2", SHA_256, SHA_512,
+            FILE_SIZE, true);
+        var persistableFileMapping3 = new PersistableFileMapping(randomUUID(), EPHEMERAL, MONGO_GRID_FS, "backing-file-3", SHA_256,
+            SHA_512, FILE_SIZE, true);
+        var filesMarkedForDeletion = List.of(persistableFileMapping1, persistableFileMapping2, persistableFileMapping3);
+        when(fileMappingRepository.findByMarkedForDeletionTrue(PageRequest.of(0, BATCH_SIZE))).thenReturn(filesMarkedForDeletion);
+        when(fileMappingRepository.findReferencedBackingStorageFileIds(any())).thenReturn(Set.of("backing-file-2"));
+
+        ephemeralDeduplicatingFileStore.deleteBatchOfFilesMarkedForDeletion(BATCH_SIZE);
+
+        verify(backingStore).deleteFiles(Set.of("backing-file-1", "backing-file-3"));
+        verify(fileMappingRepository).deleteAllInBatch(filesMarkedForDeletion);
+        verify(fileMappingRepository, never()).findByBackingStorageFileId(any());
+    }
+
+    @Test
+    void deleteBatchOfFilesMarkedForDeletion_WillCheckReferencesOnlyOnceFileMappingsAreDeleted() {
+        var persistableFileMapping = new PersistableFileMapping(FILE_ID_1, EPHEMERAL, MONGO_GRID_FS,
+            EXISTING_BACKING_STORE_FILE_ID, SHA_256, SHA_512, FILE_SIZE, true);
+        when(fileMappingRepository.findByMarkedForDeletionTrue(PageRequest.of(0, BATCH_SIZE))).thenReturn(List.of(persistableFileMapping));
+        when(fileMappingRepository.findReferencedBackingStorageFileIds(Set.of(EXISTING_BACKING_STORE_FILE_ID))).thenReturn(Set.of());
+
+        ephemeralDeduplicatingFileStore.deleteBatchOfFilesMarkedForDeletion(BATCH_SIZE);
+
+        var inOrder = inOrder(fileMappingRepository, backingStore);
+        inOrder.verify(fileMappingRepository).deleteAllInBatch(List.of(persistableFileMapping));
+        inOrder.verify(fileMappingRepository).findReferencedBackingStorageFileIds(Set.of(EXISTING_BACKING_STORE_FILE_ID));
+        inOrder.verify(backingStore).deleteFiles(Set.of(EXISTING_BACKING_STORE_FILE_ID));
+    }
+
+    @Test
+    void deleteClaimedFilesMarkedForDeletion_WillOnlyDeleteFilesWhoseClaimIsStillHeld() {
+        var heldFileMapping = new PersistableFileMapping(FILE_ID_1, EPHEMERAL, MONGO_GRID_FS, "backing-file-1", SHA_256, SHA_512,
+            FILE_SIZE, true);
+        var lostFileMapping = new PersistableFileMapping(FILE_ID_2, EPHEMERAL, MONGO_GRID_FS, "backing-file-2", SHA_256, SHA_512,
+            FILE_SIZE, true);
+        var claimedFiles = List.of(heldFileMapping, lostFileMapping);
+        when(fileMappingClaims.deleteClaimedFiles(eq(claimedFiles), eq(NOW), any())).thenAnswer(invocation -> {
+            invocation.<Consumer<List<PersistableFileMapping>>>getArgument(2).accept(List.of(heldFileMapping));
+            return List.of(heldFileMapping);
+        });
+        when(fileMappingRepository.findReferencedBackingStorageFileIds(Set.of("backing-file-1", "backing-file-2")))
+            .thenReturn(Set.of("backing-file-2"));
+        ephemeralDeduplicatingFileStore =
+            new EphemeralDeduplicatingFileStore(fileMappingRepository, backingStore,
+                FileStoreOptions.builder().clock(Clock.fixed(NOW, UTC)).build());
+
+        assertEquals(1, ephemeralDeduplicatingFileStore.deleteClaimedFilesMarkedForDeletion(claimedFiles, fileMappingClaims, BATCH_SIZE));
+
+        verify(fileMappingRepository).deleteAllInBatch(List.of(heldFileMapping));
+        verify(backingStore).deleteFiles(Set.of("backing-file-1"));
+    }
+
+    @Test
+    void deleteClaimedFilesMarkedForDeletion_WillReleaseReferencesAndCollectUnreferencedBackingObjects_WhenReferenceCounted() {
+        var claimedFiles = List.of(new PersistableFileMapping(FILE_ID_1, EPHEMERAL, MONGO_GRID_FS, EXISTING_BACKING_STORE_FILE_ID,
+            SHA_256, SHA_512, FILE_SIZE, true));
+        when(backingObjectReferences.untrackedFileMappings(claimedFiles)).thenReturn(List.of());
+        when(fileMappingClaims.deleteClaimedFiles(eq(claimedFiles), eq(NOW), any())).thenAnswer(invocation -> {
+            invocation.<Consumer<List<PersistableFileMapping>>>getArgument(2).accept(claimedFiles);
+            return claimedFiles;
+        });
+        ephemeralDeduplicatingFileStore = new EphemeralDeduplicatingFileStore(fileMappingRepository, backingStore,
+            FileStoreOptions.builder().backingObjectReferences(backingObjectReferences).clock(Clock.fixed(NOW, UTC)).build());
+
+        assertEquals(1, ephemeralDeduplicatingFileStore.deleteClaimedFilesMarkedForDeletion(claimedFiles, fileMappingClaims, BATCH_SIZE));
+
+        verify(backingObjectReferences).removeFileMappings(claimedFiles);
+        verify(backingObjectReferences).removeUnreferencedBackingObjects(eq(EPHEMERAL), eq(BATCH_SIZE), any());
+        verify(fileMappingRepository, never()).findReferencedBackingStorageFileIds(any());
+    }
+
+    @Test
+    void deleteBatchOfFilesMarkedForDeletion_WillDoNothing_WhenNoFilesAreMarkedForDeletion() {
+        when(fileMappingRepository.findByMarkedForDeletionTrue(PageRequest.of(0, BATCH_SIZE))).thenReturn(List.of());
+
+        ephemeralDeduplicatingFileStore.deleteBatchOfFilesMarkedForDeletion(BATCH_SIZE);
+
+        verifyNoInteractions(backingStore);
+        verifyNoMoreInteractions(fileMappingRepository);
+    }
+
+    @Test
+    void deleteFilesMarkedForDeletion_WillDeleteStreamedFilesInBatches() {
+        var persistableFileMapping1 = new PersistableFileMapping(FILE_ID_1, EPHEMERAL, MONGO_GRID_FS, "backing-file-1", SHA_256, SHA_512,
+            FILE_SIZE, true);
+        var persistableFileMapping2 = new PersistableFileMapping(FILE_ID_2, EPHEMERAL, MONGO_GRID_FS, "backing-file-2", SHA_256, SHA_512,
+            FILE_SIZE, true);
+        var persistableFileMapping3 = new PersistableFileMapping(randomUUID(), EPHEMERAL, MONGO_GRID_FS, "backing-file-3", SHA_256,
+            SHA_512, FILE_SIZE, true);
+        when(fileMappingRepository.findReferencedBackingStorageFileIds(any())).thenReturn(Set.of());
+
+        var deleted = ephemeralDeduplicatingFileStore.deleteFilesMarkedForDeletion(
+            Stream.of(persistableFileMapping1, persistableFileMapping2, persistableFileMapping3), 2);
+
+        assertEquals(3, deleted);
+        verify(backingStore).deleteFiles(Set.of("backing-file-1", "backing-file-2"));
+        verify(backingStore).deleteFiles(Set.of("backing-file-3"));
+        verify(fileMappingRepository).deleteAllInBatch(List.of(persistableFileMapping1, persistableFileMapping2));
+        verify(fileMappingRepository).deleteAllInBatch(List.of(persistableFileMapping3));
+    }
+
     @Test
     void downloadAsStream_WillReturnExceptionIfFileAlreadyMarkedForDeletion() {
         var persistableFileMapping = new PersistableFileMapping(randomUUID(), EPHEMERAL, MONGO_GRID_FS,
@@ -184,6 +327,18 @@ class EphemeralDeduplicatingFileStoreTest {
         assertThrows(NoSuchElementException.class, () -> ephemeralDeduplicatingFileStore.downloadAsStream(persistableFileMapping));
     }
 
+    @Test
+    void downloadAsFlux_WillEmitErrorIfFileAlreadyMarkedForDeletion() {
+        var persistableFileMapping = new PersistableFileMapping(randomUUID(), EPHEMERAL, MONGO_GRID_FS,
+            EXISTING_BACKING_STORE_FILE_ID, SHA_256, SHA_512, FILE_SIZE, true);
+
+        var flux = ephemeralDeduplicatingFileStore.downloadAsFlux(persistableFileMapping, 0L, FILE_SIZE - 1,
+            DefaultDataBufferFactory.sharedInstance, 1024);
+
+        assertThrows(NoSuchElementException.class, flux::blockFirst);
+        verifyNoInteractions(backingStore);
+    }
+
     @Test
     void downloadAsStream_WillReturnInputStreamOfKnownLengthFromFileStore() throws IOException {
         var inputStream = new ByteArrayInputStream(TEMPORARY_FILE_CONTENTS.getBytes());
@@ -197,4 +352,100 @@ class EphemeralDeduplicatingFileStoreTest {
         assertEquals(inputStreamOfKnownLength.getLength(), FILE_SIZE);
         assertEquals(inputStreamOfKnownLength.getInputStream(), inputStream);
     }
+
+    @Test
+    void deleteBatchOfFilesMarkedForDeletion_WillReleaseReferencesAndDeleteUnreferencedBackingObjects_WhenReferenceCounted() {
+        var trackedFileMapping = new PersistableFileMapping(FILE_ID_1, EPHEMERAL, MONGO_GRID_FS, EXISTING_BACKING_STORE_FILE_ID, SHA_256,
+            SHA_512, FILE_SIZE, true);
+        var untrackedFileMapping = new PersistableFileMapping(FILE_ID_2, EPHEMERAL, MONGO_GRID_FS, "untracked-backing-file", SHA_256,
+            SHA_512, FILE_SIZE, true);
+        var filesMarkedForDeletion = List.of(trackedFileMapping, untrackedFileMapping);
+        when(fileMappingRepository.findByMarkedForDeletionTrue(PageRequest.of(0, BATCH_SIZE))).thenReturn(filesMarkedForDeletion);
+        when(backingObjectReferences.untrackedFileMappings(filesMarkedForDeletion)).thenReturn(List.of(untrackedFileMapping));
+        when(fileMappingRepository.findReferencedBackingStorageFileIds(Set.of("untracked-backing-file"))).thenReturn(Set.of());
+        when(backingObjectReferences.removeUnreferencedBackingObjects(eq(EPHEMERAL), eq(BATCH_SIZE), any())).thenAnswer(invocation -> {
+            invocation.<Consumer<Set<String>>>getArgument(2).accept(Set.of(EXISTING_BACKING_STORE_FILE_ID));
+            return 1;
+        });
+        ephemeralDeduplicatingFileStore =
+            new EphemeralDeduplicatingFileStore(fileMappingRepository, backingStore,
+                FileStoreOptions.builder().backingObjectReferences(backingObjectReferences).build());
+
+        ephemeralDeduplicatingFileStore.deleteBatchOfFilesMarkedForDeletion(BATCH_SIZE);
+
+        verify(backingStore).deleteFiles(Set.of("untracked-backing-file"));
+        verify(backingObjectReferences).removeFileMappings(filesMarkedForDeletion);
+        verify(backingStore).deleteFiles(Set.of(EXISTING_BACKING_STORE_FILE_ID));
+        verify(fileMappingRepository, never()).deleteAllInBatch(any());
+    }
+
+    @Test
+    void deleteBatchOfFilesMarkedForDeletion_WillCollectUnreferencedBackingObjects_WhenNoFilesAreMarkedForDeletion() {
+        when(fileMappingRepository.findByMarkedForDeletionTrue(PageRequest.of(0, BATCH_SIZE))).thenReturn(List.of());
+        ephemeralDeduplicatingFileStore =
+            new EphemeralDeduplicatingFileStore(fileMappingRepository, backingStore,
+                FileStoreOptions.builder().backingObjectReferences(backingObjectReferences).build());
+
+        ephemeralDeduplicatingFileStore.deleteBatchOfFilesMarkedForDeletion(BATCH_SIZE);
+
+        verifyNoInteractions(backingStore);
+        verify(backingObjectReferences, never()).removeFileMappings(any());
+        verify(backingObjectReferences).removeUnreferencedBackingObjects(eq(EPHEMERAL), eq(BATCH_SIZE), any());
+    }
+
+    @Test
+    void uploadAsStream_WillRecordExpiry_WhenGivenTimeToLive() throws IOException {
+        when(backingStore.backingStorageType()).thenReturn(MONGO_GRID_FS);
+        when(backingStore.uploadStream(any(InputStream.class), eq("filename"), eq(FILE_SIZE))).thenAnswer(invocation -> {
+            InputStream inputStream = invocation.getArgument(0);
+            inputStream.readAllBytes();
+            return EXISTING_BACKING_STORE_FILE_ID;
+        });
+        ephemeralDeduplicatingFileStore =
+            new EphemeralDeduplicatingFileStore(fileMappingRepository, backingStore,
+                FileStoreOptions.builder().clock(Clock.fixed(NOW, UTC)).build());
+
+        var persistedFile = ephemeralDeduplicatingFileStore.uploadAsStream("filename", FILE_SIZE,
+            new ByteArrayInputStream(TEMPORARY_FILE_CONTENTS.getBytes()), Duration.ofHours(1));
+
+        var expectedFileMapping = new PersistableFileMapping(persistedFile.getFileId(), EPHEMERAL, MONGO_GRID_FS,
+            EXISTING_BACKING_STORE_FILE_ID, SHA_256, SHA_512, FILE_SIZE, false);
+        expectedFileMapping.setExpiresAt(NOW.plus(Duration.ofHours(1)));
+        verify(fileMappingRepository).save(expectedFileMapping);
+    }
+
+    @Test
+    void downloadAsStream_WillRejectExpiredFileWithoutCallingBackingStore() {
+        ephemeralDeduplicatingFileStore =
+            new EphemeralDeduplicatingFileStore(fileMappingRepository, backingStore,
+                FileStoreOptions.builder().clock(Clock.fixed(NOW, UTC)).build());
+        var persistableFileMapping = new PersistableFileMapping(randomUUID(), EPHEMERAL, MONGO_GRID_FS,
+            EXISTING_BACKING_STORE_FILE_ID, SHA_256, SHA_512, FILE_SIZE, false);
+        persistableFileMapping.setExpiresAt(NOW);
+
+        assertThrows(NoSuchElementException.class,
+            () -> ephemeralDeduplicatingFileStore.downloadAsStream(persistableFileMapping, 0L, FILE_SIZE - 1));
+        verifyNoInteractions(backingStore);
+    }
+
+    @Test
+    void markExpiredFilesForDeletion_WillExpireBatchOfFilesInExpiryOrder() {
+        ephemeralDeduplicatingFileStore =
+            new EphemeralDeduplicatingFileStore(fileMappingRepository, backingStore,
+                FileStoreOptions.builder().clock(Clock.fixed(NOW, UTC)).build());
+        when(fileMappingRepository.findExpiredFileIds(NOW, PageRequest.of(0, BATCH_SIZE))).thenReturn(List.of(FILE_ID_1, FILE_ID_2));
+
+        assertEquals(2, ephemeralDeduplicatingFileStore.markExpiredFilesForDeletion(BATCH_SIZE));
+
+        verify(fileMappingRepository).expire(List.of(FILE_ID_1, FILE_ID_2), EPHEMERAL);
+    }
+
+    @Test
+    void markExpiredFilesForDeletion_WillNotUpdate_WhenNoFilesHaveExpired() {
+        when(fileMappingRepository.findExpiredFileIds(any(), eq(PageRequest.of(0, BATCH_SIZE)))).thenReturn(List.of());
+
+        assertEquals(0, ephemeralDeduplicatingFileStore.markExpiredFilesForDeletion(BATCH_SIZE));
+
+        verify(fileMappingRepository, never()).expire(any(), any());
+    }
 }
@@ -0,0 +1,109 @@
+package engineering.everest.starterkit.filestorage.filestores;
+
+import engineering.everest.starterkit.filestorage.persistence.FileMappingClaims;
+import engineering.everest.starterkit.filestorage.persistence.PersistableFileMapping;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+
+import static engineering.everest.starterkit.filestorage.backing.BackingStorageType.MONGO_GRID_FS;
+import static engineering.everest.starterkit.filestorage.filestores.FileStoreType.EPHEMERAL;
+import static java.time.ZoneOffset.UTC;
+import static java.util.UUID.randomUUID;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class EphemeralFileCollectorTest {
+
+    private static final Instant NOW = Instant.parse("2023-01-01T00:00:00Z");
+    private static final Duration LEASE = Duration.ofMinutes(5);
+    private static final int MIN_BATCH_SIZE = 10;
+    private static final int MAX_BATCH_SIZE = 25;
+
+    private EphemeralFileCollector ephemeralFileCollector;
+
+    @Mock
+    private EphemeralDeduplicatingFileStore ephemeralFileStore;
+    @Mock
+    private FileMappingClaims fileMappingClaims;
+
+    @BeforeEach
+    void setUp() {
+        var collectionPolicy = new CollectionPolicy(1, Duration.ofHours(1), LEASE, MIN_BATCH_SIZE, MAX_BATCH_SIZE,
+            Duration.ofHours(1), 0);
+        ephemeralFileCollector = new EphemeralFileCollector(ephemeralFileStore, fileMappingClaims, collectionPolicy,
+            Clock.fixed(NOW, UTC));
+    }
+
+    @AfterEach
+    void tearDown() {
+        ephemeralFileCollector.close();
+    }
+
+    @Test
+    void collect_WillDeleteClaimedBatchesUntilNoneRemain() {
+        var firstBatch = List.of(fileMarkedForDeletion(), fileMarkedForDeletion());
+        var secondBatch = List.of(fileMarkedForDeletion());
+        when(fileMappingClaims.claimFilesMarkedForDeletion(anyInt(), eq(NOW), eq(LEASE)))
+            .thenReturn(firstBatch, secondBatch, List.of());
+        when(ephemeralFileStore.deleteClaimedFilesMarkedForDeletion(firstBatch, fileMappingClaims, MIN_BATCH_SIZE)).thenReturn(2);
+        when(ephemeralFileStore.deleteClaimedFilesMarkedForDeletion(secondBatch, fileMappingClaims, 2 * MIN_BATCH_SIZE)).thenReturn(1);
+
+        assertEquals(3, ephemeralFileCollector.collect());
+
+        verify(ephemeralFileStore, never()).deleteFilesMarkedForDeletion(anyList(), anyInt());
+    }
+
+    @Test
+    void collect_WillNotCountFiles_WhenTheirClaimWasLost() {
+        var batch = List.of(fileMarkedForDeletion(), fileMarkedForDeletion());
+        when(fileMappingClaims.claimFilesMarkedForDeletion(anyInt(), eq(NOW), eq(LEASE))).thenReturn(batch, List.of());
+        when(ephemeralFileStore.deleteClaimedFilesMarkedForDeletion(batch, fileMappingClaims, MIN_BATCH_SIZE)).thenReturn(1);
+
+        assertEquals(1, ephemeralFileCollector.collect());
+    }
+
+    @Test
+    void collect_WillStopAndHalveBatchSize_WhenBatchFails() {
+        var batch = List.of(fileMarkedForDeletion());
+        when(fileMappingClaims.claimFilesMarkedForDeletion(anyInt(), eq(NOW), eq(LEASE))).thenReturn(batch, batch, batch);
+        when(ephemeralFileStore.deleteClaimedFilesMarkedForDeletion(eq(batch), eq(fileMappingClaims), anyInt()))
+            .thenReturn(1, 1)
+            .thenThrow(new RuntimeException("backing store unavailable"));
+
+        assertEquals(2, ephemeralFileCollector.collect());
+        assertEquals(MAX_BATCH_SIZE / 2, ephemeralFileCollector.batchSize());
+    }
+
+    @Test
+    void adaptiveBatchSize_WillHalve_WhenBatchExceedsTargetLatency() {
+        var adaptiveBatchSize = new AdaptiveBatchSize(MIN_BATCH_SIZE, MAX_BATCH_SIZE, Duration.ofSeconds(1));
+        adaptiveBatchSize.completed(Duration.ofMillis(10));
+        adaptiveBatchSize.completed(Duration.ofMillis(10));
+        assertEquals(MAX_BATCH_SIZE, adaptiveBatchSize.current());
+
+        adaptiveBatchSize.completed(Duration.ofSeconds(2));
+        assertEquals(MAX_BATCH_SIZE / 2, adaptiveBatchSize.current());
+
+        adaptiveBatchSize.failed();
+        assertEquals(MIN_BATCH_SIZE, adaptiveBatchSize.current());
+    }
+
+    private static PersistableFileMapping fileMarkedForDeletion() {
+        return new PersistableFileMapping(randomUUID(), EPHEMERAL, MONGO_GRID_FS, randomUUID().toString(), "sha256", "sha512", 1L, true);
+    }
+}
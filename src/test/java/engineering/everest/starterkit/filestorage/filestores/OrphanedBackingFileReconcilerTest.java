@@ -0,0 +1,124 @@
+package engineering.everest.starterkit.filestorage.filestores;
+
+import engineering.everest.starterkit.filestorage.backing.BackingFile;
+import engineering.everest.starterkit.filestorage.backing.BackingStore;
+import engineering.everest.starterkit.filestorage.persistence.BackingObjectReferences;
+import engineering.everest.starterkit.filestorage.persistence.FileMappingRepository;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.data.domain.PageRequest;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Stream;
+
+import static engineering.everest.starterkit.filestorage.backing.BackingStorageType.FILE_SYSTEM;
+import static java.time.ZoneOffset.UTC;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class OrphanedBackingFileReconcilerTest {
+
+    private static final Instant NOW = Instant.parse("2023-01-01T00:00:00Z");
+    private static final Duration GRACE_PERIOD = Duration.ofDays(1);
+    private static final Instant OLD = NOW.minus(Duration.ofDays(2));
+    private static final Instant RECENT = NOW.minus(Duration.ofMinutes(1));
+    private static final int BATCH_SIZE = 2;
+    private static final PageRequest PAGE = PageRequest.of(0, BATCH_SIZE);
+
+    private OrphanedBackingFileReconciler reconciler;
+
+    @Mock
+    private BackingStore backingStore;
+    @Mock
+    private FileMappingRepository fileMappingRepository;
+    @Mock
+    private BackingObjectReferences backingObjectReferences;
+
+    @AfterEach
+    void tearDown() {
+        if (reconciler != null) {
+            reconciler.close();
+        }
+    }
+
+    @Test
+    void deleteOrphanedBackingFiles_WillDeleteUnreferencedFilesOutsideGracePeriodInBatches() {
+        givenReconciler();
+        when(backingStore.listFiles()).thenReturn(Stream.of(
+            new BackingFile("a", OLD), new BackingFile("b", OLD), new BackingFile("c", OLD),
+            new BackingFile("d", RECENT), new BackingFile("e", OLD), new BackingFile("f", OLD)));
+        when(fileMappingRepository.findBackingStorageFileIdsAfter(FILE_SYSTEM, "", PAGE)).thenReturn(List.of("b", "c1"));
+        when(fileMappingRepository.findBackingStorageFileIdsAfter(FILE_SYSTEM, "c1", PAGE)).thenReturn(List.of("e"));
+        when(fileMappingRepository.findReferencedBackingStorageFileIds(Set.of("a", "c"))).thenReturn(Set.of());
+        when(fileMappingRepository.findReferencedBackingStorageFileIds(Set.of("f"))).thenReturn(Set.of("f"));
+
+        assertEquals(2, reconciler.deleteOrphanedBackingFiles());
+
+        verify(backingStore).deleteFiles(Set.of("a", "c"));
+        verify(backingStore, never()).deleteFiles(Set.of("f"));
+    }
+
+    @Test
+    void deleteOrphanedBackingFiles_WillKeepBackingFilesHeldByBackingObjects_WhenReferenceCounted() {
+        givenReconciler(backingObjectReferences);
+        when(backingStore.listFiles()).thenReturn(Stream.of(new BackingFile("a", OLD), new BackingFile("b", OLD)));
+        when(fileMappingRepository.findBackingStorageFileIdsAfter(FILE_SYSTEM, "", PAGE)).thenReturn(List.of());
+        when(fileMappingRepository.findReferencedBackingStorageFileIds(Set.of("a", "b"))).thenReturn(Set.of());
+        when(backingObjectReferences.trackedBackingStorageFileIds(Set.of("a", "b"))).thenReturn(Set.of("b"));
+
+        assertEquals(1, reconciler.deleteOrphanedBackingFiles());
+
+        verify(backingStore).deleteFiles(Set.of("a"));
+    }
+
+    @Test
+    void deleteOrphanedBackingFiles_WillFail_WhenBackingStoreListingIsOutOfOrder() {
+        givenReconciler();
+        when(backingStore.listFiles()).thenReturn(Stream.of(new BackingFile("b", RECENT), new BackingFile("a", OLD)));
+        when(fileMappingRepository.findBackingStorageFileIdsAfter(FILE_SYSTEM, "", PAGE)).thenReturn(List.of());
+
+        assertThrows(IllegalStateException.class, () -> reconciler.deleteOrphanedBackingFiles());
+        verify(backingStore, never()).deleteFiles(any());
+    }
+
+    @Test
+    void deleteOrphanedBackingFiles_WillFail_WhenDatabaseOrdersIdentifiersDifferently() {
+        givenReconciler();
+        when(backingStore.listFiles()).thenReturn(Stream.of(new BackingFile("a", OLD)));
+        when(fileMappingRepository.findBackingStorageFileIdsAfter(FILE_SYSTEM, "", PAGE)).thenReturn(List.of("b", "B"));
+
+        assertThrows(IllegalStateException.class, () -> reconciler.deleteOrphanedBackingFiles());
+        verify(backingStore, never()).deleteFiles(any());
+    }
+
+    @Test
+    void constructor_WillFail_WhenBackingStoreDoesNotSupportListing() {
+        when(backingStore.backingStorageType()).thenReturn(FILE_SYSTEM);
+
+        assertThrows(IllegalArgumentException.class, () -> new OrphanedBackingFileReconciler(backingStore, fileMappingRepository, null,
+            GRACE_PERIOD, BATCH_SIZE, Duration.ofHours(1), Clock.fixed(NOW, UTC)));
+    }
+
+    private void givenReconciler() {
+        givenReconciler(null);
+    }
+
+    private void givenReconciler(BackingObjectReferences backingObjectReferences) {
+        when(backingStore.supportsListing()).thenReturn(true);
+        when(backingStore.backingStorageType()).thenReturn(FILE_SYSTEM);
+        reconciler = new OrphanedBackingFileReconciler(backingStore, fileMappingRepository, backingObjectReferences, GRACE_PERIOD,
+            BATCH_SIZE, Duration.ofHours(1), Clock.fixed(NOW, UTC));
+    }
+}
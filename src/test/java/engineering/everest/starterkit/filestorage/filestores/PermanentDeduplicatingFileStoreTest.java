@@ -3,14 +3,23 @@ package engineering.everest.starterkit.filestorage.filestores;
 import engineering.everest.starterkit.filestorage.InputStreamOfKnownLength;
 import engineering.everest.starterkit.filestorage.PersistedFile;
 import engineering.everest.starterkit.filestorage.backing.BackingStore;
+import engineering.everest.starterkit.filestorage.backing.ContentAddressedUpload;
+import engineering.everest.starterkit.filestorage.persistence.BackingObjectReferences;
 import engineering.everest.starterkit.filestorage.persistence.FileMappingRepository;
 import engineering.everest.starterkit.filestorage.persistence.PersistableFileMapping;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.core.io.buffer.DefaultDataBufferFactory;
+import org.springframework.dao.DataIntegrityViolationException;
 import org.springframework.data.domain.Example;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
 
 import java.io.ByteArrayInputStream;
 import java.io.FileInputStream;
@@ -19,14 +28,22 @@ import java.io.InputStream;
 import java.nio.file.Files;
 import java.util.List;
 
+import static engineering.everest.starterkit.filestorage.backing.BackingStorageType.INLINE;
 import static engineering.everest.starterkit.filestorage.backing.BackingStorageType.MONGO_GRID_FS;
 import static engineering.everest.starterkit.filestorage.filestores.FileStoreType.PERMANENT;
+import static java.nio.charset.StandardCharsets.UTF_8;
 import static java.nio.file.Files.createTempFile;
 import static java.util.UUID.randomUUID;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
 import static org.mockito.Mockito.verifyNoMoreInteractions;
 import static org.mockito.Mockito.when;
 
@@ -48,6 +65,8 @@ class PermanentDeduplicatingFileStoreTest {
     protected BackingStore backingStore;
     @Mock
     protected FileMappingRepository fileMappingRepository;
+    @Mock
+    private BackingObjectReferences backingObjectReferences;
 
     @BeforeEach
     void setUp() {
@@ -75,6 +94,52 @@ class PermanentDeduplicatingFileStoreTest {
         assertEquals(expectedPersistedFile, persistedFile);
     }
 
+    @Test
+    void uploadAsStream_WillUploadByDigestWithoutSearchingFileMappings_WhenContentAddressed() throws IOException {
+        when(backingStore.supportsContentAddressing()).thenReturn(true);
+        when(backingStore.backingStorageType()).thenReturn(MONGO_GRID_FS);
+        when(backingStore.uploadContentAddressed(any(InputStream.class), eq(SHA_256), eq(FILE_SIZE))).thenAnswer(invocation -> {
+            InputStream inputFile = invocation.getArgument(0);
+            assertEquals(TEMPORARY_FILE_CONTENTS, new String(inputFile.readAllBytes()));
+            return new ContentAddressedUpload(EXISTING_BACKING_STORE_FILE_ID, false);
+        });
+        permanentDeduplicatingFileStore = new PermanentDeduplicatingFileStore(fileMappingRepository, backingStore,
+            FileStoreOptions.builder().contentAddressed(true).build());
+
+        var persistedFile = permanentDeduplicatingFileStore.uploadAsStream(ORIGINAL_FILENAME, FILE_SIZE, createTempFileWithContents());
+
+        verify(fileMappingRepository).save(new PersistableFileMapping(persistedFile.getFileId(), PERMANENT, MONGO_GRID_FS,
+            EXISTING_BACKING_STORE_FILE_ID, SHA_256, SHA_512, FILE_SIZE, false));
+        verifyNoMoreInteractions(fileMappingRepository);
+        verify(backingStore).uploadContentAddressed(any(InputStream.class), eq(SHA_256), eq(FILE_SIZE));
+        assertEquals(new PersistedFile(persistedFile.getFileId(), PERMANENT, MONGO_GRID_FS, EXISTING_BACKING_STORE_FILE_ID, SHA_256,
+            SHA_512, FILE_SIZE), persistedFile);
+    }
+
+    @Test
+    void uploadAsStream_WillRewriteContentAddressedObject_WhenAlreadyPresentAndCollectedBeforeFileMappingSaved() throws IOException {
+        when(backingStore.supportsContentAddressing()).thenReturn(true);
+        when(backingStore.backingStorageType()).thenReturn(MONGO_GRID_FS);
+        when(backingStore.uploadContentAddressed(any(InputStream.class), eq(SHA_256), eq(FILE_SIZE)))
+            .thenReturn(new ContentAddressedUpload(EXISTING_BACKING_STORE_FILE_ID, true));
+        permanentDeduplicatingFileStore = new PermanentDeduplicatingFileStore(fileMappingRepository, backingStore,
+            FileStoreOptions.builder().contentAddressed(true).build());
+
+        permanentDeduplicatingFileStore.uploadAsStream(ORIGINAL_FILENAME, FILE_SIZE, createTempFileWithContents());
+
+        var inOrder = inOrder(backingStore, fileMappingRepository);
+        inOrder.verify(backingStore).uploadContentAddressed(any(InputStream.class), eq(SHA_256), eq(FILE_SIZE));
+        inOrder.verify(fileMappingRepository).save(any(PersistableFileMapping.class));
+        inOrder.verify(backingStore).uploadContentAddressed(any(InputStream.class), eq(SHA_256), eq(FILE_SIZE));
+    }
+
+    @Test
+    void contentAddressing_WillBeRejected_WhenBackingStoreDoesNotSupportIt() {
+        assertThrows(IllegalArgumentException.class,
+            () -> new PermanentDeduplicatingFileStore(fileMappingRepository, backingStore,
+                FileStoreOptions.builder().contentAddressed(true).build()));
+    }
+
     @Test
     void uploadAsStream_WillDeduplicate_WhenFileAlreadyPresentInStore() throws IOException {
         when(backingStore.backingStorageType()).thenReturn(MONGO_GRID_FS);
@@ -133,6 +198,85 @@ class PermanentDeduplicatingFileStoreTest {
         assertEquals(expectedPersistedFile, persistedFile);
     }
 
+    @Test
+    @SuppressWarnings("unchecked")
+    void uploadAsFlux_WillHashBuffersIncrementallyAndPersistFileMapping() {
+        when(backingStore.backingStorageType()).thenReturn(MONGO_GRID_FS);
+        when(backingStore.uploadFlux(any(Flux.class), eq(ORIGINAL_FILENAME))).thenAnswer(invocation -> {
+            Flux<DataBuffer> content = invocation.getArgument(0);
+            return content.doOnNext(DataBufferUtils::release).then(Mono.just(fileIdentifier));
+        });
+        var dataBufferFactory = DefaultDataBufferFactory.sharedInstance;
+        var content = Flux.just(
+            dataBufferFactory.wrap(TEMPORARY_FILE_CONTENTS.substring(0, 10).getBytes()),
+            dataBufferFactory.wrap(TEMPORARY_FILE_CONTENTS.substring(10).getBytes()));
+
+        var persistedFile = permanentDeduplicatingFileStore.uploadAsFlux(ORIGINAL_FILENAME, content).block();
+
+        verify(fileMappingRepository).save(new PersistableFileMapping(persistedFile.getFileId(), PERMANENT, MONGO_GRID_FS, fileIdentifier,
+            SHA_256, SHA_512, FILE_SIZE, false));
+        assertEquals(new PersistedFile(persistedFile.getFileId(), PERMANENT, MONGO_GRID_FS, fileIdentifier, SHA_256, SHA_512, FILE_SIZE),
+            persistedFile);
+    }
+
+    @Test
+    void uploadAsFlux_WillHoldContentInFileMapping_WhenNoLargerThanInlineThreshold() {
+        permanentDeduplicatingFileStore = new PermanentDeduplicatingFileStore(fileMappingRepository, backingStore,
+            FileStoreOptions.builder().inlineThresholdBytes(64).build());
+        var dataBufferFactory = DefaultDataBufferFactory.sharedInstance;
+        var content = Flux.just(
+            dataBufferFactory.wrap(TEMPORARY_FILE_CONTENTS.substring(0, 10).getBytes()),
+            dataBufferFactory.wrap(TEMPORARY_FILE_CONTENTS.substring(10).getBytes()));
+
+        var persistedFile = permanentDeduplicatingFileStore.uploadAsFlux(ORIGINAL_FILENAME, content).block();
+
+        verifyNoInteractions(backingStore);
+        verify(fileMappingRepository).save(new PersistableFileMapping(persistedFile.getFileId(), PERMANENT, INLINE, null, SHA_256,
+            SHA_512, FILE_SIZE, false, TEMPORARY_FILE_CONTENTS.getBytes()));
+        assertEquals(new PersistedFile(persistedFile.getFileId(), PERMANENT, INLINE, null, SHA_256, SHA_512, FILE_SIZE), persistedFile);
+    }
+
+    @Test
+    void uploadAsFlux_WillHoldEmptyFilesInFileMapping() {
+        permanentDeduplicatingFileStore = new PermanentDeduplicatingFileStore(fileMappingRepository, backingStore,
+            FileStoreOptions.builder().inlineThresholdBytes(0).build());
+
+        var persistedFile = permanentDeduplicatingFileStore.uploadAsFlux(ORIGINAL_FILENAME, Flux.<DataBuffer>empty()).block();
+
+        verifyNoInteractions(backingStore);
+        var fileMapping = ArgumentCaptor.forClass(PersistableFileMapping.class);
+        verify(fileMappingRepository).save(fileMapping.capture());
+        assertEquals(INLINE, fileMapping.getValue().getBackingStorageType());
+        assertEquals(0, fileMapping.getValue().getInlineContent().length);
+        assertEquals(0L, persistedFile.getSizeInBytes());
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void uploadAsFlux_WillUploadAllContentToBackingStore_WhenLargerThanInlineThreshold() {
+        permanentDeduplicatingFileStore = new PermanentDeduplicatingFileStore(fileMappingRepository, backingStore,
+            FileStoreOptions.builder().inlineThresholdBytes(8).build());
+        when(backingStore.backingStorageType()).thenReturn(MONGO_GRID_FS);
+        when(backingStore.uploadFlux(any(Flux.class), eq(ORIGINAL_FILENAME))).thenAnswer(invocation -> {
+            Flux<DataBuffer> uploadedContent = invocation.getArgument(0);
+            return DataBufferUtils.join(uploadedContent).map(dataBuffer -> {
+                assertEquals(TEMPORARY_FILE_CONTENTS, dataBuffer.toString(UTF_8));
+                DataBufferUtils.release(dataBuffer);
+                return fileIdentifier;
+            });
+        });
+        var dataBufferFactory = DefaultDataBufferFactory.sharedInstance;
+        var content = Flux.just(
+            dataBufferFactory.wrap(TEMPORARY_FILE_CONTENTS.substring(0, 4).getBytes()),
+            dataBufferFactory.wrap(TEMPORARY_FILE_CONTENTS.substring(4, 10).getBytes()),
+            dataBufferFactory.wrap(TEMPORARY_FILE_CONTENTS.substring(10).getBytes()));
+
+        var persistedFile = permanentDeduplicatingFileStore.uploadAsFlux(ORIGINAL_FILENAME, content).block();
+
+        verify(fileMappingRepository).save(new PersistableFileMapping(persistedFile.getFileId(), PERMANENT, MONGO_GRID_FS, fileIdentifier,
+            SHA_256, SHA_512, FILE_SIZE, false));
+    }
+
     @Test
     void downloadAsStream_WillReturnInputStreamOfKnownLengthFromFileStore() throws IOException {
         var inputStream = new ByteArrayInputStream(TEMPORARY_FILE_CONTENTS.getBytes());
@@ -164,6 +308,174 @@ class PermanentDeduplicatingFileStoreTest {
         assertEquals(inputStreamOfKnownLength.getInputStream(), inputStream);
     }
 
+    @Test
+    void uploadAsStream_WillHoldContentInFileMapping_WhenNoLargerThanInlineThreshold() throws IOException {
+        permanentDeduplicatingFileStore = new PermanentDeduplicatingFileStore(fileMappingRepository, backingStore,
+            FileStoreOptions.builder().inlineThresholdBytes(64).build());
+
+        var persistedFile = permanentDeduplicatingFileStore.uploadAsStream(ORIGINAL_FILENAME, createTempFileWithContents());
+
+        verifyNoInteractions(backingStore);
+        verify(fileMappingRepository).save(new PersistableFileMapping(persistedFile.getFileId(), PERMANENT, INLINE, null, SHA_256,
+            SHA_512, FILE_SIZE, false, TEMPORARY_FILE_CONTENTS.getBytes()));
+        assertEquals(new PersistedFile(persistedFile.getFileId(), PERMANENT, INLINE, null, SHA_256, SHA_512, FILE_SIZE), persistedFile);
+    }
+
+    @Test
+    void uploadAsStream_WillUploadAllContentToBackingStore_WhenLargerThanInlineThreshold() throws IOException {
+        permanentDeduplicatingFileStore = new PermanentDeduplicatingFileStore(fileMappingRepository, backingStore,
+            FileStoreOptions.builder().inlineThresholdBytes(8).build());
+        when(backingStore.backingStorageType()).thenReturn(MONGO_GRID_FS);
+        when(backingStore.uploadStream(any(InputStream.class), eq(ORIGINAL_FILENAME))).thenAnswer(invocation -> {
+            InputStream inputFile = invocation.getArgument(0);
+            assertEquals(TEMPORARY_FILE_CONTENTS, new String(inputFile.readAllBytes()));
+            return fileIdentifier;
+        });
+
+        var persistedFile = permanentDeduplicatingFileStore.uploadAsStream(ORIGINAL_FILENAME, createTempFileWithContents());
+
+        verify(fileMappingRepository).save(new PersistableFileMapping(persistedFile.getFileId(), PERMANENT, MONGO_GRID_FS, fileIdentifier,
+            SHA_256, SHA_512, FILE_SIZE, false));
+    }
+
+    @Test
+    void uploadAsStream_WillAssignFileIdFromGenerator() throws IOException {
+        var fileId = randomUUID();
+        permanentDeduplicatingFileStore = new PermanentDeduplicatingFileStore(fileMappingRepository, backingStore,
+            FileStoreOptions.builder().inlineThresholdBytes(64).fileIdGenerator(() -> fileId).build());
+
+        var persistedFile = permanentDeduplicatingFileStore.uploadAsStream(ORIGINAL_FILENAME, createTempFileWithContents());
+
+        assertEquals(fileId, persistedFile.getFileId());
+        verify(fileMappingRepository).save(new PersistableFileMapping(fileId, PERMANENT, INLINE, null, SHA_256, SHA_512, FILE_SIZE, false,
+            TEMPORARY_FILE_CONTENTS.getBytes()));
+    }
+
+    @Test
+    void uploadAsStream_WillAssignTimeOrderedFileIdsByDefault() throws IOException {
+        permanentDeduplicatingFileStore = new PermanentDeduplicatingFileStore(fileMappingRepository, backingStore,
+            FileStoreOptions.builder().inlineThresholdBytes(64).build());
+
+        var firstFileId = permanentDeduplicatingFileStore.uploadAsStream(ORIGINAL_FILENAME, createTempFileWithContents()).getFileId();
+        var secondFileId = permanentDeduplicatingFileStore.uploadAsStream(ORIGINAL_FILENAME, createTempFileWithContents()).getFileId();
+
+        assertEquals(7, firstFileId.version());
+        assertTrue(Long.compareUnsigned(firstFileId.getMostSignificantBits(), secondFileId.getMostSignificantBits()) < 0);
+    }
+
+    @Test
+    void uploadAsStreamWithKnownFileSize_WillHoldEmptyFilesInFileMapping() throws IOException {
+        permanentDeduplicatingFileStore = new PermanentDeduplicatingFileStore(fileMappingRepository, backingStore,
+            FileStoreOptions.builder().inlineThresholdBytes(0).build());
+
+        var persistedFile = permanentDeduplicatingFileStore.uploadAsStream(ORIGINAL_FILENAME, 0L, new ByteArrayInputStream(new byte[0]));
+
+        verifyNoInteractions(backingStore);
+        var fileMapping = ArgumentCaptor.forClass(PersistableFileMapping.class);
+        verify(fileMappingRepository).save(fileMapping.capture());
+        assertEquals(INLINE, fileMapping.getValue().getBackingStorageType());
+        assertEquals(0, fileMapping.getValue().getInlineContent().length);
+        assertEquals(0L, persistedFile.getSizeInBytes());
+    }
+
+    @Test
+    void uploadAsStreamWithKnownFileSize_WillFail_WhenInlineContentLengthDiffersFromFileSize() {
+        permanentDeduplicatingFileStore = new PermanentDeduplicatingFileStore(fileMappingRepository, backingStore,
+            FileStoreOptions.builder().inlineThresholdBytes(64).build());
+
+        assertThrows(IOException.class,
+            () -> permanentDeduplicatingFileStore.uploadAsStream(ORIGINAL_FILENAME, FILE_SIZE + 1, createTempFileWithContents()));
+        verifyNoInteractions(fileMappingRepository, backingStore);
+    }
+
+    @Test
+    void downloadAsStream_WillReadInlineContentFromFileMapping() throws IOException {
+        var persistableFileMapping = new PersistableFileMapping(randomUUID(), PERMANENT, INLINE, null, SHA_256, SHA_512, FILE_SIZE, false,
+            TEMPORARY_FILE_CONTENTS.getBytes());
+
+        var inputStreamOfKnownLength = permanentDeduplicatingFileStore.downloadAsStream(persistableFileMapping, 2L, 10L);
+
+        verifyNoInteractions(backingStore);
+        assertEquals(9L, inputStreamOfKnownLength.getLength());
+        assertEquals("temporary", new String(inputStreamOfKnownLength.getInputStream().readAllBytes()));
+    }
+
+    @Test
+    void downloadAsFlux_WillReadInlineContentFromFileMapping() {
+        var persistableFileMapping = new PersistableFileMapping(randomUUID(), PERMANENT, INLINE, null, SHA_256, SHA_512, FILE_SIZE, false,
+            TEMPORARY_FILE_CONTENTS.getBytes());
+
+        var content = DataBufferUtils.join(permanentDeduplicatingFileStore.downloadAsFlux(persistableFileMapping, 0L, FILE_SIZE - 1,
+            DefaultDataBufferFactory.sharedInstance, 4)).block();
+
+        verifyNoInteractions(backingStore);
+        assertEquals(TEMPORARY_FILE_CONTENTS, content.toString(UTF_8));
+    }
+
+    @Test
+    void uploadAsStream_WillReferenceExistingBackingObjectAndDeleteUpload_WhenReferenceCounted() throws IOException {
+        when(backingStore.backingStorageType()).thenReturn(MONGO_GRID_FS);
+        when(backingStore.uploadStream(any(InputStream.class), eq(ORIGINAL_FILENAME), eq(FILE_SIZE))).thenAnswer(invocation -> {
+            InputStream inputFile = invocation.getArgument(0);
+            inputFile.readAllBytes();
+            return fileIdentifier;
+        });
+        when(backingObjectReferences.addFileMapping(any(PersistableFileMapping.class))).thenAnswer(invocation -> {
+            PersistableFileMapping fileMapping = invocation.getArgument(0);
+            assertEquals(fileIdentifier, fileMapping.getBackingStorageFileId());
+            return new PersistableFileMapping(fileMapping.getFileId(), PERMANENT, MONGO_GRID_FS, EXISTING_BACKING_STORE_FILE_ID, SHA_256,
+                SHA_512, FILE_SIZE, false);
+        });
+        permanentDeduplicatingFileStore =
+            new PermanentDeduplicatingFileStore(fileMappingRepository, backingStore,
+                FileStoreOptions.builder().backingObjectReferences(backingObjectReferences).build());
+
+        var persistedFile = permanentDeduplicatingFileStore.uploadAsStream(ORIGINAL_FILENAME, FILE_SIZE, createTempFileWithContents());
+
+        verify(backingStore).delete(fileIdentifier);
+        verifyNoInteractions(fileMappingRepository);
+        assertEquals(new PersistedFile(persistedFile.getFileId(), PERMANENT, MONGO_GRID_FS, EXISTING_BACKING_STORE_FILE_ID, SHA_256,
+            SHA_512, FILE_SIZE), persistedFile);
+    }
+
+    @Test
+    void uploadAsStream_WillKeepUpload_WhenReferenceCountedAndContentIsNew() throws IOException {
+        when(backingStore.backingStorageType()).thenReturn(MONGO_GRID_FS);
+        when(backingStore.uploadStream(any(InputStream.class), eq(ORIGINAL_FILENAME), eq(FILE_SIZE))).thenReturn(fileIdentifier);
+        when(backingObjectReferences.addFileMapping(any(PersistableFileMapping.class))).thenAnswer(invocation -> invocation.getArgument(0));
+        permanentDeduplicatingFileStore =
+            new PermanentDeduplicatingFileStore(fileMappingRepository, backingStore,
+                FileStoreOptions.builder().backingObjectReferences(backingObjectReferences).build());
+
+        var persistedFile = permanentDeduplicatingFileStore.uploadAsStream(ORIGINAL_FILENAME, FILE_SIZE, createTempFileWithContents());
+
+        verify(backingStore, never()).delete(any());
+        verifyNoInteractions(fileMappingRepository);
+        assertEquals(fileIdentifier, persistedFile.getBackingStorageFileId());
+    }
+
+    @Test
+    void uploadAsStream_WillRetryOnce_WhenConcurrentUploadRegisteredSameBackingObject() throws IOException {
+        when(backingStore.backingStorageType()).thenReturn(MONGO_GRID_FS);
+        when(backingStore.uploadStream(any(InputStream.class), eq(ORIGINAL_FILENAME), eq(FILE_SIZE))).thenReturn(fileIdentifier);
+        when(backingObjectReferences.addFileMapping(any(PersistableFileMapping.class)))
+            .thenThrow(new DataIntegrityViolationException("duplicate key"))
+            .thenAnswer(invocation -> {
+                PersistableFileMapping fileMapping = invocation.getArgument(0);
+                return new PersistableFileMapping(fileMapping.getFileId(), PERMANENT, MONGO_GRID_FS, EXISTING_BACKING_STORE_FILE_ID,
+                    SHA_256, SHA_512, FILE_SIZE, false);
+            });
+        permanentDeduplicatingFileStore =
+            new PermanentDeduplicatingFileStore(fileMappingRepository, backingStore,
+                FileStoreOptions.builder().backingObjectReferences(backingObjectReferences).build());
+
+        var persistedFile = permanentDeduplicatingFileStore.uploadAsStream(ORIGINAL_FILENAME, FILE_SIZE, createTempFileWithContents());
+
+        verify(backingObjectReferences, times(2)).addFileMapping(any(PersistableFileMapping.class));
+        verify(backingStore).delete(fileIdentifier);
+        assertEquals(EXISTING_BACKING_STORE_FILE_ID, persistedFile.getBackingStorageFileId());
+    }
+
     private InputStream createTempFileWithContents() throws IOException {
         var tempPath = createTempFile("unit", "test");
         try (var outStream = Files.newOutputStream(tempPath)) {
@@ -0,0 +1,91 @@
+package engineering.everest.starterkit.filestorage.filestores;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.util.UUID;
+
+import static java.time.ZoneOffset.UTC;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class TimeOrderedFileIdGeneratorTest {
+
+    private static final Instant NOW = Instant.parse("2023-01-01T00:00:00Z");
+
+    @Test
+    void nextFileId_WillBeVersion7UuidLeadingWithTimestamp() {
+        var fileId = new TimeOrderedFileIdGenerator(Clock.fixed(NOW, UTC)).nextFileId();
+
+        assertEquals(7, fileId.version());
+        assertEquals(2, fileId.variant());
+        assertEquals(NOW.toEpochMilli(), timestampOf(fileId));
+    }
+
+    @Test
+    void nextFileId_WillIncrease_WhenManyAreGeneratedWithinOneMillisecond() {
+        var generator = new TimeOrderedFileIdGenerator(Clock.fixed(NOW, UTC));
+
+        var previous = generator.nextFileId();
+        for (var i = 0; i < 10_000; i++) {
+            var next = generator.nextFileId();
+            assertTrue(Long.compareUnsigned(previous.getMostSignificantBits(), next.getMostSignificantBits()) < 0);
+            assertEquals(7, next.version());
+            previous = next;
+        }
+        assertTrue(timestampOf(previous) > NOW.toEpochMilli());
+    }
+
+    @Test
+    void nextFileId_WillIncrease_WhenClockStepsBackwards() {
+        var clock = new SettableClock(NOW);
+        var generator = new TimeOrderedFileIdGenerator(clock);
+
+        var first = generator.nextFileId();
+        clock.instant = NOW.minusSeconds(60);
+        var second = generator.nextFileId();
+
+        assertTrue(Long.compareUnsigned(first.getMostSignificantBits(), second.getMostSignificantBits()) < 0);
+        assertEquals(NOW.toEpochMilli(), timestampOf(second));
+    }
+
+    @Test
+    void nextFileId_WillFollowClock_WhenItAdvances() {
+        var clock = new SettableClock(NOW);
+        var generator = new TimeOrderedFileIdGenerator(clock);
+
+        generator.nextFileId();
+        clock.instant = NOW.plusSeconds(1);
+
+        assertEquals(NOW.plusSeconds(1).toEpochMilli(), timestampOf(generator.nextFileId()));
+    }
+
+    private static long timestampOf(UUID fileId) {
+        return fileId.getMostSignificantBits() >>> 16;
+    }
+
+    private static class SettableClock extends Clock {
+        private Instant instant;
+
+        SettableClock(Instant instant) {
+            this.instant = instant;
+        }
+
+        @Override
+        public ZoneId getZone() {
+            return UTC;
+        }
+
+        @Override
+        public Clock withZone(ZoneId zone) {
+            return this;
+        }
+
+        @Override
+        public Instant instant() {
+            return instant;
+        }
+    }
+}
@@ -0,0 +1,193 @@
+package engineering.everest.starterkit.filestorage.persistence;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.data.domain.PageRequest;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.UUID;
+
+import static engineering.everest.starterkit.filestorage.backing.BackingStorageType.INLINE;
+import static engineering.everest.starterkit.filestorage.backing.BackingStorageType.MONGO_GRID_FS;
+import static engineering.everest.starterkit.filestorage.filestores.FileStoreType.EPHEMERAL;
+import static java.util.UUID.randomUUID;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoMoreInteractions;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class BackingObjectReferencesTest {
+
+    private static final String SHA_256 = "108e0047119fdf8db72dc146283d0cd717d620a9b4fb9ead902e22f4c04fbe7b";
+    private static final String SHA_512 =
+        "cb61c18674f50eedd4f7d77f938b11d468713516b14862c4ae4ea68ec5aa30c1475d7d38f17e14585da10ea848a054733f2185b1ea57f10a1c416bb1617baa60";
+    private static final String UPLOADED_BACKING_STORE_FILE_ID = "uploaded-backing-store-file-id";
+    private static final String EXISTING_BACKING_STORE_FILE_ID = "existing-backing-store-file-id";
+    private static final long FILE_SIZE = 33L;
+    private static final BackingObjectKey KEY = new BackingObjectKey(EPHEMERAL, SHA_512);
+
+    private BackingObjectReferences backingObjectReferences;
+
+    @Mock
+    private FileMappingRepository fileMappingRepository;
+    @Mock
+    private BackingObjectRepository backingObjectRepository;
+
+    @BeforeEach
+    void setUp() {
+        backingObjectReferences = new BackingObjectReferences(fileMappingRepository, backingObjectRepository);
+    }
+
+    @Test
+    void addFileMapping_WillReferenceExistingBackingObject() {
+        var fileId = randomUUID();
+        when(fileMappingRepository.save(any(PersistableFileMapping.class))).thenAnswer(invocation -> invocation.getArgument(0));
+        when(backingObjectRepository.incrementReferenceCount(EPHEMERAL, SHA_512)).thenReturn(1);
+        when(backingObjectRepository.findById(KEY)).thenReturn(Optional.of(backingObject(EXISTING_BACKING_STORE_FILE_ID, 2L)));
+
+        var fileMapping = backingObjectReferences.addFileMapping(fileMapping(fileId, UPLOADED_BACKING_STORE_FILE_ID));
+
+        assertEquals(fileMapping(fileId, EXISTING_BACKING_STORE_FILE_ID), fileMapping);
+        verify(backingObjectRepository, never()).saveAndFlush(any());
+    }
+
+    @Test
+    void addFileMapping_WillRegisterNewBackingObject_WhenContentIsNew() {
+        var fileId = randomUUID();
+        when(fileMappingRepository.save(any(PersistableFileMapping.class))).thenAnswer(invocation -> invocation.getArgument(0));
+        when(backingObjectRepository.incrementReferenceCount(EPHEMERAL, SHA_512)).thenReturn(0);
+
+        var fileMapping = backingObjectReferences.addFileMapping(fileMapping(fileId, UPLOADED_BACKING_STORE_FILE_ID));
+
+        assertEquals(fileMapping(fileId, UPLOADED_BACKING_STORE_FILE_ID), fileMapping);
+        verify(backingObjectRepository).saveAndFlush(backingObject(UPLOADED_BACKING_STORE_FILE_ID, 1L));
+    }
+
+    @Test
+    void addFileMapping_WillReferenceBackingObjectAwaitingCollection() {
+        var fileId = randomUUID();
+        when(fileMappingRepository.save(any(PersistableFileMapping.class))).thenAnswer(invocation -> invocation.getArgument(0));
+        when(backingObjectRepository.incrementReferenceCount(EPHEMERAL, SHA_512)).thenReturn(1);
+        when(backingObjectRepository.findById(KEY)).thenReturn(Optional.of(backingObject(EXISTING_BACKING_STORE_FILE_ID, 1L)));
+
+        var fileMapping = backingObjectReferences.addFileMapping(fileMapping(fileId, UPLOADED_BACKING_STORE_FILE_ID));
+
+        assertEquals(fileMapping(fileId, EXISTING_BACKING_STORE_FILE_ID), fileMapping);
+        verify(backingObjectRepository, never()).saveAndFlush(any());
+    }
+
+    @Test
+    void untrackedFileMappings_WillExcludeTrackedAndInlineFileMappings() {
+        var trackedFileMapping = fileMapping(randomUUID(), EXISTING_BACKING_STORE_FILE_ID);
+        var untrackedFileMapping = fileMapping(randomUUID(), UPLOADED_BACKING_STORE_FILE_ID);
+        var inlineFileMapping = new PersistableFileMapping(randomUUID(), EPHEMERAL, INLINE, null, SHA_256, SHA_512, 0L, true, new byte[0]);
+        when(backingObjectRepository.findAllById(List.of(KEY, KEY, KEY)))
+            .thenReturn(List.of(backingObject(EXISTING_BACKING_STORE_FILE_ID, 1L)));
+
+        var untrackedFileMappings =
+            backingObjectReferences.untrackedFileMappings(List.of(trackedFileMapping, untrackedFileMapping, inlineFileMapping));
+
+        assertEquals(List.of(untrackedFileMapping), untrackedFileMappings);
+    }
+
+    @Test
+    void removeFileMappings_WillDecrementOncePerBackingFileAndDeleteFileMappings() {
+        var fileMappings = List.of(
+            fileMapping(randomUUID(), EXISTING_BACKING_STORE_FILE_ID),
+            fileMapping(randomUUID(), EXISTING_BACKING_STORE_FILE_ID),
+            fileMapping(randomUUID(), UPLOADED_BACKING_STORE_FILE_ID),
+            new PersistableFileMapping(randomUUID(), EPHEMERAL, INLINE, null, SHA_256, SHA_512, 0L, true, new byte[0]));
+
+        backingObjectReferences.removeFileMappings(fileMappings);
+
+        verify(backingObjectRepository).decrementReferenceCount(EPHEMERAL, SHA_512, EXISTING_BACKING_STORE_FILE_ID, 2L);
+        verify(backingObjectRepository).decrementReferenceCount(EPHEMERAL, SHA_512, UPLOADED_BACKING_STORE_FILE_ID, 1L);
+        verify(fileMappingRepository).deleteAllInBatch(fileMappings);
+        verifyNoMoreInteractions(backingObjectRepository);
+    }
+
+    @Test
+    void removeUnreferencedBackingObjects_WillDeleteBackingFilesThenBackingObjects() {
+        var backingObjects = List.of(backingObject(EXISTING_BACKING_STORE_FILE_ID, 0L));
+        when(backingObjectRepository.findUnreferencedForUpdate(EPHEMERAL, PageRequest.of(0, 10))).thenReturn(backingObjects);
+        var deletedBackingFiles = new ArrayList<Set<String>>();
+
+        var removed = backingObjectReferences.removeUnreferencedBackingObjects(EPHEMERAL, 10, deletedBackingFiles::add);
+
+        assertEquals(1, removed);
+        assertEquals(List.of(Set.of(EXISTING_BACKING_STORE_FILE_ID)), deletedBackingFiles);
+        verify(backingObjectRepository).deleteAllInBatch(backingObjects);
+    }
+
+    @Test
+    void removeUnreferencedBackingObjects_WillKeepBackingObjects_WhenDeletingBackingFilesFails() {
+        when(backingObjectRepository.findUnreferencedForUpdate(EPHEMERAL, PageRequest.of(0, 10)))
+            .thenReturn(List.of(backingObject(EXISTING_BACKING_STORE_FILE_ID, 0L)));
+
+        assertThrows(IllegalStateException.class, () -> backingObjectReferences.removeUnreferencedBackingObjects(EPHEMERAL, 10,
+            backingStorageFileIds -> {
+                throw new IllegalStateException("backing store unavailable");
+            }));
+
+        verify(backingObjectRepository, never()).deleteAllInBatch(any());
+    }
+
+    @Test
+    void removeUnreferencedBackingObjects_WillKeepBackingFilesReferencedByUntrackedFileMappings() {
+        var backingObjects = List.of(backingObject(EXISTING_BACKING_STORE_FILE_ID, 0L));
+        when(backingObjectRepository.findUnreferencedForUpdate(EPHEMERAL, PageRequest.of(0, 10))).thenReturn(backingObjects);
+        when(fileMappingRepository.findReferencedBackingStorageFileIds(Set.of(EXISTING_BACKING_STORE_FILE_ID)))
+            .thenReturn(Set.of(EXISTING_BACKING_STORE_FILE_ID));
+        var deletedBackingFiles = new ArrayList<Set<String>>();
+
+        var removed = backingObjectReferences.removeUnreferencedBackingObjects(EPHEMERAL, 10, deletedBackingFiles::add);
+
+        assertEquals(1, removed);
+        assertEquals(List.of(), deletedBackingFiles);
+        verify(backingObjectRepository).deleteAllInBatch(backingObjects);
+    }
+
+    @Test
+    void relocate_WillUpdateBackingObjectAndFileMappings() {
+        when(backingObjectRepository.updateBackingStorageFileId(EXISTING_BACKING_STORE_FILE_ID, UPLOADED_BACKING_STORE_FILE_ID))
+            .thenReturn(1);
+        when(fileMappingRepository.updateBackingStorageFileId(EXISTING_BACKING_STORE_FILE_ID, UPLOADED_BACKING_STORE_FILE_ID))
+            .thenReturn(2);
+
+        assertTrue(backingObjectReferences.relocate(EXISTING_BACKING_STORE_FILE_ID, UPLOADED_BACKING_STORE_FILE_ID));
+    }
+
+    @Test
+    void relocate_WillReportReference_WhenOnlyAnUnreferencedBackingObjectRefersToBackingFile() {
+        when(backingObjectRepository.updateBackingStorageFileId(EXISTING_BACKING_STORE_FILE_ID, UPLOADED_BACKING_STORE_FILE_ID))
+            .thenReturn(1);
+
+        assertTrue(backingObjectReferences.relocate(EXISTING_BACKING_STORE_FILE_ID, UPLOADED_BACKING_STORE_FILE_ID));
+        verify(fileMappingRepository).updateBackingStorageFileId(EXISTING_BACKING_STORE_FILE_ID, UPLOADED_BACKING_STORE_FILE_ID);
+    }
+
+    @Test
+    void relocate_WillReportNoReference_WhenNothingRefersToBackingFile() {
+        assertFalse(backingObjectReferences.relocate(EXISTING_BACKING_STORE_FILE_ID, UPLOADED_BACKING_STORE_FILE_ID));
+    }
+
+    private static PersistableFileMapping fileMapping(UUID fileId, String backingStorageFileId) {
+        return new PersistableFileMapping(fileId, EPHEMERAL, MONGO_GRID_FS, backingStorageFileId, SHA_256, SHA_512, FILE_SIZE, false);
+    }
+
+    private static PersistableBackingObject backingObject(String backingStorageFileId, long referenceCount) {
+        return new PersistableBackingObject(KEY, SHA_256, MONGO_GRID_FS, backingStorageFileId, FILE_SIZE, referenceCount);
+    }
+}
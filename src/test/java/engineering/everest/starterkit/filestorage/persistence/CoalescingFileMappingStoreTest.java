@@ -0,0 +1,154 @@
+package engineering.everest.starterkit.filestorage.persistence;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.time.Duration;
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import static engineering.everest.starterkit.filestorage.backing.BackingStorageType.MONGO_GRID_FS;
+import static engineering.everest.starterkit.filestorage.filestores.FileStoreType.EPHEMERAL;
+import static java.util.UUID.randomUUID;
+import static java.util.concurrent.Executors.newFixedThreadPool;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static java.util.stream.Collectors.toList;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyCollection;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.springframework.transaction.support.TransactionOperations.withoutTransaction;
+
+@ExtendWith(MockitoExtension.class)
+class CoalescingFileMappingStoreTest {
+
+    private static final int MAX_BATCH_SIZE = 3;
+
+    private CoalescingFileMappingStore coalescingFileMappingStore;
+    private ExecutorService uploaders;
+
+    @Mock
+    private FileMappingStore fileMappingStore;
+
+    @BeforeEach
+    void setUp() {
+        coalescingFileMappingStore = new CoalescingFileMappingStore(fileMappingStore, withoutTransaction(), Duration.ofMinutes(1),
+            MAX_BATCH_SIZE);
+        uploaders = newFixedThreadPool(MAX_BATCH_SIZE);
+    }
+
+    @AfterEach
+    void tearDown() {
+        uploaders.shutdownNow();
+        coalescingFileMappingStore.close();
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void insert_WillWriteConcurrentInsertsInOneBatch() throws Exception {
+        var fileMappings = List.of(fileMapping(), fileMapping(), fileMapping());
+
+        var inserts = fileMappings.stream().map(this::insertConcurrently).collect(toList());
+        for (var insert : inserts) {
+            insert.get(10, SECONDS);
+        }
+
+        var batch = ArgumentCaptor.forClass(Collection.class);
+        verify(fileMappingStore).insertAll(batch.capture());
+        assertEquals(Set.copyOf(fileMappings), Set.copyOf(batch.getValue()));
+        verify(fileMappingStore, never()).insert(any());
+    }
+
+    @Test
+    void insert_WillReportFailureOnlyToItsOwnCaller_WhenBatchFails() throws Exception {
+        var failingFileMapping = fileMapping();
+        var failure = new IllegalStateException("duplicate key");
+        doThrow(failure).when(fileMappingStore).insertAll(anyCollection());
+        doAnswer(invocation -> {
+            if (invocation.getArgument(0) == failingFileMapping) {
+                throw failure;
+            }
+            return null;
+        }).when(fileMappingStore).insert(any());
+
+        var failingInsert = insertConcurrently(failingFileMapping);
+        var otherInserts = List.of(insertConcurrently(fileMapping()), insertConcurrently(fileMapping()));
+
+        for (var insert : otherInserts) {
+            insert.get(10, SECONDS);
+        }
+        var exception = assertThrows(ExecutionException.class, () -> failingInsert.get(10, SECONDS));
+        assertInstanceOf(IllegalStateException.class, exception.getCause());
+    }
+
+    @Test
+    void insert_WillReportErrorToEveryCallerInBatch_AndKeepWriting() throws Exception {
+        var error = new StackOverflowError("batch failed");
+        doThrow(error).doNothing().when(fileMappingStore).insertAll(anyCollection());
+
+        var failedInsert = insertConcurrently(fileMapping());
+
+        var exception = assertThrows(ExecutionException.class, () -> failedInsert.get(10, SECONDS));
+        assertSame(error, exception.getCause());
+        insertConcurrently(fileMapping()).get(10, SECONDS);
+        verify(fileMappingStore, times(2)).insertAll(anyCollection());
+    }
+
+    @Test
+    void insert_WillWriteDirectlyToDelegate_WhenWriterStops() throws Exception {
+        doAnswer(invocation -> {
+            Thread.currentThread().interrupt();
+            return null;
+        }).when(fileMappingStore).insertAll(anyCollection());
+        insertConcurrently(fileMapping()).get(10, SECONDS);
+        var fileMapping = fileMapping();
+
+        insertConcurrently(fileMapping).get(10, SECONDS);
+
+        verify(fileMappingStore).insert(fileMapping);
+    }
+
+    @Test
+    void insert_WillWriteDirectlyToDelegate_WhenClosed() {
+        var fileMapping = fileMapping();
+        coalescingFileMappingStore.close();
+
+        coalescingFileMappingStore.insert(fileMapping);
+
+        verify(fileMappingStore).insert(fileMapping);
+    }
+
+    @Test
+    void findById_WillDelegate() {
+        var fileMapping = fileMapping();
+        when(fileMappingStore.findById(fileMapping.getFileId())).thenReturn(Optional.of(fileMapping));
+
+        assertEquals(Optional.of(fileMapping), coalescingFileMappingStore.findById(fileMapping.getFileId()));
+    }
+
+    private Future<?> insertConcurrently(PersistableFileMapping fileMapping) {
+        return uploaders.submit(() -> coalescingFileMappingStore.insert(fileMapping));
+    }
+
+    private static PersistableFileMapping fileMapping() {
+        return new PersistableFileMapping(randomUUID(), EPHEMERAL, MONGO_GRID_FS, "backing-file-id", "sha256", "sha512", 42L, false);
+    }
+}
@@ -0,0 +1,107 @@
+package engineering.everest.starterkit.filestorage.persistence;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.data.domain.PageRequest;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+
+import static engineering.everest.starterkit.filestorage.backing.BackingStorageType.MONGO_GRID_FS;
+import static engineering.everest.starterkit.filestorage.filestores.FileStoreType.EPHEMERAL;
+import static java.util.UUID.randomUUID;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class FileMappingClaimsTest {
+
+    private static final Instant NOW = Instant.parse("2023-01-01T00:00:00Z");
+    private static final Duration LEASE = Duration.ofMinutes(5);
+    private static final int BATCH_SIZE = 50;
+    private static final String CLAIMANT = "claimant";
+
+    private FileMappingClaims fileMappingClaims;
+
+    @Mock
+    private FileMappingRepository fileMappingRepository;
+
+    @BeforeEach
+    void setUp() {
+        fileMappingClaims = new FileMappingClaims(fileMappingRepository);
+    }
+
+    @Test
+    void claimFilesMarkedForDeletion_WillLeaseCandidatesAndReturnThoseClaimed() {
+        var candidate1 = fileMarkedForDeletion();
+        var candidate2 = fileMarkedForDeletion();
+        var candidateFileIds = List.of(candidate1.getFileId(), candidate2.getFileId());
+        when(fileMappingRepository.findUnclaimedFilesMarkedForDeletion(NOW, PageRequest.of(0, BATCH_SIZE)))
+            .thenReturn(List.of(candidate1, candidate2));
+        when(fileMappingRepository.claimForDeletion(eq(candidateFileIds), any(), eq(NOW.plus(LEASE)), eq(NOW))).thenAnswer(invocation -> {
+            candidate1.setDeletionClaimedBy("concurrent-claimant");
+            candidate2.setDeletionClaimedBy(invocation.getArgument(1));
+            return 1;
+        });
+        when(fileMappingRepository.findAllById(candidateFileIds)).thenReturn(List.of(candidate1, candidate2));
+
+        var claimedFiles = fileMappingClaims.claimFilesMarkedForDeletion(BATCH_SIZE, NOW, LEASE);
+
+        assertEquals(List.of(candidate2), claimedFiles);
+    }
+
+    @Test
+    void claimFilesMarkedForDeletion_WillNotUpdate_WhenNoFilesAreUnclaimed() {
+        when(fileMappingRepository.findUnclaimedFilesMarkedForDeletion(NOW, PageRequest.of(0, BATCH_SIZE))).thenReturn(List.of());
+
+        assertTrue(fileMappingClaims.claimFilesMarkedForDeletion(BATCH_SIZE, NOW, LEASE).isEmpty());
+        verify(fileMappingRepository, never()).claimForDeletion(any(), any(), any(), any());
+    }
+
+    @Test
+    void deleteClaimedFiles_WillOnlyDeleteFilesWhoseLeaseIsStillHeld() {
+        var held = claimedFileMarkedForDeletion();
+        var lost = claimedFileMarkedForDeletion();
+        when(fileMappingRepository.findClaimedForUpdate(List.of(held.getFileId(), lost.getFileId()), CLAIMANT, NOW))
+            .thenReturn(List.of(held));
+        var deletedFileMappings = new ArrayList<List<PersistableFileMapping>>();
+
+        var deletedFiles = fileMappingClaims.deleteClaimedFiles(List.of(held, lost), NOW, deletedFileMappings::add);
+
+        assertEquals(List.of(held), deletedFiles);
+        assertEquals(List.of(List.of(held)), deletedFileMappings);
+    }
+
+    @Test
+    void deleteClaimedFiles_WillDeleteNothing_WhenLeaseHasBeenLost() {
+        var lost = claimedFileMarkedForDeletion();
+        when(fileMappingRepository.findClaimedForUpdate(List.of(lost.getFileId()), CLAIMANT, NOW)).thenReturn(List.of());
+
+        var deletedFiles = fileMappingClaims.deleteClaimedFiles(List.of(lost), NOW, fileMappings -> {
+            throw new AssertionError("No file mappings should be deleted");
+        });
+
+        assertTrue(deletedFiles.isEmpty());
+    }
+
+    private static PersistableFileMapping claimedFileMarkedForDeletion() {
+        var fileMapping = fileMarkedForDeletion();
+        fileMapping.setDeletionClaimedBy(CLAIMANT);
+        fileMapping.setDeletionClaimExpiresAt(NOW.plus(LEASE));
+        return fileMapping;
+    }
+
+    private static PersistableFileMapping fileMarkedForDeletion() {
+        return new PersistableFileMapping(randomUUID(), EPHEMERAL, MONGO_GRID_FS, randomUUID().toString(), "sha256", "sha512", 1L, true);
+    }
+}
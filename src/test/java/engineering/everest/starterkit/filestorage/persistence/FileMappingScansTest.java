@@ -0,0 +1,105 @@
+package engineering.everest.starterkit.filestorage.persistence;
+
+import jakarta.persistence.EntityManagerFactory;
+import org.hibernate.SessionFactory;
+import org.hibernate.StatelessSession;
+import org.hibernate.Transaction;
+import org.hibernate.query.SelectionQuery;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.util.List;
+import java.util.stream.Stream;
+
+import static engineering.everest.starterkit.filestorage.backing.BackingStorageType.MONGO_GRID_FS;
+import static engineering.everest.starterkit.filestorage.filestores.FileStoreType.EPHEMERAL;
+import static java.util.UUID.randomUUID;
+import static java.util.stream.Collectors.toList;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class FileMappingScansTest {
+
+    private static final int FETCH_SIZE = 500;
+
+    private FileMappingScans fileMappingScans;
+
+    @Mock
+    private EntityManagerFactory entityManagerFactory;
+    @Mock
+    private SessionFactory sessionFactory;
+    @Mock
+    private StatelessSession session;
+    @Mock
+    private Transaction transaction;
+    @Mock
+    private SelectionQuery<PersistableFileMapping> query;
+    @Mock
+    private SelectionQuery<String> backingStorageFileIdQuery;
+
+    @BeforeEach
+    void setUp() {
+        fileMappingScans = new FileMappingScans(entityManagerFactory, FETCH_SIZE);
+        when(entityManagerFactory.unwrap(SessionFactory.class)).thenReturn(sessionFactory);
+        when(sessionFactory.openStatelessSession()).thenReturn(session);
+    }
+
+    @Test
+    void streamFilesMarkedForDeletion_WillStreamReadOnlyWithFetchSizeAndReleaseSessionWhenClosed() {
+        var fileMapping = new PersistableFileMapping(randomUUID(), EPHEMERAL, MONGO_GRID_FS, "backing-id", "sha256", "sha512", 42L, true);
+        when(session.createSelectionQuery(anyString(), eq(PersistableFileMapping.class))).thenReturn(query);
+        when(query.setParameter("value", EPHEMERAL)).thenReturn(query);
+        when(query.setFetchSize(FETCH_SIZE)).thenReturn(query);
+        when(query.setReadOnly(true)).thenReturn(query);
+        when(query.stream()).thenReturn(Stream.of(fileMapping));
+        when(session.getTransaction()).thenReturn(transaction);
+        when(transaction.isActive()).thenReturn(true);
+
+        try (var fileMappings = fileMappingScans.streamFilesMarkedForDeletion(EPHEMERAL)) {
+            assertEquals(List.of(fileMapping), fileMappings.collect(toList()));
+            verify(session, never()).close();
+        }
+
+        var inOrder = inOrder(session, transaction);
+        inOrder.verify(session).beginTransaction();
+        inOrder.verify(transaction).rollback();
+        inOrder.verify(session).close();
+    }
+
+    @Test
+    void streamBackingStorageFileIdsStartingWith_WillMatchPrefixWithinFileStoreType() {
+        when(session.createSelectionQuery(anyString(), eq(String.class))).thenReturn(backingStorageFileIdQuery);
+        when(backingStorageFileIdQuery.setFetchSize(FETCH_SIZE)).thenReturn(backingStorageFileIdQuery);
+        when(backingStorageFileIdQuery.setReadOnly(true)).thenReturn(backingStorageFileIdQuery);
+        when(backingStorageFileIdQuery.stream()).thenReturn(Stream.of("pack:segment:8:4"));
+        when(session.getTransaction()).thenReturn(transaction);
+
+        try (var backingStorageFileIds = fileMappingScans.streamBackingStorageFileIdsStartingWith(EPHEMERAL, "pack:")) {
+            assertEquals(List.of("pack:segment:8:4"), backingStorageFileIds.collect(toList()));
+        }
+
+        verify(backingStorageFileIdQuery).setParameter("fileStoreType", EPHEMERAL);
+        verify(backingStorageFileIdQuery).setParameter("prefix", "pack:%");
+        verify(session).close();
+    }
+
+    @Test
+    void streamByFileStoreType_WillReleaseSession_WhenQueryFails() {
+        when(session.createSelectionQuery(anyString(), eq(PersistableFileMapping.class)))
+            .thenThrow(new IllegalArgumentException("bad query"));
+        when(session.getTransaction()).thenReturn(transaction);
+
+        assertThrows(IllegalArgumentException.class, () -> fileMappingScans.streamByFileStoreType(EPHEMERAL));
+        verify(session).close();
+    }
+}
@@ -0,0 +1,99 @@
+package engineering.everest.starterkit.filestorage.persistence;
+
+import com.zaxxer.hikari.HikariDataSource;
+import jakarta.persistence.EntityManagerFactory;
+import lombok.extern.slf4j.Slf4j;
+import org.hibernate.boot.model.naming.CamelCaseToUnderscoresNamingStrategy;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.jpa.repository.support.JpaRepositoryFactory;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.orm.jpa.JpaTransactionManager;
+import org.springframework.orm.jpa.LocalContainerEntityManagerFactoryBean;
+import org.springframework.orm.jpa.SharedEntityManagerCreator;
+import org.springframework.orm.jpa.vendor.HibernateJpaVendorAdapter;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.Map;
+
+import static engineering.everest.starterkit.filestorage.backing.BackingStorageType.MONGO_GRID_FS;
+import static engineering.everest.starterkit.filestorage.filestores.FileStoreType.EPHEMERAL;
+import static java.lang.System.nanoTime;
+import static java.util.UUID.randomUUID;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Compares the cost of inserting single file mappings through JPA, which merges and so selects each row before inserting it, with
+ * plain JDBC inserts, each in its own transaction against an in-memory H2 database. Run with {@code ./gradlew benchmark}.
+ */
+@Slf4j
+@Tag("benchmark")
+class FileMappingStoreInsertBenchmark {
+
+    private static final int WARM_UP_INSERTS = 2_000;
+    private static final int MEASURED_INSERTS = 20_000;
+
+    private HikariDataSource dataSource;
+    private EntityManagerFactory entityManagerFactory;
+    private TransactionTemplate transactionTemplate;
+    private JdbcTemplate jdbcTemplate;
+    private JpaFileMappingStore jpaFileMappingStore;
+    private JdbcFileMappingStore jdbcFileMappingStore;
+
+    @BeforeEach
+    void setUp() {
+        dataSource = new HikariDataSource();
+        dataSource.setJdbcUrl("jdbc:h2:mem:" + randomUUID() + ";DB_CLOSE_DELAY=-1");
+
+        var entityManagerFactoryBean = new LocalContainerEntityManagerFactoryBean();
+        entityManagerFactoryBean.setDataSource(dataSource);
+        entityManagerFactoryBean.setJpaVendorAdapter(new HibernateJpaVendorAdapter());
+        entityManagerFactoryBean.setPackagesToScan(PersistableFileMapping.class.getPackageName());
+        entityManagerFactoryBean.setJpaPropertyMap(Map.of(
+            "hibernate.hbm2ddl.auto", "create",
+            "hibernate.physical_naming_strategy", CamelCaseToUnderscoresNamingStrategy.class.getName()));
+        entityManagerFactoryBean.afterPropertiesSet();
+        entityManagerFactory = entityManagerFactoryBean.getObject();
+
+        var transactionManager = new JpaTransactionManager(entityManagerFactory);
+        transactionManager.setDataSource(dataSource);
+        transactionTemplate = new TransactionTemplate(transactionManager);
+        jdbcTemplate = new JdbcTemplate(dataSource);
+
+        var entityManager = SharedEntityManagerCreator.createSharedEntityManager(entityManagerFactory);
+        jpaFileMappingStore = new JpaFileMappingStore(new JpaRepositoryFactory(entityManager).getRepository(FileMappingRepository.class));
+        jdbcFileMappingStore = new JdbcFileMappingStore(jdbcTemplate);
+    }
+
+    @AfterEach
+    void tearDown() {
+        entityManagerFactory.close();
+        dataSource.close();
+    }
+
+    @Test
+    void insert() {
+        insertRepeatedly(jpaFileMappingStore, WARM_UP_INSERTS);
+        insertRepeatedly(jdbcFileMappingStore, WARM_UP_INSERTS);
+
+        var jpaNanos = insertRepeatedly(jpaFileMappingStore, MEASURED_INSERTS);
+        var jdbcNanos = insertRepeatedly(jdbcFileMappingStore, MEASURED_INSERTS);
+
+        LOGGER.info("JPA insert: {} us, JDBC insert: {} us, per file mapping over {} inserts",
+            jpaNanos / 1_000 / MEASURED_INSERTS, jdbcNanos / 1_000 / MEASURED_INSERTS, MEASURED_INSERTS);
+        assertEquals(2L * (WARM_UP_INSERTS + MEASURED_INSERTS),
+            jdbcTemplate.queryForObject("select count(*) from filemapping", Long.class));
+    }
+
+    private long insertRepeatedly(FileMappingStore fileMappingStore, int inserts) {
+        var startTime = nanoTime();
+        for (var i = 0; i < inserts; i++) {
+            var fileMapping = new PersistableFileMapping(randomUUID(), EPHEMERAL, MONGO_GRID_FS, randomUUID().toString(), "sha256",
+                "sha512", 42L, false);
+            transactionTemplate.executeWithoutResult(status -> fileMappingStore.insert(fileMapping));
+        }
+        return nanoTime() - startTime;
+    }
+}
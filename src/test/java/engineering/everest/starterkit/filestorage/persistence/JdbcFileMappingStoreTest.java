@@ -0,0 +1,138 @@
+package engineering.everest.starterkit.filestorage.persistence;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.ParameterizedPreparedStatementSetter;
+import org.springframework.jdbc.core.PreparedStatementCreator;
+import org.springframework.jdbc.core.PreparedStatementSetter;
+import org.springframework.jdbc.core.RowMapper;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.time.Instant;
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+
+import static engineering.everest.starterkit.filestorage.backing.BackingStorageType.INLINE;
+import static engineering.everest.starterkit.filestorage.backing.BackingStorageType.MONGO_GRID_FS;
+import static engineering.everest.starterkit.filestorage.filestores.FileStoreType.EPHEMERAL;
+import static java.util.UUID.randomUUID;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class JdbcFileMappingStoreTest {
+
+    private static final Instant EXPIRES_AT = Instant.parse("2023-01-01T00:00:00Z");
+
+    private JdbcFileMappingStore jdbcFileMappingStore;
+
+    @Mock
+    private JdbcTemplate jdbcTemplate;
+    @Mock
+    private Connection connection;
+    @Mock
+    private PreparedStatement preparedStatement;
+    @Mock
+    private ResultSet resultSet;
+
+    @BeforeEach
+    void setUp() {
+        jdbcFileMappingStore = new JdbcFileMappingStore(jdbcTemplate);
+    }
+
+    @Test
+    void insert_WillBindEveryColumnOfASingleInsert() throws SQLException {
+        var fileMapping = fileMapping(randomUUID());
+        var setter = ArgumentCaptor.forClass(PreparedStatementSetter.class);
+
+        jdbcFileMappingStore.insert(fileMapping);
+
+        verify(jdbcTemplate).update(eq("insert into filemapping (file_id, file_store_type, backing_storage_type, "
+            + "backing_storage_file_id, sha256, sha512, file_size_bytes, marked_for_deletion, inline_content, deletion_claimed_by, "
+            + "deletion_claim_expires_at, expires_at) values (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)"), setter.capture());
+        setter.getValue().setValues(preparedStatement);
+        verify(preparedStatement).setObject(1, fileMapping.getFileId());
+        verify(preparedStatement).setInt(2, EPHEMERAL.ordinal());
+        verify(preparedStatement).setInt(3, MONGO_GRID_FS.ordinal());
+        verify(preparedStatement).setString(4, "backing-file-id");
+        verify(preparedStatement).setObject(7, 42L, Types.BIGINT);
+        verify(preparedStatement).setBoolean(8, false);
+        verify(preparedStatement).setTimestamp(11, null);
+        verify(preparedStatement).setTimestamp(12, Timestamp.from(EXPIRES_AT));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void insertAll_WillInsertFileMappingsInOneBatch() {
+        var fileMappings = List.of(fileMapping(randomUUID()), fileMapping(randomUUID()));
+
+        jdbcFileMappingStore.insertAll(fileMappings);
+
+        verify(jdbcTemplate).batchUpdate(anyString(), eq(fileMappings), eq(2), any(ParameterizedPreparedStatementSetter.class));
+    }
+
+    @Test
+    void insertAll_WillDoNothing_WhenThereAreNoFileMappings() {
+        jdbcFileMappingStore.insertAll(List.of());
+
+        verifyNoInteractions(jdbcTemplate);
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void findById_WillMapEveryColumn() throws SQLException {
+        var fileId = randomUUID();
+        var rowMapper = ArgumentCaptor.forClass(RowMapper.class);
+        when(jdbcTemplate.query(anyString(), rowMapper.capture(), eq(fileId))).thenReturn(List.of());
+        when(resultSet.getObject("file_id", UUID.class)).thenReturn(fileId);
+        when(resultSet.getInt("file_store_type")).thenReturn(EPHEMERAL.ordinal());
+        when(resultSet.getInt("backing_storage_type")).thenReturn(MONGO_GRID_FS.ordinal());
+        when(resultSet.getString("backing_storage_file_id")).thenReturn("backing-file-id");
+        when(resultSet.getString("sha256")).thenReturn("sha256");
+        when(resultSet.getString("sha512")).thenReturn("sha512");
+        when(resultSet.getObject("file_size_bytes", Long.class)).thenReturn(42L);
+        when(resultSet.getTimestamp("expires_at")).thenReturn(Timestamp.from(EXPIRES_AT));
+
+        assertEquals(Optional.empty(), jdbcFileMappingStore.findById(fileId));
+        assertEquals(fileMapping(fileId), rowMapper.getValue().mapRow(resultSet, 0));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void findBackedFileMappingWithHashes_WillFetchAtMostOneRowExcludingInlineFiles() throws SQLException {
+        var fileMapping = fileMapping(randomUUID());
+        var statementCreator = ArgumentCaptor.forClass(PreparedStatementCreator.class);
+        when(jdbcTemplate.query(statementCreator.capture(), any(RowMapper.class))).thenReturn(List.of(fileMapping));
+        when(connection.prepareStatement(anyString())).thenReturn(preparedStatement);
+
+        assertEquals(Optional.of(fileMapping), jdbcFileMappingStore.findBackedFileMappingWithHashes("sha256", "sha512"));
+
+        statementCreator.getValue().createPreparedStatement(connection);
+        verify(preparedStatement).setMaxRows(1);
+        verify(preparedStatement).setString(1, "sha256");
+        verify(preparedStatement).setString(2, "sha512");
+        verify(preparedStatement).setInt(3, INLINE.ordinal());
+    }
+
+    private static PersistableFileMapping fileMapping(UUID fileId) {
+        var fileMapping = new PersistableFileMapping(fileId, EPHEMERAL, MONGO_GRID_FS, "backing-file-id", "sha256", "sha512", 42L, false);
+        fileMapping.setExpiresAt(EXPIRES_AT);
+        return fileMapping;
+    }
+}